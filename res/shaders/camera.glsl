@@ -0,0 +1,9 @@
+// Per-frame camera data (std140, binding 0), written by Renderer. Included by every shader that reads it.
+layout(std140, binding = 0) uniform Camera
+{
+    mat4 view;
+    mat4 projection;
+    vec4 viewPos; // xyz = camera position
+    mat4 viewProjectionNoJitter; // view and projection without the temporal jitter
+    mat4 previousViewProjection; // the previous frame's, without jitter
+};
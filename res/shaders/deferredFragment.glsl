@@ -0,0 +1,32 @@
+#version 460 core
+
+#include "lighting.glsl"
+#include "octahedral.glsl"
+
+in vec2 vTexCoords;
+
+// The G-buffer written by gbufferFragment.glsl and the scene depth.
+uniform sampler2D gAlbedoAO;
+uniform sampler2D gNormalMaterial;
+uniform sampler2D gDepth;
+uniform mat4 uInverseViewProjection;
+
+out vec4 FragColor;
+
+void main()
+{
+    float depth = texture(gDepth, vTexCoords).r;
+    // Nothing was drawn here; the skybox shows through.
+    if (depth >= 1.0)
+    discard;
+
+    // World-space position from the window position and depth.
+    vec4 world = uInverseViewProjection * vec4(vec3(vTexCoords, depth) * 2.0 - 1.0, 1.0);
+    vec3 fragPos = world.xyz / world.w;
+
+    vec4 albedoAO = texture(gAlbedoAO, vTexCoords);
+    vec4 normalMaterial = texture(gNormalMaterial, vTexCoords);
+    vec3 N = octDecode(normalMaterial.xy * 2.0 - 1.0);
+
+    FragColor = vec4(shadeSurface(fragPos, gl_FragCoord.xy, N, albedoAO.rgb, normalMaterial.z, normalMaterial.w, albedoAO.a), 1.0);
+}
@@ -0,0 +1,21 @@
+#version 460 core
+
+#include "lightingBlock.glsl"
+
+// One invocation per cascade; each copies the triangle into its own layer of the shadow map array.
+layout (triangles, invocations = MAX_CASCADES) in;
+layout (triangle_strip, max_vertices = 3) out;
+
+// Cascades each instance reaches, one bit per cascade; culled on the CPU against each cascade frustum.
+flat in int vViewMask[];
+
+void main() {
+    if (gl_InvocationID >= lightCounts.w || (vViewMask[0] & (1 << gl_InvocationID)) == 0)
+    return;
+    for (int i = 0; i < 3; ++i) {
+        gl_Layer = gl_InvocationID;
+        gl_Position = cascadeMatrices[gl_InvocationID] * gl_in[i].gl_Position;
+        EmitVertex();
+    }
+    EndPrimitive();
+}
@@ -4,27 +4,28 @@ layout(location = 0) in vec3 inPosition;
 layout(location = 1) in vec3 inNormal;    // Vertex normal.
 layout(location = 2) in vec2 inTexCoords; // Texture coordinates.
 
-uniform mat4 model;
-uniform mat4 lightSpaceMatrix;
+#include "instances.glsl"
 
-// Uniforms for displacement.
+// Height map for displacement; scale and tiling come from the instance.
 uniform sampler2D uHeightMap;
-uniform float uHeightScale;
 
-// Uniforms for tiling the height map.
-uniform float uScaleX;
-uniform float uScaleY;
+// Cascades the instance reaches, for the geometry shader.
+flat out int vViewMask;
 
 void main() {
+    Instance instance = instances[gl_BaseInstance + gl_InstanceID];
+    mat4 model = instance.model;
+    vViewMask = floatBitsToInt(instance.tiling.z);
+
     // Apply scaling to the texture coordinates.
-    vec2 scaledTexCoords = inTexCoords * vec2(uScaleX, uScaleY);
+    vec2 scaledTexCoords = inTexCoords * instance.tiling.xy;
 
     // Sample the grayscale height using the scaled texture coordinates.
     float height = texture(uHeightMap, scaledTexCoords).r;
 
     // Displace the vertex position along its normal.
-    vec3 displacedPos = inPosition + inNormal * (height * uHeightScale);
+    vec3 displacedPos = inPosition + inNormal * (height * instance.material.z);
 
-    // Transform the displaced position.
-    gl_Position = lightSpaceMatrix * model * vec4(displacedPos, 1.0);
+    // Output the world-space position; the geometry shader projects it into every cascade.
+    gl_Position = model * vec4(displacedPos, 1.0);
 }
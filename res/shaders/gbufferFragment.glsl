@@ -0,0 +1,27 @@
+#version 460 core
+
+#include "surface.glsl"
+#include "octahedral.glsl"
+#include "motion.glsl"
+
+// G-buffer layout, must match the targets Renderer.buildGraph declares:
+// 0: RGBA8  rgb = albedo, a = ambient occlusion
+// 1: RGBA16 xy = octahedral normal remapped to [0, 1], z = metallic, w = roughness
+// 2: RG16F  screen-space motion, only attached while temporal upsampling is on
+layout (location = 0) out vec4 gAlbedoAO;
+layout (location = 1) out vec4 gNormalMaterial;
+layout (location = 2) out vec2 gMotion;
+
+void main()
+{
+    vec3 albedo;
+    float metallic;
+    float roughness;
+    float ao;
+    vec3 N;
+    sampleSurface(albedo, metallic, roughness, ao, N);
+
+    gAlbedoAO = vec4(albedo, ao);
+    gNormalMaterial = vec4(octEncode(N) * 0.5 + 0.5, metallic, roughness);
+    gMotion = motionVector();
+}
@@ -0,0 +1,14 @@
+// Per-draw data written by InstanceBuffer (std430, binding 0), indexed by gl_BaseInstance + gl_InstanceID.
+// The layout must match InstanceBuffer. Included by every shader that reads it.
+struct Instance
+{
+    mat4 model;
+    vec4 albedoColor; // rgb = albedo tint, a = normal map strength
+    vec4 material;    // x = metallic, y = roughness, z = height scale
+    vec4 tiling;      // xy = texture tiling, z = view mask (int bits), w = draw index in its queue (int bits)
+    mat4 previousModel; // model of the previous frame, for motion vectors
+};
+layout(std430, binding = 0) readonly buffer InstanceData
+{
+    Instance instances[];
+};
@@ -0,0 +1,217 @@
+// Shared lighting of the scene shaders: the frame's camera and light data, shadow lookups and the
+// PBR BRDF. Included by the forward fragment shader and the deferred lighting pass.
+
+#include "camera.glsl"
+
+uniform float lightStrength = 0.01;
+
+// IBL Environment Maps
+uniform samplerCube irradianceMap;  // Diffuse IBL
+uniform samplerCube prefilterMap;   // Specular IBL
+uniform sampler2D brdfLUT;          // BRDF LUT for Fresnel-Schlick
+
+#include "lightingBlock.glsl"
+
+// Point lights and the lights reaching each cluster, filled by lightClusters.comp (std430, bindings 1-3).
+layout(std430, binding = 1) readonly buffer PointLights
+{
+    PointLight pointLights[];
+};
+layout(std430, binding = 2) readonly buffer ClusterLightCounts
+{
+    uint clusterLightCounts[];
+};
+layout(std430, binding = 3) readonly buffer ClusterLightIndices
+{
+    uint clusterLightIndices[];
+};
+
+// Cascaded shadow maps for the main directional light, one layer per cascade
+uniform sampler2DArrayShadow shadowMap;
+// Distance cube map arrays of the point shadow atlas, one per resolution tier
+uniform samplerCubeArray pointShadowTiers[SHADOW_TIERS];
+
+const float PI = 3.14159265359;
+
+// ----- Directional Shadow Calculation (cascaded, PCF) -----
+float calculateShadow(vec3 fragPos, vec3 normal, vec3 lightDir)
+{
+    int cascadeCount = lightCounts.w;
+    if (cascadeCount == 0)
+    return 0.0;
+
+    // Pick the first cascade whose slice contains the fragment.
+    float viewDepth = abs((view * vec4(fragPos, 1.0)).z);
+    int cascade = 0;
+    while (cascade < cascadeCount - 1 && viewDepth > cascadeSplits[cascade])
+    cascade++;
+    if (viewDepth > cascadeSplits[cascadeCount - 1])
+    return 0.0;
+
+    vec4 fragPosLightSpace = cascadeMatrices[cascade] * vec4(fragPos, 1.0);
+    vec3 projCoords = fragPosLightSpace.xyz / fragPosLightSpace.w;
+    projCoords = projCoords * 0.5 + 0.5;
+    if (projCoords.z > 1.0)
+    return 0.0;
+    // Farther cascades cover more world space per texel, so they need less depth bias.
+    float bias = max(0.005 * (1.0 - dot(normal, lightDir)), 0.001) / float(cascade + 1);
+    // A square of taps around the fragment, (2 * radius + 1)^2 of them; each is a 2x2 hardware PCF.
+    int radius = lightCounts.z;
+    float lit = 0.0;
+    vec2 texelSize = 1.0 / vec2(textureSize(shadowMap, 0).xy);
+    for (int x = -radius; x <= radius; ++x)
+    {
+        for (int y = -radius; y <= radius; ++y)
+        {
+            lit += texture(shadowMap, vec4(projCoords.xy + vec2(x, y) * texelSize, float(cascade), projCoords.z - bias));
+        }
+    }
+    float taps = float((2 * radius + 1) * (2 * radius + 1));
+    return 1.0 - lit / taps;
+}
+
+// ----- Point Shadow Calculation -----
+// The cube map stores the fragment-to-light distance divided by the far plane.
+float calculatePointShadow(int index, vec3 fragPos)
+{
+    int shadowSlot = floatBitsToInt(pointLights[index].attenuation.w);
+    if (shadowSlot < 0)
+    return 0.0;
+    vec3 fragToLight = fragPos - pointLights[index].position.xyz;
+    float farPlane = pointLights[index].position.w;
+    float currentDepth = length(fragToLight);
+    if (currentDepth > farPlane)
+    return 0.0;
+    int tier = shadowSlot >> SHADOW_SLOT_BITS;
+    float cube = float(shadowSlot & ((1 << SHADOW_SLOT_BITS) - 1));
+    // Sampler arrays may only be indexed with dynamically uniform values, so each tier gets its own branch.
+    float closestDepth;
+    switch (tier)
+    {
+        case 0: closestDepth = texture(pointShadowTiers[0], vec4(fragToLight, cube)).r; break;
+        case 1: closestDepth = texture(pointShadowTiers[1], vec4(fragToLight, cube)).r; break;
+        case 2: closestDepth = texture(pointShadowTiers[2], vec4(fragToLight, cube)).r; break;
+        default: closestDepth = texture(pointShadowTiers[3], vec4(fragToLight, cube)).r; break;
+    }
+    closestDepth *= farPlane;
+    float bias = 0.05;
+    return currentDepth - bias > closestDepth ? 1.0 : 0.0;
+}
+
+// Index of the cluster containing the fragment at a window position.
+uint clusterIndex(vec3 fragPos, vec2 fragCoord)
+{
+    uvec3 grid = uvec3(clusterGrid.xyz);
+    float viewDepth = max(-(view * vec4(fragPos, 1.0)).z, clusterDepth.x);
+    uvec2 tile = min(uvec2(fragCoord * clusterScreen.xy * vec2(grid.xy)), grid.xy - 1u);
+    uint slice = uint(clamp(log(viewDepth) * clusterDepth.z + clusterDepth.w, 0.0, float(grid.z - 1u)));
+    return tile.x + grid.x * (tile.y + grid.y * slice);
+}
+
+// --- PBR helper functions ---
+
+float DistributionGGX(vec3 N, vec3 H, float roughness)
+{
+    float a2 = roughness * roughness * roughness * roughness;
+    float NdotH = max(dot(N, H), 0.0);
+    float denom = (NdotH * NdotH * (a2 - 1.0) + 1.0);
+    return a2 / (PI * denom * denom);
+}
+
+float GeometrySchlickGGX(float NdotV, float roughness)
+{
+    float r = roughness + 1.0;
+    float k = (r * r) / 8.0;
+    return NdotV / (NdotV * (1.0 - k) + k);
+}
+
+float GeometrySmith(vec3 N, vec3 V, vec3 L, float roughness)
+{
+    float NdotL = max(dot(N, L), 0.0);
+    float NdotV = max(dot(N, V), 0.0);
+    return GeometrySchlickGGX(NdotV, roughness) * GeometrySchlickGGX(NdotL, roughness);
+}
+
+vec3 FresnelSchlick(float cosTheta, vec3 F0)
+{
+    return F0 + (1.0 - F0) * pow(1.0 - cosTheta, 5.0);
+}
+
+// Cook-Torrance BRDF for one light, returning its outgoing radiance (before shadowing).
+vec3 evaluateLight(vec3 N, vec3 V, vec3 L, vec3 radiance, vec3 albedo, float metallic, float roughness, vec3 F0)
+{
+    vec3 H = normalize(V + L);
+
+    float NdotL = max(dot(N, L), 0.0);
+    float D = DistributionGGX(N, H, roughness);
+    float G = GeometrySmith(N, V, L, roughness);
+    vec3 F = FresnelSchlick(max(dot(H, V), 0.0), F0);
+
+    vec3 numerator = D * G * F;
+    float denominator = 4.0 * max(dot(N, V), 0.0) * NdotL + 0.001;
+    vec3 specular = numerator / denominator;
+
+    vec3 kS = F;
+    vec3 kD = (vec3(1.0) - kS) * (1.0 - metallic);
+    vec3 diffuse = kD * albedo / PI;
+    return (diffuse + specular) * radiance * NdotL;
+}
+
+// Full lighting of a surface point: image-based ambient, the directional lights (the first one with
+// cascaded shadows) and the point lights of its cluster, tone mapped and gamma corrected.
+vec3 shadeSurface(vec3 fragPos, vec2 fragCoord, vec3 N, vec3 albedo, float metallic, float roughness, float ao)
+{
+    // --- View Direction ---
+    vec3 V = normalize(viewPos.xyz - fragPos);
+    vec3 F0 = mix(vec3(0.04), albedo, metallic);
+
+    vec3 Lo = vec3(0.0);
+
+    // IBL: Diffuse Indirect Lighting
+    vec3 irradiance = texture(irradianceMap, N).rgb;
+    vec3 diffuseIBL = irradiance * albedo;
+
+    // IBL: Specular Indirect Lighting
+    vec3 R = reflect(-V, N);
+    float roughnessLevel = roughness * 4.0;
+    vec3 prefilteredColor = textureLod(prefilterMap, R, roughnessLevel).rgb;
+    vec2 brdf = texture(brdfLUT, vec2(max(dot(N, V), 0.0), roughness)).rg;
+
+    vec3 specularIBL = prefilteredColor * (F0 * brdf.x + brdf.y);
+
+    // --- Directional Lights ---
+    for (int i = 0; i < lightCounts.x; ++i)
+    {
+        vec3 L = normalize(-directionalLights[i].direction.xyz);
+        vec3 radiance = directionalLights[i].color.rgb * directionalLights[i].color.a * lightStrength;
+
+        float shadow = (i == 0 ? calculateShadow(fragPos, N, L) : 0.0);
+        Lo += evaluateLight(N, V, L, radiance, albedo, metallic, roughness, F0) * (1.0 - shadow);
+    }
+
+    // --- Point Lights ---
+    // Only the lights whose range reaches this fragment's cluster.
+    uint cluster = clusterIndex(fragPos, fragCoord);
+    uint clusterLightCount = clusterLightCounts[cluster];
+    uint firstLight = cluster * uint(clusterGrid.w);
+    for (uint j = 0u; j < clusterLightCount; ++j)
+    {
+        int i = int(clusterLightIndices[firstLight + j]);
+        vec3 toLight = pointLights[i].position.xyz - fragPos;
+        float distance = length(toLight);
+        vec3 L = toLight / distance;
+        vec3 att = pointLights[i].attenuation.xyz;
+        float attenuation = 1.0 / (att.x + att.y * distance + att.z * distance * distance);
+        vec3 radiance = pointLights[i].color.rgb * pointLights[i].color.a * lightStrength * attenuation;
+
+        float shadow = calculatePointShadow(i, fragPos);
+        Lo += evaluateLight(N, V, L, radiance, albedo, metallic, roughness, F0) * (1.0 - shadow);
+    }
+
+    vec3 ambient = (diffuseIBL + specularIBL) * ao;
+    vec3 color = Lo + ambient;
+
+    // HDR tonemapping and gamma correction
+    color = color / (color + vec3(1.0));
+    return pow(color, vec3(1.0 / 2.2));
+}
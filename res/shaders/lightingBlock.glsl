@@ -0,0 +1,31 @@
+// The frame's light data, written by Renderer and LightClusters. Included by every shader that reads
+// it, so the layouts only exist once.
+
+// Lights (std140, binding 1). Array sizes must match the constants in Renderer.
+#define MAX_DIR_LIGHTS 10
+#define MAX_CASCADES 4
+struct DirectionalLight {
+    vec4 direction; // xyz = direction the light travels towards the scene
+    vec4 color;     // rgb = color, a = strength
+};
+layout(std140, binding = 1) uniform Lighting
+{
+    mat4 cascadeMatrices[MAX_CASCADES];
+    vec4 cascadeSplits; // View-space distance at which each cascade ends
+    ivec4 lightCounts;  // x = directional, y = point, z = shadow filter radius, w = cascade count
+    DirectionalLight directionalLights[MAX_DIR_LIGHTS];
+    ivec4 clusterGrid;  // xyz = clusters per axis, w = max lights per cluster
+    vec4 clusterDepth;  // x = near, y = far, z = slice scale, w = slice bias
+    vec4 clusterScreen; // xy = 1 / viewport size
+};
+
+// Point lights, uploaded by LightClusters to the PointLights buffer (std430, binding 1). The buffer
+// itself is declared by the shaders that read it, since geometry shaders need not support buffers.
+// Point shadow atlas tiers; a light's shadow slot is encoded as tier << SHADOW_SLOT_BITS | cube.
+#define SHADOW_TIERS 4
+#define SHADOW_SLOT_BITS 10
+struct PointLight {
+    vec4 position;    // xyz = world position, w = range (also the shadow far plane)
+    vec4 color;       // rgb = color, a = strength
+    vec4 attenuation; // x = constant, y = linear, z = quadratic, w = encoded shadow slot (-1 = none)
+};
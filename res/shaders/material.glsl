@@ -0,0 +1,49 @@
+// Material maps of the draw being shaded, and how a surface point samples them. Texture derivatives
+// are explicit so passes without screen-space derivatives (the visibility buffer resolve) can share it.
+
+// Material maps and parameters
+uniform sampler2D uAlbedo;
+uniform sampler2D uNormal;
+uniform sampler2D uMetallic;
+uniform sampler2D uRoughness;
+uniform sampler2D uAO;
+
+// --- New Normal Mapping Implementation ---
+// This function rebuilds the TBN matrix from the position and texture coordinate derivatives.
+vec3 getNormalFromMap(vec3 vertexNormal, vec2 texCoords, vec3 dPdx, vec3 dPdy, vec2 dUVdx, vec2 dUVdy)
+{
+    // Sample the tangent-space normal and remap from [0,1] to [-1,1]
+    vec3 tangentNormal = textureGrad(uNormal, texCoords, dUVdx, dUVdy).rgb;
+    tangentNormal = tangentNormal * 2.0 - 1.0;
+
+    // Use the interpolated normal from the vertex shader.
+    vec3 N = normalize(vertexNormal);
+    // Compute tangent vector.
+    vec3 T = normalize(dPdx * dUVdy.t - dPdy * dUVdx.t);
+    // Compute bitangent with a negative sign to match the tutorial’s handedness.
+    vec3 B = -normalize(cross(N, T));
+    // Construct the TBN matrix.
+    mat3 TBN = mat3(T, B, N);
+
+    // Transform the sampled normal to world space.
+    return normalize(TBN * tangentNormal);
+}
+
+// Samples the material and normal of a surface point, given its interpolated attributes, their
+// per-pixel derivatives and the instance's material parameters.
+void sampleMaterial(vec3 vertexNormal, vec2 texCoords, vec3 dPdx, vec3 dPdy, vec2 dUVdx, vec2 dUVdy,
+                    vec4 albedoColor, vec2 metallicRoughness,
+                    out vec3 albedo, out float metallic, out float roughness, out float ao, out vec3 N)
+{
+    // --- Material ---
+    albedo = textureGrad(uAlbedo, texCoords, dUVdx, dUVdy).rgb * albedoColor.rgb;
+    metallic = textureGrad(uMetallic, texCoords, dUVdx, dUVdy).r * metallicRoughness.x;
+    roughness = textureGrad(uRoughness, texCoords, dUVdx, dUVdy).r * metallicRoughness.y;
+    ao = textureGrad(uAO, texCoords, dUVdx, dUVdy).r;
+    roughness = clamp(roughness, 0.0, 1.0);
+
+    // --- Normal Mapping ---
+    // Blend between the vertex normal and the derivative-based mapped normal.
+    vec3 normalFromMap = getNormalFromMap(vertexNormal, texCoords, dPdx, dPdy, dUVdx, dUVdy);
+    N = normalize(mix(vertexNormal, normalFromMap, albedoColor.a));
+}
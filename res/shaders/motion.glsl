@@ -0,0 +1,12 @@
+// Screen-space motion of a mesh fragment, for temporal upsampling. Included by the forward and
+// G-buffer fragment shaders, after vertex.glsl.
+
+in vec4 vClipPosition;
+in vec4 vPreviousClipPosition;
+
+// Where the fragment moved since the previous frame, in texture coordinates (current minus previous).
+// Both positions are unjittered, so a still surface has no motion under a still camera.
+vec2 motionVector()
+{
+    return (vClipPosition.xy / vClipPosition.w - vPreviousClipPosition.xy / vPreviousClipPosition.w) * 0.5;
+}
@@ -1,13 +1,18 @@
 #version 460 core
 in vec4 FragPos;
 
-uniform vec3 lightPos; // Ensure you pass the actual point light's world position here.
-uniform float farPlane;
+// Face matrices of the light being rendered (std140, binding 2), bound by range per shadow update.
+layout(std140, binding = 2) uniform PointShadow
+{
+    mat4 shadowMatrices[6]; // Built with lookAtLH and the canonical up vectors
+    vec4 lightPosFar;       // xyz = light position, w = far plane
+    ivec4 target;           // x = first layer of the cube slot in the shadow atlas tier
+};
 
 void main() {
     // Compute distance from the fragment to the light position.
-    float lightDistance = length(FragPos.xyz - lightPos);
+    float lightDistance = length(FragPos.xyz - lightPosFar.xyz);
     // Normalize the distance to the [0, 1] range for depth comparison.
-    lightDistance = lightDistance / farPlane;
+    lightDistance = lightDistance / lightPosFar.w;
     gl_FragDepth = lightDistance;
 }
@@ -3,14 +3,27 @@
 layout (triangles) in;
 layout (triangle_strip, max_vertices = 18) out;
 
-uniform mat4 shadowMatrices[6]; // These matrices must be built using lookAtLH with the canonical up vectors
+// Face matrices of the light being rendered (std140, binding 2), bound by range per shadow update.
+layout(std140, binding = 2) uniform PointShadow
+{
+    mat4 shadowMatrices[6]; // Built with lookAtLH and the canonical up vectors
+    vec4 lightPosFar;       // xyz = light position, w = far plane
+    ivec4 target;           // x = first layer of the cube slot in the shadow atlas tier
+};
+
+// Cube faces each instance reaches, one bit per face; culled on the CPU against each face frustum.
+flat in int vViewMask[];
 
 out vec4 FragPos; // Pass the vertex position in world space
 
 void main() {
     // For each cubemap face, transform the triangle
     for (int face = 0; face < 6; ++face) {
+        if ((vViewMask[0] & (1 << face)) == 0)
+        continue;
         for (int i = 0; i < 3; ++i) {
+            // Cube map array layers are ordered slot by slot, face by face.
+            gl_Layer = target.x + face;
             // Pass along the world-space position (computed in the vertex shader)
             FragPos = gl_in[i].gl_Position;
             gl_Position = shadowMatrices[face] * FragPos;
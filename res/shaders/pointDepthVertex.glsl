@@ -1,10 +1,26 @@
 #version 460 core
 
 layout (location = 0) in vec3 inPosition;
+layout (location = 1) in vec3 inNormal;    // Vertex normal.
+layout (location = 2) in vec2 inTexCoords; // Texture coordinates.
 
-uniform mat4 model;
+#include "instances.glsl"
+
+// Height map for displacement; scale and tiling come from the instance.
+uniform sampler2D uHeightMap;
+
+// Cube faces the instance reaches, for the geometry shader.
+flat out int vViewMask;
 
 void main() {
+    Instance instance = instances[gl_BaseInstance + gl_InstanceID];
+    mat4 model = instance.model;
+    vViewMask = floatBitsToInt(instance.tiling.z);
+
+    // Displace along the normal as the scene passes do, so the shadow matches the drawn surface.
+    float height = texture(uHeightMap, inTexCoords * instance.tiling.xy).r;
+    vec3 displacedPos = inPosition + inNormal * (height * instance.material.z);
+
     // Multiply by the model matrix (which must be built with left‐handed conventions)
-    gl_Position = model * vec4(inPosition, 1.0);
+    gl_Position = model * vec4(displacedPos, 1.0);
 }
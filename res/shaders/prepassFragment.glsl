@@ -0,0 +1,6 @@
+#version 460 core
+
+// Depth only; the color pass shades the surviving fragments.
+void main()
+{
+}
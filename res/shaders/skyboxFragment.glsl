@@ -1,9 +1,13 @@
 #version 460 core
 
 in vec3 TexCoords;
-out vec4 FragColor;
+layout(location = 0) out vec4 FragColor;
+// Defined for passes with a motion target attached; the temporal upsampler derives the sky's motion
+// from the camera instead.
+layout(location = 1) out vec2 Motion;
 uniform samplerCube skybox;
 void main()
 {
     FragColor = texture(skybox, TexCoords);
+    Motion = vec2(0.0);
 }
\ No newline at end of file
@@ -0,0 +1,18 @@
+// Surface attributes of a mesh fragment: the material maps and parameters of its draw, and the
+// normal-mapped normal. Included by the forward and G-buffer fragment shaders, after vertex.glsl.
+
+#include "material.glsl"
+
+in vec3 FragPos;
+in vec2 TexCoords;
+in vec3 vNormal;
+flat in vec4 vAlbedoColor;       // rgb = albedo tint, a = normal map strength
+flat in vec2 vMetallicRoughness; // Metallic and roughness scalars
+// vTangent and vBitangent are no longer used since we rebuild TBN in the fragment shader
+
+// Samples the material and normal of the fragment.
+void sampleSurface(out vec3 albedo, out float metallic, out float roughness, out float ao, out vec3 N)
+{
+    sampleMaterial(vNormal, TexCoords, dFdx(FragPos), dFdy(FragPos), dFdx(TexCoords), dFdy(TexCoords),
+                   vAlbedoColor, vMetallicRoughness, albedo, metallic, roughness, ao, N);
+}
@@ -1,42 +1,52 @@
-#version 330 core
+#version 460 core
 
 layout (location = 0) in vec3 aPos;
 layout (location = 1) in vec3 aNormal;
 layout (location = 2) in vec2 aTexCoords;
 layout (location = 3) in vec3 aTangent;
 
-uniform mat4 model;
-uniform mat4 view;
-uniform mat4 projection;
-uniform mat4 lightSpaceMatrix;
+#include "instances.glsl"
 
-// New uniforms for height mapping.
+#include "camera.glsl"
+
+// Height map; the displacement amount and tiling come from the instance.
 uniform sampler2D uHeightMap;
-uniform float uHeightScale; // Controls the displacement amount.
-uniform float scaleX;
-uniform float scaleY;
 
 out vec3 FragPos;           // World-space position.
 out vec2 TexCoords;         // Texture coordinates.
-out vec4 FragPosLightSpace; // Position in light space.
 
 // Pass TBN basis vectors to the fragment shader.
 out vec3 vNormal;
 out vec3 vTangent;
 out vec3 vBitangent;
 
+// Material parameters of the draw, constant across the primitive.
+flat out vec4 vAlbedoColor;
+flat out vec2 vMetallicRoughness;
+
+// Unjittered clip positions of this frame and the previous one, for motion vectors (motion.glsl).
+out vec4 vClipPosition;
+out vec4 vPreviousClipPosition;
+
+// Must match the depth pre-pass (prepassVertex.glsl) exactly, which the color pass tests for equal depth.
+invariant gl_Position;
+
 void main()
 {
-    TexCoords = aTexCoords * vec2(scaleX, scaleY);
+    Instance instance = instances[gl_BaseInstance + gl_InstanceID];
+    mat4 model = instance.model;
+    vAlbedoColor = instance.albedoColor;
+    vMetallicRoughness = instance.material.xy;
+
+    TexCoords = aTexCoords * instance.tiling.xy;
     // Sample the height from the height map (assumed grayscale, so red channel is sufficient)
     float height = texture(uHeightMap, TexCoords).r;
     // Displace the vertex position along its normal.
-    vec3 displacedPos = aPos + aNormal * (height * uHeightScale);
+    vec3 displacedPos = aPos + aNormal * (height * instance.material.z);
 
     // Transform the displaced position to world space.
     vec4 worldPos = model * vec4(displacedPos, 1.0);
     FragPos = worldPos.xyz;
-    FragPosLightSpace = lightSpaceMatrix * worldPos;
 
     // Transform normals and tangents using the model matrix.
     vNormal = normalize(mat3(model) * aNormal);
@@ -45,4 +55,6 @@ void main()
     vBitangent = normalize(cross(vNormal, vTangent));
 
     gl_Position = projection * view * worldPos;
+    vClipPosition = viewProjectionNoJitter * worldPos;
+    vPreviousClipPosition = previousViewProjection * (instance.previousModel * vec4(displacedPos, 1.0));
 }
@@ -0,0 +1,14 @@
+#version 460 core
+
+// Must match TRIANGLE_BITS in VisibilityBuffer.
+#define TRIANGLE_BITS 20
+
+flat in uint vDraw;
+
+layout (location = 0) out uint visibility;
+
+void main()
+{
+    // The draw is stored plus one, so 0 is left for pixels nothing was drawn to.
+    visibility = ((vDraw + 1u) << TRIANGLE_BITS) | uint(gl_PrimitiveID);
+}
@@ -0,0 +1,32 @@
+#version 460 core
+
+layout (location = 0) in vec3 aPos;
+layout (location = 1) in vec3 aNormal;
+layout (location = 2) in vec2 aTexCoords;
+
+#include "instances.glsl"
+
+#include "camera.glsl"
+
+// Height map; the displacement amount and tiling come from the instance.
+uniform sampler2D uHeightMap;
+
+// The draw's index in the opaque queue, written to the visibility buffer with the triangle.
+flat out uint vDraw;
+
+// Must match the depth pre-pass (prepassVertex.glsl) exactly, which this pass tests for equal depth.
+invariant gl_Position;
+
+void main()
+{
+    Instance instance = instances[gl_BaseInstance + gl_InstanceID];
+    mat4 model = instance.model;
+    vDraw = floatBitsToUint(instance.tiling.w);
+
+    vec2 texCoords = aTexCoords * instance.tiling.xy;
+    float height = texture(uHeightMap, texCoords).r;
+    vec3 displacedPos = aPos + aNormal * (height * instance.material.z);
+    vec4 worldPos = model * vec4(displacedPos, 1.0);
+
+    gl_Position = projection * view * worldPos;
+}
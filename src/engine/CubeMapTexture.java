@@ -1,5 +1,6 @@
 package engine;
 
+import engine.rendering.GLStateCache;
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
 import org.lwjgl.BufferUtils;
@@ -29,6 +30,9 @@ import java.nio.IntBuffer;
  * </p>
  */
 public class CubeMapTexture {
+    /** Face size of the cube maps converted from equirectangular images loaded from now on. */
+    public static int equirectangularResolution = 512;
+    
     // The OpenGL texture ID for the cubemap (0 if not yet initialized).
     private int textureID = 0;
     // The path to the texture image file.
@@ -62,7 +66,7 @@ public class CubeMapTexture {
         // Generate texture ID.
         textureID = GL11.glGenTextures();
         // Bind as a cubemap.
-        GL11.glBindTexture(GL13.GL_TEXTURE_CUBE_MAP, textureID);
+        GLStateCache.bindTexture(GL13.GL_TEXTURE_CUBE_MAP, textureID);
         
         // Allocate memory for each face (without initial data).
         for (int i = 0; i < 6; i++) {
@@ -78,7 +82,7 @@ public class CubeMapTexture {
         GL11.glTexParameteri(GL13.GL_TEXTURE_CUBE_MAP, GL11.GL_TEXTURE_WRAP_T, GL12.GL_CLAMP_TO_EDGE);
         GL11.glTexParameteri(GL13.GL_TEXTURE_CUBE_MAP, GL12.GL_TEXTURE_WRAP_R, GL12.GL_CLAMP_TO_EDGE);
         
-        GL11.glBindTexture(GL13.GL_TEXTURE_CUBE_MAP, 0);
+        GLStateCache.bindTexture(GL13.GL_TEXTURE_CUBE_MAP, 0);
         // Mark the texture as loaded.
         loaded = true;
     }
@@ -86,9 +90,9 @@ public class CubeMapTexture {
     // Method to generate mipmaps for the cubemap.
     public void enableMipmaps() {
         ensureLoaded();
-        GL11.glBindTexture(GL13.GL_TEXTURE_CUBE_MAP, textureID);
+        GLStateCache.bindTexture(GL13.GL_TEXTURE_CUBE_MAP, textureID);
         GL30.glGenerateMipmap(GL13.GL_TEXTURE_CUBE_MAP);
-        GL11.glBindTexture(GL13.GL_TEXTURE_CUBE_MAP, 0);
+        GLStateCache.bindTexture(GL13.GL_TEXTURE_CUBE_MAP, 0);
     }
     
     
@@ -114,8 +118,7 @@ public class CubeMapTexture {
         boolean hdr = texturePath.toLowerCase().endsWith(".hdr");
 
         textureID = GL11.glGenTextures();
-        GL13.glActiveTexture(GL13.GL_TEXTURE0);
-        GL11.glBindTexture(GL13.GL_TEXTURE_CUBE_MAP, textureID);
+        GLStateCache.bindTexture(0, GL13.GL_TEXTURE_CUBE_MAP, textureID);
 
         try (MemoryStack stack = MemoryStack.stackPush()) {
             IntBuffer width    = stack.mallocInt(1);
@@ -206,7 +209,7 @@ public class CubeMapTexture {
         GL11.glTexParameteri(GL13.GL_TEXTURE_CUBE_MAP, GL11.GL_TEXTURE_WRAP_T, GL12.GL_CLAMP_TO_EDGE);
         GL11.glTexParameteri(GL13.GL_TEXTURE_CUBE_MAP, GL12.GL_TEXTURE_WRAP_R, GL12.GL_CLAMP_TO_EDGE);
 
-        GL11.glBindTexture(GL13.GL_TEXTURE_CUBE_MAP, 0);
+        GLStateCache.bindTexture(GL13.GL_TEXTURE_CUBE_MAP, 0);
         loaded = true;
     }
 
@@ -297,7 +300,7 @@ public class CubeMapTexture {
             eqHeight = height.get(0);
 
             eqTexture = GL11.glGenTextures();
-            GL11.glBindTexture(GL11.GL_TEXTURE_2D, eqTexture);
+            GLStateCache.bindTexture(GL11.GL_TEXTURE_2D, eqTexture);
             if (hdr) {
                 GL11.glTexImage2D(
                         GL11.GL_TEXTURE_2D,
@@ -341,9 +344,9 @@ public class CubeMapTexture {
         }
 
         // Create an empty cubemap texture.
-        int cubeSize = 512; // Adjust resolution as needed.
+        int cubeSize = equirectangularResolution;
         textureID = GL11.glGenTextures();
-        GL11.glBindTexture(GL13.GL_TEXTURE_CUBE_MAP, textureID);
+        GLStateCache.bindTexture(GL13.GL_TEXTURE_CUBE_MAP, textureID);
         for (int i = 0; i < 6; i++) {
             if (hdr) {
                 GL11.glTexImage2D(
@@ -380,7 +383,7 @@ public class CubeMapTexture {
         // Set up framebuffer and renderbuffer to render to each cubemap face.
         int captureFBO = GL30.glGenFramebuffers();
         int captureRBO = GL30.glGenRenderbuffers();
-        GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, captureFBO);
+        GLStateCache.bindFramebuffer(GL30.GL_FRAMEBUFFER, captureFBO);
         GL30.glBindRenderbuffer(GL30.GL_RENDERBUFFER, captureRBO);
         GL30.glRenderbufferStorage(GL30.GL_RENDERBUFFER, GL30.GL_DEPTH_COMPONENT24, cubeSize, cubeSize);
         GL30.glFramebufferRenderbuffer(GL30.GL_FRAMEBUFFER, GL30.GL_DEPTH_ATTACHMENT, GL30.GL_RENDERBUFFER, captureRBO);
@@ -431,8 +434,7 @@ public class CubeMapTexture {
         captureViews[5] = new Matrix4f().lookAt(new Vector3f(0, 0, 0), new Vector3f(0,  0, -1), new Vector3f(0, -1,  0));
 
         // Bind the equirectangular texture to texture unit 0.
-        GL13.glActiveTexture(GL13.GL_TEXTURE0);
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, eqTexture);
+        GLStateCache.bindTexture(0, GL11.GL_TEXTURE_2D, eqTexture);
         convertShader.setUniform("equirectangularMap", 0);
 
         // Create a cube VAO and VBO for rendering.
@@ -482,40 +484,40 @@ public class CubeMapTexture {
                 -1.0f, -1.0f,  1.0f,
                 1.0f, -1.0f,  1.0f
         };
-        GL30.glBindVertexArray(cubeVAO);
+        GLStateCache.bindVertexArray(cubeVAO);
         GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, cubeVBO);
         GL15.glBufferData(GL15.GL_ARRAY_BUFFER, cubeVertices, GL15.GL_STATIC_DRAW);
         GL20.glEnableVertexAttribArray(0);
         GL20.glVertexAttribPointer(0, 3, GL11.GL_FLOAT, false, 3 * Float.BYTES, 0);
         GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
-        GL30.glBindVertexArray(0);
+        GLStateCache.bindVertexArray(0);
 
         // Render to each cubemap face.
-        GL11.glViewport(0, 0, cubeSize, cubeSize);
-        GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, captureFBO);
+        GLStateCache.viewport(0, 0, cubeSize, cubeSize);
+        GLStateCache.bindFramebuffer(GL30.GL_FRAMEBUFFER, captureFBO);
         for (int i = 0; i < 6; i++) {
             convertShader.setUniformMat4("view", captureViews[i]);
             GL30.glFramebufferTexture2D(GL30.GL_FRAMEBUFFER, GL30.GL_COLOR_ATTACHMENT0,
                     GL13.GL_TEXTURE_CUBE_MAP_POSITIVE_X + i, textureID, 0);
             GL11.glClear(GL11.GL_COLOR_BUFFER_BIT | GL11.GL_DEPTH_BUFFER_BIT);
-            GL30.glBindVertexArray(cubeVAO);
+            GLStateCache.bindVertexArray(cubeVAO);
             GL11.glDrawArrays(GL11.GL_TRIANGLES, 0, 36);
-            GL30.glBindVertexArray(0);
+            GLStateCache.bindVertexArray(0);
         }
-        GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, 0);
+        GLStateCache.bindFramebuffer(GL30.GL_FRAMEBUFFER, 0);
 
         // Generate mipmaps for the cubemap texture.
-        GL11.glBindTexture(GL13.GL_TEXTURE_CUBE_MAP, textureID);
+        GLStateCache.bindTexture(GL13.GL_TEXTURE_CUBE_MAP, textureID);
         GL30.glGenerateMipmap(GL13.GL_TEXTURE_CUBE_MAP);
-        GL11.glBindTexture(GL13.GL_TEXTURE_CUBE_MAP, 0);
+        GLStateCache.bindTexture(GL13.GL_TEXTURE_CUBE_MAP, 0);
 
         // Cleanup.
         convertShader.detach();
-        GL30.glDeleteFramebuffers(captureFBO);
+        GLStateCache.deleteFramebuffer(captureFBO);
         GL30.glDeleteRenderbuffers(captureRBO);
-        GL30.glDeleteVertexArrays(cubeVAO);
+        GLStateCache.deleteVertexArray(cubeVAO);
         GL15.glDeleteBuffers(cubeVBO);
-        GL11.glDeleteTextures(eqTexture);
+        GLStateCache.deleteTexture(eqTexture);
 
         loaded = true;
     }
@@ -537,8 +539,7 @@ public class CubeMapTexture {
      */
     public void bind(int unit) {
         ensureLoaded();
-        GL13.glActiveTexture(GL13.GL_TEXTURE0 + unit);
-        GL11.glBindTexture(GL13.GL_TEXTURE_CUBE_MAP, textureID);
+        GLStateCache.bindTexture(unit, GL13.GL_TEXTURE_CUBE_MAP, textureID);
     }
 
     /**
@@ -556,7 +557,7 @@ public class CubeMapTexture {
      */
     public void delete() {
         if (textureID != 0) {
-            GL11.glDeleteTextures(textureID);
+            GLStateCache.deleteTexture(textureID);
             textureID = 0;
             loaded = false;
         }
@@ -1,6 +1,10 @@
 package engine;
 
 import engine.editor.Editor;
+import engine.rendering.FramePacer;
+import engine.rendering.GLStateCache;
+import engine.rendering.QualityCalibration;
+import engine.rendering.QualityProfile;
 import engine.utils.FileUtils;
 import engine.utils.Logger;
 import engine.utils.TransformManager;
@@ -43,6 +47,8 @@ public class Engine {
     public static Scene activeScene;
     /** GLFW window handle. */
     private static long window;
+    /** Paces frame starts according to {@link FramePacer#mode}. */
+    private static FramePacer framePacer;
     /** Accumulator for fixed update timing. */
     private static double fixedDelta = 0.0;
     /** Fixed timestep (in seconds) calculated from TPS. */
@@ -59,6 +65,8 @@ public class Engine {
     
     /** Path to the shaders directory. */
     public static String shadersPath = FileUtils.getResPath() + "/shaders/";
+    /** Where the renderer quality profile is kept; calibrated on the first start, or when deleted. */
+    public static String qualityProfilePath = "quality.properties";
     
     // ImGui renderer instances
     private static ImGuiImplGl3 imGuiGl3;
@@ -93,13 +101,21 @@ public class Engine {
         // ===================================
         
         // Enable depth testing for proper 3D rendering.
-        glEnable(GL_DEPTH_TEST);
-        glDepthFunc(GL_LEQUAL);
+        GLStateCache.enable(GL_DEPTH_TEST);
+        GLStateCache.depthFunc(GL_LEQUAL);
         
         // Initialize our modern shader-based renderer.
         Renderer.init();
         DebugRenderer.init();
         
+        // Apply the saved quality profile, or measure this machine for one on the first start.
+        QualityProfile qualityProfile = QualityProfile.load(qualityProfilePath);
+        if (qualityProfile == null) {
+            qualityProfile = QualityCalibration.run();
+            qualityProfile.save(qualityProfilePath);
+        }
+        Renderer.setQualityProfile(qualityProfile);
+        
         // Initialize our custom input handling.
         Input.init(window, WINDOW_WIDTH, WINDOW_HEIGHT);
         
@@ -125,7 +141,8 @@ public class Engine {
         GLFWVidMode vidMode = glfwGetVideoMode(glfwGetPrimaryMonitor());
         glfwSetWindowPos(window, (vidMode.width() - WINDOW_WIDTH) / 2, (vidMode.height() - WINDOW_HEIGHT) / 2);
         glfwMakeContextCurrent(window);
-        glfwSwapInterval(0);
+        // The swap interval is set by the frame pacer on the first frame.
+        framePacer = new FramePacer(vidMode.refreshRate());
         glfwShowWindow(window);
     }
     
@@ -135,6 +152,10 @@ public class Engine {
         long previousTime = System.nanoTime();
         
         while (!quit && !glfwWindowShouldClose(window)) {
+            // Wait first, so the input polled below is as recent as possible when the frame is drawn.
+            framePacer.waitForFrame();
+            glfwPollEvents();
+            
             long currentTime = System.nanoTime();
             double frameTime = (currentTime - previousTime) / 1_000_000_000.0;
             previousTime = currentTime;
@@ -149,7 +170,7 @@ public class Engine {
             update();
             // Update custom input (which now chains ImGui’s callbacks)
             Input.update();
-            TransformManager.updateTransforms(activeScene.rootGameObject);
+            TransformManager.updateTransforms(activeScene);
             
             accumulator += frameTime;
             if (accumulator >= FIXED_DT) {
@@ -186,16 +207,32 @@ public class Engine {
                 ImGui.renderPlatformWindowsDefault();
                 glfwMakeContextCurrent(backupCurrentContext);
             }
+            // ImGui binds its own program, buffers and textures behind the state cache.
+            GLStateCache.invalidate();
             
             glfwSwapBuffers(window);
+            framePacer.endFrame();
             
             framesRenderedLastSecond++;
             frameCount++;
             uptime += (float) Time.deltaTime;
-            glfwPollEvents();
             
             if (System.nanoTime() - lastSecondTime >= 1_000_000_000L) {
                 Logger.logPerformance(framesRenderedLastSecond, callsOfUpdateLastSecond, callsOfFixedUpdateLastSecond, frameCount, uptime);
+                if (Renderer.occlusionCulling) {
+                    int[] occlusion = Renderer.getOcclusionStats();
+                    Logger.logOcclusion(occlusion[0], occlusion[1], occlusion[2]);
+                }
+                if (Renderer.dynamicResolution) {
+                    float[] resolution = Renderer.getResolutionStats();
+                    Logger.logResolution(resolution[0], resolution[1]);
+                }
+                long[] uploads = Renderer.getUploadStats();
+                Logger.logUploads(uploads[0], uploads[1]);
+                Logger.logGLState(GLStateCache.getIssuedCount(), GLStateCache.getElidedCount());
+                float[] pacing = framePacer.takeStats();
+                Logger.logPacing(FramePacer.mode.name(), pacing[0], pacing[1], pacing[2], pacing[3]);
+                GLStateCache.resetCounts();
                 framesRenderedLastSecond = 0;
                 callsOfUpdateLastSecond = 0;
                 callsOfFixedUpdateLastSecond = 0;
@@ -205,6 +242,7 @@ public class Engine {
         
         imGuiGlfw.shutdown();
         imGuiGl3.shutdown();
+        framePacer.cleanup();
         Renderer.cleanup();
         glfwDestroyWindow(window);
         glfwTerminate();
@@ -31,6 +31,12 @@ public class GameObject {
     public List<GameObject> children;
     /** Parent GameObject, if any. */
     public GameObject parent;
+    /**
+     * Marks objects that are not expected to move. The renderer keeps static shadow casters in
+     * cached shadow layers that are only redrawn when one of them actually moves, and merges static
+     * meshes sharing a material into world-space batches that are rebuilt whenever one of them changes.
+     */
+    public boolean isStatic = false;
     
     /**
      * Constructs a new GameObject with the specified name.
@@ -2,6 +2,11 @@ package engine;
 
 import org.joml.Vector3f;
 
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static engine.Texture.Type;
 
 /**
@@ -13,6 +18,18 @@ import static engine.Texture.Type;
  * </p>
  */
 public class Material {
+    /** Next identifier handed out to a new material. Declared before {@link #empty} so it is initialized first. */
+    private static final AtomicInteger nextId = new AtomicInteger();
+    
+    /** Sequential identifier of the material, unique for the run; draws are grouped by {@link #getTextureSetId()} instead. */
+    public final int id = nextId.getAndIncrement();
+    
+    /** Identifiers of the distinct texture sets seen so far, keyed by their six texture IDs. */
+    private static final Map<List<Integer>, Integer> textureSetIds = new ConcurrentHashMap<>();
+    private static final AtomicInteger nextTextureSetId = new AtomicInteger();
+    /** The texture IDs {@link #getTextureSetId} last saw, followed by the set's identifier. Never modified once published. */
+    private volatile int[] textureSet;
+    
     public String name = "UnnamedMaterial";
     
     /** The albedo (diffuse) texture map. */
@@ -140,6 +157,22 @@ public class Material {
         this.roughness = roughness;
     }
     
+    /**
+     * Returns an identifier of the textures this material binds, shared by every material binding the
+     * same six textures. The renderer groups draws by it, so materials that only differ in their scalar
+     * parameters are drawn together. Safe to call from several threads.
+     */
+    public int getTextureSetId() {
+        int[] set = textureSet;
+        if (set == null || set[0] != albedoMap.getID() || set[1] != normalMap.getID() || set[2] != metallicMap.getID()
+                || set[3] != roughnessMap.getID() || set[4] != aoMap.getID() || set[5] != heightMap.getID()) {
+            set = new int[]{albedoMap.getID(), normalMap.getID(), metallicMap.getID(), roughnessMap.getID(), aoMap.getID(), heightMap.getID(), 0};
+            set[6] = textureSetIds.computeIfAbsent(List.of(set[0], set[1], set[2], set[3], set[4], set[5]), key -> nextTextureSetId.getAndIncrement());
+            textureSet = set;
+        }
+        return set[6];
+    }
+    
     /**
      * Returns a string representation of the material.
      */
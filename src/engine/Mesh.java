@@ -2,6 +2,8 @@ package engine;
 
 import engine.meshTypes.MeshGLTF;
 import engine.meshTypes.MeshOBJ;
+import engine.rendering.Bounds;
+import engine.rendering.MeshArena;
 import org.joml.Vector2f;
 import org.joml.Vector3f;
 
@@ -16,6 +18,12 @@ public abstract class Mesh {
     protected int[][][] faces;
     public String meshName;
     
+    /** Model-space bounds; set at import by loaders, or computed on first use by {@link #getBounds()}. */
+    protected Bounds bounds;
+    
+    /** This mesh's ranges in the {@link MeshArena}; set by {@link #initMesh()}, cleared by {@link #cleanup()}. */
+    protected MeshArena.Allocation allocation;
+    
     /**
      * Protected no-argument constructor for subclasses.
      */
@@ -50,6 +58,96 @@ public abstract class Mesh {
      */
     public abstract void render();
     
+    /**
+     * Returns the vertex array object that draws this mesh, shared by every mesh in the {@link MeshArena}.
+     * The mesh is initialized first if needed.
+     *
+     * @return the OpenGL VAO handle.
+     */
+    public int getVaoId() {
+        if (allocation == null) initMesh();
+        return MeshArena.getVertexArray();
+    }
+    
+    /**
+     * Returns whether this mesh's geometry is in the {@link MeshArena}. Until it is, the getters of its
+     * arena ranges upload it, which needs the GL thread.
+     *
+     * @return {@code true} if the mesh is uploaded.
+     */
+    public boolean isUploaded() {
+        return allocation != null;
+    }
+    
+    /**
+     * Returns the index of this mesh's first vertex in the arena, which draws add to every index.
+     * The mesh is initialized first if needed.
+     *
+     * @return the base vertex.
+     */
+    public int getBaseVertex() {
+        if (allocation == null) initMesh();
+        return allocation.baseVertex;
+    }
+    
+    /**
+     * Returns the position of this mesh's first index in the arena's index buffer.
+     * The mesh is initialized first if needed.
+     *
+     * @return the first index.
+     */
+    public int getFirstIndex() {
+        if (allocation == null) initMesh();
+        return allocation.firstIndex;
+    }
+    
+    /**
+     * Returns the number of indices in this mesh's element buffer.
+     * The mesh is initialized first if needed.
+     *
+     * @return the total index count.
+     */
+    public abstract int getIndexCount();
+    
+    /**
+     * Returns this mesh's interleaved vertices as uploaded to the arena: position,
+     * normal and uv, 8 floats each. The mesh is initialized first if needed.
+     *
+     * @return the vertex data, owned by the mesh.
+     */
+    public abstract float[] getVertexData();
+    
+    /**
+     * Returns this mesh's triangle indices as uploaded to the arena, relative to its first vertex.
+     * The mesh is initialized first if needed.
+     *
+     * @return the indices, owned by the mesh.
+     */
+    public abstract int[] getIndices();
+    
+    /**
+     * Returns the vertex positions of this mesh in model space.
+     * Subclasses that keep positions in their own field override this.
+     *
+     * @return the vertex positions, or {@code null} if none are loaded.
+     */
+    protected Vector3f[] getVertexPositions() {
+        return vertices;
+    }
+    
+    /**
+     * Returns the model-space bounding box and sphere of this mesh.
+     * Transformed by an object's model matrix, they bound the object in world space.
+     *
+     * @return the bounds.
+     */
+    public Bounds getBounds() {
+        if (bounds == null) {
+            bounds = Bounds.of(getVertexPositions());
+        }
+        return bounds;
+    }
+    
     /**
      * Cleans up any allocated resources.
      */
@@ -2,22 +2,40 @@ package engine;
 
 import engine.components.*;
 import engine.meshTypes.MeshGLTF;
+import engine.rendering.Bounds;
+import engine.rendering.CascadedShadowMap;
+import engine.rendering.DynamicResolution;
+import engine.rendering.FrameRingBuffer;
+import engine.rendering.GLStateCache;
+import engine.rendering.GpuTimer;
+import engine.rendering.IndirectBuffer;
+import engine.rendering.InstanceBuffer;
+import engine.rendering.LightClusters;
+import engine.rendering.MeshArena;
+import engine.rendering.OcclusionCuller;
+import engine.rendering.PointShadowAtlas;
+import engine.rendering.QualityProfile;
+import engine.rendering.RenderGraph;
+import engine.rendering.RenderQueue;
+import engine.rendering.RenderWorkers;
+import engine.rendering.Renderable;
+import engine.rendering.SceneIndex;
+import engine.rendering.StaticBatcher;
+import engine.rendering.TemporalUpsampler;
+import engine.rendering.UniformBuffer;
+import engine.rendering.VisibilityBuffer;
 import engine.utils.FileUtils;
 import engine.utils.Meshes;
 import engine.utils.ShaderProgram;
 import engine.utils.Skybox;
+import org.joml.FrustumIntersection;
 import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
 import org.joml.Vector3f;
-import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.*;
-import org.lwjgl.system.MemoryStack;
 
-import java.nio.ByteBuffer;
-import java.nio.FloatBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL13.*;
@@ -27,35 +45,235 @@ public class Renderer
 {
     // Main shader program used for scene rendering.
     private static ShaderProgram shaderProgram;
-    private static final String MODEL_UNIFORM = "model";
-    private static final String VIEW_UNIFORM = "view";
-    private static final String PROJECTION_UNIFORM = "projection";
     
     private static ShaderProgram skyboxShader;
     private static ShaderProgram debugShader;
     
-    // Cascaded shadow parameters for directional light.
+    // Cascaded shadow parameters for directional light. The count and resolution can change at
+    // runtime; the cascades are reallocated on the next frame.
     public static int cascadeCount = 4;
     public static int baseShadowMapWidth = 2048;
     public static int baseShadowMapHeight = 2048;
+    // Radius of the directional shadow filter in texels: 0 takes one tap, 1 a 3x3 grid, 2 a 5x5 grid.
+    public static int pcfRadius = 1;
+    // Factor on the shadow resolution point lights ask the atlas for; below 1 they get smaller tiers.
+    public static float pointShadowResolutionScale = 1.0f;
     
-    // --- Shadow Map Variables for directional light ---
-    private static int shadowMapFBO;
-    private static int shadowMap;
+    // --- Cascaded shadow maps for the main directional light ---
+    private static CascadedShadowMap cascadedShadowMap;
     private static ShaderProgram depthShader;
     
+    // Depth pre-pass: when enabled, the opaque queue is first drawn depth only, and the color pass
+    // shades just the fragments matching that depth. Can be toggled at runtime to compare.
+    public static boolean depthPrepass = false;
+    private static ShaderProgram prepassShader;
+    
+    // The frame's passes, declared every frame with the targets they read and write. The scene color
+    // and depth, the G-buffer and the visibility target are transient: the graph takes them from its
+    // pool for the passes it keeps, so the targets of the paths not taken take no memory.
+    private static final RenderGraph renderGraph = new RenderGraph();
+    private static RenderGraph.Resource cascadeShadowTarget;
+    private static final RenderGraph.Resource[] pointShadowTargets = new RenderGraph.Resource[PointShadowAtlas.TIER_RESOLUTIONS.length];
+    private static RenderGraph.Resource sceneColor;
+    private static RenderGraph.Resource sceneDepth;
+    private static RenderGraph.Resource gBufferAlbedo;
+    private static RenderGraph.Resource gBufferNormal;
+    private static RenderGraph.Resource visibilityTarget;
+    private static RenderGraph.Resource motionTarget;
+    private static RenderGraph.Resource historyTarget;
+    private static RenderGraph.Resource upsampledTarget;
+    private static final Runnable CASCADE_SHADOW_PASS = Renderer::renderCascadeShadows;
+    private static final Runnable POINT_SHADOW_PASS = Renderer::renderPointShadows;
+    private static final Runnable FORWARD_PASS = Renderer::renderForward;
+    private static final Runnable GBUFFER_PASS = Renderer::renderGBuffer;
+    private static final Runnable DEFERRED_LIGHTING_PASS = Renderer::renderDeferredLighting;
+    private static final Runnable VISIBILITY_PASS = Renderer::renderVisibility;
+    private static final Runnable VISIBILITY_RESOLVE_PASS = Renderer::resolveVisibility;
+    private static final Runnable TEMPORAL_UPSAMPLE_PASS = Renderer::upsampleTemporally;
+    private static final Runnable PRESENT_PASS = Renderer::present;
+    // The camera and target size of the frame the passes render.
+    private static Camera frameCamera;
+    private static int renderWidth;
+    private static int renderHeight;
+    
+    // The scene renders at a fraction of the window's size that follows the GPU time of recent frames,
+    // and is upscaled to the window when presented. Can be toggled at runtime to compare.
+    public static boolean dynamicResolution = true;
+    private static final DynamicResolution resolutionController = new DynamicResolution();
+    private static GpuTimer gpuTimer;
+    
+    // The scene renders with a sub-pixel jitter that changes every frame, and the frames are
+    // accumulated at the window's size from per-pixel motion vectors, which recovers close to native
+    // detail from a lower render resolution. Without dynamic resolution the scene then renders at
+    // temporalUpsamplingScale. Can be toggled at runtime to compare.
+    public static boolean temporalUpsampling = true;
+    public static float temporalUpsamplingScale = 0.5f;
+    private static TemporalUpsampler temporalUpsampler;
+    // Whether the frame being rendered, and the one before, upsample.
+    private static boolean frameUpsampled = false;
+    // The camera's view-projection without jitter, this frame and the previous one, for motion vectors.
+    private static final Matrix4f unjitteredViewProjection = new Matrix4f();
+    private static final Matrix4f previousViewProjection = new Matrix4f();
+    
+    /**
+     * How the opaque queue is lit. {@code FORWARD} shades every fragment of every draw with the full
+     * PBR shader; {@code DEFERRED} writes surface attributes to the G-buffer and lights each pixel once
+     * in a full-screen pass, so the lighting cost no longer grows with overdraw. {@code VISIBILITY}
+     * writes only the triangle covering each pixel and shades it in a compute pass, which keeps the
+     * geometry pass cheap for dense meshes with many small triangles.
+     */
+    public enum RenderPath
+    {
+        FORWARD,
+        DEFERRED,
+        VISIBILITY
+    }
+    
+    // Can be switched at runtime, for example per scene, to compare both paths on the same content.
+    public static RenderPath renderPath = RenderPath.FORWARD;
+    private static ShaderProgram gBufferShader;
+    private static ShaderProgram deferredLightingShader;
+    private static ShaderProgram.UniformMat4 deferredInverseViewProjection;
+    // The full-screen triangle is generated in the vertex shader, but core profile draws need a VAO.
+    private static int fullscreenVao;
+    private static ShaderProgram visibilityShader;
+    private static VisibilityBuffer visibilityBuffer;
+    
     // --- New: Shader program for point light shadow mapping ---
     private static ShaderProgram pointDepthShader;
-    // Resolution for point light shadow maps:
-    private static final int pointShadowMapWidth = 1024;
-    private static final int pointShadowMapHeight = 1024;
     
-    // These maps keep track of (point light → its shadow framebuffer and cube map)
-    private static final Map<LightPoint, Integer> pointLightShadowFBO = new HashMap<>();
-    private static final Map<LightPoint, Integer> pointLightShadowCube = new HashMap<>();
+    // Fixed pool of point light shadow cube maps, handed out by screen coverage and redrawn within a
+    // per-frame budget, only when the light or a caster in range moved.
+    private static PointShadowAtlas pointShadowAtlas;
+    // Atlas entries redrawn this frame, in the order of their point shadow blocks.
+    private static final List<PointShadowAtlas.Entry> pointShadowUpdates = new ArrayList<>();
+    
+    // Point lights and the per-cluster light lists the main shader iterates instead of every light.
+    private static LightClusters lightClusters;
+    
+    // Two-phase Hi-Z occlusion culling of the opaque queue. Can be toggled at runtime to compare.
+    public static boolean occlusionCulling = true;
+    private static OcclusionCuller occlusionCuller;
     
     private static Skybox skybox;
     
+    // Spatial index of the scene being rendered. Its renderables carry world transforms and bounds that
+    // are only recomputed when an object moves; every view culls by querying it.
+    private static SceneIndex sceneIndex;
+    // Shadow casters in range of the point light being processed, split by GameObject.isStatic so
+    // cached point shadow slots can redraw them separately.
+    private static final List<Renderable> staticCasters = new ArrayList<>();
+    private static final List<Renderable> dynamicCasters = new ArrayList<>();
+    
+    // Static objects merged into world-space batches per material and grid cell. The camera and cascade
+    // views draw the batches instead of the objects. Can be toggled at runtime to compare.
+    public static boolean staticBatching = true;
+    private static final StaticBatcher staticBatcher = new StaticBatcher();
+    private static final Matrix4f IDENTITY = new Matrix4f();
+    
+    // Per-frame draw lists of the visible draws of each view, sorted by GPU state before submission.
+    private static final RenderQueue opaqueQueue = new RenderQueue();
+    // Casters inside at least one cascade; each draw's view mask holds the cascades it reaches.
+    private static final RenderQueue cascadeShadowQueue = new RenderQueue();
+    // One queue per point shadow block: the casters of that slot, with the cube faces each reaches.
+    private static final List<RenderQueue> pointShadowQueues = new ArrayList<>();
+    
+    // Draws are recorded on worker threads and submitted from the GL thread in sorted order. Can be
+    // toggled at runtime to compare with recording everything on the GL thread.
+    public static boolean parallelRecording = true;
+    private static final int MAX_RECORDING_WORKERS = 7;
+    // Instances written per instance write task, at least.
+    private static final int INSTANCE_WRITE_SLICE = 512;
+    private static RenderWorkers renderWorkers;
+    // The views' culling results, gathered on the GL thread for the workers to record.
+    private static final List<Renderable> opaqueCandidates = new ArrayList<>();
+    private static final List<Renderable> cascadeCasters = new ArrayList<>();
+    // One opaque recording per thread, each filling its own queue; merged into the opaque queue.
+    private static OpaqueRecording[] opaqueRecordings;
+    private static final List<PointShadowRecording> pointShadowRecordings = new ArrayList<>();
+    private static final Runnable CASCADE_RECORDING = Renderer::recordCascades;
+    private static final List<Runnable> recordingTasks = new ArrayList<>();
+    // Pooled instance write tasks, and the ones used this frame.
+    private static final List<InstanceWrite> instanceWrites = new ArrayList<>();
+    private static final List<InstanceWrite> writeTasks = new ArrayList<>();
+    private static int writeTaskCount;
+    
+    // Culling frustums, reused every frame: the camera's, and one per cascade. Point shadow recordings
+    // hold their own cube face frustums.
+    private static final Matrix4f cameraViewProjection = new Matrix4f();
+    private static final FrustumIntersection cameraFrustum = new FrustumIntersection();
+    private static final FrustumIntersection[] shadowFrustums = new FrustumIntersection[6];
+    private static final Matrix4f[] pointFaceMatrices = new Matrix4f[6];
+    static
+    {
+        for(int i = 0; i < 6; i++)
+        {
+            shadowFrustums[i] = new FrustumIntersection();
+            pointFaceMatrices[i] = new Matrix4f();
+        }
+    }
+    
+    // Per-frame data (instances, commands, lights and uniform blocks) is written to this ring, each
+    // frame to a region the GPU has finished reading.
+    private static final long FRAME_RING_BYTES = 1 << 20;
+    private static FrameRingBuffer frameRing;
+    
+    // Per-draw transforms and material parameters of every queued draw, laid out batch by batch,
+    // and one indirect command per batch. Shaders index the instance data with gl_BaseInstance + gl_InstanceID.
+    private static InstanceBuffer instanceBuffer;
+    private static IndirectBuffer indirectBuffer;
+    private static int opaqueCommandBase;
+    private static int opaqueInstanceBase;
+    private static int cascadeShadowCommandBase;
+    private static final int[] pointShadowCommandBases = new int[2 * PointShadowAtlas.MAX_UPDATES_PER_FRAME];
+    
+    // --- Per-frame std140 uniform blocks, bound to fixed binding points shared by every scene shader ---
+    private static final int CAMERA_BINDING = 0;
+    private static final int LIGHTING_BINDING = 1;
+    private static final int POINT_SHADOW_BINDING = 2;
+    
+    private static final int MAX_DIR_LIGHTS = 10;
+    // First texture unit of the point shadow atlas tiers (units 6-9 hold the directional shadow map and IBL maps).
+    private static final int POINT_SHADOW_UNIT = 10;
+    
+    // Camera block (camera.glsl): mat4 view, mat4 projection, vec4 viewPos, mat4 viewProjectionNoJitter,
+    // mat4 previousViewProjection.
+    private static final int CAMERA_BLOCK_SIZE = 4 * 64 + 16;
+    // Lighting block (lightingBlock.glsl): mat4 cascadeMatrices[MAX_CASCADES], vec4 cascadeSplits, ivec4 lightCounts,
+    // then the directional light array. Point lights live in LightClusters' storage buffer.
+    private static final int DIR_LIGHTS_OFFSET = CascadedShadowMap.MAX_CASCADES * 64 + 16 + 16;
+    private static final int DIR_LIGHT_SIZE = 2 * 16;
+    // Cluster grid parameters follow the directional lights: ivec4 clusterGrid, vec4 clusterDepth, vec4 clusterScreen.
+    private static final int CLUSTER_PARAMS_OFFSET = DIR_LIGHTS_OFFSET + MAX_DIR_LIGHTS * DIR_LIGHT_SIZE;
+    private static final int LIGHTING_BLOCK_SIZE = CLUSTER_PARAMS_OFFSET + 3 * 16;
+    // Point shadow block: mat4 shadowMatrices[6], vec4 lightPosFar, ivec4 target. One per cube slot
+    // redrawn this frame (a static and a dynamic slot per light at most), bound by range.
+    private static final int POINT_SHADOW_BLOCK_SIZE = 6 * 64 + 16 + 16;
+    private static int pointShadowBlockStride;
+    
+    private static UniformBuffer cameraUniforms;
+    private static UniformBuffer lightingUniforms;
+    private static UniformBuffer pointShadowUniforms;
+    
+    // Cube face look directions and up vectors, in GL_TEXTURE_CUBE_MAP_POSITIVE_X + face order.
+    private static final Vector3f[] CUBE_FACE_DIRECTIONS = {
+            new Vector3f(1, 0, 0), new Vector3f(-1, 0, 0),
+            new Vector3f(0, 1, 0), new Vector3f(0, -1, 0),
+            new Vector3f(0, 0, 1), new Vector3f(0, 0, -1)};
+    private static final Vector3f[] CUBE_FACE_UPS = {
+            new Vector3f(0, 1, 0), new Vector3f(0, 1, 0),
+            new Vector3f(0, 0, 1), new Vector3f(0, 0, -1),
+            new Vector3f(0, 1, 0), new Vector3f(0, 1, 0)};
+    
+    // Lights and matrices gathered each frame, reused to avoid per-frame allocation.
+    private static final List<LightDirectional> directionalLights = new ArrayList<>();
+    private static final List<LightPoint> pointLights = new ArrayList<>();
+    private static final Matrix4f scratchMatrix = new Matrix4f();
+    private static final Matrix4f scratchFaceMatrix = new Matrix4f();
+    private static final Vector3f scratchVector = new Vector3f();
+    
+    private static Texture brdfLUT;
+    
     /**
      * Initializes the renderer by loading shader programs and setting up
      * the shadow map framebuffer and texture.
@@ -64,44 +282,109 @@ public class Renderer
     {
         //enableOpenGLDebugging();
         
-        shaderProgram = new ShaderProgram(FileUtils.loadFileAsString(Engine.shadersPath.concat("vertex.glsl")), FileUtils.loadFileAsString(Engine.shadersPath.concat("fragment.glsl")));
+        shaderProgram = new ShaderProgram(FileUtils.loadShaderSource(Engine.shadersPath.concat("vertex.glsl")), FileUtils.loadShaderSource(Engine.shadersPath.concat("fragment.glsl")));
+        
+        gBufferShader = new ShaderProgram(FileUtils.loadShaderSource(Engine.shadersPath.concat("vertex.glsl")), FileUtils.loadShaderSource(Engine.shadersPath.concat("gbufferFragment.glsl")));
+        
+        deferredLightingShader = new ShaderProgram(FileUtils.loadFileAsString(Engine.shadersPath.concat("deferredVertex.glsl")), FileUtils.loadShaderSource(Engine.shadersPath.concat("deferredFragment.glsl")));
+        
+        visibilityShader = new ShaderProgram(FileUtils.loadShaderSource(Engine.shadersPath.concat("visibilityVertex.glsl")), FileUtils.loadFileAsString(Engine.shadersPath.concat("visibilityFragment.glsl")));
         
         skyboxShader = new ShaderProgram(FileUtils.loadFileAsString(Engine.shadersPath.concat("skyboxVertex.glsl")), FileUtils.loadFileAsString(Engine.shadersPath.concat("skyboxFragment.glsl")));
         
-        depthShader = new ShaderProgram(FileUtils.loadFileAsString(Engine.shadersPath.concat("depthVertex.glsl")), FileUtils.loadFileAsString(Engine.shadersPath.concat("depthFragment.glsl")));
+        depthShader = new ShaderProgram(FileUtils.loadShaderSource(Engine.shadersPath.concat("depthVertex.glsl")), FileUtils.loadShaderSource(Engine.shadersPath.concat("depthGeometry.glsl")), FileUtils.loadFileAsString(Engine.shadersPath.concat("depthFragment.glsl")));
+        
+        pointDepthShader = new ShaderProgram(FileUtils.loadShaderSource(Engine.shadersPath.concat("pointDepthVertex.glsl")), FileUtils.loadFileAsString(Engine.shadersPath.concat("pointDepthGeometry.glsl")), FileUtils.loadFileAsString(Engine.shadersPath.concat("pointDepthFragment.glsl")));
         
-        pointDepthShader = new ShaderProgram(FileUtils.loadFileAsString(Engine.shadersPath.concat("pointDepthVertex.glsl")), FileUtils.loadFileAsString(Engine.shadersPath.concat("pointDepthGeometry.glsl")), FileUtils.loadFileAsString(Engine.shadersPath.concat("pointDepthFragment.glsl")));
+        prepassShader = new ShaderProgram(FileUtils.loadShaderSource(Engine.shadersPath.concat("prepassVertex.glsl")), FileUtils.loadFileAsString(Engine.shadersPath.concat("prepassFragment.glsl")));
         
         debugShader = new ShaderProgram(FileUtils.loadFileAsString(Engine.shadersPath.concat("debugCube.vert")), FileUtils.loadFileAsString(Engine.shadersPath.concat("debugCube.frag")));
         
-        // (Unused shader array removed for clarity)
+        frameRing = new FrameRingBuffer(FRAME_RING_BYTES);
+        gpuTimer = new GpuTimer();
+        temporalUpsampler = new TemporalUpsampler(FileUtils.loadShaderSource(Engine.shadersPath.concat("temporalUpsample.comp")), Engine.WINDOW_WIDTH, Engine.WINDOW_HEIGHT);
+        instanceBuffer = new InstanceBuffer(frameRing, 1024);
+        indirectBuffer = new IndirectBuffer(frameRing, 1024);
+        
+        renderWorkers = new RenderWorkers(Math.min(Runtime.getRuntime().availableProcessors() - 1, MAX_RECORDING_WORKERS));
+        opaqueRecordings = new OpaqueRecording[renderWorkers.getThreadCount()];
+        for(int i = 0; i < opaqueRecordings.length; i++)
+        {
+            opaqueRecordings[i] = new OpaqueRecording();
+        }
+        
+        cameraUniforms = new UniformBuffer(frameRing, CAMERA_BINDING, CAMERA_BLOCK_SIZE);
+        lightingUniforms = new UniformBuffer(frameRing, LIGHTING_BINDING, LIGHTING_BLOCK_SIZE);
+        // Ranges bound per light must start on the implementation's offset alignment.
+        int uboAlignment = glGetInteger(GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT);
+        pointShadowBlockStride = (POINT_SHADOW_BLOCK_SIZE + uboAlignment - 1) / uboAlignment * uboAlignment;
+        pointShadowUniforms = new UniformBuffer(frameRing, POINT_SHADOW_BINDING, 2 * PointShadowAtlas.MAX_UPDATES_PER_FRAME * pointShadowBlockStride);
         
-        // --- Setup Directional Shadow Map FBO and Texture ---
-        shadowMapFBO = GL30.glGenFramebuffers();
-        shadowMap = glGenTextures();
-        glBindTexture(GL_TEXTURE_2D, shadowMap);
-        // Use explicit 32-bit depth format for Intel GPUs
-        glTexImage2D(GL_TEXTURE_2D, 0, GL30.GL_DEPTH_COMPONENT24, baseShadowMapWidth, baseShadowMapHeight, 0, GL_DEPTH_COMPONENT, GL_FLOAT, (ByteBuffer) null);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_BORDER);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_BORDER);
-        FloatBuffer borderColor = BufferUtils.createFloatBuffer(4).put(new float[]{1f, 1f, 1f, 1f});
-        borderColor.flip();
-        glTexParameterfv(GL_TEXTURE_2D, GL_TEXTURE_BORDER_COLOR, borderColor);
-        // Set texture compare mode for proper hardware shadow lookup
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_COMPARE_MODE, GL_COMPARE_REF_TO_TEXTURE);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_COMPARE_FUNC, GL_LEQUAL);
+        brdfLUT = new Texture(FileUtils.load("ibl_brdf_lut.png"), true);
+        
+        // Samplers always read from the same units, so their uniforms are set once here
+        // instead of for every draw.
+        shaderProgram.use();
+        setMaterialUnits(shaderProgram);
+        setLightingUnits(shaderProgram);
+        gBufferShader.use();
+        setMaterialUnits(gBufferShader);
+        // The lighting pass reads the G-buffer from the material units, which are free after the geometry pass.
+        deferredLightingShader.use();
+        deferredLightingShader.setUniform("gAlbedoAO", 0);
+        deferredLightingShader.setUniform("gNormalMaterial", 1);
+        deferredLightingShader.setUniform("gDepth", 2);
+        setLightingUnits(deferredLightingShader);
+        deferredInverseViewProjection = deferredLightingShader.mat4("uInverseViewProjection");
+        depthShader.use();
+        depthShader.setUniform("uHeightMap", 5);
+        pointDepthShader.use();
+        pointDepthShader.setUniform("uHeightMap", 5);
+        prepassShader.use();
+        prepassShader.setUniform("uHeightMap", 5);
+        visibilityShader.use();
+        visibilityShader.setUniform("uHeightMap", 5);
+        GLStateCache.useProgram(0);
         
-        glBindFramebuffer(GL_FRAMEBUFFER, shadowMapFBO);
-        glFramebufferTexture2D(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_TEXTURE_2D, shadowMap, 0);
-        glDrawBuffer(GL_NONE);
-        glReadBuffer(GL_NONE);
-        if(glCheckFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE)
+        // --- Setup Directional Cascaded Shadow Map ---
+        cascadedShadowMap = new CascadedShadowMap(baseShadowMapWidth, cascadeCount);
+        pointShadowAtlas = new PointShadowAtlas();
+        lightClusters = new LightClusters(frameRing, FileUtils.loadShaderSource(Engine.shadersPath.concat("lightClusters.comp")));
+        fullscreenVao = glGenVertexArrays();
+        visibilityBuffer = new VisibilityBuffer(frameRing, FileUtils.loadShaderSource(Engine.shadersPath.concat("visibilityResolve.comp")));
+        visibilityBuffer.getResolveShader().use();
+        setMaterialUnits(visibilityBuffer.getResolveShader());
+        setLightingUnits(visibilityBuffer.getResolveShader());
+        GLStateCache.useProgram(0);
+        occlusionCuller = new OcclusionCuller(FileUtils.loadShaderSource(Engine.shadersPath.concat("occlusionCull.comp")), FileUtils.loadFileAsString(Engine.shadersPath.concat("hiZ.comp")), Engine.WINDOW_WIDTH, Engine.WINDOW_HEIGHT);
+    }
+    
+    /**
+     * Assigns the material sampler units, matching {@link #bindMaterial}, to a program using surface.glsl.
+     */
+    private static void setMaterialUnits(ShaderProgram shader)
+    {
+        shader.setUniform("uAlbedo", 0);
+        shader.setUniform("uNormal", 1);
+        shader.setUniform("uMetallic", 2);
+        shader.setUniform("uRoughness", 3);
+        shader.setUniform("uAO", 4);
+        shader.setUniform("uHeightMap", 5);
+    }
+    
+    /**
+     * Assigns the shadow and IBL sampler units to a program using lighting.glsl.
+     */
+    private static void setLightingUnits(ShaderProgram shader)
+    {
+        shader.setUniform("shadowMap", 6);
+        shader.setUniform("irradianceMap", 7);
+        shader.setUniform("brdfLUT", 8);
+        shader.setUniform("prefilterMap", 9);
+        for(int i = 0; i < PointShadowAtlas.TIER_RESOLUTIONS.length; i++)
         {
-            System.err.println("Directional shadow map framebuffer not complete!");
+            shader.setUniform("pointShadowTiers[" + i + "]", POINT_SHADOW_UNIT + i);
         }
-        glBindFramebuffer(GL_FRAMEBUFFER, 0);
     }
     
     /**
@@ -116,170 +399,96 @@ public class Renderer
             return;
         }
         
-        LightDirectional mainDirectionalLight = getMainDirectionalLight(activeScene);
-        boolean hasDirectionalLight = (mainDirectionalLight != null);
-        Matrix4f lightSpaceMatrix = new Matrix4f();
+        // Wait until the GPU is done with the ring region this frame writes its per-frame data to.
+        frameRing.beginFrame();
         
-        // -------- 1. Directional Light Shadow Map Pass --------
-        if(hasDirectionalLight)
+        gpuTimer.begin();
+        if(dynamicResolution)
         {
-            Vector3f lightDir = new Vector3f(mainDirectionalLight.gameObject.transform.front()).negate();
-            Vector3f sceneCenter = new Vector3f(0, 0, 0); // Could be computed from scene bounds.
-            Vector3f lightPos = new Vector3f(sceneCenter).sub(new Vector3f(lightDir).mul(30f));
-            // Directional light (left-handed)
-            Matrix4f lightView = new Matrix4f().lookAtLH(lightPos, sceneCenter, new Vector3f(0, 1, 0));
-            Matrix4f lightProjection = new Matrix4f().orthoLH(-20, 20, -20, 20, 1, 100);
-            
-            lightProjection.mul(lightView, lightSpaceMatrix);
-            
-            // Render shadow map from directional light's view.
-            glViewport(0, 0, baseShadowMapWidth, baseShadowMapHeight);
-            glBindFramebuffer(GL_FRAMEBUFFER, shadowMapFBO);
-            glClear(GL_DEPTH_BUFFER_BIT);
-            depthShader.use();
-            depthShader.setUniformMat4("lightSpaceMatrix", lightSpaceMatrix);
-            renderSceneForShadows(activeScene, depthShader);
-            glBindFramebuffer(GL_FRAMEBUFFER, 0);
+            resolutionController.update(gpuTimer.getLastMillis(), gpuTimer.hasNewResult());
         }
         else
         {
-            System.err.println("No directional light available for shadows. Rendering without directional shadows.");
-            lightSpaceMatrix.identity();
+            resolutionController.reset();
         }
-        
-        // -------- 2. Point Light Shadow Map Pass --------
-        // Collect point lights from the scene.
-        List<LightPoint> pointLights = new ArrayList<>();
-        if(activeScene.rootGameObject != null)
+        if(dynamicResolution || !temporalUpsampling)
         {
-            collectPointLights(activeScene.rootGameObject, pointLights);
+            renderWidth = resolutionController.scale(Engine.WINDOW_WIDTH);
+            renderHeight = resolutionController.scale(Engine.WINDOW_HEIGHT);
         }
-        // For each point light, render its shadow cube map.
-        for(LightPoint pointLight : pointLights)
+        else
         {
-            // (For simplicity we assume every point light casts shadows.)
-            // If this light does not yet have a shadow map allocated, create one:
-            if(!pointLightShadowFBO.containsKey(pointLight))
-            {
-                int fbo = GL30.glGenFramebuffers();
-                int cubeMap = glGenTextures();
-                glBindTexture(GL_TEXTURE_CUBE_MAP, cubeMap);
-                for(int i = 0; i < 6; i++)
-                {
-                    // Use explicit 32-bit depth format for Intel GPUs here too.
-                    glTexImage2D(GL_TEXTURE_CUBE_MAP_POSITIVE_X + i, 0, GL30.GL_DEPTH_COMPONENT32F, pointShadowMapWidth, pointShadowMapHeight, 0, GL_DEPTH_COMPONENT, GL_FLOAT, (ByteBuffer) null);
-                }
-                glTexParameteri(GL_TEXTURE_CUBE_MAP, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
-                glTexParameteri(GL_TEXTURE_CUBE_MAP, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
-                glTexParameteri(GL_TEXTURE_CUBE_MAP, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
-                glTexParameteri(GL_TEXTURE_CUBE_MAP, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
-                glTexParameteri(GL_TEXTURE_CUBE_MAP, GL_TEXTURE_WRAP_R, GL_CLAMP_TO_EDGE);
-                // For cube maps we do not use hardware depth comparison
-                glTexParameteri(GL_TEXTURE_CUBE_MAP, GL_TEXTURE_COMPARE_MODE, GL_NONE);
-                
-                glBindFramebuffer(GL_FRAMEBUFFER, fbo);
-                GL33.glFramebufferTexture(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, cubeMap, 0);
-                glDrawBuffer(GL_NONE);
-                glReadBuffer(GL_NONE);
-                if(glCheckFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE)
-                {
-                    System.err.println("Point light shadow framebuffer not complete!");
-                }
-                glBindFramebuffer(GL_FRAMEBUFFER, 0);
-                pointLightShadowFBO.put(pointLight, fbo);
-                pointLightShadowCube.put(pointLight, cubeMap);
-            }
-            int fbo = pointLightShadowFBO.get(pointLight);
-            int cubeMap = pointLightShadowCube.get(pointLight);
-            Vector3f lightPos = new Vector3f(pointLight.gameObject.transform.globalPosition);
-            // System.out.println("Light Position: " + lightPos); // Debug print (optional)
-            float farPlane = 100.0f; // You might let each point light specify its own far plane.
-            
-            // Build the six view–projection matrices using left-handed lookAtLH.
-            Matrix4f shadowProj = new Matrix4f().perspective((float) Math.toRadians(90.0f), 1.0f, 1.0f, farPlane);
-            Matrix4f[] shadowTransforms = new Matrix4f[6];
-            
-            shadowTransforms[0] = new Matrix4f().set(shadowProj).lookAtLH(lightPos, new Vector3f(lightPos).add(1, 0, 0), new Vector3f(0, 1, 0)); // +X
-            shadowTransforms[1] = new Matrix4f().set(shadowProj).lookAtLH(lightPos, new Vector3f(lightPos).add(-1, 0, 0), new Vector3f(0, 1, 0)); // -X
-            shadowTransforms[2] = new Matrix4f().set(shadowProj).lookAtLH(lightPos, new Vector3f(lightPos).add(0, 1, 0), new Vector3f(0, 0, 1)); // +Y
-            shadowTransforms[3] = new Matrix4f().set(shadowProj).lookAtLH(lightPos, new Vector3f(lightPos).add(0, -1, 0), new Vector3f(0, 0, -1)); // -Y
-            shadowTransforms[4] = new Matrix4f().set(shadowProj).lookAtLH(lightPos, new Vector3f(lightPos).add(0, 0, 1), new Vector3f(0, 1, 0)); // +Z
-            shadowTransforms[5] = new Matrix4f().set(shadowProj).lookAtLH(lightPos, new Vector3f(lightPos).add(0, 0, -1), new Vector3f(0, 1, 0)); // -Z
-            
-            // Render the scene to this point light's shadow cube map.
-            glViewport(0, 0, pointShadowMapWidth, pointShadowMapHeight);
-            glBindFramebuffer(GL_FRAMEBUFFER, fbo);
-            glClear(GL_DEPTH_BUFFER_BIT);
-            pointDepthShader.use();
-            // Set the 6 shadow matrices.
-            for(int i = 0; i < 6; i++)
+            renderWidth = Math.max(1, Math.round(Engine.WINDOW_WIDTH * temporalUpsamplingScale));
+            renderHeight = Math.max(1, Math.round(Engine.WINDOW_HEIGHT * temporalUpsamplingScale));
+        }
+        
+        // The history and the previous view-projection are stale once upsampling is turned back on.
+        boolean previousFrameUpsampled = frameUpsampled;
+        frameUpsampled = temporalUpsampling;
+        if(frameUpsampled)
+        {
+            if(!previousFrameUpsampled)
             {
-                pointDepthShader.setUniformMat4("shadowMatrices[" + i + "]", shadowTransforms[i]);
+                temporalUpsampler.invalidate();
             }
-            pointDepthShader.setUniform("lightPos", lightPos);
-            pointDepthShader.setUniform("farPlane", farPlane);
-            renderSceneForShadows(activeScene, pointDepthShader);
-            glBindFramebuffer(GL_FRAMEBUFFER, 0);
+            // Before any projection of the frame is built.
+            temporalUpsampler.beginFrame();
         }
         
-        // -------- 3. Main Scene Pass --------
-        glViewport(0, 0, Engine.WINDOW_WIDTH, Engine.WINDOW_HEIGHT);
-        glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
-        
-        shaderProgram.use();
-        try(MemoryStack stack = MemoryStack.stackPush())
+        sceneIndex = activeScene.getIndex();
+        if(staticBatching)
         {
-            shaderProgram.setUniformMat4(PROJECTION_UNIFORM, getProjectionMatrix(mainCamera));
-            shaderProgram.setUniformMat4(VIEW_UNIFORM, mainCamera.viewMatrix);
-            shaderProgram.setUniform("viewPos", mainCamera.gameObject.transform.globalPosition);
+            staticBatcher.update(sceneIndex);
         }
-        shaderProgram.setUniformMat4("lightSpaceMatrix", lightSpaceMatrix);
-        if(hasDirectionalLight)
+        // Packs the shared mesh buffers if freed meshes left holes; draws read the moved ranges below.
+        MeshArena.defragmentIfNeeded();
+        LightDirectional mainDirectionalLight = getMainDirectionalLight(activeScene);
+        boolean hasDirectionalLight = (mainDirectionalLight != null);
+        
+        // -------- 0. Gather lights --------
+        // Point lights whose range misses the view frustum cannot light anything visible.
+        cameraFrustum.set(cameraViewProjection.set(getProjectionMatrix(mainCamera)).mul(mainCamera.viewMatrix));
+        unjitteredViewProjection.set(getUnjitteredProjectionMatrix(mainCamera)).mul(mainCamera.viewMatrix);
+        if(!frameUpsampled || !previousFrameUpsampled)
         {
-            bindTexture(6, GL_TEXTURE_2D, shadowMap, "Directional Shadow Map");
-            shaderProgram.setUniform("shadowMap", 6);
+            previousViewProjection.set(unjitteredViewProjection);
         }
-        
-        // Set directional lights.
-        List<LightDirectional> directionalLights = new ArrayList<>();
-        if(activeScene.rootGameObject != null)
+        directionalLights.clear();
+        directionalLights.addAll(sceneIndex.getDirectionalLights());
+        pointLights.clear();
+        sceneIndex.queryPointLights(cameraFrustum, entry -> pointLights.add(entry.pointLight));
+        if(hasDirectionalLight)
         {
-            collectDirectionalLights(activeScene.rootGameObject, directionalLights);
+            // The light travels opposite to its transform's front.
+            Vector3f lightDir = scratchVector.set(mainDirectionalLight.gameObject.transform.front()).negate();
+            cascadedShadowMap.setCascadeCount(cascadeCount);
+            cascadedShadowMap.setResolution(baseShadowMapWidth);
+            cascadedShadowMap.update(mainCamera, lightDir);
         }
-        shaderProgram.setUniform("numDirectionalLights", directionalLights.size());
-        int maxLights = 10;
-        for(int i = 0; i < directionalLights.size() && i < maxLights; i++)
+        else
         {
-            LightDirectional light = directionalLights.get(i);
-            Vector3f direction = new Vector3f(light.gameObject.transform.front()).negate();
-            shaderProgram.setUniform("directionalLights[" + i + "].direction", direction);
-            shaderProgram.setUniform("directionalLights[" + i + "].color", light.color);
-            shaderProgram.setUniform("directionalLights[" + i + "].strength", light.strength);
+            System.err.println("No directional light available for shadows. Rendering without directional shadows.");
         }
+        preparePointShadows(mainCamera);
+        
+        // -------- 0b. Cull and sort the draws of every view --------
+        buildQueues(mainCamera, hasDirectionalLight);
+        
+        // -------- 0c. Per-frame uniform blocks --------
+        uploadFrameUniforms(mainCamera, hasDirectionalLight);
         
-        // Pass point light parameters.
-        shaderProgram.setUniform("numPointLights", pointLights.size());
-        for(int i = 0; i < pointLights.size() && i < maxLights; i++)
+        // -------- 0d. Assign point lights to view frustum clusters --------
+        lightClusters.assign();
+        
+        // -------- 1. Lighting inputs of the main passes --------
+        if(hasDirectionalLight)
         {
-            LightPoint pLight = pointLights.get(i);
-            shaderProgram.setUniform("pointLights[" + i + "].position", pLight.gameObject.transform.globalPosition);
-            shaderProgram.setUniform("pointLights[" + i + "].color", pLight.color);
-            shaderProgram.setUniform("pointLights[" + i + "].strength", pLight.strength);
-            shaderProgram.setUniform("pointLights[" + i + "].constant", pLight.constant);
-            shaderProgram.setUniform("pointLights[" + i + "].linear", pLight.linear);
-            shaderProgram.setUniform("pointLights[" + i + "].quadratic", pLight.quadratic);
+            bindTexture(6, GL_TEXTURE_2D_ARRAY, cascadedShadowMap.getTexture(), "Directional Cascaded Shadow Map");
         }
-        // Bind each point light's shadow cube map.
-        int pointShadowTexUnitStart = 7;
-        for(int i = 0; i < pointLights.size() && i < maxLights; i++)
+        // Bind every tier of the point shadow atlas; each light's slot is passed in the lighting block.
+        for(int i = 0; i < PointShadowAtlas.TIER_RESOLUTIONS.length; i++)
         {
-            LightPoint pLight = pointLights.get(i);
-            int cubeMap = pointLightShadowCube.getOrDefault(pLight, 0);
-            int unit = pointShadowTexUnitStart + i;
-            bindTexture(unit, GL_TEXTURE_CUBE_MAP, cubeMap, "Point Light Shadow Cube Map for Light " + i);
-            shaderProgram.setUniform("pointShadowMaps[" + i + "]", unit);
-            // Pass the far plane used in the point shadow pass:
-            shaderProgram.setUniform("pointShadowFarPlanes[" + i + "]", 100.0f);
+            bindTexture(POINT_SHADOW_UNIT + i, GL_TEXTURE_CUBE_MAP_ARRAY, pointShadowAtlas.getTexture(i), "Point Shadow Atlas Tier");
         }
         
         // Bind skybox if available.
@@ -289,23 +498,9 @@ public class Renderer
             skybox = skyboxGO.getComponent(Skybox.class);
         }
         if (skybox != null && skybox.getCubeMap() != null) {
-            // Bind the skybox cube map to texture unit 5
-            bindTexture(5, GL_TEXTURE_CUBE_MAP, skybox.getCubeMap().getID(), "Skybox Cube Map");
-            shaderProgram.setUniform("skyboxAmbient.cubemap", 5);
-            shaderProgram.setUniform("skyboxAmbient.strength", 1);
-            
-            // Bind the prefiltered map to texture unit 6
-            bindTexture(9, GL_TEXTURE_CUBE_MAP, skybox.getPrefilteredMap().getID(), "Prefiltered Map");
-            shaderProgram.setUniform("prefilterMap", 9);
-            
-            // Bind the irradiance map to texture unit 7
             bindTexture(7, GL_TEXTURE_CUBE_MAP, skybox.getIrradianceMap().getID(), "Irradiance Map");
-            shaderProgram.setUniform("irradianceMap", 7);
-            
-            Texture BRDF_IBL_LUT = new Texture(FileUtils.load("ibl_brdf_lut.png"), true);
-            
-            bindTexture(8, GL_TEXTURE, BRDF_IBL_LUT.getID(), "brdfLUT");
-            shaderProgram.setUniform("brdfLUT", 8);
+            bindTexture(8, GL_TEXTURE_2D, brdfLUT.getID(), "brdfLUT");
+            bindTexture(9, GL_TEXTURE_CUBE_MAP, skybox.getPrefilteredMap().getID(), "Prefiltered Map");
             
             //Debug render
             // Bind the debug shader and set its uniforms.
@@ -336,220 +531,1220 @@ public class Renderer
             System.err.println("Couldn't load skybox");
         }
         
-        // Render all objects.
-        if(activeScene.rootGameObject != null)
+        // -------- 2. Declare and run the frame's passes --------
+        // The IBL maps above may be generated on first use with their own framebuffer, so no pass runs
+        // before this point.
+        frameCamera = mainCamera;
+        buildGraph(hasDirectionalLight);
+        renderGraph.execute();
+        gpuTimer.end();
+        previousViewProjection.set(unjitteredViewProjection);
+        
+        if(occlusionCulling)
+        {
+            occlusionCuller.endFrame();
+            instanceBuffer.bind();
+        }
+        else
         {
-            renderRecursive(activeScene.rootGameObject);
+            // The depth history is stale once culling is turned back on.
+            occlusionCuller.invalidate();
         }
+        frameRing.endFrame();
     }
     
-    private static void renderSceneForShadows(Scene activeScene, ShaderProgram shader)
+    /**
+     * Declares this frame's passes and the targets they use: the shadow passes, the opaque passes of the
+     * render path and the copy to the window, in execution order. The graph culls the passes nothing
+     * reads, which drops the cascade pass in scenes without a directional light, and only allocates
+     * the targets of the passes it keeps.
+     */
+    private static void buildGraph(boolean hasDirectionalLight)
     {
-        if(activeScene.rootGameObject != null)
+        renderGraph.reset();
+        
+        cascadeShadowTarget = renderGraph.importTexture("Cascaded Shadow Map", cascadedShadowMap.getTexture());
+        for(int i = 0; i < pointShadowTargets.length; i++)
+        {
+            // Atlas slots are cached across frames, so the point shadow pass is never culled.
+            pointShadowTargets[i] = renderGraph.importTexture("Point Shadow Atlas Tier", pointShadowAtlas.getTexture(i));
+            renderGraph.markOutput(pointShadowTargets[i]);
+        }
+        // The main shader tone maps and gamma corrects, so 8 bits per channel are enough.
+        sceneColor = renderGraph.createTexture("Scene Color", renderWidth, renderHeight, GL_RGBA8);
+        sceneDepth = renderGraph.createTexture("Scene Depth", renderWidth, renderHeight, GL_DEPTH_COMPONENT32F);
+        // Read after the frame through getSceneDepthTexture.
+        renderGraph.markOutput(sceneDepth);
+        // Screen-space motion of every opaque pixel since the previous frame, in UV units.
+        motionTarget = frameUpsampled ? renderGraph.createTexture("Motion", renderWidth, renderHeight, GL_RG16F) : null;
+        
+        renderGraph.addPass("Cascade Shadows", CASCADE_SHADOW_PASS).write(cascadeShadowTarget);
+        if(!pointShadowUpdates.isEmpty())
+        {
+            RenderGraph.Pass pointShadowPass = renderGraph.addPass("Point Shadows", POINT_SHADOW_PASS);
+            for(RenderGraph.Resource tier : pointShadowTargets)
+            {
+                pointShadowPass.write(tier);
+            }
+        }
+        
+        if(renderPath == RenderPath.VISIBILITY && visibilityBuffer.prepare(opaqueQueue))
+        {
+            visibilityTarget = renderGraph.createTexture("Visibility", renderWidth, renderHeight, GL_R32UI);
+            renderGraph.addPass("Visibility", VISIBILITY_PASS).write(visibilityTarget).write(sceneDepth).write(sceneColor);
+            RenderGraph.Pass resolvePass = sampleLighting(renderGraph.addPass("Visibility Resolve", VISIBILITY_RESOLVE_PASS), hasDirectionalLight)
+                    .readImage(visibilityTarget)
+                    .writeImage(sceneColor);
+            if(motionTarget != null)
+            {
+                resolvePass.writeImage(motionTarget);
+            }
+        }
+        else if(renderPath != RenderPath.FORWARD)
+        {
+            // Frames with more opaque draws or triangles per draw than a visibility value can
+            // address fall back to the deferred path.
+            // The G-buffer holds RGBA8 albedo and ambient occlusion, and RGBA16 octahedral normal,
+            // metallic and roughness. Position is not stored; the lighting pass reconstructs it from
+            // the scene depth.
+            gBufferAlbedo = renderGraph.createTexture("G-Buffer Albedo", renderWidth, renderHeight, GL_RGBA8);
+            gBufferNormal = renderGraph.createTexture("G-Buffer Normal", renderWidth, renderHeight, GL_RGBA16);
+            RenderGraph.Pass gBufferPass = renderGraph.addPass("G-Buffer", GBUFFER_PASS).write(gBufferAlbedo).write(gBufferNormal).write(sceneDepth);
+            if(motionTarget != null)
+            {
+                gBufferPass.write(motionTarget);
+            }
+            sampleLighting(renderGraph.addPass("Deferred Lighting", DEFERRED_LIGHTING_PASS), hasDirectionalLight)
+                    .sample(gBufferAlbedo)
+                    .sample(gBufferNormal)
+                    .sample(sceneDepth)
+                    .write(sceneColor);
+        }
+        else
+        {
+            RenderGraph.Pass forwardPass = sampleLighting(renderGraph.addPass("Forward", FORWARD_PASS), hasDirectionalLight).write(sceneColor).write(sceneDepth);
+            if(motionTarget != null)
+            {
+                forwardPass.write(motionTarget);
+            }
+        }
+        
+        if(frameUpsampled)
+        {
+            historyTarget = renderGraph.importTexture("Upsampling History", temporalUpsampler.getHistoryTexture());
+            upsampledTarget = renderGraph.importTexture("Upsampled Color", temporalUpsampler.getOutputTexture());
+            renderGraph.addPass("Temporal Upsample", TEMPORAL_UPSAMPLE_PASS)
+                    .sample(sceneColor)
+                    .sample(sceneDepth)
+                    .sample(motionTarget)
+                    .sample(historyTarget)
+                    .writeImage(upsampledTarget);
+            renderGraph.addPass("Present", PRESENT_PASS).readAttachment(upsampledTarget).sideEffect();
+        }
+        else
         {
-            renderForShadowsRecursive(activeScene.rootGameObject, shader);
+            renderGraph.addPass("Present", PRESENT_PASS).readAttachment(sceneColor).sideEffect();
         }
     }
     
-    private static void renderForShadowsRecursive(GameObject gameObject, ShaderProgram shader)
+    /**
+     * Declares the shadow maps a lit pass samples.
+     */
+    private static RenderGraph.Pass sampleLighting(RenderGraph.Pass pass, boolean hasDirectionalLight)
     {
-        MeshRenderer meshRenderer = gameObject.getComponent(MeshRenderer.class);
-        if(meshRenderer != null && meshRenderer.mesh != null)
+        if(hasDirectionalLight)
         {
-            shader.use(); // Ensure we're using the correct shader
-            Matrix4f modelMatrix = gameObject.transform.getModelMatrix();
-            
-            // Bind the height map and set displacement uniforms
-            bindTexture(5, GL_TEXTURE_2D, meshRenderer.material.heightMap.getID(), "Height Map");
-            shader.setUniform("uHeightMap", 5);
-            shader.setUniform("uHeightScale", meshRenderer.material.heightScale);
-            
-            // Bind the tiling values
-            shader.setUniform("uScaleX", meshRenderer.material.scaleX);
-            shader.setUniform("uScaleY", meshRenderer.material.scaleY);
-            
-            // Set model matrix
-            shader.setUniformMat4(MODEL_UNIFORM, modelMatrix);
-            
-            // Render the mesh
-            meshRenderer.mesh.render();
+            pass.sample(cascadeShadowTarget);
         }
-        
-        // Recursively render children
-        for(GameObject child : gameObject.children)
+        for(RenderGraph.Resource tier : pointShadowTargets)
         {
-            renderForShadowsRecursive(child, shader);
+            pass.sample(tier);
         }
+        return pass;
+    }
+    
+    /**
+     * Renders every cascade in one pass; the depth geometry shader writes each triangle to the layers of
+     * the cascades its draw reaches.
+     */
+    private static void renderCascadeShadows()
+    {
+        cascadedShadowMap.bindForWriting();
+        glClear(GL_DEPTH_BUFFER_BIT);
+        depthShader.use();
+        indirectBuffer.bind();
+        submitDepthQueue(cascadeShadowQueue, indirectBuffer.offsetOf(cascadeShadowCommandBase));
+        GLStateCache.bindFramebuffer(GL_FRAMEBUFFER, 0);
     }
     
+    /**
+     * Redraws the atlas slots scheduled by preparePointShadows. A static slot holds the static casters;
+     * a dynamic slot starts as a copy of it with the dynamic casters drawn on top. Lights without a
+     * dynamic slot draw every caster into their static slot. Each slot's queue only holds the casters
+     * inside its cube, and each caster is only emitted to the faces it reaches.
+     */
+    private static void renderPointShadows()
+    {
+        pointDepthShader.use();
+        indirectBuffer.bind();
+        for(int i = 0; i < pointShadowUpdates.size(); i++)
+        {
+            PointShadowAtlas.Entry entry = pointShadowUpdates.get(i);
+            if(entry.renderStatic)
+            {
+                pointShadowUniforms.bindRange((long) (2 * i) * pointShadowBlockStride, POINT_SHADOW_BLOCK_SIZE);
+                pointShadowAtlas.beginStatic(entry);
+                submitDepthQueue(pointShadowQueues.get(2 * i), indirectBuffer.offsetOf(pointShadowCommandBases[2 * i]));
+            }
+            if(entry.renderDynamic)
+            {
+                pointShadowUniforms.bindRange((long) (2 * i + 1) * pointShadowBlockStride, POINT_SHADOW_BLOCK_SIZE);
+                pointShadowAtlas.beginDynamic(entry);
+                submitDepthQueue(pointShadowQueues.get(2 * i + 1), indirectBuffer.offsetOf(pointShadowCommandBases[2 * i + 1]));
+            }
+        }
+        GLStateCache.bindFramebuffer(GL_FRAMEBUFFER, 0);
+    }
     
-    private static void renderRecursive(GameObject gameObject) {
-        Camera mainCamera = getActiveCamera(Engine.activeScene);
-        MeshRenderer meshRenderer = gameObject.getComponent(MeshRenderer.class);
-        Skybox skybox = gameObject.getComponent(Skybox.class);
+    /**
+     * Shades the opaque queue directly into the scene color with the main shader.
+     */
+    private static void renderForward()
+    {
+        renderGraph.bindTargets(sceneColor, motionTarget, sceneDepth);
+        glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
         
-        if (skybox != null && skybox.getCubeMap() != null) {
-            skybox.render(skyboxShader, mainCamera.viewMatrix, getProjectionMatrix(mainCamera));
+        if(depthPrepass)
+        {
+            // Lay down the depth of every opaque draw first with a vertex-only shader, then shade only
+            // the fragments that match it: each pixel runs the PBR shader once.
+            drawOpaque(prepassShader);
+            GLStateCache.depthFunc(GL_EQUAL);
+            GLStateCache.depthMask(false);
         }
         
-        if (meshRenderer != null && meshRenderer.mesh != null) {
-            shaderProgram.use();
-            Matrix4f modelMatrix = gameObject.transform.getModelMatrix();
-            shaderProgram.setUniformMat4(MODEL_UNIFORM, modelMatrix);
-            
-            // If the mesh is a MeshGLTF (multiple submeshes with individual materials)
-            if (meshRenderer.mesh instanceof MeshGLTF) {
-                MeshGLTF gltfMesh = (MeshGLTF) meshRenderer.mesh;
-                // Bind the mesh's VAO so that its buffers are active.
-                glBindVertexArray(gltfMesh.vaoId);
-                
-                // Iterate over each submesh.
-                for (MeshGLTF.SubMesh subMesh : gltfMesh.subMeshes) {
-                    Material subMaterial = subMesh.material;
-                    
-                    // Bind submesh material textures.
-                    bindTexture(0, GL_TEXTURE_2D, subMaterial.albedoMap.getID(), "Albedo Map");
-                    shaderProgram.setUniform("uAlbedo", 0);
-                    
-                    bindTexture(1, GL_TEXTURE_2D, subMaterial.normalMap.getID(), "Normal Map");
-                    shaderProgram.setUniform("uNormal", 1);
-                    
-                    bindTexture(2, GL_TEXTURE_2D, subMaterial.metallicMap.getID(), "Metallic Map");
-                    shaderProgram.setUniform("uMetallic", 2);
-                    
-                    bindTexture(3, GL_TEXTURE_2D, subMaterial.roughnessMap.getID(), "Roughness Map");
-                    shaderProgram.setUniform("uRoughness", 3);
-                    
-                    bindTexture(4, GL_TEXTURE_2D, subMaterial.aoMap.getID(), "AO Map");
-                    shaderProgram.setUniform("uAO", 4);
-                    
-                    bindTexture(5, GL_TEXTURE_2D, subMaterial.heightMap.getID(), "Height Map");
-                    shaderProgram.setUniform("uHeightMap", 5);
-                    shaderProgram.setUniform("uHeightScale", subMaterial.heightScale);
-                    
-                    shaderProgram.setUniform("scaleX", subMaterial.scaleX);
-                    shaderProgram.setUniform("scaleY", subMaterial.scaleY);
-                    
-                    shaderProgram.setUniform("uNormalMapStrength", subMaterial.normalMapStrength);
-                    shaderProgram.setUniform("uAlbedoColor", subMaterial.albedoColor);
-                    shaderProgram.setUniform("uMetallicScalar", subMaterial.metallic);
-                    shaderProgram.setUniform("uRoughnessScalar", subMaterial.roughness);
-                    
-                    // Render only the current submesh.
-                    glDrawElements(GL_TRIANGLES, subMesh.indexCount, GL_UNSIGNED_INT, subMesh.indexOffset * Integer.BYTES);
-                    
-                    // Unbind texture if needed.
-                    bindTexture(0, GL_TEXTURE_2D, 0, "Unbind Texture");
-                }
-                glBindVertexArray(0);
-            } else {
-                // For MeshOBJ (single material)
-                Material material = meshRenderer.material;
-                
-                // Bind material textures.
-                bindTexture(0, GL_TEXTURE_2D, material.albedoMap.getID(), "Albedo Map");
-                shaderProgram.setUniform("uAlbedo", 0);
-                
-                bindTexture(1, GL_TEXTURE_2D, material.normalMap.getID(), "Normal Map");
-                shaderProgram.setUniform("uNormal", 1);
-                
-                bindTexture(2, GL_TEXTURE_2D, material.metallicMap.getID(), "Metallic Map");
-                shaderProgram.setUniform("uMetallic", 2);
-                
-                bindTexture(3, GL_TEXTURE_2D, material.roughnessMap.getID(), "Roughness Map");
-                shaderProgram.setUniform("uRoughness", 3);
-                
-                bindTexture(4, GL_TEXTURE_2D, material.aoMap.getID(), "AO Map");
-                shaderProgram.setUniform("uAO", 4);
-                
-                bindTexture(5, GL_TEXTURE_2D, material.heightMap.getID(), "Height Map");
-                shaderProgram.setUniform("uHeightMap", 5);
-                shaderProgram.setUniform("uHeightScale", material.heightScale);
-                
-                shaderProgram.setUniform("scaleX", material.scaleX);
-                shaderProgram.setUniform("scaleY", material.scaleY);
-                
-                shaderProgram.setUniform("uNormalMapStrength", material.normalMapStrength);
-                shaderProgram.setUniform("uAlbedoColor", material.albedoColor);
-                shaderProgram.setUniform("uMetallicScalar", material.metallic);
-                shaderProgram.setUniform("uRoughnessScalar", material.roughness);
-                
-                // Render the mesh normally.
-                meshRenderer.mesh.render();
-                bindTexture(0, GL_TEXTURE_2D, 0, "Unbind Texture");
-            }
+        // Draw the skybox first so it sits behind all geometry. Its depth is the far plane, so after a
+        // pre-pass it only covers the pixels no geometry was drawn to.
+        renderSkybox();
+        
+        // Render all objects in state-sorted order.
+        drawOpaque(shaderProgram);
+        if(depthPrepass)
+        {
+            GLStateCache.depthFunc(GL_LEQUAL);
+            GLStateCache.depthMask(true);
+        }
+    }
+    
+    /**
+     * Writes the opaque queue's surfaces to the G-buffer and the scene depth.
+     */
+    private static void renderGBuffer()
+    {
+        renderGraph.bindTargets(gBufferAlbedo, gBufferNormal, motionTarget, sceneDepth);
+        glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+        if(depthPrepass)
+        {
+            drawOpaque(prepassShader);
+            GLStateCache.depthFunc(GL_EQUAL);
+            GLStateCache.depthMask(false);
+        }
+        drawOpaque(gBufferShader);
+        if(depthPrepass)
+        {
+            GLStateCache.depthFunc(GL_LEQUAL);
+            GLStateCache.depthMask(true);
+        }
+    }
+    
+    /**
+     * Lights every pixel the G-buffer pass covered once with a full-screen pass into the scene color.
+     * The lighting pass runs the same functions as the forward shader (lighting.glsl), so both paths
+     * produce the same image.
+     */
+    private static void renderDeferredLighting()
+    {
+        renderGraph.bindTargets(sceneColor, null, sceneDepth);
+        glClear(GL_COLOR_BUFFER_BIT);
+        // The skybox only passes the depth test where no geometry was drawn.
+        renderSkybox();
+        
+        // The lighting pass samples the depth attached to the framebuffer, so it must not test or
+        // write it.
+        GLStateCache.disable(GL_DEPTH_TEST);
+        GLStateCache.depthMask(false);
+        deferredLightingShader.use();
+        deferredInverseViewProjection.set(scratchMatrix.set(cameraViewProjection).invert());
+        bindTexture(0, GL_TEXTURE_2D, renderGraph.getTexture(gBufferAlbedo), "G-Buffer Albedo");
+        bindTexture(1, GL_TEXTURE_2D, renderGraph.getTexture(gBufferNormal), "G-Buffer Normal");
+        bindTexture(2, GL_TEXTURE_2D, renderGraph.getTexture(sceneDepth), "Scene Depth");
+        GLStateCache.bindVertexArray(fullscreenVao);
+        glDrawArrays(GL_TRIANGLES, 0, 3);
+        GLStateCache.bindVertexArray(0);
+        GLStateCache.depthMask(true);
+        GLStateCache.enable(GL_DEPTH_TEST);
+    }
+    
+    /**
+     * Draws the opaque queue's triangle IDs into the visibility target, then the skybox into the scene
+     * color. {@link VisibilityBuffer#prepare} must have succeeded for this frame.
+     */
+    private static void renderVisibility()
+    {
+        renderGraph.bindTargets(visibilityTarget, null, sceneDepth);
+        visibilityBuffer.clear();
+        if(depthPrepass)
+        {
+            drawOpaque(prepassShader);
+            GLStateCache.depthFunc(GL_EQUAL);
+            GLStateCache.depthMask(false);
+        }
+        drawOpaque(visibilityShader);
+        if(depthPrepass)
+        {
+            GLStateCache.depthFunc(GL_LEQUAL);
+            GLStateCache.depthMask(true);
         }
         
-        // Render children recursively.
-        for (GameObject child : gameObject.children) {
-            renderRecursive(child);
+        renderGraph.bindTargets(sceneColor, null, sceneDepth);
+        glClear(GL_COLOR_BUFFER_BIT);
+        // The skybox only covers the pixels no triangle was drawn to, which the resolve leaves alone.
+        renderSkybox();
+    }
+    
+    /**
+     * Shades every pixel the visibility pass covered once, in a compute pass per material.
+     */
+    private static void resolveVisibility()
+    {
+        // The resolve reads the opaque instances in queue order, not the culler's compacted copies.
+        instanceBuffer.bind();
+        int motionTexture = motionTarget != null ? renderGraph.getTexture(motionTarget) : 0;
+        visibilityBuffer.beginResolve(renderGraph.getTexture(visibilityTarget), renderGraph.getTexture(sceneColor), motionTexture, renderWidth, renderHeight,
+                opaqueInstanceBase, scratchMatrix.set(cameraViewProjection).invert());
+        for(int slot = 0; slot < visibilityBuffer.getMaterialCount(); slot++)
+        {
+            bindMaterial(visibilityBuffer.getMaterial(slot));
+            visibilityBuffer.resolve(slot);
         }
     }
     
+    /**
+     * Accumulates the jittered scene color into the upsampler's window-sized output.
+     */
+    private static void upsampleTemporally()
+    {
+        temporalUpsampler.resolve(renderGraph.getTexture(sceneColor), renderGraph.getTexture(sceneDepth), renderGraph.getTexture(motionTarget),
+                scratchMatrix.set(unjitteredViewProjection).invert());
+    }
     
-    private static void collectDirectionalLights(GameObject gameObject, List<LightDirectional> lights)
+    /**
+     * Copies the upsampled image, or else the scene color, to the window's framebuffer, and leaves the
+     * window's framebuffer bound. Without temporal upsampling, the copy of a scene below full
+     * resolution is a bilinear upscale, done by the blit hardware.
+     */
+    private static void present()
     {
-        LightDirectional light = gameObject.getComponent(LightDirectional.class);
-        if(light != null)
+        if(frameUpsampled)
+        {
+            GLStateCache.bindFramebuffer(GL_READ_FRAMEBUFFER, renderGraph.getFramebuffer(upsampledTarget, null, null));
+            GLStateCache.bindFramebuffer(GL_DRAW_FRAMEBUFFER, 0);
+            glBlitFramebuffer(0, 0, temporalUpsampler.getWidth(), temporalUpsampler.getHeight(), 0, 0, Engine.WINDOW_WIDTH, Engine.WINDOW_HEIGHT, GL_COLOR_BUFFER_BIT, GL_NEAREST);
+        }
+        else
         {
-            lights.add(light);
+            GLStateCache.bindFramebuffer(GL_READ_FRAMEBUFFER, renderGraph.getFramebuffer(sceneColor, null, null));
+            GLStateCache.bindFramebuffer(GL_DRAW_FRAMEBUFFER, 0);
+            glBlitFramebuffer(0, 0, renderWidth, renderHeight, 0, 0, Engine.WINDOW_WIDTH, Engine.WINDOW_HEIGHT, GL_COLOR_BUFFER_BIT, GL_LINEAR);
         }
-        for(GameObject child : gameObject.children)
+        GLStateCache.bindFramebuffer(GL_FRAMEBUFFER, 0);
+        GLStateCache.viewport(0, 0, Engine.WINDOW_WIDTH, Engine.WINDOW_HEIGHT);
+    }
+    
+    private static void renderSkybox()
+    {
+        if(skybox != null && skybox.getCubeMap() != null)
         {
-            collectDirectionalLights(child, lights);
+            skybox.render(skyboxShader, frameCamera.viewMatrix, getProjectionMatrix(frameCamera));
         }
     }
     
-    private static void collectPointLights(GameObject gameObject, List<LightPoint> lights)
+    /**
+     * Draws the opaque queue with the given shader: the depth pre-pass, the forward main shader or the
+     * G-buffer shader.
+     * <p>
+     * With occlusion culling, the first pass that writes depth this frame runs the culler's two phases:
+     * it draws what last frame's depth does not hide, reduces the depth drawn so far into the Hi-Z
+     * buffer, then draws what the retest against it reveals. A color pass after a depth pre-pass redraws
+     * both phases' results without culling again.
+     * </p>
+     */
+    private static void drawOpaque(ShaderProgram shader)
     {
-        LightPoint light = gameObject.getComponent(LightPoint.class);
-        if(light != null)
+        if(!occlusionCulling)
+        {
+            indirectBuffer.bind();
+            submitOpaque(shader, indirectBuffer.offsetOf(opaqueCommandBase));
+            return;
+        }
+        if(shader == prepassShader || !depthPrepass)
         {
-            lights.add(light);
+            occlusionCuller.cull(0);
+            submitOpaque(shader, 0L);
+            occlusionCuller.buildHiZ(renderGraph.getTexture(sceneDepth));
+            occlusionCuller.cull(1);
+            submitOpaque(shader, 0L);
         }
-        for(GameObject child : gameObject.children)
+        else
         {
-            collectPointLights(child, lights);
+            occlusionCuller.bindPhase(0);
+            submitOpaque(shader, 0L);
+            occlusionCuller.bindPhase(1);
+            submitOpaque(shader, 0L);
         }
     }
     
-    private static Matrix4f getProjectionMatrix(Camera camera)
+    private static void submitOpaque(ShaderProgram shader, long commandOffset)
     {
-        Matrix4f projectionMatrix = new Matrix4f();
-        float aspectRatio = camera.aspectRatio;
-        if(camera.isOrthographic)
+        if(shader == prepassShader || shader == visibilityShader)
         {
-            float orthoSize = camera.size;
-            projectionMatrix.ortho(-orthoSize * aspectRatio, orthoSize * aspectRatio, -orthoSize, orthoSize, camera.near, camera.far);
+            shader.use();
+            submitDepthQueue(opaqueQueue, commandOffset);
         }
         else
         {
-            projectionMatrix.perspective((float) Math.toRadians(camera.fov), aspectRatio, camera.near, camera.far);
+            submitOpaqueQueue(shader, commandOffset);
         }
-        return projectionMatrix;
     }
     
-    private static Camera getActiveCamera(Scene activeScene)
+    /**
+     * Writes the camera, lighting and point shadow uniform blocks for this frame, one upload each.
+     * Every shader reads them through fixed binding points, so nothing has to be set per program.
+     */
+    private static void uploadFrameUniforms(Camera camera, boolean hasDirectionalShadows)
     {
-        for(GameObject gameObject : activeScene.getGameObjects())
+        // Camera: view, projection, viewPos, and the unjittered view-projections of this and the
+        // previous frame that motion vectors are measured with.
+        cameraUniforms.begin()
+                .putMat4(camera.viewMatrix)
+                .putMat4(getProjectionMatrix(camera))
+                .putVec4(camera.gameObject.transform.globalPosition, 1.0f)
+                .putMat4(unjitteredViewProjection)
+                .putMat4(previousViewProjection)
+                .upload();
+        
+        // Lighting: cascade matrices and splits, light counts, directional lights and the cluster grid.
+        int directionalCount = Math.min(directionalLights.size(), MAX_DIR_LIGHTS);
+        int pointCount = pointLights.size();
+        int cascades = hasDirectionalShadows ? cascadedShadowMap.getCascadeCount() : 0;
+        lightingUniforms.begin();
+        for(int i = 0; i < CascadedShadowMap.MAX_CASCADES; i++)
         {
-            Camera camera = gameObject.getComponent(Camera.class);
-            if(camera != null && camera.isActive)
+            lightingUniforms.putMat4(cascadedShadowMap.getMatrix(i));
+        }
+        lightingUniforms.putVec4(cascadedShadowMap.getSplit(0), cascadedShadowMap.getSplit(1), cascadedShadowMap.getSplit(2), cascadedShadowMap.getSplit(3))
+                .putIVec4(directionalCount, pointCount, pcfRadius, cascades);
+        for(int i = 0; i < directionalCount; i++)
+        {
+            LightDirectional light = directionalLights.get(i);
+            Vector3f direction = scratchVector.set(light.gameObject.transform.front()).negate();
+            lightingUniforms.putVec4(direction, 0.0f).putVec4(light.color, light.strength);
+        }
+        lightingUniforms.seek(CLUSTER_PARAMS_OFFSET);
+        lightClusters.putParams(lightingUniforms, camera, renderWidth, renderHeight);
+        lightingUniforms.upload();
+        
+        // Point lights go to a storage buffer, so their number is not limited by the block size.
+        lightClusters.clear();
+        for(LightPoint light : pointLights)
+        {
+            lightClusters.put(light, pointShadowAtlas.getShaderIndex(light));
+        }
+        lightClusters.upload();
+        
+        // Point shadows: a static and a dynamic block per scheduled light, holding its six cube face
+        // matrices and the atlas layer to draw into.
+        if(!pointShadowUpdates.isEmpty())
+        {
+            pointShadowUniforms.begin();
+            for(int i = 0; i < pointShadowUpdates.size(); i++)
             {
-                return camera;
+                PointShadowAtlas.Entry entry = pointShadowUpdates.get(i);
+                pointShadowUniforms.seek(2 * i * pointShadowBlockStride);
+                putPointShadowBlock(entry.light, entry.getStaticLayer());
+                if(entry.renderDynamic)
+                {
+                    pointShadowUniforms.seek((2 * i + 1) * pointShadowBlockStride);
+                    putPointShadowBlock(entry.light, entry.getDynamicLayer());
+                }
             }
+            pointShadowUniforms.upload();
         }
-        return null;
     }
     
-    private static LightDirectional getMainDirectionalLight(Scene activeScene)
+    private static void putPointShadowBlock(LightPoint light, int firstLayer)
     {
-        List<LightDirectional> directionalLights = new ArrayList<>();
-        if(activeScene.rootGameObject != null)
+        computePointFaceMatrices(light);
+        for(int face = 0; face < 6; face++)
         {
-            collectDirectionalLights(activeScene.rootGameObject, directionalLights);
+            pointShadowUniforms.putMat4(pointFaceMatrices[face]);
         }
-        return !directionalLights.isEmpty() ? directionalLights.get(0) : null;
+        pointShadowUniforms.putVec4(light.gameObject.transform.globalPosition, light.getRange()).putIVec4(firstLayer, 0, 0, 0);
+    }
+    
+    /**
+     * Computes the six cube face view-projection matrices of a point light into {@link #pointFaceMatrices}.
+     * They use left-handed lookAtLH with the canonical up vectors, and the light's range as far plane.
+     */
+    private static void computePointFaceMatrices(LightPoint light)
+    {
+        Vector3f lightPos = light.gameObject.transform.globalPosition;
+        Matrix4f shadowProj = scratchMatrix.setPerspective((float) Math.toRadians(90.0f), 1.0f, 1.0f, light.getRange());
+        for(int face = 0; face < 6; face++)
+        {
+            Vector3f target = scratchVector.set(lightPos).add(CUBE_FACE_DIRECTIONS[face]);
+            pointFaceMatrices[face].set(shadowProj).lookAtLH(lightPos, target, CUBE_FACE_UPS[face]);
+        }
+    }
+    
+    /**
+     * Gives the lit point lights their shadow atlas slots and picks the slots to redraw this frame.
+     * <p>
+     * A light's priority is the fraction of the screen height its range covers (1 when the camera is
+     * inside it), and it asks for a tier matching that many pixels. The atlas assigns slots in priority
+     * order, then every light whose slots are stale competes for the per-frame update budget.
+     * </p>
+     */
+    private static void preparePointShadows(Camera camera)
+    {
+        pointShadowUpdates.clear();
+        pointShadowAtlas.beginFrame();
+        Vector3f cameraPosition = camera.gameObject.transform.globalPosition;
+        float halfHeight = camera.isOrthographic ? camera.size : (float) Math.tan(Math.toRadians(camera.fov) * 0.5);
+        for(LightPoint light : pointLights)
+        {
+            float range = light.getRange();
+            float distance = light.gameObject.transform.globalPosition.distance(cameraPosition);
+            float coverage = 1.0f;
+            if(distance > range)
+            {
+                coverage = Math.min(1.0f, camera.isOrthographic ? range / halfHeight : range / (distance * halfHeight));
+            }
+            pointShadowAtlas.track(light, coverage * Engine.WINDOW_HEIGHT * pointShadowResolutionScale, coverage);
+        }
+        pointShadowAtlas.assignSlots();
+        
+        for(LightPoint light : pointLights)
+        {
+            PointShadowAtlas.Entry entry = pointShadowAtlas.getEntry(light);
+            if(entry == null || entry.getTier() == -1)
+            {
+                continue;
+            }
+            Vector3f lightPos = light.gameObject.transform.globalPosition;
+            float farPlane = light.getRange();
+            collectCasters(lightPos, farPlane);
+            long staticSignature = casterSignature(staticCasters);
+            long dynamicSignature = casterSignature(dynamicCasters);
+            if(pointShadowAtlas.checkDirty(entry, light.gameObject.transform.getVersion(), farPlane, staticSignature, dynamicSignature))
+            {
+                pointShadowUpdates.add(entry);
+            }
+        }
+        pointShadowAtlas.scheduleUpdates(pointShadowUpdates);
+    }
+    
+    /**
+     * Fills {@link #staticCasters} and {@link #dynamicCasters} with the renderables whose bounds reach
+     * into a sphere.
+     */
+    private static void collectCasters(Vector3f center, float radius)
+    {
+        staticCasters.clear();
+        dynamicCasters.clear();
+        sceneIndex.queryMeshes(center, radius, entry -> (entry.gameObject.isStatic ? staticCasters : dynamicCasters).add(entry.renderable));
+    }
+    
+    /**
+     * Culls the renderables against every view drawn this frame and records the visible draws into
+     * that view's queue: the camera frustum for the opaque queue, each cascade for the cascade queue,
+     * and each cube face for the point shadow slots scheduled by {@link #preparePointShadows}.
+     * Then sorts and batches every queue and uploads the instance data and indirect commands once.
+     * <p>
+     * Culling runs on the GL thread, since the scene index shares one traversal stack between its
+     * queries and meshes not yet in the arena have to be uploaded. Recording the draws, sorting and
+     * batching each view, and packing the instance data then run on {@link #renderWorkers}: the camera's
+     * renderables are split into one slice per thread, each recorded into its own queue and merged
+     * before sorting, while every shadow view is one task.
+     * </p>
+     */
+    private static void buildQueues(Camera camera, boolean hasDirectionalShadows)
+    {
+        // Camera: the renderables in the frustum, except static ones drawn through their batches.
+        opaqueCandidates.clear();
+        sceneIndex.queryMeshes(cameraFrustum, entry ->
+        {
+            if(!isBatched(entry))
+            {
+                uploadMesh(entry.renderable);
+                opaqueCandidates.add(entry.renderable);
+            }
+        });
+        
+        // Cascades: every caster touching at least one cascade, once.
+        cascadeCasters.clear();
+        if(hasDirectionalShadows)
+        {
+            int cascades = cascadedShadowMap.getCascadeCount();
+            for(int c = 0; c < cascades; c++)
+            {
+                shadowFrustums[c].set(cascadedShadowMap.getMatrix(c));
+            }
+            // A caster found by several cascades is drawn once, with every cascade it reaches in its mask.
+            int stamp = sceneIndex.nextQueryStamp();
+            for(int c = 0; c < cascades; c++)
+            {
+                sceneIndex.queryMeshes(shadowFrustums[c], entry ->
+                {
+                    if(entry.queryStamp != stamp && !isBatched(entry))
+                    {
+                        entry.queryStamp = stamp;
+                        uploadMesh(entry.renderable);
+                        cascadeCasters.add(entry.renderable);
+                    }
+                });
+            }
+        }
+        
+        // Point shadow slots: the casters in each slot's range and its cube face frustums.
+        for(int i = 0; i < pointShadowUpdates.size(); i++)
+        {
+            PointShadowAtlas.Entry entry = pointShadowUpdates.get(i);
+            PointShadowRecording recording = pointShadowRecording(i);
+            computePointFaceMatrices(entry.light);
+            for(int face = 0; face < 6; face++)
+            {
+                recording.frustums[face].set(pointFaceMatrices[face]);
+            }
+            collectCasters(entry.light.gameObject.transform.globalPosition, entry.light.getRange());
+            for(Renderable caster : staticCasters)
+            {
+                uploadMesh(caster);
+            }
+            for(Renderable caster : dynamicCasters)
+            {
+                uploadMesh(caster);
+            }
+            recording.set(entry, staticCasters, dynamicCasters, pointShadowQueue(2 * i), pointShadowQueue(2 * i + 1));
+        }
+        
+        // Record the views on the workers, the opaque slices first since they are the largest.
+        recordingTasks.clear();
+        int slices = opaqueRecordings.length;
+        for(int k = 0; k < slices; k++)
+        {
+            opaqueRecordings[k].set(camera, opaqueCandidates.size() * k / slices, opaqueCandidates.size() * (k + 1) / slices);
+            recordingTasks.add(opaqueRecordings[k]);
+        }
+        cascadeShadowQueue.clear();
+        if(hasDirectionalShadows)
+        {
+            recordingTasks.add(CASCADE_RECORDING);
+        }
+        for(int i = 0; i < pointShadowUpdates.size(); i++)
+        {
+            recordingTasks.add(pointShadowRecordings.get(i));
+        }
+        renderWorkers.run(recordingTasks, parallelRecording);
+        
+        // Opaque: the slices in order, then one draw per visible static batch.
+        opaqueQueue.clear();
+        for(OpaqueRecording recording : opaqueRecordings)
+        {
+            opaqueQueue.append(recording.queue);
+        }
+        if(staticBatching)
+        {
+            Vector3f cameraPosition = camera.gameObject.transform.globalPosition;
+            for(StaticBatcher.Batch batch : staticBatcher.getBatches())
+            {
+                Bounds bounds = batch.getBounds();
+                if(cameraFrustum.testAab(bounds.min, bounds.max))
+                {
+                    float depth = bounds.center.distance(cameraPosition) / camera.far;
+                    addDraw(opaqueQueue, RenderQueue.Pass.OPAQUE, shaderProgram, null, batch.mesh, IDENTITY, bounds, batch.material, 0, batch.mesh.getIndexCount(), depth);
+                }
+            }
+        }
+        opaqueQueue.sort();
+        opaqueQueue.buildBatches();
+        
+        instanceBuffer.clear();
+        indirectBuffer.clear();
+        writeTasks.clear();
+        writeTaskCount = 0;
+        opaqueInstanceBase = instanceBuffer.size();
+        opaqueCommandBase = writeBatches(opaqueQueue);
+        cascadeShadowCommandBase = writeBatches(cascadeShadowQueue);
+        for(int i = 0; i < 2 * pointShadowUpdates.size(); i++)
+        {
+            pointShadowCommandBases[i] = writeBatches(pointShadowQueues.get(i));
+        }
+        renderWorkers.run(writeTasks, parallelRecording);
+        instanceBuffer.upload();
+        if(occlusionCulling)
+        {
+            occlusionCuller.prepare(opaqueQueue, opaqueInstanceBase, cameraViewProjection);
+        }
+        indirectBuffer.upload();
+    }
+    
+    /**
+     * Records, sorts and batches the casters found in the cascades, on a worker.
+     */
+    private static void recordCascades()
+    {
+        int cascades = cascadedShadowMap.getCascadeCount();
+        for(Renderable caster : cascadeCasters)
+        {
+            addShadowDraw(cascadeShadowQueue, caster, viewMask(shadowFrustums, caster.bounds, cascades));
+        }
+        if(staticBatching)
+        {
+            for(StaticBatcher.Batch batch : staticBatcher.getBatches())
+            {
+                int mask = viewMask(shadowFrustums, batch.getBounds(), cascades);
+                if(mask != 0)
+                {
+                    RenderQueue.Item item = addDraw(cascadeShadowQueue, RenderQueue.Pass.SHADOW, depthShader, null, batch.mesh, IDENTITY, batch.getBounds(), batch.material, 0, batch.mesh.getIndexCount(), 0);
+                    item.viewMask = mask;
+                }
+            }
+        }
+        cascadeShadowQueue.sort();
+        cascadeShadowQueue.buildBatches();
+    }
+    
+    /**
+     * Uploads a renderable's mesh to the mesh arena if it is not there yet. Workers only read the arena
+     * ranges of the meshes they record, so every mesh is uploaded here on the GL thread first.
+     */
+    private static void uploadMesh(Renderable renderable)
+    {
+        Mesh mesh = renderable.meshRenderer.mesh;
+        if(!mesh.isUploaded())
+        {
+            mesh.initMesh();
+        }
+    }
+    
+    /**
+     * Returns the pooled recording of a point shadow slot.
+     */
+    private static PointShadowRecording pointShadowRecording(int index)
+    {
+        while(pointShadowRecordings.size() <= index)
+        {
+            pointShadowRecordings.add(new PointShadowRecording());
+        }
+        return pointShadowRecordings.get(index);
+    }
+    
+    /**
+     * Returns the pooled point shadow queue for a block index, cleared.
+     */
+    private static RenderQueue pointShadowQueue(int index)
+    {
+        while(pointShadowQueues.size() <= index)
+        {
+            pointShadowQueues.add(new RenderQueue());
+        }
+        RenderQueue queue = pointShadowQueues.get(index);
+        queue.clear();
+        return queue;
+    }
+    
+    /**
+     * Returns true if an indexed object is drawn as part of a static batch in the camera and cascade views.
+     */
+    private static boolean isBatched(SceneIndex.Entry entry)
+    {
+        return staticBatching && entry.gameObject.isStatic;
+    }
+    
+    /**
+     * Returns one bit for each of the first {@code count} frustums that the bounds intersect.
+     */
+    private static int viewMask(FrustumIntersection[] frustums, Bounds bounds, int count)
+    {
+        int mask = 0;
+        for(int i = 0; i < count; i++)
+        {
+            if(frustums[i].testAab(bounds.min, bounds.max))
+            {
+                mask |= 1 << i;
+            }
+        }
+        return mask;
+    }
+    
+    private static void addPointShadowDraws(RenderQueue queue, List<Renderable> casters, FrustumIntersection[] faceFrustums)
+    {
+        for(Renderable caster : casters)
+        {
+            addShadowDraw(queue, caster, viewMask(faceFrustums, caster.bounds, 6));
+        }
+    }
+    
+    /**
+     * Appends a caster to a shadow queue if it reaches any layer. Shadow draws only need the renderer's
+     * material (for height displacement) and the whole index range.
+     */
+    private static void addShadowDraw(RenderQueue queue, Renderable caster, int viewMask)
+    {
+        if(viewMask == 0)
+        {
+            return;
+        }
+        Mesh mesh = caster.meshRenderer.mesh;
+        RenderQueue.Item item = addDraw(queue, RenderQueue.Pass.SHADOW, depthShader, caster, caster.meshRenderer.material, 0, mesh.getIndexCount(), 0);
+        item.viewMask = viewMask;
+    }
+    
+    /**
+     * Reserves a queue's per-draw data in the instance buffer in batch order and schedules it to be
+     * written by {@link #writeTasks}, then appends one indirect command per batch pointing at its
+     * instances. Large queues are split so several workers write them.
+     *
+     * @return the index of the queue's first indirect command.
+     */
+    private static int writeBatches(RenderQueue queue)
+    {
+        int instanceBase = instanceBuffer.reserve(queue.size());
+        int parts = Math.min(renderWorkers.getThreadCount(), 1 + queue.size() / INSTANCE_WRITE_SLICE);
+        for(int k = 0; k < parts; k++)
+        {
+            InstanceWrite write = instanceWrite(writeTaskCount++);
+            write.set(queue, instanceBase, queue.size() * k / parts, queue.size() * (k + 1) / parts);
+            writeTasks.add(write);
+        }
+        
+        int commandBase = indirectBuffer.size();
+        for(int i = 0; i < queue.batchCount(); i++)
+        {
+            RenderQueue.Batch batch = queue.getBatch(i);
+            indirectBuffer.put(batch.indexCount, batch.instanceCount, batch.indexOffset, batch.baseVertex, instanceBase + batch.firstInstance);
+        }
+        return commandBase;
+    }
+    
+    /**
+     * Returns a pooled instance write task.
+     */
+    private static InstanceWrite instanceWrite(int index)
+    {
+        while(instanceWrites.size() <= index)
+        {
+            instanceWrites.add(new InstanceWrite());
+        }
+        return instanceWrites.get(index);
+    }
+    
+    /**
+     * Records the opaque draws of a slice of {@link #opaqueCandidates} into its own queue, on a worker.
+     */
+    private static class OpaqueRecording implements Runnable
+    {
+        final RenderQueue queue = new RenderQueue();
+        private Camera camera;
+        private int start;
+        private int end;
+        
+        void set(Camera camera, int start, int end)
+        {
+            this.camera = camera;
+            this.start = start;
+            this.end = end;
+        }
+        
+        @Override
+        public void run()
+        {
+            queue.clear();
+            for(int i = start; i < end; i++)
+            {
+                collectOpaqueDraws(queue, opaqueCandidates.get(i), camera);
+            }
+        }
+    }
+    
+    /**
+     * Records, sorts and batches the two queues of a point shadow slot, on a worker. Holds its own copy
+     * of the casters and cube face frustums so slots can be recorded side by side.
+     */
+    private static class PointShadowRecording implements Runnable
+    {
+        final FrustumIntersection[] frustums = new FrustumIntersection[6];
+        private final List<Renderable> staticCasters = new ArrayList<>();
+        private final List<Renderable> dynamicCasters = new ArrayList<>();
+        private PointShadowAtlas.Entry entry;
+        private RenderQueue staticQueue;
+        private RenderQueue dynamicQueue;
+        
+        PointShadowRecording()
+        {
+            for(int face = 0; face < 6; face++)
+            {
+                frustums[face] = new FrustumIntersection();
+            }
+        }
+        
+        void set(PointShadowAtlas.Entry entry, List<Renderable> staticCasters, List<Renderable> dynamicCasters, RenderQueue staticQueue, RenderQueue dynamicQueue)
+        {
+            this.entry = entry;
+            this.staticCasters.clear();
+            this.staticCasters.addAll(staticCasters);
+            this.dynamicCasters.clear();
+            this.dynamicCasters.addAll(dynamicCasters);
+            this.staticQueue = staticQueue;
+            this.dynamicQueue = dynamicQueue;
+        }
+        
+        @Override
+        public void run()
+        {
+            if(entry.renderStatic)
+            {
+                addPointShadowDraws(staticQueue, staticCasters, frustums);
+                if(entry.isMerged())
+                {
+                    addPointShadowDraws(staticQueue, dynamicCasters, frustums);
+                }
+            }
+            if(entry.renderDynamic)
+            {
+                addPointShadowDraws(dynamicQueue, dynamicCasters, frustums);
+            }
+            staticQueue.sort();
+            staticQueue.buildBatches();
+            dynamicQueue.sort();
+            dynamicQueue.buildBatches();
+        }
+    }
+    
+    /**
+     * Writes the instance data of a range of a queue's instances to their reserved entries, on a worker.
+     */
+    private static class InstanceWrite implements Runnable
+    {
+        private RenderQueue queue;
+        private int instanceBase;
+        private int start;
+        private int end;
+        
+        void set(RenderQueue queue, int instanceBase, int start, int end)
+        {
+            this.queue = queue;
+            this.instanceBase = instanceBase;
+            this.start = start;
+            this.end = end;
+        }
+        
+        @Override
+        public void run()
+        {
+            for(int i = start; i < end; i++)
+            {
+                RenderQueue.Item item = queue.getInstance(i);
+                // Static batches never move, so their previous transform is the current one.
+                Matrix4fc previousModel = item.gameObject != null ? item.gameObject.transform.getPreviousModelMatrix() : item.model;
+                instanceBuffer.set(instanceBase + i, item.model, previousModel, item.material, item.viewMask, i);
+            }
+        }
+    }
+    
+    /**
+     * Records the draws of a renderable found inside the camera frustum. glTF meshes contribute one
+     * draw per visible submesh so each carries its own material.
+     */
+    private static void collectOpaqueDraws(RenderQueue queue, Renderable renderable, Camera camera)
+    {
+        // Opaque draws are ordered front to back within identical state.
+        Vector3f cameraPosition = camera.gameObject.transform.globalPosition;
+        float depth = renderable.gameObject.transform.globalPosition.distance(cameraPosition) / camera.far;
+        
+        Mesh mesh = renderable.meshRenderer.mesh;
+        if(mesh instanceof MeshGLTF gltfMesh && !gltfMesh.subMeshes.isEmpty())
+        {
+            for(int i = 0; i < gltfMesh.subMeshes.size(); i++)
+            {
+                Bounds subMeshBounds = renderable.subMeshBounds[i];
+                if(cameraFrustum.testAab(subMeshBounds.min, subMeshBounds.max))
+                {
+                    MeshGLTF.SubMesh subMesh = gltfMesh.subMeshes.get(i);
+                    RenderQueue.Item item = addDraw(queue, RenderQueue.Pass.OPAQUE, shaderProgram, renderable, subMesh.material, subMesh.indexOffset, subMesh.indexCount, depth);
+                    item.bounds = subMeshBounds;
+                }
+            }
+        }
+        else
+        {
+            addDraw(queue, RenderQueue.Pass.OPAQUE, shaderProgram, renderable, renderable.meshRenderer.material, 0, mesh.getIndexCount(), depth);
+        }
+    }
+    
+    private static RenderQueue.Item addDraw(RenderQueue queue, RenderQueue.Pass pass, ShaderProgram shader, Renderable renderable, Material material, int indexOffset, int indexCount, float depth)
+    {
+        return addDraw(queue, pass, shader, renderable.gameObject, renderable.meshRenderer.mesh, renderable.model, renderable.bounds, material, indexOffset, indexCount, depth);
+    }
+    
+    /**
+     * Appends a draw of a mesh range. Static batches pass no game object and an identity transform.
+     */
+    private static RenderQueue.Item addDraw(RenderQueue queue, RenderQueue.Pass pass, ShaderProgram shader, GameObject gameObject, Mesh mesh, Matrix4f model, Bounds bounds, Material material, int indexOffset, int indexCount, float depth)
+    {
+        int vaoId = mesh.getVaoId();
+        RenderQueue.Item item = queue.add();
+        item.gameObject = gameObject;
+        item.mesh = mesh;
+        item.material = material;
+        item.textureSet = material.getTextureSetId();
+        item.vaoId = vaoId;
+        item.indexOffset = mesh.getFirstIndex() + indexOffset;
+        item.baseVertex = mesh.getBaseVertex();
+        item.indexCount = indexCount;
+        item.model.set(model);
+        item.viewMask = 0;
+        item.bounds = bounds;
+        item.key = RenderQueue.makeKey(pass, shader.programId, item.textureSet, vaoId, depth);
+        return item;
+    }
+    
+    /**
+     * Draws the opaque queue with a shader reading the full material (forward or G-buffer). Every run of batches sharing textures and
+     * VAO (for example all submeshes of a glTF model using one material) is submitted with a single
+     * {@code glMultiDrawElementsIndirect}; per-draw parameters come from the instance buffer.
+     * The indirect buffer holding the queue's commands must be bound.
+     *
+     * @param commandOffset the byte offset of the queue's first command in the bound indirect buffer.
+     */
+    private static void submitOpaqueQueue(ShaderProgram shader, long commandOffset)
+    {
+        shader.use();
+        int batch = 0;
+        while(batch < opaqueQueue.batchCount())
+        {
+            RenderQueue.Batch first = opaqueQueue.getBatch(batch);
+            int runEnd = opaqueQueue.runEnd(batch);
+            bindMaterial(first.material);
+            GLStateCache.bindVertexArray(first.vaoId);
+            glMultiDrawElementsIndirect(GL_TRIANGLES, GL_UNSIGNED_INT, commandOffset + (long) batch * IndirectBuffer.COMMAND_BYTES, runEnd - batch, 0);
+            batch = runEnd;
+        }
+    }
+    
+    /**
+     * Draws a queue with the depth-only shader currently in use (shadow or pre-pass), from the bound
+     * indirect buffer. Only the height map changes between runs; displacement and tiling come from the
+     * instance buffer.
+     */
+    private static void submitDepthQueue(RenderQueue queue, long commandOffset)
+    {
+        int batch = 0;
+        while(batch < queue.batchCount())
+        {
+            RenderQueue.Batch first = queue.getBatch(batch);
+            int runEnd = queue.runEnd(batch);
+            bindTexture(5, GL_TEXTURE_2D, first.material.heightMap.getID(), "Height Map");
+            GLStateCache.bindVertexArray(first.vaoId);
+            glMultiDrawElementsIndirect(GL_TRIANGLES, GL_UNSIGNED_INT, commandOffset + (long) batch * IndirectBuffer.COMMAND_BYTES, runEnd - batch, 0);
+            batch = runEnd;
+        }
+    }
+    
+    /**
+     * Hashes the identities, meshes and transform versions of the casters in a light's range, in the
+     * order {@link #collectCasters} found them. The result changes when one of them moves or swaps its
+     * mesh, or when casters enter or leave the range, and is 0 only when no caster is in range.
+     */
+    private static long casterSignature(List<Renderable> casters)
+    {
+        if(casters.isEmpty())
+        {
+            return 0;
+        }
+        long signature = 1;
+        for(Renderable caster : casters)
+        {
+            signature = 31 * signature + System.identityHashCode(caster.gameObject);
+            signature = 31 * signature + System.identityHashCode(caster.meshRenderer.mesh);
+            signature = 31 * signature + caster.gameObject.transform.getVersion();
+        }
+        return signature | 1L;
+    }
+    
+    /**
+     * Binds a material's textures. Sampler units are fixed and were assigned in {@link #init()};
+     * scalar parameters are read per draw from the instance buffer.
+     */
+    private static void bindMaterial(Material material)
+    {
+        bindTexture(0, GL_TEXTURE_2D, material.albedoMap.getID(), "Albedo Map");
+        bindTexture(1, GL_TEXTURE_2D, material.normalMap.getID(), "Normal Map");
+        bindTexture(2, GL_TEXTURE_2D, material.metallicMap.getID(), "Metallic Map");
+        bindTexture(3, GL_TEXTURE_2D, material.roughnessMap.getID(), "Roughness Map");
+        bindTexture(4, GL_TEXTURE_2D, material.aoMap.getID(), "AO Map");
+        bindTexture(5, GL_TEXTURE_2D, material.heightMap.getID(), "Height Map");
+    }
+    
+    /**
+     * Returns the camera's projection for this frame, shifted by the upsampler's sub-pixel jitter when
+     * the frame is upsampled.
+     */
+    private static Matrix4f getProjectionMatrix(Camera camera)
+    {
+        Matrix4f projectionMatrix = getUnjitteredProjectionMatrix(camera);
+        if(frameUpsampled)
+        {
+            temporalUpsampler.jitter(projectionMatrix, renderWidth, renderHeight);
+        }
+        return projectionMatrix;
+    }
+    
+    private static Matrix4f getUnjitteredProjectionMatrix(Camera camera)
+    {
+        Matrix4f projectionMatrix = new Matrix4f();
+        float aspectRatio = camera.aspectRatio;
+        if(camera.isOrthographic)
+        {
+            float orthoSize = camera.size;
+            projectionMatrix.ortho(-orthoSize * aspectRatio, orthoSize * aspectRatio, -orthoSize, orthoSize, camera.near, camera.far);
+        }
+        else
+        {
+            projectionMatrix.perspective((float) Math.toRadians(camera.fov), aspectRatio, camera.near, camera.far);
+        }
+        return projectionMatrix;
+    }
+    
+    private static Camera getActiveCamera(Scene activeScene)
+    {
+        for(GameObject gameObject : activeScene.getGameObjects())
+        {
+            Camera camera = gameObject.getComponent(Camera.class);
+            if(camera != null && camera.isActive)
+            {
+                return camera;
+            }
+        }
+        return null;
+    }
+    
+    private static LightDirectional getMainDirectionalLight(Scene activeScene)
+    {
+        List<LightDirectional> directionalLights = activeScene.getIndex().getDirectionalLights();
+        return !directionalLights.isEmpty() ? directionalLights.get(0) : null;
+    }
+    
+    /**
+     * Returns the depth texture of the main scene pass. After {@link #render} it holds the frame's
+     * opaque depth (written by the pre-pass when {@link #depthPrepass} is on), for passes that read it.
+     * The texture comes from the render graph's pool and may change from frame to frame.
+     */
+    public static int getSceneDepthTexture()
+    {
+        return sceneDepth != null ? renderGraph.getTexture(sceneDepth) : 0;
+    }
+    
+    /**
+     * Returns the GPU milliseconds of the most recent measured frame, and the scale the scene renders at
+     * relative to the window, in that order.
+     */
+    public static float[] getResolutionStats()
+    {
+        return new float[]{gpuTimer.getLastMillis(), resolutionController.getScale()};
+    }
+    
+    /**
+     * Applies a quality profile. Every setting takes effect from the next frame; the environment
+     * resolution only applies to skyboxes loaded afterwards.
+     */
+    public static void setQualityProfile(QualityProfile profile)
+    {
+        baseShadowMapWidth = profile.shadowMapResolution;
+        baseShadowMapHeight = profile.shadowMapResolution;
+        cascadeCount = profile.cascadeCount;
+        pcfRadius = profile.pcfRadius;
+        pointShadowResolutionScale = profile.pointShadowResolutionScale;
+        PointShadowAtlas.updateBudget = Math.max(1, Math.min(profile.pointShadowUpdateBudget, PointShadowAtlas.MAX_UPDATES_PER_FRAME));
+        CubeMapTexture.equirectangularResolution = profile.environmentResolution;
+        Skybox.irradianceResolution = profile.irradianceResolution;
+        Skybox.prefilterResolution = profile.prefilterResolution;
+    }
+    
+    /**
+     * Returns a profile holding the current quality settings, which may have been changed one by one
+     * since the last {@link #setQualityProfile}.
+     */
+    public static QualityProfile getQualityProfile()
+    {
+        QualityProfile profile = new QualityProfile();
+        profile.shadowMapResolution = baseShadowMapWidth;
+        profile.cascadeCount = cascadeCount;
+        profile.pcfRadius = pcfRadius;
+        profile.pointShadowResolutionScale = pointShadowResolutionScale;
+        profile.pointShadowUpdateBudget = PointShadowAtlas.updateBudget;
+        profile.environmentResolution = CubeMapTexture.equirectangularResolution;
+        profile.irradianceResolution = Skybox.irradianceResolution;
+        profile.prefilterResolution = Skybox.prefilterResolution;
+        return profile;
+    }
+    
+    /**
+     * Turns GPU timing of the render graph's passes on or off, from the next frame on.
+     */
+    public static void setPassProfiling(boolean profiling)
+    {
+        renderGraph.setProfiling(profiling);
+    }
+    
+    /**
+     * Returns the GPU milliseconds the previous frame spent in the passes with the given name, such as
+     * "Cascade Shadows", or in all of its passes for {@code null}. Needs {@link #setPassProfiling} and
+     * waits for the GPU to finish the frame.
+     */
+    public static float getPassMillis(String passName)
+    {
+        return passName != null ? renderGraph.getPassMillis(passName) : renderGraph.getTotalMillis();
+    }
+    
+    /**
+     * Returns the number of passes the previous frame declared, the number the render graph culled, and
+     * the number of pooled transient targets, in that order.
+     */
+    public static int[] getGraphStats()
+    {
+        return new int[]{renderGraph.getPassCount(), renderGraph.getCulledPassCount(), renderGraph.getPooledTextureCount()};
+    }
+    
+    /**
+     * Returns the number of opaque draws the occlusion culler tested, culled, and only drew in its
+     * second phase during the previous frame, in that order.
+     */
+    public static int[] getOcclusionStats()
+    {
+        return new int[]{occlusionCuller.getTestedCount(), occlusionCuller.getCulledCount(), occlusionCuller.getSecondPhaseCount()};
+    }
+    
+    /**
+     * Returns the nanoseconds spent waiting for frame ring regions since the last call, and the bytes of
+     * per-frame data the previous frame wrote to the ring, in that order.
+     */
+    public static long[] getUploadStats()
+    {
+        long[] stats = {frameRing.getWaitNanos(), frameRing.getLastFrameBytes()};
+        frameRing.resetStats();
+        return stats;
     }
     
     public static void cleanup()
@@ -557,6 +1752,26 @@ public class Renderer
         shaderProgram.cleanup();
         depthShader.cleanup();
         pointDepthShader.cleanup();
+        prepassShader.cleanup();
+        gBufferShader.cleanup();
+        deferredLightingShader.cleanup();
+        visibilityShader.cleanup();
+        instanceBuffer.cleanup();
+        indirectBuffer.cleanup();
+        cascadedShadowMap.cleanup();
+        pointShadowAtlas.cleanup();
+        lightClusters.cleanup();
+        occlusionCuller.cleanup();
+        GLStateCache.deleteVertexArray(fullscreenVao);
+        visibilityBuffer.cleanup();
+        staticBatcher.cleanup();
+        renderWorkers.cleanup();
+        MeshArena.cleanup();
+        frameRing.cleanup();
+        gpuTimer.cleanup();
+        temporalUpsampler.cleanup();
+        renderGraph.cleanup();
+        brdfLUT.delete();
     }
     
     public static void debugTextureBinding(String type, int textureID)
@@ -639,8 +1854,7 @@ public class Renderer
     
     public static void bindTexture(int textureUnit, int textureType, int textureID, String textureName)
     {
-        glActiveTexture(GL_TEXTURE0 + textureUnit);
-        glBindTexture(textureType, textureID);
+        GLStateCache.bindTexture(textureUnit, textureType, textureID);
         // Optionally enable debug logging here.
     }
     
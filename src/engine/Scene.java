@@ -1,5 +1,10 @@
 package engine;
 
+import engine.rendering.SceneIndex;
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -9,6 +14,12 @@ import java.util.List;
  * A Scene has a root GameObject that acts as the parent for all top-level GameObjects.
  * When a new GameObject is added and is not the root, it is automatically linked as a child of the root.
  * </p>
+ * <p>
+ * Every GameObject with a MeshRenderer or a light is also kept in the scene's spatial {@link SceneIndex},
+ * which is refreshed each frame together with the transforms. The {@code query} methods search it, so
+ * their cost depends on the number of objects near the query rather than on the size of the scene.
+ * Results reflect the transforms as of the last transform update.
+ * </p>
  */
 public class Scene {
     /** The name of the scene. */
@@ -20,6 +31,12 @@ public class Scene {
     /** A list of all top-level GameObjects in the scene. */
     private List<GameObject> gameObjects;
     
+    /** Spatial index of every GameObject with a MeshRenderer or a light. */
+    private final SceneIndex index = new SceneIndex();
+    
+    /** Frustum planes reused by {@link #queryFrustum}. */
+    private final FrustumIntersection queryFrustum = new FrustumIntersection();
+    
     /**
      * Constructs a new Scene with the specified name.
      * <p>
@@ -109,6 +126,83 @@ public class Scene {
         return rootGameObject;
     }
     
+    /**
+     * Retrieves the spatial index of the scene.
+     *
+     * @return the scene's index.
+     */
+    public SceneIndex getIndex() {
+        return index;
+    }
+    
+    /**
+     * Finds the GameObjects whose mesh bounds or point light range intersect a frustum.
+     *
+     * @param viewProjection the combined projection and view matrix defining the frustum.
+     * @param results        receives the GameObjects found; it is not cleared first.
+     * @return {@code results}.
+     */
+    public List<GameObject> queryFrustum(Matrix4f viewProjection, List<GameObject> results) {
+        queryFrustum.set(viewProjection);
+        int stamp = index.nextQueryStamp();
+        index.queryMeshes(queryFrustum, entry -> addResult(entry, stamp, results));
+        index.queryPointLights(queryFrustum, entry -> addResult(entry, stamp, results));
+        return results;
+    }
+    
+    /**
+     * Finds the GameObjects whose mesh bounds or point light range intersect a sphere.
+     *
+     * @param center  the center of the sphere.
+     * @param radius  the radius of the sphere.
+     * @param results receives the GameObjects found; it is not cleared first.
+     * @return {@code results}.
+     */
+    public List<GameObject> querySphere(Vector3f center, float radius, List<GameObject> results) {
+        int stamp = index.nextQueryStamp();
+        index.queryMeshes(center, radius, entry -> addResult(entry, stamp, results));
+        index.queryPointLights(center, radius, entry -> addResult(entry, stamp, results));
+        return results;
+    }
+    
+    /**
+     * Finds the GameObjects whose mesh bounds or point light range overlap an axis-aligned box.
+     *
+     * @param min     the minimum corner of the box.
+     * @param max     the maximum corner of the box.
+     * @param results receives the GameObjects found; it is not cleared first.
+     * @return {@code results}.
+     */
+    public List<GameObject> queryBox(Vector3f min, Vector3f max, List<GameObject> results) {
+        int stamp = index.nextQueryStamp();
+        index.queryMeshesInBox(min, max, entry -> addResult(entry, stamp, results));
+        index.queryPointLightsInBox(min, max, entry -> addResult(entry, stamp, results));
+        return results;
+    }
+    
+    /**
+     * Finds the GameObjects whose mesh bounds are hit by a ray. The test uses bounding boxes, not
+     * triangles, and the results are not sorted by distance.
+     *
+     * @param origin      the origin of the ray.
+     * @param direction   the direction of the ray; distances are measured in multiples of its length.
+     * @param maxDistance the largest distance along the ray that counts as a hit.
+     * @param results     receives the GameObjects found; it is not cleared first.
+     * @return {@code results}.
+     */
+    public List<GameObject> queryRay(Vector3f origin, Vector3f direction, float maxDistance, List<GameObject> results) {
+        index.queryMeshesOnRay(origin, direction, maxDistance, entry -> results.add(entry.gameObject));
+        return results;
+    }
+    
+    private static void addResult(SceneIndex.Entry entry, int stamp, List<GameObject> results) {
+        // An object with both a mesh and a light is found in both trees; report it once.
+        if (entry.queryStamp != stamp) {
+            entry.queryStamp = stamp;
+            results.add(entry.gameObject);
+        }
+    }
+    
     /**
      * Retrieves the name of the scene.
      *
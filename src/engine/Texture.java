@@ -1,5 +1,6 @@
 package engine;
 
+import engine.rendering.GLStateCache;
 import org.joml.Vector3i;
 import org.joml.Vector4i;
 import org.lwjgl.BufferUtils;
@@ -96,7 +97,7 @@ public class Texture {
         int a = rgba.w;
         
         this.textureID = GL11.glGenTextures();
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, this.textureID);
+        GLStateCache.bindTexture(GL11.GL_TEXTURE_2D, this.textureID);
         
         // Create a ByteBuffer and fill it with the RGBA values.
         ByteBuffer pixel = BufferUtils.createByteBuffer(4);
@@ -111,7 +112,7 @@ public class Texture {
         glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
         
         // Unbind the texture.
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+        GLStateCache.bindTexture(GL11.GL_TEXTURE_2D, 0);
         
         this.loaded = true;
     }
@@ -144,7 +145,7 @@ public class Texture {
             }
             
             textureID = GL11.glGenTextures();
-            GL11.glBindTexture(GL11.GL_TEXTURE_2D, textureID);
+            GLStateCache.bindTexture(GL11.GL_TEXTURE_2D, textureID);
             
             glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR);
             glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
@@ -164,7 +165,7 @@ public class Texture {
             GL30.glGenerateMipmap(GL11.GL_TEXTURE_2D);
             
             STBImage.stbi_image_free(image);
-            GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+            GLStateCache.bindTexture(GL11.GL_TEXTURE_2D, 0);
             
             loaded = true;
         }
@@ -177,7 +178,7 @@ public class Texture {
      */
     private void createDefaultTexture(Type type) {
         textureID = GL11.glGenTextures();
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, textureID);
+        GLStateCache.bindTexture(GL11.GL_TEXTURE_2D, textureID);
         ByteBuffer pixel = BufferUtils.createByteBuffer(4);
         
         switch (type) {
@@ -195,7 +196,7 @@ public class Texture {
         glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
         glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_S, GL11.GL_REPEAT);
         glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_T, GL11.GL_REPEAT);
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+        GLStateCache.bindTexture(GL11.GL_TEXTURE_2D, 0);
         
         loaded = true;
     }
@@ -227,8 +228,7 @@ public class Texture {
      */
     public void bind(int unit) {
         ensureLoaded(); // Ensure the texture is loaded before binding.
-        GL13.glActiveTexture(GL13.GL_TEXTURE0 + unit);
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, textureID);
+        GLStateCache.bindTexture(unit, GL11.GL_TEXTURE_2D, textureID);
     }
     
     /**
@@ -236,7 +236,7 @@ public class Texture {
      */
     public void delete() {
         if (textureID != 0) {
-            GL11.glDeleteTextures(textureID);
+            GLStateCache.deleteTexture(textureID);
             textureID = 0;
             loaded = false;
         }
@@ -23,4 +23,35 @@ public class LightPoint extends Component {
     public float linear = 0.09f;
     /** Quadratic attenuation factor. */
     public float quadratic = 0.032f;
+    
+    /**
+     * Light contributions below this fraction of one 8-bit color step are treated as zero when
+     * computing {@link #getRange()}.
+     */
+    private static final float CUTOFF = 1.0f / 256.0f;
+    /** Scale the main shader applies to light colors (its {@code lightStrength} uniform). */
+    private static final float SHADER_LIGHT_SCALE = 0.01f;
+    
+    /**
+     * Returns the distance at which the attenuated light becomes negligible.
+     * <p>
+     * Solves {@code constant + linear * d + quadratic * d^2 = intensity / CUTOFF} for {@code d}, where
+     * intensity is the brightest color channel scaled by strength as the shader does. Used as the
+     * light's shadow far plane and to decide which casters can affect its shadow map.
+     * </p>
+     *
+     * @return the light's range in world units.
+     */
+    public float getRange() {
+        float intensity = Math.max(color.x, Math.max(color.y, color.z)) * strength * SHADER_LIGHT_SCALE;
+        float target = intensity / CUTOFF;
+        if (target <= constant) {
+            return 0.0f;
+        }
+        if (quadratic <= 0.0f) {
+            return linear > 0.0f ? (target - constant) / linear : Float.MAX_VALUE;
+        }
+        float discriminant = linear * linear - 4.0f * quadratic * (constant - target);
+        return (-linear + (float) Math.sqrt(discriminant)) / (2.0f * quadratic);
+    }
 }
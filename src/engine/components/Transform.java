@@ -33,6 +33,17 @@ public class Transform extends Component {
     /** Reference to the parent transform, if any. */
     private Transform parent;
     
+    /** Incremented every time the global transform changes; see {@link #getVersion()}. */
+    private int version = 0;
+    private final Vector3f lastGlobalPosition = new Vector3f(Float.NaN);
+    private final Vector3f lastGlobalScale = new Vector3f(Float.NaN);
+    private final Quaternionf lastGlobalRotationQuat = new Quaternionf(Float.NaN, Float.NaN, Float.NaN, Float.NaN);
+    
+    /** Model matrix of the latest update and of the one before; see {@link #getPreviousModelMatrix()}. */
+    private final Matrix4f modelMatrix = new Matrix4f();
+    private final Matrix4f previousModelMatrix = new Matrix4f();
+    private boolean updated = false;
+    
     /**
      * Constructs a Transform with the specified position.
      *
@@ -96,6 +107,8 @@ public class Transform extends Component {
      * Updates the global transforms (position, scale, and rotation) based on the parent's transform.
      */
     public void updateGlobalTransforms() {
+        previousModelMatrix.set(modelMatrix);
+        
         // Convert the local Euler rotation to a quaternion.
         Quaternionf localQuat = new Quaternionf().rotateXYZ(rotation.x, rotation.y, rotation.z);
         
@@ -118,6 +131,42 @@ public class Transform extends Component {
             globalRotationQuat.set(localQuat);
             globalRotation.set(rotation);
         }
+        
+        if (!globalPosition.equals(lastGlobalPosition) || !globalScale.equals(lastGlobalScale) || !globalRotationQuat.equals(lastGlobalRotationQuat)) {
+            lastGlobalPosition.set(globalPosition);
+            lastGlobalScale.set(globalScale);
+            lastGlobalRotationQuat.set(globalRotationQuat);
+            version++;
+        }
+        
+        getModelMatrix(modelMatrix);
+        if (!updated) {
+            // Nothing was drawn before the first update, so the object does not appear to move.
+            previousModelMatrix.set(modelMatrix);
+            updated = true;
+        }
+    }
+    
+    /**
+     * Returns a counter that changes whenever {@link #updateGlobalTransforms()} produces a different global
+     * position, rotation or scale. Caches derived from the transform (such as shadow maps) compare it
+     * against the value they were built with to tell whether they are stale.
+     *
+     * @return the current transform version.
+     */
+    public int getVersion() {
+        return version;
+    }
+    
+    /**
+     * Returns the model matrix as of the update before the latest {@link #updateGlobalTransforms()} call,
+     * that is, where the object was drawn in the previous frame. The renderer compares it with the
+     * current model matrix to compute motion vectors.
+     *
+     * @return the previous frame's model matrix; not to be modified.
+     */
+    public Matrix4fc getPreviousModelMatrix() {
+        return previousModelMatrix;
     }
     
     /**
@@ -144,12 +193,18 @@ public class Transform extends Component {
      * @return the model transformation matrix.
      */
     public Matrix4f getModelMatrix() {
-        Matrix4f model = new Matrix4f().identity();
+        return getModelMatrix(new Matrix4f());
+    }
+    
+    /**
+     * Writes the model matrix based on the global position, rotation, and scale into {@code dest}.
+     *
+     * @param dest the matrix to store the result in.
+     * @return {@code dest}, for chaining.
+     */
+    public Matrix4f getModelMatrix(Matrix4f dest) {
         // Translate, then rotate (using the quaternion), then scale.
-        model.translate(globalPosition);
-        model.rotate(globalRotationQuat);
-        model.scale(globalScale);
-        return model;
+        return dest.translationRotateScale(globalPosition, globalRotationQuat, globalScale);
     }
     
     // Static direction vectors.
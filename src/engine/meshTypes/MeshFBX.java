@@ -1,15 +1,14 @@
 package engine.meshTypes;
 
 import engine.Mesh;
+import engine.rendering.GLStateCache;
+import engine.rendering.MeshArena;
 import org.joml.Vector2f;
 import org.joml.Vector3f;
-import org.lwjgl.BufferUtils;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -17,10 +16,8 @@ import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import static org.lwjgl.opengl.GL15.*;
-import static org.lwjgl.opengl.GL20.glEnableVertexAttribArray;
-import static org.lwjgl.opengl.GL20.glVertexAttribPointer;
-import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL32.glDrawElementsBaseVertex;
 
 /**
  * Represents a 3D mesh, typically loaded from an OBJ file.
@@ -49,9 +46,6 @@ public class MeshFBX extends Mesh
     public String meshName;
 
     // OpenGL handles.
-    private int vaoId;
-    private int vboId;
-    private int eboId;
     private boolean initialized = false;
 
     private float[] interleavedVertexData;
@@ -204,35 +198,15 @@ public class MeshFBX extends Mesh
         }
         indices = indicesList.stream().mapToInt(i -> i).toArray();
 
-        vaoId = glGenVertexArrays();
-        glBindVertexArray(vaoId);
-
-        // Use a direct FloatBuffer for vertex data.
-        vboId = glGenBuffers();
-        glBindBuffer(GL_ARRAY_BUFFER, vboId);
-        FloatBuffer vertexBuffer = BufferUtils.createFloatBuffer(interleavedVertexData.length);
-        vertexBuffer.put(interleavedVertexData).flip();
-        glBufferData(GL_ARRAY_BUFFER, vertexBuffer, GL_STATIC_DRAW);
-
-        int stride = 8 * Float.BYTES;
-        glVertexAttribPointer(0, 3, GL_FLOAT, false, stride, 0);
-        glEnableVertexAttribArray(0);
-        glVertexAttribPointer(1, 3, GL_FLOAT, false, stride, 3 * Float.BYTES);
-        glEnableVertexAttribArray(1);
-        glVertexAttribPointer(2, 2, GL_FLOAT, false, stride, 6 * Float.BYTES);
-        glEnableVertexAttribArray(2);
-
-        // Use a direct IntBuffer for indices.
-        eboId = glGenBuffers();
-        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, eboId);
-        IntBuffer indexBuffer = BufferUtils.createIntBuffer(indices.length);
-        indexBuffer.put(indices).flip();
-        glBufferData(GL_ELEMENT_ARRAY_BUFFER, indexBuffer, GL_STATIC_DRAW);
-
-        glBindVertexArray(0);
+        allocation = MeshArena.allocate(interleavedVertexData, indices);
         initialized = true;
     }
 
+    @Override
+    protected Vector3f[] getVertexPositions() {
+        return vertices;
+    }
+
     /**
      * Renders the mesh.
      * <p>
@@ -241,24 +215,52 @@ public class MeshFBX extends Mesh
      */
     public void render() {
         if (!initialized) initMesh();
-        glBindVertexArray(vaoId);
-        // Rebind both the VBO and the EBO to ensure all needed state is present on Intel GPUs.
-        glBindBuffer(GL_ARRAY_BUFFER, vboId);
-        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, eboId);
-        glDrawElements(GL_TRIANGLES, indices.length, GL_UNSIGNED_INT, 0);
-        glBindVertexArray(0);
+        // Every mesh shares the arena's VAO, so it stays bound across meshes.
+        GLStateCache.bindVertexArray(MeshArena.getVertexArray());
+        glDrawElementsBaseVertex(GL_TRIANGLES, indices.length, GL_UNSIGNED_INT, (long) allocation.firstIndex * Integer.BYTES, allocation.baseVertex);
+    }
+
+    /**
+     * Returns the interleaved vertex data of this mesh, initializing it if needed.
+     *
+     * @return the vertex data.
+     */
+    @Override
+    public float[] getVertexData() {
+        if (!initialized) initMesh();
+        return interleavedVertexData;
     }
 
+    /**
+     * Returns the indices of this mesh, initializing it if needed.
+     *
+     * @return the indices.
+     */
+    @Override
+    public int[] getIndices() {
+        if (!initialized) initMesh();
+        return indices;
+    }
 
+    /**
+     * Returns the number of indices in this mesh, initializing it if needed.
+     *
+     * @return the index count.
+     */
+    @Override
+    public int getIndexCount() {
+        if (!initialized) initMesh();
+        return indices.length;
+    }
 
     /**
-     * Releases the OpenGL buffers associated with this mesh.
+     * Returns this mesh's ranges of the arena to its free space.
      */
     public void cleanup() {
         if (initialized) {
-            glDeleteBuffers(vboId);
-            glDeleteBuffers(eboId);
-            glDeleteVertexArrays(vaoId);
+            MeshArena.free(allocation);
+            allocation = null;
+            initialized = false;
         }
     }
 
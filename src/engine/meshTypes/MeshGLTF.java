@@ -3,18 +3,18 @@ package engine.meshTypes;
 import engine.Material;
 import engine.Mesh;
 import engine.Texture;
+import engine.rendering.Bounds;
+import engine.rendering.GLStateCache;
+import engine.rendering.MeshArena;
 import engine.utils.FileUtils;
 import org.joml.Vector2f;
 import org.joml.Vector3f;
 import org.joml.Vector4i;
-import org.lwjgl.BufferUtils;
 import org.lwjgl.assimp.*;
 import static org.lwjgl.assimp.Assimp.*;
-import static org.lwjgl.opengl.GL15.*;
-import static org.lwjgl.opengl.GL20.*;
-import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL32.glDrawElementsBaseVertex;
 
-import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.List;
@@ -26,10 +26,7 @@ public class MeshGLTF extends Mesh {
     // Instead, we will store a list of submeshes, each with its own material.
     public List<SubMesh> subMeshes = new ArrayList<>();
     
-    // OpenGL buffer handles and interleaved data
-    public int vaoId;
-    private int vboId;
-    private int eboId;
+    // Arena state and interleaved data
     private boolean initialized = false;
     private float[] interleavedVertexData;
     private int[] indices;
@@ -39,11 +36,13 @@ public class MeshGLTF extends Mesh {
         public Material material;
         public int indexCount;    // number of indices for this submesh
         public int indexOffset;   // starting index (in the merged index buffer)
+        public Bounds bounds;     // model-space bounds of this submesh's vertices
         
-        public SubMesh(Material material, int indexCount, int indexOffset) {
+        public SubMesh(Material material, int indexCount, int indexOffset, Bounds bounds) {
             this.material = material;
             this.indexCount = indexCount;
             this.indexOffset = indexOffset;
+            this.bounds = bounds;
         }
     }
     
@@ -75,6 +74,8 @@ public class MeshGLTF extends Mesh {
         
         // Pointer to the materials in the scene.
         PointerBuffer aiMaterials = scene.mMaterials();
+        // Submeshes sharing a glTF material share one Material, so they batch together when drawn.
+        Material[] loadedMaterials = new Material[aiMaterials != null ? aiMaterials.capacity() : 0];
         
         int vertexOffset = 0;   // tracks total vertices added so far
         int indicesOffset = 0;  // tracks total indices count (for submesh grouping)
@@ -132,10 +133,11 @@ public class MeshGLTF extends Mesh {
             
             // Load material for this mesh.
             Material material = Material.empty; // default material
-            material.name = "Material";
             
             int materialIndex = aiMesh.mMaterialIndex();
-            if (aiMaterials != null && aiMaterials.capacity() > materialIndex) {
+            if (materialIndex >= 0 && materialIndex < loadedMaterials.length && loadedMaterials[materialIndex] != null) {
+                material = loadedMaterials[materialIndex];
+            } else if (materialIndex >= 0 && materialIndex < loadedMaterials.length) {
                 AIMaterial aiMaterial = AIMaterial.create(aiMaterials.get(materialIndex));
                 // Default textures from Material.empty.
                 Texture albedoTex    = Material.empty.albedoMap;
@@ -186,17 +188,20 @@ public class MeshGLTF extends Mesh {
                 
                 material = new Material(albedoTex, normalTex, metallicTex, roughnessTex, aoTex, heightTex, 0.0f, 0.2f);
                 material.normalMapStrength = 2;
+                loadedMaterials[materialIndex] = material;
             }
             
             // Record this mesh as a submesh.
             int subMeshIndexCount = subMeshFaceCount * 3;
-            subMeshes.add(new SubMesh(material, subMeshIndexCount, indicesOffset));
+            Bounds subMeshBounds = Bounds.of(verticesList.subList(vertexOffset, vertexOffset + vertexCount).toArray(new Vector3f[0]));
+            subMeshes.add(new SubMesh(material, subMeshIndexCount, indicesOffset, subMeshBounds));
             indicesOffset += subMeshIndexCount;
             vertexOffset += vertexCount;
         }
         
         // Convert lists to arrays.
         this.vertices = verticesList.toArray(new Vector3f[0]);
+        this.bounds = Bounds.of(this.vertices);
         this.normals = normalsList.toArray(new Vector3f[0]);
         this.uvs = uvsList.toArray(new Vector2f[0]);
         // Convert List<Integer> to int[].
@@ -227,63 +232,50 @@ public class MeshGLTF extends Mesh {
             interleavedVertexData[i * 8 + 7] = uv.y;
         }
         
-        // Create and bind OpenGL buffers.
-        vaoId = glGenVertexArrays();
-        glBindVertexArray(vaoId);
-        
-        // VBO for vertex data.
-        vboId = glGenBuffers();
-        glBindBuffer(GL_ARRAY_BUFFER, vboId);
-        FloatBuffer vertexBuffer = BufferUtils.createFloatBuffer(interleavedVertexData.length);
-        vertexBuffer.put(interleavedVertexData).flip();
-        glBufferData(GL_ARRAY_BUFFER, vertexBuffer, GL_STATIC_DRAW);
-        
-        // EBO for indices.
-        eboId = glGenBuffers();
-        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, eboId);
-        IntBuffer indexBuffer = BufferUtils.createIntBuffer(indices.length);
-        indexBuffer.put(indices).flip();
-        glBufferData(GL_ELEMENT_ARRAY_BUFFER, indexBuffer, GL_STATIC_DRAW);
-        
-        // Set up vertex attribute pointers.
-        int stride = 8 * Float.BYTES;
-        glVertexAttribPointer(0, 3, GL_FLOAT, false, stride, 0);
-        glEnableVertexAttribArray(0);
-        glVertexAttribPointer(1, 3, GL_FLOAT, false, stride, 3 * Float.BYTES);
-        glEnableVertexAttribArray(1);
-        glVertexAttribPointer(2, 2, GL_FLOAT, false, stride, 6 * Float.BYTES);
-        glEnableVertexAttribArray(2);
-        
-        glBindVertexArray(0);
+        allocation = MeshArena.allocate(interleavedVertexData, indices);
         initialized = true;
     }
     
     @Override
     public void render() {
         if (!initialized) initMesh();
-        glBindVertexArray(vaoId);
+        GLStateCache.bindVertexArray(MeshArena.getVertexArray());
         // Instead of binding material(s) here, simply issue the draw calls.
         // This assumes that the active material has already been bound
         // by the renderRecursive method in your scene.
         if(subMeshes != null && !subMeshes.isEmpty()){
             for (SubMesh subMesh : subMeshes) {
                 // Draw the current submesh using its index offset and count.
-                glDrawElements(GL_TRIANGLES, subMesh.indexCount, GL_UNSIGNED_INT, subMesh.indexOffset * Integer.BYTES);
+                glDrawElementsBaseVertex(GL_TRIANGLES, subMesh.indexCount, GL_UNSIGNED_INT, (long) (allocation.firstIndex + subMesh.indexOffset) * Integer.BYTES, allocation.baseVertex);
             }
         } else {
             // Fallback: if no submeshes exist, draw the entire mesh.
-            glDrawElements(GL_TRIANGLES, indices.length, GL_UNSIGNED_INT, 0);
+            glDrawElementsBaseVertex(GL_TRIANGLES, indices.length, GL_UNSIGNED_INT, (long) allocation.firstIndex * Integer.BYTES, allocation.baseVertex);
         }
-        glBindVertexArray(0);
     }
     
+    @Override
+    public float[] getVertexData() {
+        if (!initialized) initMesh();
+        return interleavedVertexData;
+    }
+    
+    @Override
+    public int[] getIndices() {
+        return indices;
+    }
+    
+    @Override
+    public int getIndexCount() {
+        return indices.length;
+    }
     
     @Override
     public void cleanup() {
         if (initialized) {
-            glDeleteBuffers(vboId);
-            glDeleteBuffers(eboId);
-            glDeleteVertexArrays(vaoId);
+            MeshArena.free(allocation);
+            allocation = null;
+            initialized = false;
         }
     }
 }
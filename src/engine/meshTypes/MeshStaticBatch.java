@@ -0,0 +1,91 @@
+package engine.meshTypes;
+
+import engine.Mesh;
+import engine.rendering.Bounds;
+import engine.rendering.GLStateCache;
+import engine.rendering.MeshArena;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL32.glDrawElementsBaseVertex;
+
+/**
+ * A mesh merged from the static objects of a scene that share a material, with its vertices already
+ * transformed to world space.
+ * <p>
+ * It is built by the {@link engine.rendering.StaticBatcher} rather than loaded from a file, uses the
+ * same interleaved layout as the loaded meshes, and is drawn with an identity model matrix.
+ * </p>
+ */
+public class MeshStaticBatch extends Mesh
+{
+    private boolean initialized = false;
+
+    private final float[] interleavedVertexData;
+    private final int[] indices;
+
+    /**
+     * Constructs a batch from merged geometry.
+     *
+     * @param name                  a name for debugging.
+     * @param interleavedVertexData world-space vertices: position, normal and uv, 8 floats each.
+     * @param indices               the triangle indices into those vertices.
+     * @param bounds                the world-space bounds of the vertices.
+     */
+    public MeshStaticBatch(String name, float[] interleavedVertexData, int[] indices, Bounds bounds) {
+        super();
+        this.meshName = name;
+        this.interleavedVertexData = interleavedVertexData;
+        this.indices = indices;
+        this.bounds = bounds;
+    }
+
+    /**
+     * Uploads the merged geometry to the mesh arena.
+     */
+    public void initMesh() {
+        allocation = MeshArena.allocate(interleavedVertexData, indices);
+        initialized = true;
+    }
+
+    /**
+     * Renders the batch, initializing it first if needed.
+     */
+    public void render() {
+        if (!initialized) initMesh();
+        GLStateCache.bindVertexArray(MeshArena.getVertexArray());
+        glDrawElementsBaseVertex(GL_TRIANGLES, indices.length, GL_UNSIGNED_INT, (long) allocation.firstIndex * Integer.BYTES, allocation.baseVertex);
+    }
+
+    @Override
+    public float[] getVertexData() {
+        return interleavedVertexData;
+    }
+
+    @Override
+    public int[] getIndices() {
+        return indices;
+    }
+
+    @Override
+    public int getIndexCount() {
+        return indices.length;
+    }
+
+    /**
+     * Returns the batch's ranges of the arena to its free space.
+     */
+    public void cleanup() {
+        if (initialized) {
+            MeshArena.free(allocation);
+            allocation = null;
+            initialized = false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Static Batch: " + meshName +
+                "\nVertices: " + interleavedVertexData.length / 8 +
+                "\nTriangles: " + indices.length / 3;
+    }
+}
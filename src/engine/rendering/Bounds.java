@@ -0,0 +1,151 @@
+package engine.rendering;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+/**
+ * An axis-aligned bounding box together with a bounding sphere around the box center.
+ * <p>
+ * Meshes compute their model-space bounds once, when they are imported. Whenever an object moves, the
+ * scene index {@link #transform transforms} them by the object's model matrix into world-space bounds,
+ * which are tested against the camera frustum and the shadow-casting lights.
+ * </p>
+ */
+public class Bounds
+{
+    /** Minimum corner of the box. */
+    public final Vector3f min = new Vector3f();
+    /** Maximum corner of the box. */
+    public final Vector3f max = new Vector3f();
+    /** Center of the box and of the sphere. */
+    public final Vector3f center = new Vector3f();
+    /** Radius of the sphere. */
+    public float radius;
+
+    /**
+     * Computes the bounds of a range of positions.
+     *
+     * @param positions the positions.
+     * @param start     the first position included.
+     * @param end       one past the last position included.
+     * @return the bounds; empty positions give zero-sized bounds at the origin.
+     */
+    public static Bounds of(Vector3f[] positions, int start, int end)
+    {
+        Bounds bounds = new Bounds();
+        if(positions == null || start >= end)
+        {
+            return bounds;
+        }
+        bounds.min.set(Float.POSITIVE_INFINITY);
+        bounds.max.set(Float.NEGATIVE_INFINITY);
+        for(int i = start; i < end; i++)
+        {
+            bounds.min.min(positions[i]);
+            bounds.max.max(positions[i]);
+        }
+        bounds.min.add(bounds.max, bounds.center).mul(0.5f);
+        // The sphere is fitted to the points rather than the box corners, so it is usually tighter.
+        float radiusSquared = 0.0f;
+        for(int i = start; i < end; i++)
+        {
+            radiusSquared = Math.max(radiusSquared, positions[i].distanceSquared(bounds.center));
+        }
+        bounds.radius = (float) Math.sqrt(radiusSquared);
+        return bounds;
+    }
+
+    /**
+     * Computes the bounds of every position.
+     */
+    public static Bounds of(Vector3f[] positions)
+    {
+        return of(positions, 0, positions != null ? positions.length : 0);
+    }
+
+    /**
+     * Copies another bounds into this one.
+     *
+     * @return this bounds.
+     */
+    public Bounds set(Bounds other)
+    {
+        min.set(other.min);
+        max.set(other.max);
+        center.set(other.center);
+        radius = other.radius;
+        return this;
+    }
+
+    /**
+     * Transforms these bounds and stores the result in {@code dest}. The box becomes the axis-aligned
+     * box enclosing the transformed box, and the sphere radius grows by the largest axis scale.
+     *
+     * @param matrix an affine transform, such as a model matrix.
+     * @param dest   receives the result; may be this bounds.
+     * @return {@code dest}.
+     */
+    public Bounds transform(Matrix4f matrix, Bounds dest)
+    {
+        // Transform the box center and half extents; each world extent is the sum of the absolute
+        // contributions of the local extents (Arvo's method).
+        float cx = (min.x + max.x) * 0.5f, cy = (min.y + max.y) * 0.5f, cz = (min.z + max.z) * 0.5f;
+        float ex = (max.x - min.x) * 0.5f, ey = (max.y - min.y) * 0.5f, ez = (max.z - min.z) * 0.5f;
+        float wx = matrix.m00() * cx + matrix.m10() * cy + matrix.m20() * cz + matrix.m30();
+        float wy = matrix.m01() * cx + matrix.m11() * cy + matrix.m21() * cz + matrix.m31();
+        float wz = matrix.m02() * cx + matrix.m12() * cy + matrix.m22() * cz + matrix.m32();
+        float hx = Math.abs(matrix.m00()) * ex + Math.abs(matrix.m10()) * ey + Math.abs(matrix.m20()) * ez;
+        float hy = Math.abs(matrix.m01()) * ex + Math.abs(matrix.m11()) * ey + Math.abs(matrix.m21()) * ez;
+        float hz = Math.abs(matrix.m02()) * ex + Math.abs(matrix.m12()) * ey + Math.abs(matrix.m22()) * ez;
+
+        float scaleX = matrix.m00() * matrix.m00() + matrix.m01() * matrix.m01() + matrix.m02() * matrix.m02();
+        float scaleY = matrix.m10() * matrix.m10() + matrix.m11() * matrix.m11() + matrix.m12() * matrix.m12();
+        float scaleZ = matrix.m20() * matrix.m20() + matrix.m21() * matrix.m21() + matrix.m22() * matrix.m22();
+        float maxScale = (float) Math.sqrt(Math.max(scaleX, Math.max(scaleY, scaleZ)));
+
+        dest.radius = radius * maxScale;
+        // The sphere center is not necessarily the box center of the result, so transform it separately.
+        matrix.transformPosition(center, dest.center);
+        dest.min.set(wx - hx, wy - hy, wz - hz);
+        dest.max.set(wx + hx, wy + hy, wz + hz);
+        return dest;
+    }
+
+    /**
+     * Grows these bounds to enclose another.
+     *
+     * @return this bounds.
+     */
+    public Bounds union(Bounds other)
+    {
+        min.min(other.min);
+        max.max(other.max);
+        // Smallest sphere enclosing both spheres.
+        float distance = center.distance(other.center);
+        if(distance + other.radius <= radius)
+        {
+            return this;
+        }
+        if(distance + radius <= other.radius)
+        {
+            center.set(other.center);
+            radius = other.radius;
+            return this;
+        }
+        float newRadius = (distance + radius + other.radius) * 0.5f;
+        center.lerp(other.center, (newRadius - radius) / distance);
+        radius = newRadius;
+        return this;
+    }
+
+    /**
+     * Returns true if the box intersects a sphere.
+     */
+    public boolean intersectsSphere(Vector3f sphereCenter, float sphereRadius)
+    {
+        float dx = Math.max(min.x - sphereCenter.x, Math.max(0.0f, sphereCenter.x - max.x));
+        float dy = Math.max(min.y - sphereCenter.y, Math.max(0.0f, sphereCenter.y - max.y));
+        float dz = Math.max(min.z - sphereCenter.z, Math.max(0.0f, sphereCenter.z - max.z));
+        return dx * dx + dy * dy + dz * dz <= sphereRadius * sphereRadius;
+    }
+}
@@ -0,0 +1,289 @@
+package engine.rendering;
+
+import engine.components.Camera;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+import org.lwjgl.BufferUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.GL_TEXTURE_WRAP_R;
+import static org.lwjgl.opengl.GL13.GL_CLAMP_TO_BORDER;
+import static org.lwjgl.opengl.GL14.GL_TEXTURE_COMPARE_FUNC;
+import static org.lwjgl.opengl.GL14.GL_TEXTURE_COMPARE_MODE;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.glFramebufferTexture;
+
+/**
+ * Cascaded shadow maps for the main directional light.
+ * <p>
+ * The camera frustum, up to {@link #shadowDistance}, is cut into {@code cascadeCount} slices using the
+ * practical split scheme (a blend of logarithmic and uniform splits controlled by {@link #splitLambda}).
+ * Each slice is enclosed in a bounding sphere, so its light-space box keeps the same size while the
+ * camera rotates, and the box is snapped to whole shadow texels so shadows do not shimmer while the
+ * camera moves.
+ * </p>
+ * <p>
+ * All cascades live in one {@code GL_TEXTURE_2D_ARRAY} depth texture with hardware comparison enabled.
+ * The whole array is attached as a layered framebuffer, so one draw of the shadow queue fills every
+ * cascade: the depth geometry shader routes each triangle to every layer with {@code gl_Layer}.
+ * </p>
+ */
+public class CascadedShadowMap
+{
+    /** Maximum number of cascades; the split distances are packed in one {@code vec4} in the lighting block. */
+    public static final int MAX_CASCADES = 4;
+
+    /** Distance from the camera covered by the last cascade. */
+    public static float shadowDistance = 150.0f;
+    /** Blend between uniform (0) and logarithmic (1) split distances. */
+    public static float splitLambda = 0.75f;
+    /** Extra depth behind each cascade so casters outside the camera slice still cast into it. */
+    public static float casterMargin = 50.0f;
+
+    private int resolution;
+    private final int fbo;
+    private int texture = 0;
+    private int cascadeCount = 0;
+
+    private final Matrix4f[] matrices = new Matrix4f[MAX_CASCADES];
+    private final float[] splits = new float[MAX_CASCADES];
+
+    // Scratch values reused every frame.
+    private final Matrix4f sliceProjection = new Matrix4f();
+    private final Matrix4f inverseViewProjection = new Matrix4f();
+    private final Matrix4f lightView = new Matrix4f();
+    private final Matrix4f lightProjection = new Matrix4f();
+    private final Vector3f[] corners = new Vector3f[8];
+    private final Vector3f center = new Vector3f();
+    private final Vector3f eye = new Vector3f();
+    private final Vector3f up = new Vector3f();
+    private final Vector4f shadowOrigin = new Vector4f();
+
+    /**
+     * Creates the framebuffer and a depth array texture with {@code cascadeCount} layers.
+     *
+     * @param resolution   width and height of every cascade, in texels.
+     * @param cascadeCount the initial number of cascades, clamped to [1, {@link #MAX_CASCADES}].
+     */
+    public CascadedShadowMap(int resolution, int cascadeCount)
+    {
+        this.resolution = resolution;
+        fbo = glGenFramebuffers();
+        for(int i = 0; i < MAX_CASCADES; i++)
+        {
+            matrices[i] = new Matrix4f();
+        }
+        for(int i = 0; i < corners.length; i++)
+        {
+            corners[i] = new Vector3f();
+        }
+        this.cascadeCount = Math.max(1, Math.min(cascadeCount, MAX_CASCADES));
+        allocate();
+    }
+
+    /**
+     * Changes the number of cascades, reallocating the array texture if it differs from the current one.
+     *
+     * @param count the requested number of cascades, clamped to [1, {@link #MAX_CASCADES}].
+     */
+    public void setCascadeCount(int count)
+    {
+        count = Math.max(1, Math.min(count, MAX_CASCADES));
+        if(count == cascadeCount)
+        {
+            return;
+        }
+        cascadeCount = count;
+        allocate();
+    }
+
+    /**
+     * Changes the width and height of every cascade, reallocating the array texture if it differs from
+     * the current one.
+     *
+     * @param resolution the requested resolution, in texels.
+     */
+    public void setResolution(int resolution)
+    {
+        if(resolution == this.resolution)
+        {
+            return;
+        }
+        this.resolution = resolution;
+        allocate();
+    }
+
+    public int getResolution()
+    {
+        return resolution;
+    }
+
+    private void allocate()
+    {
+        if(texture != 0)
+        {
+            GLStateCache.deleteTexture(texture);
+        }
+        texture = glGenTextures();
+        GLStateCache.bindTexture(GL_TEXTURE_2D_ARRAY, texture);
+        glTexImage3D(GL_TEXTURE_2D_ARRAY, 0, GL_DEPTH_COMPONENT24, resolution, resolution, cascadeCount, 0, GL_DEPTH_COMPONENT, GL_FLOAT, (ByteBuffer) null);
+        // Linear filtering with comparison gives 2x2 hardware PCF per tap.
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_BORDER);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_BORDER);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_R, GL_CLAMP_TO_EDGE);
+        FloatBuffer borderColor = BufferUtils.createFloatBuffer(4).put(new float[]{1f, 1f, 1f, 1f});
+        borderColor.flip();
+        glTexParameterfv(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_BORDER_COLOR, borderColor);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_COMPARE_MODE, GL_COMPARE_REF_TO_TEXTURE);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_COMPARE_FUNC, GL_LEQUAL);
+        GLStateCache.bindTexture(GL_TEXTURE_2D_ARRAY, 0);
+
+        GLStateCache.bindFramebuffer(GL_FRAMEBUFFER, fbo);
+        glFramebufferTexture(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, texture, 0);
+        glDrawBuffer(GL_NONE);
+        glReadBuffer(GL_NONE);
+        if(glCheckFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE)
+        {
+            System.err.println("Cascaded shadow map framebuffer not complete!");
+        }
+        GLStateCache.bindFramebuffer(GL_FRAMEBUFFER, 0);
+    }
+
+    /**
+     * Fits every cascade to its slice of the camera frustum for the given light direction.
+     *
+     * @param camera         the camera whose view is being shadowed.
+     * @param lightDirection the direction the light travels in (from the light towards the scene).
+     */
+    public void update(Camera camera, Vector3f lightDirection)
+    {
+        float near = camera.near;
+        float far = Math.min(camera.far, shadowDistance);
+
+        // Practical split scheme.
+        for(int i = 0; i < cascadeCount; i++)
+        {
+            float p = (i + 1) / (float) cascadeCount;
+            float logSplit = near * (float) Math.pow(far / near, p);
+            float uniformSplit = near + (far - near) * p;
+            splits[i] = splitLambda * logSplit + (1.0f - splitLambda) * uniformSplit;
+        }
+
+        // Pick an up vector that is not parallel to the light.
+        if(Math.abs(lightDirection.y) > 0.99f)
+        {
+            up.set(0, 0, 1);
+        }
+        else
+        {
+            up.set(0, 1, 0);
+        }
+
+        float sliceNear = near;
+        for(int i = 0; i < cascadeCount; i++)
+        {
+            float sliceFar = splits[i];
+            sliceProjection(camera, sliceNear, sliceFar).mul(camera.viewMatrix, inverseViewProjection).invert();
+
+            // Slice corners in world space, and the sphere around them.
+            center.zero();
+            for(int c = 0; c < 8; c++)
+            {
+                corners[c].set((c & 1) == 0 ? -1 : 1, (c & 2) == 0 ? -1 : 1, (c & 4) == 0 ? -1 : 1);
+                inverseViewProjection.transformProject(corners[c]);
+                center.add(corners[c]);
+            }
+            center.div(8.0f);
+            float radius = 0.0f;
+            for(int c = 0; c < 8; c++)
+            {
+                radius = Math.max(radius, corners[c].distance(center));
+            }
+            // Quantize the radius so the box size does not flicker with floating point noise.
+            radius = (float) Math.ceil(radius * 16.0f) / 16.0f;
+
+            // Left-handed light view and projection, matching the point light conventions.
+            eye.set(lightDirection).normalize().mul(-(radius + casterMargin)).add(center);
+            lightView.setLookAtLH(eye, center, up);
+            lightProjection.setOrthoLH(-radius, radius, -radius, radius, 0.0f, 2.0f * radius + casterMargin);
+
+            // Snap the projection so the world origin lands on a texel corner.
+            lightProjection.mul(lightView, matrices[i]);
+            float halfResolution = resolution * 0.5f;
+            matrices[i].transform(shadowOrigin.set(0, 0, 0, 1));
+            float offsetX = (Math.round(shadowOrigin.x * halfResolution) - shadowOrigin.x * halfResolution) / halfResolution;
+            float offsetY = (Math.round(shadowOrigin.y * halfResolution) - shadowOrigin.y * halfResolution) / halfResolution;
+            lightProjection.m30(lightProjection.m30() + offsetX);
+            lightProjection.m31(lightProjection.m31() + offsetY);
+            lightProjection.mul(lightView, matrices[i]);
+
+            sliceNear = sliceFar;
+        }
+    }
+
+    private Matrix4f sliceProjection(Camera camera, float near, float far)
+    {
+        if(camera.isOrthographic)
+        {
+            float orthoSize = camera.size;
+            return sliceProjection.setOrtho(-orthoSize * camera.aspectRatio, orthoSize * camera.aspectRatio, -orthoSize, orthoSize, near, far);
+        }
+        return sliceProjection.setPerspective((float) Math.toRadians(camera.fov), camera.aspectRatio, near, far);
+    }
+
+    /**
+     * Binds the layered framebuffer and sets the viewport to the cascade resolution.
+     */
+    public void bindForWriting()
+    {
+        GLStateCache.bindFramebuffer(GL_FRAMEBUFFER, fbo);
+        GLStateCache.viewport(0, 0, resolution, resolution);
+    }
+
+    /**
+     * Returns the light view-projection matrix of a cascade.
+     */
+    public Matrix4f getMatrix(int cascade)
+    {
+        return matrices[cascade];
+    }
+
+    /**
+     * Returns the view-space distance at which a cascade ends.
+     */
+    public float getSplit(int cascade)
+    {
+        return cascade < cascadeCount ? splits[cascade] : 0.0f;
+    }
+
+    /**
+     * Returns the number of cascades.
+     */
+    public int getCascadeCount()
+    {
+        return cascadeCount;
+    }
+
+    /**
+     * Returns the depth array texture holding every cascade.
+     */
+    public int getTexture()
+    {
+        return texture;
+    }
+
+    /**
+     * Releases the texture and framebuffer.
+     */
+    public void cleanup()
+    {
+        GLStateCache.deleteTexture(texture);
+        GLStateCache.deleteFramebuffer(fbo);
+    }
+}
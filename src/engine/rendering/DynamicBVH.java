@@ -0,0 +1,628 @@
+package engine.rendering;
+
+import org.joml.FrustumIntersection;
+import org.joml.Intersectionf;
+import org.joml.Vector2f;
+import org.joml.Vector3f;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * A dynamic bounding volume hierarchy: a binary tree of axis-aligned boxes whose leaves are proxies for
+ * objects, supporting insertion, removal and movement without rebuilding.
+ * <p>
+ * Each leaf stores the object's exact box and a "fat" box enlarged by {@link #margin}. Moving a proxy
+ * within its fat box changes nothing in the tree; only when it leaves the fat box is the leaf removed
+ * and reinserted, and the ancestors are refit on the way back to the root. Insertion descends towards
+ * the sibling that grows the tree's total surface area the least, and every refit step applies tree
+ * rotations that keep the hierarchy balanced, so queries stay logarithmic as objects move.
+ * </p>
+ * <p>
+ * Queries walk the tree with an explicit stack, reject whole subtrees whose boxes miss the query shape,
+ * and report the payloads of the leaves whose exact boxes pass. Frustum queries also skip the tests
+ * below any node that is completely inside the frustum.
+ * </p>
+ * <p>
+ * Nodes are stored in parallel arrays indexed by node id, so the tree allocates nothing per query and
+ * only grows its arrays when it runs out of nodes.
+ * </p>
+ *
+ * @param <T> the payload type stored at the leaves.
+ */
+public class DynamicBVH<T>
+{
+    private static final int NULL = -1;
+
+    /** Distance by which leaf boxes are enlarged, so small movements do not touch the tree. */
+    private final float margin;
+
+    // Node boxes: the fat box for leaves and the union of the children for internal nodes.
+    private float[] boxes;
+    // Exact boxes of leaves.
+    private float[] leafBoxes;
+    private int[] parent;
+    private int[] child1;
+    private int[] child2;
+    // Leaves have height 0; free nodes have height -1.
+    private int[] height;
+    private Object[] payloads;
+
+    private int root = NULL;
+    private int capacity;
+    private int freeList;
+    private int leafCount = 0;
+
+    // Traversal stack shared by all queries; queries must not be nested.
+    private int[] stack = new int[64];
+    private final Vector2f rayResult = new Vector2f();
+
+    /**
+     * Creates an empty tree.
+     *
+     * @param margin the distance by which leaf boxes are enlarged.
+     */
+    public DynamicBVH(float margin)
+    {
+        this.margin = margin;
+        allocate(16);
+    }
+
+    private void allocate(int newCapacity)
+    {
+        int oldCapacity = capacity;
+        boxes = boxes == null ? new float[newCapacity * 6] : Arrays.copyOf(boxes, newCapacity * 6);
+        leafBoxes = leafBoxes == null ? new float[newCapacity * 6] : Arrays.copyOf(leafBoxes, newCapacity * 6);
+        parent = parent == null ? new int[newCapacity] : Arrays.copyOf(parent, newCapacity);
+        child1 = child1 == null ? new int[newCapacity] : Arrays.copyOf(child1, newCapacity);
+        child2 = child2 == null ? new int[newCapacity] : Arrays.copyOf(child2, newCapacity);
+        height = height == null ? new int[newCapacity] : Arrays.copyOf(height, newCapacity);
+        payloads = payloads == null ? new Object[newCapacity] : Arrays.copyOf(payloads, newCapacity);
+        // Chain the new nodes into the free list; parent doubles as the "next free" link.
+        for(int i = oldCapacity; i < newCapacity; i++)
+        {
+            parent[i] = i + 1 < newCapacity ? i + 1 : NULL;
+            height[i] = -1;
+        }
+        freeList = oldCapacity;
+        capacity = newCapacity;
+    }
+
+    private int allocateNode()
+    {
+        if(freeList == NULL)
+        {
+            allocate(capacity * 2);
+        }
+        int node = freeList;
+        freeList = parent[node];
+        parent[node] = NULL;
+        child1[node] = NULL;
+        child2[node] = NULL;
+        height[node] = 0;
+        payloads[node] = null;
+        return node;
+    }
+
+    private void freeNode(int node)
+    {
+        parent[node] = freeList;
+        height[node] = -1;
+        payloads[node] = null;
+        freeList = node;
+    }
+
+    /**
+     * Inserts an object.
+     *
+     * @param bounds  the object's world-space bounds.
+     * @param payload the object reported by queries.
+     * @return the proxy id, used to move or remove the object.
+     */
+    public int createProxy(Bounds bounds, T payload)
+    {
+        int proxy = allocateNode();
+        payloads[proxy] = payload;
+        setLeafBox(proxy, bounds);
+        insertLeaf(proxy);
+        leafCount++;
+        return proxy;
+    }
+
+    /**
+     * Removes an object.
+     *
+     * @param proxy the id returned by {@link #createProxy}.
+     */
+    public void destroyProxy(int proxy)
+    {
+        removeLeaf(proxy);
+        freeNode(proxy);
+        leafCount--;
+    }
+
+    /**
+     * Updates an object's bounds. The tree only changes if the bounds left the proxy's fat box.
+     *
+     * @param proxy  the id returned by {@link #createProxy}.
+     * @param bounds the object's new world-space bounds.
+     * @return true if the proxy was reinserted.
+     */
+    public boolean moveProxy(int proxy, Bounds bounds)
+    {
+        int b = proxy * 6;
+        leafBoxes[b] = bounds.min.x;
+        leafBoxes[b + 1] = bounds.min.y;
+        leafBoxes[b + 2] = bounds.min.z;
+        leafBoxes[b + 3] = bounds.max.x;
+        leafBoxes[b + 4] = bounds.max.y;
+        leafBoxes[b + 5] = bounds.max.z;
+        if(boxes[b] <= bounds.min.x && boxes[b + 1] <= bounds.min.y && boxes[b + 2] <= bounds.min.z
+           && boxes[b + 3] >= bounds.max.x && boxes[b + 4] >= bounds.max.y && boxes[b + 5] >= bounds.max.z)
+        {
+            return false;
+        }
+        removeLeaf(proxy);
+        setLeafBox(proxy, bounds);
+        insertLeaf(proxy);
+        return true;
+    }
+
+    /**
+     * Returns the payload of a proxy.
+     */
+    @SuppressWarnings("unchecked")
+    public T getPayload(int proxy)
+    {
+        return (T) payloads[proxy];
+    }
+
+    /**
+     * Returns the number of objects in the tree.
+     */
+    public int size()
+    {
+        return leafCount;
+    }
+
+    private void setLeafBox(int node, Bounds bounds)
+    {
+        int b = node * 6;
+        leafBoxes[b] = bounds.min.x;
+        leafBoxes[b + 1] = bounds.min.y;
+        leafBoxes[b + 2] = bounds.min.z;
+        leafBoxes[b + 3] = bounds.max.x;
+        leafBoxes[b + 4] = bounds.max.y;
+        leafBoxes[b + 5] = bounds.max.z;
+        boxes[b] = bounds.min.x - margin;
+        boxes[b + 1] = bounds.min.y - margin;
+        boxes[b + 2] = bounds.min.z - margin;
+        boxes[b + 3] = bounds.max.x + margin;
+        boxes[b + 4] = bounds.max.y + margin;
+        boxes[b + 5] = bounds.max.z + margin;
+    }
+
+    // -------- Tree maintenance --------
+
+    private static float area(float minX, float minY, float minZ, float maxX, float maxY, float maxZ)
+    {
+        float dx = maxX - minX, dy = maxY - minY, dz = maxZ - minZ;
+        return 2.0f * (dx * dy + dy * dz + dz * dx);
+    }
+
+    private float area(int node)
+    {
+        int b = node * 6;
+        return area(boxes[b], boxes[b + 1], boxes[b + 2], boxes[b + 3], boxes[b + 4], boxes[b + 5]);
+    }
+
+    /** Surface area of the union of two node boxes. */
+    private float unionArea(int a, int c)
+    {
+        int ba = a * 6, bc = c * 6;
+        return area(Math.min(boxes[ba], boxes[bc]), Math.min(boxes[ba + 1], boxes[bc + 1]), Math.min(boxes[ba + 2], boxes[bc + 2]),
+                    Math.max(boxes[ba + 3], boxes[bc + 3]), Math.max(boxes[ba + 4], boxes[bc + 4]), Math.max(boxes[ba + 5], boxes[bc + 5]));
+    }
+
+    /** Sets a node's box to the union of its children's and its height to one above the taller child. */
+    private void refit(int node)
+    {
+        int b = node * 6, b1 = child1[node] * 6, b2 = child2[node] * 6;
+        boxes[b] = Math.min(boxes[b1], boxes[b2]);
+        boxes[b + 1] = Math.min(boxes[b1 + 1], boxes[b2 + 1]);
+        boxes[b + 2] = Math.min(boxes[b1 + 2], boxes[b2 + 2]);
+        boxes[b + 3] = Math.max(boxes[b1 + 3], boxes[b2 + 3]);
+        boxes[b + 4] = Math.max(boxes[b1 + 4], boxes[b2 + 4]);
+        boxes[b + 5] = Math.max(boxes[b1 + 5], boxes[b2 + 5]);
+        height[node] = 1 + Math.max(height[child1[node]], height[child2[node]]);
+    }
+
+    private void insertLeaf(int leaf)
+    {
+        if(root == NULL)
+        {
+            root = leaf;
+            parent[root] = NULL;
+            return;
+        }
+
+        // Descend to the sibling whose pairing with the leaf adds the least surface area overall.
+        int index = root;
+        while(height[index] > 0)
+        {
+            int c1 = child1[index];
+            int c2 = child2[index];
+            float nodeArea = area(index);
+            float combinedArea = unionArea(index, leaf);
+            // Cost of making a new parent for this node and the leaf.
+            float cost = 2.0f * combinedArea;
+            // Minimum cost of pushing the leaf further down the tree.
+            float inheritanceCost = 2.0f * (combinedArea - nodeArea);
+            float cost1 = descendCost(c1, leaf) + inheritanceCost;
+            float cost2 = descendCost(c2, leaf) + inheritanceCost;
+            if(cost < cost1 && cost < cost2)
+            {
+                break;
+            }
+            index = cost1 < cost2 ? c1 : c2;
+        }
+        int sibling = index;
+
+        // Create a new parent for the sibling and the leaf.
+        int oldParent = parent[sibling];
+        int newParent = allocateNode();
+        parent[newParent] = oldParent;
+        child1[newParent] = sibling;
+        child2[newParent] = leaf;
+        parent[sibling] = newParent;
+        parent[leaf] = newParent;
+        refit(newParent);
+        if(oldParent != NULL)
+        {
+            if(child1[oldParent] == sibling)
+            {
+                child1[oldParent] = newParent;
+            }
+            else
+            {
+                child2[oldParent] = newParent;
+            }
+        }
+        else
+        {
+            root = newParent;
+        }
+
+        refitAncestors(parent[leaf]);
+    }
+
+    private float descendCost(int child, int leaf)
+    {
+        float unionArea = unionArea(child, leaf);
+        return height[child] == 0 ? unionArea : unionArea - area(child);
+    }
+
+    private void removeLeaf(int leaf)
+    {
+        if(leaf == root)
+        {
+            root = NULL;
+            return;
+        }
+        int leafParent = parent[leaf];
+        int grandParent = parent[leafParent];
+        int sibling = child1[leafParent] == leaf ? child2[leafParent] : child1[leafParent];
+        if(grandParent != NULL)
+        {
+            // Replace the parent by the sibling.
+            if(child1[grandParent] == leafParent)
+            {
+                child1[grandParent] = sibling;
+            }
+            else
+            {
+                child2[grandParent] = sibling;
+            }
+            parent[sibling] = grandParent;
+            freeNode(leafParent);
+            refitAncestors(grandParent);
+        }
+        else
+        {
+            root = sibling;
+            parent[sibling] = NULL;
+            freeNode(leafParent);
+        }
+    }
+
+    /** Walks from a node to the root, balancing and refitting every node on the way. */
+    private void refitAncestors(int index)
+    {
+        while(index != NULL)
+        {
+            index = balance(index);
+            refit(index);
+            index = parent[index];
+        }
+    }
+
+    /**
+     * Rotates the subtree at {@code a} if one child is more than one level taller than the other.
+     *
+     * @return the node now at the subtree's root.
+     */
+    private int balance(int a)
+    {
+        if(height[a] < 2)
+        {
+            return a;
+        }
+        int b = child1[a];
+        int c = child2[a];
+        int heightDifference = height[c] - height[b];
+        if(heightDifference > 1)
+        {
+            return rotate(a, c, b);
+        }
+        if(heightDifference < -1)
+        {
+            return rotate(a, b, c);
+        }
+        return a;
+    }
+
+    /**
+     * Promotes the taller child {@code up} of {@code a} into a's place. The shorter child {@code other}
+     * stays below {@code a}, and the taller of up's children moves up next to {@code a}.
+     */
+    private int rotate(int a, int up, int other)
+    {
+        int f = child1[up];
+        int g = child2[up];
+
+        // Swap a and up.
+        child1[up] = a;
+        parent[up] = parent[a];
+        parent[a] = up;
+        if(parent[up] != NULL)
+        {
+            if(child1[parent[up]] == a)
+            {
+                child1[parent[up]] = up;
+            }
+            else
+            {
+                child2[parent[up]] = up;
+            }
+        }
+        else
+        {
+            root = up;
+        }
+
+        // Keep the taller grandchild under up; the shorter one replaces up under a.
+        int keep = height[f] > height[g] ? f : g;
+        int move = keep == f ? g : f;
+        child2[up] = keep;
+        if(child1[a] == up)
+        {
+            child1[a] = move;
+        }
+        else
+        {
+            child2[a] = move;
+        }
+        parent[move] = a;
+        refit(a);
+        refit(up);
+        return up;
+    }
+
+    // -------- Queries --------
+
+    private int push(int top, int node)
+    {
+        if(top == stack.length)
+        {
+            stack = Arrays.copyOf(stack, stack.length * 2);
+        }
+        stack[top] = node;
+        return top + 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void visitLeaf(int node, Consumer<? super T> visitor)
+    {
+        visitor.accept((T) payloads[node]);
+    }
+
+    /**
+     * Reports every object whose box intersects a frustum.
+     *
+     * @param frustum the frustum planes, for example of a camera's view-projection matrix.
+     * @param visitor receives each object.
+     */
+    public void queryFrustum(FrustumIntersection frustum, Consumer<? super T> visitor)
+    {
+        if(root == NULL)
+        {
+            return;
+        }
+        // Nodes found completely inside the frustum are pushed as ~node, so their subtrees are
+        // reported without further plane tests.
+        int top = push(0, root);
+        while(top > 0)
+        {
+            int entry = stack[--top];
+            int node = entry < 0 ? ~entry : entry;
+            if(entry < 0)
+            {
+                if(height[node] == 0)
+                {
+                    visitLeaf(node, visitor);
+                }
+                else
+                {
+                    top = push(top, ~child1[node]);
+                    top = push(top, ~child2[node]);
+                }
+                continue;
+            }
+            int b = node * 6;
+            int result = frustum.intersectAab(boxes[b], boxes[b + 1], boxes[b + 2], boxes[b + 3], boxes[b + 4], boxes[b + 5]);
+            if(result == FrustumIntersection.INSIDE)
+            {
+                top = push(top, ~node);
+            }
+            else if(result == FrustumIntersection.INTERSECT)
+            {
+                if(height[node] == 0)
+                {
+                    if(frustum.testAab(leafBoxes[b], leafBoxes[b + 1], leafBoxes[b + 2], leafBoxes[b + 3], leafBoxes[b + 4], leafBoxes[b + 5]))
+                    {
+                        visitLeaf(node, visitor);
+                    }
+                }
+                else
+                {
+                    top = push(top, child1[node]);
+                    top = push(top, child2[node]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reports every object whose box intersects a sphere.
+     *
+     * @param center  the sphere center.
+     * @param radius  the sphere radius.
+     * @param visitor receives each object.
+     */
+    public void querySphere(Vector3f center, float radius, Consumer<? super T> visitor)
+    {
+        if(root == NULL)
+        {
+            return;
+        }
+        float radiusSquared = radius * radius;
+        int top = push(0, root);
+        while(top > 0)
+        {
+            int node = stack[--top];
+            boolean leaf = height[node] == 0;
+            if(boxSphereDistanceSquared(boxes, node * 6, center) > radiusSquared)
+            {
+                continue;
+            }
+            if(leaf)
+            {
+                if(boxSphereDistanceSquared(leafBoxes, node * 6, center) <= radiusSquared)
+                {
+                    visitLeaf(node, visitor);
+                }
+            }
+            else
+            {
+                top = push(top, child1[node]);
+                top = push(top, child2[node]);
+            }
+        }
+    }
+
+    private static float boxSphereDistanceSquared(float[] array, int b, Vector3f center)
+    {
+        float dx = Math.max(array[b] - center.x, Math.max(0.0f, center.x - array[b + 3]));
+        float dy = Math.max(array[b + 1] - center.y, Math.max(0.0f, center.y - array[b + 4]));
+        float dz = Math.max(array[b + 2] - center.z, Math.max(0.0f, center.z - array[b + 5]));
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * Reports every object whose box overlaps a box.
+     *
+     * @param min     the minimum corner of the query box.
+     * @param max     the maximum corner of the query box.
+     * @param visitor receives each object.
+     */
+    public void queryBox(Vector3f min, Vector3f max, Consumer<? super T> visitor)
+    {
+        if(root == NULL)
+        {
+            return;
+        }
+        int top = push(0, root);
+        while(top > 0)
+        {
+            int node = stack[--top];
+            if(!overlaps(boxes, node * 6, min, max))
+            {
+                continue;
+            }
+            if(height[node] == 0)
+            {
+                if(overlaps(leafBoxes, node * 6, min, max))
+                {
+                    visitLeaf(node, visitor);
+                }
+            }
+            else
+            {
+                top = push(top, child1[node]);
+                top = push(top, child2[node]);
+            }
+        }
+    }
+
+    private static boolean overlaps(float[] array, int b, Vector3f min, Vector3f max)
+    {
+        return array[b] <= max.x && array[b + 3] >= min.x
+               && array[b + 1] <= max.y && array[b + 4] >= min.y
+               && array[b + 2] <= max.z && array[b + 5] >= min.z;
+    }
+
+    /**
+     * Reports every object whose box is hit by a ray within a distance. Objects are reported in tree
+     * order, not sorted by distance.
+     *
+     * @param origin      the ray origin.
+     * @param direction   the ray direction; the distance is measured in multiples of its length.
+     * @param maxDistance the largest distance along the ray that counts as a hit.
+     * @param visitor     receives each object.
+     */
+    public void queryRay(Vector3f origin, Vector3f direction, float maxDistance, Consumer<? super T> visitor)
+    {
+        if(root == NULL)
+        {
+            return;
+        }
+        int top = push(0, root);
+        while(top > 0)
+        {
+            int node = stack[--top];
+            if(!rayHits(boxes, node * 6, origin, direction, maxDistance))
+            {
+                continue;
+            }
+            if(height[node] == 0)
+            {
+                if(rayHits(leafBoxes, node * 6, origin, direction, maxDistance))
+                {
+                    visitLeaf(node, visitor);
+                }
+            }
+            else
+            {
+                top = push(top, child1[node]);
+                top = push(top, child2[node]);
+            }
+        }
+    }
+
+    private boolean rayHits(float[] array, int b, Vector3f origin, Vector3f direction, float maxDistance)
+    {
+        return Intersectionf.intersectRayAab(origin.x, origin.y, origin.z, direction.x, direction.y, direction.z,
+                                             array[b], array[b + 1], array[b + 2], array[b + 3], array[b + 4], array[b + 5], rayResult)
+               && rayResult.x <= maxDistance;
+    }
+}
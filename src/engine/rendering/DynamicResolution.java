@@ -0,0 +1,102 @@
+package engine.rendering;
+
+/**
+ * Picks the scale the scene is rendered at, relative to the window, so the measured GPU frame time
+ * stays near {@link #targetMillis}.
+ * <p>
+ * The renderer feeds it the frame times of a {@link GpuTimer}. GPU time grows roughly with the pixel
+ * count, the square of the scale, so a frame over the target shrinks the scale by the square root of
+ * the ratio at once, while a frame comfortably under it grows the scale one step at a time. The scale
+ * moves in steps of {@link #STEP}, so the render targets only take a few sizes and the
+ * {@link RenderTargetPool} keeps reusing them. After a change, the results still in flight describe
+ * the old scale, so the controller waits for {@link GpuTimer#LATENCY} new results before judging it.
+ * </p>
+ */
+public class DynamicResolution
+{
+    /** GPU milliseconds per frame to hold the scene to; leaves room for the editor UI in a 60 Hz frame. */
+    public static float targetMillis = 14.0f;
+    /** Bounds of the scale. */
+    public static float minScale = 0.5f;
+    public static float maxScale = 1.0f;
+
+    /** Steps per unit of scale. */
+    private static final int STEPS = 20;
+    /** The scale changes by multiples of this. */
+    public static final float STEP = 1.0f / STEPS;
+    /** Share of the target below which the scale grows again; the gap keeps it from oscillating. */
+    private static final float HEADROOM = 0.8f;
+    /** Weight of a new result in the frame time average. */
+    private static final float SMOOTHING = 0.25f;
+
+    private int steps = STEPS;
+    private float averageMillis = 0.0f;
+    private int cooldown = 0;
+
+    /**
+     * Updates the scale with the frame's timer result.
+     *
+     * @param gpuMillis the GPU time of the frame the result belongs to.
+     * @param newResult whether the result arrived this frame; old results are not counted again.
+     * @return the scale to render this frame at.
+     */
+    public float update(float gpuMillis, boolean newResult)
+    {
+        if(!newResult)
+        {
+            return getScale();
+        }
+        if(cooldown > 0)
+        {
+            cooldown--;
+            return getScale();
+        }
+        averageMillis = averageMillis == 0.0f ? gpuMillis : averageMillis + SMOOTHING * (gpuMillis - averageMillis);
+
+        int minSteps = Math.round(minScale * STEPS);
+        int maxSteps = Math.round(maxScale * STEPS);
+        int wanted = steps;
+        if(averageMillis > targetMillis)
+        {
+            wanted = (int) Math.floor(steps * Math.sqrt(targetMillis / averageMillis));
+        }
+        else if(averageMillis < targetMillis * HEADROOM)
+        {
+            wanted = steps + 1;
+        }
+        wanted = Math.max(minSteps, Math.min(maxSteps, wanted));
+        if(wanted != steps)
+        {
+            steps = wanted;
+            averageMillis = 0.0f;
+            cooldown = GpuTimer.LATENCY;
+        }
+        return getScale();
+    }
+
+    /**
+     * Returns the current scale, between {@link #minScale} and {@link #maxScale}.
+     */
+    public float getScale()
+    {
+        return (float) steps / STEPS;
+    }
+
+    /**
+     * Returns a window dimension at the current scale, in whole pixels.
+     */
+    public int scale(int size)
+    {
+        return Math.max(1, Math.round(size * getScale()));
+    }
+
+    /**
+     * Returns to full resolution and forgets the measured frame times.
+     */
+    public void reset()
+    {
+        steps = STEPS;
+        averageMillis = 0.0f;
+        cooldown = 0;
+    }
+}
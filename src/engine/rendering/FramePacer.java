@@ -0,0 +1,203 @@
+package engine.rendering;
+
+import java.util.concurrent.locks.LockSupport;
+
+import static org.lwjgl.glfw.GLFW.glfwSwapInterval;
+import static org.lwjgl.opengl.GL32.*;
+
+/**
+ * Decides when the engine starts each frame, and measures how evenly frames arrive and how old the
+ * input is by the time a frame is finished.
+ * <p>
+ * The main loop calls {@link #waitForFrame} before it polls input and {@link #endFrame} after it
+ * swaps buffers. What the wait does depends on the {@link Mode}:
+ * </p>
+ * <ul>
+ *     <li>{@code UNCAPPED} starts at once, without vsync.</li>
+ *     <li>{@code VSYNC} starts at once; the swap waits for the display.</li>
+ *     <li>{@code CAPPED} starts on a fixed schedule of {@link #targetFps}, without vsync. The wait
+ *     sleeps until {@link #SPIN_NANOS} before the deadline, since sleeps overshoot by about a
+ *     scheduler tick, and spins for the rest.</li>
+ *     <li>{@code LOW_LATENCY} uses vsync, but also waits until the GPU has finished all but
+ *     {@link #maxFramesInFlight} of the submitted frames. Otherwise the driver lets the CPU run
+ *     several frames ahead, and each queued frame shows input that much older.</li>
+ * </ul>
+ * <p>
+ * A fence follows every frame's swap. Frame time variation is measured between the starts of
+ * successive frames. Input latency is estimated as the time from the input poll to the point where
+ * the frame's fence is seen signaled, plus half a refresh in the vsync modes for the wait on scan
+ * out. Fences are only checked at frame starts, so outside of {@code LOW_LATENCY}, where the wait
+ * observes them directly, the estimate is up to a frame high.
+ * </p>
+ */
+public class FramePacer
+{
+    public enum Mode
+    {
+        UNCAPPED, VSYNC, CAPPED, LOW_LATENCY
+    }
+
+    /** How the next frames are paced; applied at the start of the next frame. */
+    public static Mode mode = Mode.VSYNC;
+    /** Frames per second of {@code CAPPED}. */
+    public static int targetFps = 120;
+    /** Frames the GPU may still be working on when {@code LOW_LATENCY} starts a new one. */
+    public static int maxFramesInFlight = 1;
+
+    /** Time before a deadline at which the wait stops sleeping and spins. */
+    private static final long SPIN_NANOS = 2_000_000L;
+    /** Fences kept at most; older frames are waited for in any mode, which only happens if the driver queues this deep. */
+    private static final int MAX_PENDING = 8;
+
+    private final long refreshNanos;
+    private Mode appliedMode = null;
+    private long nextDeadline = 0;
+
+    private final long[] fences = new long[MAX_PENDING];
+    private final long[] inputTimes = new long[MAX_PENDING];
+    /** Index of the oldest pending fence, and the number pending. */
+    private int oldest = 0;
+    private int pending = 0;
+    private long inputTime = 0;
+
+    private long lastFrameStart = 0;
+    private int frameCount = 0;
+    private double frameSum = 0.0;
+    private double frameSquareSum = 0.0;
+    private long maxFrameNanos = 0;
+    private int latencyCount = 0;
+    private double latencySum = 0.0;
+
+    /**
+     * @param refreshRate the display's refresh rate in Hz, for the latency estimate with vsync.
+     */
+    public FramePacer(int refreshRate)
+    {
+        refreshNanos = 1_000_000_000L / Math.max(1, refreshRate);
+    }
+
+    /**
+     * Waits until the next frame may start. Call at the top of the loop, followed by the input poll.
+     */
+    public void waitForFrame()
+    {
+        if(mode != appliedMode)
+        {
+            glfwSwapInterval(mode == Mode.VSYNC || mode == Mode.LOW_LATENCY ? 1 : 0);
+            appliedMode = mode;
+            nextDeadline = 0;
+        }
+
+        retireFences(mode == Mode.LOW_LATENCY ? Math.max(0, maxFramesInFlight) + 1 : MAX_PENDING);
+        if(mode == Mode.CAPPED)
+        {
+            waitForDeadline();
+        }
+
+        long now = System.nanoTime();
+        if(lastFrameStart != 0)
+        {
+            long frameNanos = now - lastFrameStart;
+            frameCount++;
+            frameSum += frameNanos;
+            frameSquareSum += (double) frameNanos * frameNanos;
+            maxFrameNanos = Math.max(maxFrameNanos, frameNanos);
+        }
+        lastFrameStart = now;
+        inputTime = now;
+    }
+
+    /**
+     * Waits for the oldest frames until fewer than {@code limit} are pending, and records the latency
+     * of every frame already finished.
+     */
+    private void retireFences(int limit)
+    {
+        while(pending > 0)
+        {
+            long fence = fences[oldest];
+            int status = glClientWaitSync(fence, GL_SYNC_FLUSH_COMMANDS_BIT, 0);
+            if(status == GL_TIMEOUT_EXPIRED)
+            {
+                if(pending < limit)
+                {
+                    return;
+                }
+                while(status == GL_TIMEOUT_EXPIRED)
+                {
+                    status = glClientWaitSync(fence, 0, 100_000L);
+                }
+            }
+            long latency = System.nanoTime() - inputTimes[oldest];
+            if(mode == Mode.VSYNC || mode == Mode.LOW_LATENCY)
+            {
+                latency += refreshNanos / 2;
+            }
+            latencyCount++;
+            latencySum += latency;
+            glDeleteSync(fence);
+            fences[oldest] = 0;
+            oldest = (oldest + 1) % MAX_PENDING;
+            pending--;
+        }
+    }
+
+    private void waitForDeadline()
+    {
+        long period = 1_000_000_000L / Math.max(1, targetFps);
+        long now = System.nanoTime();
+        // Starting, or more than a frame late: restart the schedule instead of rushing to catch up.
+        if(nextDeadline == 0 || now - nextDeadline > period)
+        {
+            nextDeadline = now;
+        }
+        long sleep = nextDeadline - now - SPIN_NANOS;
+        if(sleep > 0)
+        {
+            LockSupport.parkNanos(sleep);
+        }
+        while(System.nanoTime() < nextDeadline)
+        {
+            Thread.onSpinWait();
+        }
+        nextDeadline += period;
+    }
+
+    /**
+     * Marks the end of the frame's commands. Call right after the buffer swap.
+     */
+    public void endFrame()
+    {
+        int slot = (oldest + pending) % MAX_PENDING;
+        fences[slot] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        inputTimes[slot] = inputTime;
+        pending++;
+    }
+
+    /**
+     * Returns the statistics since the last call, in milliseconds: the average frame time, its
+     * standard deviation, the longest frame, and the average estimated input latency. Resets them.
+     */
+    public float[] takeStats()
+    {
+        double mean = frameCount > 0 ? frameSum / frameCount : 0.0;
+        double variance = frameCount > 0 ? Math.max(0.0, frameSquareSum / frameCount - mean * mean) : 0.0;
+        double latency = latencyCount > 0 ? latencySum / latencyCount : 0.0;
+        float[] stats = {(float) (mean / 1_000_000.0), (float) (Math.sqrt(variance) / 1_000_000.0), maxFrameNanos / 1_000_000.0f, (float) (latency / 1_000_000.0)};
+        frameCount = 0;
+        frameSum = 0.0;
+        frameSquareSum = 0.0;
+        maxFrameNanos = 0;
+        latencyCount = 0;
+        latencySum = 0.0;
+        return stats;
+    }
+
+    /**
+     * Waits for and releases the pending fences.
+     */
+    public void cleanup()
+    {
+        retireFences(1);
+    }
+}
@@ -0,0 +1,239 @@
+package engine.rendering;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.GL_MAP_WRITE_BIT;
+import static org.lwjgl.opengl.GL30.glMapBufferRange;
+import static org.lwjgl.opengl.GL31.GL_COPY_WRITE_BUFFER;
+import static org.lwjgl.opengl.GL32.*;
+import static org.lwjgl.opengl.GL44.*;
+import static org.lwjgl.opengl.GL45.glUnmapNamedBuffer;
+
+/**
+ * A persistently mapped buffer that per-frame data is written to directly, without driver copies or
+ * buffer reallocation.
+ * <p>
+ * The buffer is split into {@link #FRAMES} equal regions used in turn, one per frame. {@link #beginFrame()}
+ * waits for the fence placed when the region was last used, so the CPU never overwrites data the GPU may
+ * still read, then {@link #allocate} hands out aligned ranges of the region until {@link #endFrame()}
+ * fences it. With three regions the CPU can run two frames ahead before it waits at all. The mapping is
+ * coherent, so written bytes are visible to every command issued after the write.
+ * </p>
+ * <p>
+ * A frame that outgrows its region moves to a new buffer with twice the region size. The old buffer
+ * stays alive, with the ranges already handed out this frame, until its last frame has completed.
+ * Callers must therefore bind ranges with the buffer returned by {@link #getBuffer()} at allocation
+ * time rather than the one current when they draw.
+ * </p>
+ */
+public class FrameRingBuffer
+{
+    /** Frames that may be in flight at once, each with its own region. */
+    public static final int FRAMES = 3;
+
+    private static final int FLAGS = GL_MAP_WRITE_BIT | GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT;
+
+    /**
+     * A buffer replaced after a frame outgrew it, deleted once that frame has completed.
+     */
+    private static class Retired
+    {
+        final int buffer;
+        final long frameSerial;
+
+        Retired(int buffer, long frameSerial)
+        {
+            this.buffer = buffer;
+            this.frameSerial = frameSerial;
+        }
+    }
+
+    private int buffer;
+    private ByteBuffer mapped;
+    private long regionBytes;
+    private final long[] fences = new long[FRAMES];
+    private final List<Retired> retired = new ArrayList<>();
+
+    /** The region of the current frame, and the number of frames begun so far. */
+    private int frame = 0;
+    private long frameSerial = 0;
+    /** Absolute offsets of the next free byte and the end of the current frame's region. */
+    private long head = 0;
+    private long regionEnd = 0;
+
+    private long waitNanos = 0;
+    private long frameBytes = 0;
+    private long lastFrameBytes = 0;
+
+    /**
+     * Creates the buffer and maps it for the lifetime of the ring.
+     *
+     * @param initialFrameBytes the bytes available to each frame before the ring grows.
+     */
+    public FrameRingBuffer(long initialFrameBytes)
+    {
+        create(initialFrameBytes);
+    }
+
+    private void create(long frameBytes)
+    {
+        regionBytes = frameBytes;
+        buffer = glGenBuffers();
+        glBindBuffer(GL_COPY_WRITE_BUFFER, buffer);
+        glBufferStorage(GL_COPY_WRITE_BUFFER, FRAMES * regionBytes, FLAGS);
+        mapped = glMapBufferRange(GL_COPY_WRITE_BUFFER, 0, FRAMES * regionBytes, FLAGS);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+    }
+
+    /**
+     * Moves to the next region, waiting until the GPU has finished the frame that last used it.
+     */
+    public void beginFrame()
+    {
+        frame = (frame + 1) % FRAMES;
+        frameSerial++;
+        if(fences[frame] != 0)
+        {
+            long start = System.nanoTime();
+            // Flush on the first try so the fence is guaranteed to signal eventually.
+            int status = glClientWaitSync(fences[frame], GL_SYNC_FLUSH_COMMANDS_BIT, 0);
+            while(status == GL_TIMEOUT_EXPIRED)
+            {
+                status = glClientWaitSync(fences[frame], 0, 1_000_000L);
+            }
+            waitNanos += System.nanoTime() - start;
+            glDeleteSync(fences[frame]);
+            fences[frame] = 0;
+        }
+        // Each region's fence covers all earlier frames too, so a buffer retired FRAMES frames ago is idle.
+        for(int i = retired.size() - 1; i >= 0; i--)
+        {
+            if(frameSerial - retired.get(i).frameSerial >= FRAMES)
+            {
+                glDeleteBuffers(retired.remove(i).buffer);
+            }
+        }
+        head = frame * regionBytes;
+        regionEnd = head + regionBytes;
+        frameBytes = 0;
+    }
+
+    /**
+     * Reserves a range of the current frame's region.
+     *
+     * @param bytes     the size of the range.
+     * @param alignment the required alignment of its offset, such as
+     *                  {@code GL_SHADER_STORAGE_BUFFER_OFFSET_ALIGNMENT}.
+     * @return the offset of the range in the buffer returned by {@link #getBuffer()}.
+     */
+    public long allocate(long bytes, int alignment)
+    {
+        long offset = (head + alignment - 1) / alignment * alignment;
+        if(offset + bytes > regionEnd)
+        {
+            grow(bytes + alignment);
+            offset = (head + alignment - 1) / alignment * alignment;
+        }
+        head = offset + bytes;
+        frameBytes += bytes;
+        return offset;
+    }
+
+    /**
+     * Replaces the buffer by one whose regions hold at least {@code bytes} more than this frame used.
+     */
+    private void grow(long bytes)
+    {
+        long used = head - frame * regionBytes;
+        long grownBytes = Math.max(regionBytes * 2, used + bytes);
+        System.err.println("Frame ring buffer outgrown, growing each frame's region to " + grownBytes + " bytes");
+        glUnmapNamedBuffer(buffer);
+        retired.add(new Retired(buffer, frameSerial));
+        create(grownBytes);
+        // The new buffer has never been read by the GPU; the range already used this frame stays in the old one.
+        head = frame * regionBytes;
+        regionEnd = head + regionBytes;
+    }
+
+    /**
+     * Fences the current frame's region, after every command reading it has been issued.
+     */
+    public void endFrame()
+    {
+        fences[frame] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        lastFrameBytes = frameBytes;
+    }
+
+    /**
+     * Returns the buffer that {@link #allocate} offsets refer to until the ring next grows.
+     */
+    public int getBuffer()
+    {
+        return buffer;
+    }
+
+    /**
+     * Returns the mapped memory of the whole buffer. Indexing it with an allocated offset writes the range.
+     */
+    public ByteBuffer getMapped()
+    {
+        return mapped;
+    }
+
+    /**
+     * Returns the address of an allocated offset, for copying into it.
+     */
+    public long address(long offset)
+    {
+        return MemoryUtil.memAddress(mapped) + offset;
+    }
+
+    /**
+     * Returns the nanoseconds spent waiting for regions to become free since the last {@link #resetStats()}.
+     */
+    public long getWaitNanos()
+    {
+        return waitNanos;
+    }
+
+    /**
+     * Returns the bytes allocated by the last completed frame.
+     */
+    public long getLastFrameBytes()
+    {
+        return lastFrameBytes;
+    }
+
+    public void resetStats()
+    {
+        waitNanos = 0;
+    }
+
+    /**
+     * Waits for the GPU to finish with every region, then unmaps and releases the buffers.
+     */
+    public void cleanup()
+    {
+        for(int i = 0; i < FRAMES; i++)
+        {
+            if(fences[i] != 0)
+            {
+                glClientWaitSync(fences[i], GL_SYNC_FLUSH_COMMANDS_BIT, Long.MAX_VALUE);
+                glDeleteSync(fences[i]);
+                fences[i] = 0;
+            }
+        }
+        glUnmapNamedBuffer(buffer);
+        glDeleteBuffers(buffer);
+        for(Retired old : retired)
+        {
+            glDeleteBuffers(old.buffer);
+        }
+        retired.clear();
+    }
+}
@@ -0,0 +1,369 @@
+package engine.rendering;
+
+import java.util.Arrays;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL13.GL_TEXTURE0;
+import static org.lwjgl.opengl.GL13.GL_TEXTURE_CUBE_MAP;
+import static org.lwjgl.opengl.GL13.glActiveTexture;
+import static org.lwjgl.opengl.GL20.glDeleteProgram;
+import static org.lwjgl.opengl.GL20.glUseProgram;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.GL_TEXTURE_CUBE_MAP_SEAMLESS;
+import static org.lwjgl.opengl.GL33.glBindSampler;
+import static org.lwjgl.opengl.GL40.GL_TEXTURE_CUBE_MAP_ARRAY;
+
+/**
+ * The single path through which the engine changes OpenGL binding and fixed-function state.
+ * <p>
+ * It remembers the current program, vertex array, draw and read framebuffers, viewport, active texture
+ * unit, the texture bound to each target of each unit, the sampler of each unit, depth function and
+ * mask, and a set of enable flags, and drops calls that would not change them. Callers can therefore
+ * bind what they need before every draw without checking what is already bound.
+ * </p>
+ * <p>
+ * The cache is only correct while nothing else changes that state behind its back. Objects must be
+ * deleted through it, since GL resets bindings of deleted objects and may reuse their names, and
+ * {@link #invalidate()} must be called after foreign code (such as the ImGui renderer) has run.
+ * </p>
+ */
+public final class GLStateCache
+{
+    /** Texture units tracked; higher units are passed through uncached. */
+    private static final int MAX_UNITS = 32;
+    /** Texture targets tracked per unit; other targets are passed through uncached. */
+    private static final int[] TEXTURE_TARGETS = {GL_TEXTURE_2D, GL_TEXTURE_2D_ARRAY, GL_TEXTURE_CUBE_MAP, GL_TEXTURE_CUBE_MAP_ARRAY};
+    /** Capabilities tracked by {@link #enable} and {@link #disable}; others are passed through uncached. */
+    private static final int[] CAPABILITIES = {GL_DEPTH_TEST, GL_CULL_FACE, GL_BLEND, GL_SCISSOR_TEST, GL_POLYGON_OFFSET_FILL, GL_TEXTURE_CUBE_MAP_SEAMLESS};
+    /** Marks state that is not known, so the next call setting it is always issued. */
+    private static final int UNKNOWN = -1;
+
+    private static int program;
+    private static int vertexArray;
+    private static int drawFramebuffer;
+    private static int readFramebuffer;
+    private static final int[] viewport = new int[4];
+    private static int activeUnit;
+    private static final int[][] textures = new int[TEXTURE_TARGETS.length][MAX_UNITS];
+    private static final int[] samplers = new int[MAX_UNITS];
+    private static final int[] capabilities = new int[CAPABILITIES.length];
+    private static int depthFunc;
+    private static int depthMask;
+
+    private static long issuedCalls = 0;
+    private static long elidedCalls = 0;
+
+    static
+    {
+        invalidate();
+    }
+
+    private GLStateCache()
+    {
+    }
+
+    /**
+     * Forgets all cached state, so every following call is issued once. Call after code outside the
+     * engine has changed GL state, or after switching contexts.
+     */
+    public static void invalidate()
+    {
+        program = UNKNOWN;
+        vertexArray = UNKNOWN;
+        drawFramebuffer = UNKNOWN;
+        readFramebuffer = UNKNOWN;
+        Arrays.fill(viewport, UNKNOWN);
+        activeUnit = UNKNOWN;
+        for(int[] unitTextures : textures)
+        {
+            Arrays.fill(unitTextures, UNKNOWN);
+        }
+        Arrays.fill(samplers, UNKNOWN);
+        Arrays.fill(capabilities, UNKNOWN);
+        depthFunc = UNKNOWN;
+        depthMask = UNKNOWN;
+    }
+
+    public static void useProgram(int programId)
+    {
+        if(program == programId)
+        {
+            elidedCalls++;
+            return;
+        }
+        glUseProgram(programId);
+        program = programId;
+        issuedCalls++;
+    }
+
+    public static void bindVertexArray(int vaoId)
+    {
+        if(vertexArray == vaoId)
+        {
+            elidedCalls++;
+            return;
+        }
+        glBindVertexArray(vaoId);
+        vertexArray = vaoId;
+        issuedCalls++;
+    }
+
+    /**
+     * Binds a framebuffer to {@code GL_FRAMEBUFFER} (both draw and read), {@code GL_DRAW_FRAMEBUFFER}
+     * or {@code GL_READ_FRAMEBUFFER}.
+     */
+    public static void bindFramebuffer(int target, int fbo)
+    {
+        boolean draw = target != GL_READ_FRAMEBUFFER;
+        boolean read = target != GL_DRAW_FRAMEBUFFER;
+        if((!draw || drawFramebuffer == fbo) && (!read || readFramebuffer == fbo))
+        {
+            elidedCalls++;
+            return;
+        }
+        glBindFramebuffer(target, fbo);
+        if(draw)
+        {
+            drawFramebuffer = fbo;
+        }
+        if(read)
+        {
+            readFramebuffer = fbo;
+        }
+        issuedCalls++;
+    }
+
+    public static void viewport(int x, int y, int width, int height)
+    {
+        if(viewport[0] == x && viewport[1] == y && viewport[2] == width && viewport[3] == height)
+        {
+            elidedCalls++;
+            return;
+        }
+        glViewport(x, y, width, height);
+        viewport[0] = x;
+        viewport[1] = y;
+        viewport[2] = width;
+        viewport[3] = height;
+        issuedCalls++;
+    }
+
+    /**
+     * Selects the texture unit that {@link #bindTexture(int, int)} binds to.
+     */
+    public static void activeTexture(int unit)
+    {
+        if(activeUnit == unit)
+        {
+            elidedCalls++;
+            return;
+        }
+        glActiveTexture(GL_TEXTURE0 + unit);
+        activeUnit = unit;
+        issuedCalls++;
+    }
+
+    /**
+     * Binds a texture to a target of a texture unit, for sampling.
+     */
+    public static void bindTexture(int unit, int target, int textureId)
+    {
+        int targetIndex = targetIndex(target);
+        if(targetIndex >= 0 && unit < MAX_UNITS && textures[targetIndex][unit] == textureId)
+        {
+            elidedCalls++;
+            return;
+        }
+        activeTexture(unit);
+        bindTexture(target, textureId);
+    }
+
+    /**
+     * Binds a texture to a target of the active texture unit, for example to upload to it or change
+     * its parameters.
+     */
+    public static void bindTexture(int target, int textureId)
+    {
+        int targetIndex = targetIndex(target);
+        boolean tracked = targetIndex >= 0 && activeUnit >= 0 && activeUnit < MAX_UNITS;
+        if(tracked && textures[targetIndex][activeUnit] == textureId)
+        {
+            elidedCalls++;
+            return;
+        }
+        glBindTexture(target, textureId);
+        if(tracked)
+        {
+            textures[targetIndex][activeUnit] = textureId;
+        }
+        issuedCalls++;
+    }
+
+    public static void bindSampler(int unit, int samplerId)
+    {
+        if(unit < MAX_UNITS && samplers[unit] == samplerId)
+        {
+            elidedCalls++;
+            return;
+        }
+        glBindSampler(unit, samplerId);
+        if(unit < MAX_UNITS)
+        {
+            samplers[unit] = samplerId;
+        }
+        issuedCalls++;
+    }
+
+    public static void enable(int capability)
+    {
+        setCapability(capability, true);
+    }
+
+    public static void disable(int capability)
+    {
+        setCapability(capability, false);
+    }
+
+    private static void setCapability(int capability, boolean enabled)
+    {
+        int index = indexOf(CAPABILITIES, capability);
+        int value = enabled ? 1 : 0;
+        if(index >= 0 && capabilities[index] == value)
+        {
+            elidedCalls++;
+            return;
+        }
+        if(enabled)
+        {
+            glEnable(capability);
+        }
+        else
+        {
+            glDisable(capability);
+        }
+        if(index >= 0)
+        {
+            capabilities[index] = value;
+        }
+        issuedCalls++;
+    }
+
+    public static void depthFunc(int function)
+    {
+        if(depthFunc == function)
+        {
+            elidedCalls++;
+            return;
+        }
+        glDepthFunc(function);
+        depthFunc = function;
+        issuedCalls++;
+    }
+
+    public static void depthMask(boolean write)
+    {
+        int value = write ? 1 : 0;
+        if(depthMask == value)
+        {
+            elidedCalls++;
+            return;
+        }
+        glDepthMask(write);
+        depthMask = value;
+        issuedCalls++;
+    }
+
+    /**
+     * Deletes a texture and forgets the units it was bound to, since GL unbinds it and may hand its
+     * name out again.
+     */
+    public static void deleteTexture(int textureId)
+    {
+        glDeleteTextures(textureId);
+        for(int[] unitTextures : textures)
+        {
+            for(int unit = 0; unit < MAX_UNITS; unit++)
+            {
+                if(unitTextures[unit] == textureId)
+                {
+                    unitTextures[unit] = 0;
+                }
+            }
+        }
+    }
+
+    public static void deleteFramebuffer(int fbo)
+    {
+        glDeleteFramebuffers(fbo);
+        if(drawFramebuffer == fbo)
+        {
+            drawFramebuffer = 0;
+        }
+        if(readFramebuffer == fbo)
+        {
+            readFramebuffer = 0;
+        }
+    }
+
+    public static void deleteVertexArray(int vaoId)
+    {
+        glDeleteVertexArrays(vaoId);
+        if(vertexArray == vaoId)
+        {
+            vertexArray = 0;
+        }
+    }
+
+    /**
+     * Deletes a program. A program in use is only deleted by GL once it is no longer current, so the
+     * cache forgets the current program rather than assuming 0.
+     */
+    public static void deleteProgram(int programId)
+    {
+        glDeleteProgram(programId);
+        if(program == programId)
+        {
+            program = UNKNOWN;
+        }
+    }
+
+    /**
+     * Returns the number of state calls passed on to GL since the last {@link #resetCounts()}.
+     */
+    public static long getIssuedCount()
+    {
+        return issuedCalls;
+    }
+
+    /**
+     * Returns the number of state calls dropped because they would not have changed anything, since
+     * the last {@link #resetCounts()}.
+     */
+    public static long getElidedCount()
+    {
+        return elidedCalls;
+    }
+
+    public static void resetCounts()
+    {
+        issuedCalls = 0;
+        elidedCalls = 0;
+    }
+
+    private static int targetIndex(int target)
+    {
+        return indexOf(TEXTURE_TARGETS, target);
+    }
+
+    private static int indexOf(int[] values, int value)
+    {
+        for(int i = 0; i < values.length; i++)
+        {
+            if(values[i] == value)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
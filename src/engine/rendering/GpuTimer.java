@@ -0,0 +1,84 @@
+package engine.rendering;
+
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL33.GL_TIME_ELAPSED;
+import static org.lwjgl.opengl.GL33.glGetQueryObjectui64;
+
+/**
+ * Measures the GPU time of a span of commands every frame with {@code GL_TIME_ELAPSED} queries.
+ * <p>
+ * A query's result is only known once the GPU has run the commands, a frame or more after they were
+ * issued. Waiting for it would stall the CPU on the GPU, so the timer cycles through
+ * {@link #LATENCY} queries and {@link #begin} first collects the result of the oldest one, if the GPU
+ * has finished it. {@link #getLastMillis} therefore describes a frame a few frames back. Only one
+ * time-elapsed query can be active at once, so timed spans must not nest.
+ * </p>
+ */
+public class GpuTimer
+{
+    /** Queries in flight; results are read this many frames after they were issued. */
+    public static final int LATENCY = 4;
+
+    private final int[] queries = new int[LATENCY];
+    private final boolean[] issued = new boolean[LATENCY];
+    private int current = 0;
+    private float lastMillis = 0.0f;
+    private long resultFrame = -1;
+    private long frame = 0;
+
+    public GpuTimer()
+    {
+        glGenQueries(queries);
+    }
+
+    /**
+     * Collects the oldest finished result, then starts timing this frame's commands.
+     */
+    public void begin()
+    {
+        current = (int) (frame % LATENCY);
+        if(issued[current] && glGetQueryObjecti(queries[current], GL_QUERY_RESULT_AVAILABLE) == GL_TRUE)
+        {
+            lastMillis = glGetQueryObjectui64(queries[current], GL_QUERY_RESULT) / 1_000_000.0f;
+            resultFrame = frame;
+            issued[current] = false;
+        }
+        // A result the GPU has not finished yet is dropped; the query is reused for this frame.
+        glBeginQuery(GL_TIME_ELAPSED, queries[current]);
+    }
+
+    /**
+     * Stops timing this frame's commands.
+     */
+    public void end()
+    {
+        glEndQuery(GL_TIME_ELAPSED);
+        issued[current] = true;
+        frame++;
+    }
+
+    /**
+     * Returns the GPU milliseconds of the most recent frame whose result has arrived, or 0 before the
+     * first one.
+     */
+    public float getLastMillis()
+    {
+        return lastMillis;
+    }
+
+    /**
+     * Returns whether {@link #begin} of the current frame collected a new result.
+     */
+    public boolean hasNewResult()
+    {
+        return resultFrame == frame;
+    }
+
+    /**
+     * Releases the queries.
+     */
+    public void cleanup()
+    {
+        glDeleteQueries(queries);
+    }
+}
@@ -0,0 +1,119 @@
+package engine.rendering;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.IntBuffer;
+
+import static org.lwjgl.opengl.GL15.glBindBuffer;
+import static org.lwjgl.opengl.GL40.GL_DRAW_INDIRECT_BUFFER;
+
+/**
+ * A buffer of {@code DrawElementsIndirectCommand} records consumed by {@code glMultiDrawElementsIndirect}.
+ * <p>
+ * Each command is five unsigned ints: index count, instance count, first index, base vertex and
+ * base instance. The renderer writes one command per {@link RenderQueue.Batch} every frame, copies
+ * them into the frame's range of the {@link FrameRingBuffer} and keeps the ring bound to
+ * {@code GL_DRAW_INDIRECT_BUFFER} while submitting, drawing from {@link #offsetOf(int)}.
+ * </p>
+ */
+public class IndirectBuffer
+{
+    /** Ints per command. */
+    public static final int COMMAND_INTS = 5;
+    /** Bytes per command, which is also the stride used when submitting. */
+    public static final int COMMAND_BYTES = COMMAND_INTS * Integer.BYTES;
+
+    private final FrameRingBuffer ring;
+    private IntBuffer data;
+    private int count = 0;
+    /** The ring range holding this frame's commands. */
+    private int gpuBuffer = 0;
+    private long gpuOffset = 0;
+
+    /**
+     * Creates an indirect buffer able to hold {@code initialCommands} commands before growing.
+     *
+     * @param ring            the ring the commands are uploaded to every frame.
+     * @param initialCommands the initial capacity, in commands.
+     */
+    public IndirectBuffer(FrameRingBuffer ring, int initialCommands)
+    {
+        this.ring = ring;
+        data = MemoryUtil.memAllocInt(Math.max(1, initialCommands) * COMMAND_INTS);
+    }
+
+    /**
+     * Discards the commands written for the previous frame.
+     */
+    public void clear()
+    {
+        data.clear();
+        count = 0;
+    }
+
+    /**
+     * Appends a draw command.
+     *
+     * @param indexCount    number of indices per instance.
+     * @param instanceCount number of instances.
+     * @param firstIndex    first index in the bound element buffer.
+     * @param baseVertex    value added to every fetched index.
+     * @param baseInstance  first instance, added to {@code gl_InstanceID} lookups via {@code gl_BaseInstance}.
+     * @return the index of the command.
+     */
+    public int put(int indexCount, int instanceCount, int firstIndex, int baseVertex, int baseInstance)
+    {
+        if(data.remaining() < COMMAND_INTS)
+        {
+            data = MemoryUtil.memRealloc(data, data.capacity() * 2);
+        }
+        data.put(indexCount).put(instanceCount).put(firstIndex).put(baseVertex).put(baseInstance);
+        return count++;
+    }
+
+    /**
+     * Returns the number of commands written this frame.
+     */
+    public int size()
+    {
+        return count;
+    }
+
+    /**
+     * Copies the written commands to a range of the frame ring and leaves the ring bound to
+     * {@code GL_DRAW_INDIRECT_BUFFER}.
+     */
+    public void upload()
+    {
+        long bytes = (long) count * COMMAND_BYTES;
+        // Indirect offsets only have to be multiples of the command's basic machine unit.
+        gpuOffset = ring.allocate(Math.max(bytes, COMMAND_BYTES), Integer.BYTES);
+        gpuBuffer = ring.getBuffer();
+        MemoryUtil.memCopy(MemoryUtil.memAddress(data, 0), ring.address(gpuOffset), bytes);
+        bind();
+    }
+
+    /**
+     * Returns the byte offset of a command of this frame, as passed to the indirect draw calls.
+     */
+    public long offsetOf(int command)
+    {
+        return gpuOffset + (long) command * COMMAND_BYTES;
+    }
+
+    /**
+     * Binds this frame's commands to {@code GL_DRAW_INDIRECT_BUFFER}.
+     */
+    public void bind()
+    {
+        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, gpuBuffer);
+    }
+
+    /**
+     * Releases the staging memory. The ring owns the GPU memory.
+     */
+    public void cleanup()
+    {
+        MemoryUtil.memFree(data);
+    }
+}
@@ -0,0 +1,176 @@
+package engine.rendering;
+
+import engine.Material;
+import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.FloatBuffer;
+
+import static org.lwjgl.opengl.GL11.glGetInteger;
+import static org.lwjgl.opengl.GL30.glBindBufferRange;
+import static org.lwjgl.opengl.GL43.GL_SHADER_STORAGE_BUFFER;
+import static org.lwjgl.opengl.GL43.GL_SHADER_STORAGE_BUFFER_OFFSET_ALIGNMENT;
+
+/**
+ * A shader storage buffer holding the per-draw data of every drawn instance: its model matrices and
+ * the scalar parameters of its material.
+ * <p>
+ * The renderer fills it once per frame, copies it into the frame's range of the
+ * {@link FrameRingBuffer} and binds that range to {@link #BINDING}. Shaders fetch their entry with {@code instances[gl_BaseInstance + gl_InstanceID]},
+ * so a whole group of objects sharing a mesh and material can be drawn with one instanced call, and
+ * draws with different material parameters can share one multi-draw-indirect submission. Ranges
+ * reserved with {@link #reserve} can be filled from several threads at once.
+ * </p>
+ * <p>
+ * Each entry matches this std430 struct, which shaders get from instances.glsl:
+ * <pre>
+ * struct Instance {
+ *     mat4 model;
+ *     vec4 albedoColor; // rgb = albedo tint, a = normal map strength
+ *     vec4 material;    // x = metallic, y = roughness, z = height scale
+ *     vec4 tiling;      // xy = texture tiling, z = view mask (int bits), w = draw index (int bits)
+ *     mat4 previousModel;
+ * };
+ * </pre>
+ * The view mask tells layered shadow passes which layers (cascades or cube faces) the instance can
+ * reach, so their geometry shaders skip the others. The draw index is the instance's position in its
+ * render queue, which the visibility buffer records per pixel. The previous model matrix is where the
+ * instance was drawn in the previous frame, from which the scene passes compute motion vectors.
+ * </p>
+ */
+public class InstanceBuffer
+{
+    /** Shader storage binding point shared by every shader reading instance transforms. */
+    public static final int BINDING = 0;
+
+    /** Floats per entry: a mat4, three vec4s and another mat4. */
+    public static final int INSTANCE_FLOATS = 16 + 3 * 4 + 16;
+    private static final int INSTANCE_BYTES = INSTANCE_FLOATS * Float.BYTES;
+
+    private final FrameRingBuffer ring;
+    private final int offsetAlignment;
+    /** CPU-side staging data, allocated off-heap and reused between frames. */
+    private FloatBuffer data;
+    private int count = 0;
+    /** The ring range holding this frame's instances. */
+    private int gpuBuffer = 0;
+    private long gpuOffset = 0;
+    private long gpuBytes = 0;
+
+    /**
+     * Creates an instance buffer able to hold {@code initialInstances} entries before growing.
+     *
+     * @param ring             the ring the instances are uploaded to every frame.
+     * @param initialInstances the initial capacity, in instances.
+     */
+    public InstanceBuffer(FrameRingBuffer ring, int initialInstances)
+    {
+        this.ring = ring;
+        offsetAlignment = glGetInteger(GL_SHADER_STORAGE_BUFFER_OFFSET_ALIGNMENT);
+        data = MemoryUtil.memAllocFloat(Math.max(1, initialInstances) * INSTANCE_FLOATS);
+    }
+
+    /**
+     * Discards the instances written for the previous frame.
+     */
+    public void clear()
+    {
+        data.clear();
+        count = 0;
+    }
+
+    /**
+     * Appends an instance.
+     *
+     * @param model         the instance transform.
+     * @param previousModel the instance transform of the previous frame.
+     * @param material      the material whose scalar parameters the instance is shaded with.
+     * @param viewMask      one bit per layer of a layered pass that the instance is drawn into.
+     * @param drawIndex     the index of the draw in its render queue.
+     * @return the index of the instance, as seen by shaders.
+     */
+    public int put(Matrix4f model, Matrix4fc previousModel, Material material, int viewMask, int drawIndex)
+    {
+        int index = reserve(1);
+        set(index, model, previousModel, material, viewMask, drawIndex);
+        return index;
+    }
+
+    /**
+     * Appends entries to be filled in later with {@link #set}, growing the staging memory if needed.
+     *
+     * @param instances the number of entries.
+     * @return the index of the first entry.
+     */
+    public int reserve(int instances)
+    {
+        int required = (count + instances) * INSTANCE_FLOATS;
+        if(data.capacity() < required)
+        {
+            data = MemoryUtil.memRealloc(data, Math.max(data.capacity() * 2, required));
+            data.limit(data.capacity());
+        }
+        int first = count;
+        count += instances;
+        return first;
+    }
+
+    /**
+     * Writes a reserved entry. Only absolute writes are used, so threads may fill separate entries
+     * at the same time, as long as none reserves meanwhile.
+     *
+     * @param index         the entry, as returned by {@link #reserve} plus an offset within the reserved range.
+     * @param model         the instance transform.
+     * @param previousModel the instance transform of the previous frame.
+     * @param material      the material whose scalar parameters the instance is shaded with.
+     * @param viewMask      one bit per layer of a layered pass that the instance is drawn into.
+     * @param drawIndex     the index of the draw in its render queue.
+     */
+    public void set(int index, Matrix4f model, Matrix4fc previousModel, Material material, int viewMask, int drawIndex)
+    {
+        int base = index * INSTANCE_FLOATS;
+        model.get(base, data);
+        data.put(base + 16, material.albedoColor.x).put(base + 17, material.albedoColor.y).put(base + 18, material.albedoColor.z).put(base + 19, material.normalMapStrength);
+        data.put(base + 20, material.metallic).put(base + 21, material.roughness).put(base + 22, material.heightScale).put(base + 23, 0.0f);
+        data.put(base + 24, material.scaleX).put(base + 25, material.scaleY).put(base + 26, Float.intBitsToFloat(viewMask)).put(base + 27, Float.intBitsToFloat(drawIndex));
+        previousModel.get(base + 28, data);
+    }
+
+    /**
+     * Returns the number of instances written this frame.
+     */
+    public int size()
+    {
+        return count;
+    }
+
+    /**
+     * Copies the written instances to a range of the frame ring and binds it to {@link #BINDING}.
+     */
+    public void upload()
+    {
+        // Bind at least one entry, since a range cannot be empty.
+        gpuBytes = (long) Math.max(count, 1) * INSTANCE_BYTES;
+        gpuOffset = ring.allocate(gpuBytes, offsetAlignment);
+        gpuBuffer = ring.getBuffer();
+        MemoryUtil.memCopy(MemoryUtil.memAddress(data, 0), ring.address(gpuOffset), (long) count * INSTANCE_BYTES);
+        bind();
+    }
+
+    /**
+     * Binds this frame's instances to {@link #BINDING} again, after another buffer was bound there.
+     */
+    public void bind()
+    {
+        glBindBufferRange(GL_SHADER_STORAGE_BUFFER, BINDING, gpuBuffer, gpuOffset, gpuBytes);
+    }
+
+    /**
+     * Releases the staging memory. The ring owns the GPU memory.
+     */
+    public void cleanup()
+    {
+        MemoryUtil.memFree(data);
+    }
+}
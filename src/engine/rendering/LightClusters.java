@@ -0,0 +1,182 @@
+package engine.rendering;
+
+import engine.components.Camera;
+import engine.components.LightPoint;
+import engine.utils.ShaderProgram;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.FloatBuffer;
+
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL11.glGetInteger;
+import static org.lwjgl.opengl.GL30.glBindBufferBase;
+import static org.lwjgl.opengl.GL30.glBindBufferRange;
+import static org.lwjgl.opengl.GL43.*;
+
+/**
+ * Clustered forward lighting: the point lights of the frame and, per froxel of the view frustum, the
+ * list of lights that reach it.
+ * <p>
+ * The frustum is cut into {@link #GRID_X} x {@link #GRID_Y} screen tiles and {@link #GRID_Z} depth
+ * slices spaced exponentially between the camera's near and far planes, so clusters stay roughly cubic.
+ * Each frame the renderer copies every point light to a range of the {@link FrameRingBuffer}, then {@link #assign()}
+ * runs a compute shader with one invocation per cluster. It tests each light's range sphere against the
+ * cluster's view-space box and writes the indices of the lights that touch it to the cluster's list.
+ * The main fragment shader finds its cluster from {@code gl_FragCoord} and its view depth, and shades
+ * only the lights in that cluster's list.
+ * </p>
+ * <p>
+ * Storage buffer bindings, matching the shaders (binding 1 is declared in lightingBlock.glsl):
+ * <pre>
+ * 1: PointLight pointLights[]    (vec4 position (w = range), vec4 color (a = strength), vec4 attenuation (w = shadow slot))
+ * 2: uint clusterLightCounts[]
+ * 3: uint clusterLightIndices[]  ({@link #MAX_LIGHTS_PER_CLUSTER} entries per cluster)
+ * </pre>
+ * </p>
+ */
+public class LightClusters
+{
+    public static final int LIGHTS_BINDING = 1;
+    public static final int CLUSTERS_BINDING = 2;
+    public static final int INDICES_BINDING = 3;
+
+    /** Screen tiles across, down, and depth slices. */
+    public static final int GRID_X = 16;
+    public static final int GRID_Y = 9;
+    public static final int GRID_Z = 24;
+    public static final int CLUSTER_COUNT = GRID_X * GRID_Y * GRID_Z;
+    /** Lights past this count in one cluster are dropped from it. */
+    public static final int MAX_LIGHTS_PER_CLUSTER = 128;
+    /** Invocations per compute work group; must match {@code local_size_x} in the compute shader. */
+    private static final int GROUP_SIZE = 64;
+
+    /** Floats per light: three vec4s. */
+    private static final int LIGHT_FLOATS = 3 * 4;
+
+    private final ShaderProgram assignShader;
+    private final FrameRingBuffer ring;
+    private final int offsetAlignment;
+    private final int clusterBuffer;
+    private final int indexBuffer;
+
+    /** CPU-side staging data for the light buffer, allocated off-heap and reused between frames. */
+    private FloatBuffer lightData;
+    private int lightCount = 0;
+
+    /**
+     * Creates the cluster buffers and the light assignment program.
+     *
+     * @param ring         the ring the lights are uploaded to every frame.
+     * @param assignSource the source of the light assignment compute shader.
+     */
+    public LightClusters(FrameRingBuffer ring, String assignSource)
+    {
+        assignShader = new ShaderProgram(assignSource);
+        this.ring = ring;
+        offsetAlignment = glGetInteger(GL_SHADER_STORAGE_BUFFER_OFFSET_ALIGNMENT);
+        lightData = MemoryUtil.memAllocFloat(64 * LIGHT_FLOATS);
+
+        clusterBuffer = createStorage((long) CLUSTER_COUNT * Integer.BYTES);
+        // A fixed list per cluster lets every invocation write without synchronizing with the others.
+        indexBuffer = createStorage((long) CLUSTER_COUNT * MAX_LIGHTS_PER_CLUSTER * Integer.BYTES);
+
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, CLUSTERS_BINDING, clusterBuffer);
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, INDICES_BINDING, indexBuffer);
+    }
+
+    private static int createStorage(long bytes)
+    {
+        int buffer = glGenBuffers();
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, buffer);
+        glBufferData(GL_SHADER_STORAGE_BUFFER, bytes, GL_DYNAMIC_DRAW);
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
+        return buffer;
+    }
+
+    /**
+     * Discards the lights written for the previous frame.
+     */
+    public void clear()
+    {
+        lightData.clear();
+        lightCount = 0;
+    }
+
+    /**
+     * Appends a point light.
+     *
+     * @param light       the light.
+     * @param shadowIndex the light's encoded shadow atlas slot, or -1 if it casts no shadow.
+     */
+    public void put(LightPoint light, int shadowIndex)
+    {
+        if(lightData.remaining() < LIGHT_FLOATS)
+        {
+            lightData = MemoryUtil.memRealloc(lightData, lightData.capacity() * 2);
+        }
+        lightData.put(light.gameObject.transform.globalPosition.x).put(light.gameObject.transform.globalPosition.y)
+                .put(light.gameObject.transform.globalPosition.z).put(light.getRange());
+        lightData.put(light.color.x).put(light.color.y).put(light.color.z).put(light.strength);
+        lightData.put(light.constant).put(light.linear).put(light.quadratic).put(Float.intBitsToFloat(shadowIndex));
+        lightCount++;
+    }
+
+    /**
+     * Returns the number of lights written this frame.
+     */
+    public int size()
+    {
+        return lightCount;
+    }
+
+    /**
+     * Copies the written lights to a range of the frame ring and binds it to {@link #LIGHTS_BINDING}.
+     */
+    public void upload()
+    {
+        long bytes = (long) lightCount * LIGHT_FLOATS * Float.BYTES;
+        // Bind at least one light, since a range cannot be empty.
+        long rangeBytes = Math.max(bytes, LIGHT_FLOATS * Float.BYTES);
+        long offset = ring.allocate(rangeBytes, offsetAlignment);
+        MemoryUtil.memCopy(MemoryUtil.memAddress(lightData, 0), ring.address(offset), bytes);
+        glBindBufferRange(GL_SHADER_STORAGE_BUFFER, LIGHTS_BINDING, ring.getBuffer(), offset, rangeBytes);
+    }
+
+    /**
+     * Writes the cluster grid parameters to the lighting block: {@code ivec4 clusterGrid} (clusters per
+     * axis, w = {@link #MAX_LIGHTS_PER_CLUSTER}), {@code vec4 clusterDepth} (near, far, slice scale, slice
+     * bias) and {@code vec4 clusterScreen} (reciprocal viewport size). A fragment's depth slice is
+     * {@code log(viewDepth) * scale + bias}.
+     */
+    public void putParams(UniformBuffer lighting, Camera camera, int viewportWidth, int viewportHeight)
+    {
+        float logRatio = (float) Math.log(camera.far / camera.near);
+        float scale = GRID_Z / logRatio;
+        float bias = -GRID_Z * (float) Math.log(camera.near) / logRatio;
+        lighting.putIVec4(GRID_X, GRID_Y, GRID_Z, MAX_LIGHTS_PER_CLUSTER)
+                .putVec4(camera.near, camera.far, scale, bias)
+                .putVec4(1.0f / viewportWidth, 1.0f / viewportHeight, 0.0f, 0.0f);
+    }
+
+    /**
+     * Assigns the uploaded lights to clusters. Reads the camera and lighting blocks, so both must be
+     * uploaded first. The memory barrier makes the lists visible to the fragment shaders drawn afterwards.
+     */
+    public void assign()
+    {
+        assignShader.use();
+        glDispatchCompute((CLUSTER_COUNT + GROUP_SIZE - 1) / GROUP_SIZE, 1, 1);
+        glMemoryBarrier(GL_SHADER_STORAGE_BARRIER_BIT);
+    }
+
+    /**
+     * Releases the program, the buffers and the staging memory.
+     */
+    public void cleanup()
+    {
+        assignShader.cleanup();
+        glDeleteBuffers(clusterBuffer);
+        glDeleteBuffers(indexBuffer);
+        MemoryUtil.memFree(lightData);
+    }
+}
@@ -0,0 +1,386 @@
+package engine.rendering;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.lwjgl.opengl.GL11.GL_FLOAT;
+import static org.lwjgl.opengl.GL30.glBindBufferBase;
+import static org.lwjgl.opengl.GL43.GL_SHADER_STORAGE_BUFFER;
+import static org.lwjgl.opengl.GL44.GL_DYNAMIC_STORAGE_BIT;
+import static org.lwjgl.opengl.GL45.*;
+
+/**
+ * The vertex and index storage shared by every mesh: one vertex buffer, one index buffer and one vertex
+ * array for the engine's single vertex format, so switching meshes never rebinds a VAO.
+ * <p>
+ * Meshes upload their interleaved vertices (position, normal and uv, 8 floats) and their triangle
+ * indices with {@link #allocate}, which places them in free ranges of the two buffers found first-fit
+ * in sorted free lists. Indices stay relative to the mesh; draws add the mesh's
+ * {@link Allocation#baseVertex} ({@code glDrawElementsBaseVertex} or the base vertex of an indirect
+ * command) and start at its {@link Allocation#firstIndex}. A buffer that runs out of room is replaced
+ * by one twice the size, copied on the GPU.
+ * </p>
+ * <p>
+ * Freed ranges merge with their free neighbours. When the holes left below the last allocation grow
+ * past a quarter of the used space, {@link #defragmentIfNeeded()} packs every allocation to the start
+ * of new buffers and updates the allocations in place, so meshes read their new ranges on their next
+ * draw. It must only run between frames, before draws are recorded.
+ * </p>
+ * <p>
+ * The same buffers are bound as storage buffers at {@link #VERTEX_BINDING} and {@link #INDEX_BINDING}
+ * for passes that fetch vertices themselves.
+ * </p>
+ */
+public final class MeshArena
+{
+    /** Shader storage binding of the vertices, for vertex-pulling passes. */
+    public static final int VERTEX_BINDING = 9;
+    /** Shader storage binding of the indices, for vertex-pulling passes. */
+    public static final int INDEX_BINDING = 10;
+
+    /** Floats per vertex: position, normal and uv. */
+    public static final int VERTEX_FLOATS = 8;
+    public static final int VERTEX_BYTES = VERTEX_FLOATS * Float.BYTES;
+
+    private static final int INITIAL_VERTICES = 1 << 18;
+    private static final int INITIAL_INDICES = 1 << 20;
+
+    /**
+     * The ranges of one mesh in the arena. The arena moves them when it defragments, so read them at
+     * draw time rather than caching them.
+     */
+    public static class Allocation
+    {
+        /** Index of the mesh's first vertex in the vertex buffer. */
+        public int baseVertex;
+        /** Index of the mesh's first index in the index buffer. */
+        public int firstIndex;
+        public final int vertexCount;
+        public final int indexCount;
+
+        Allocation(int baseVertex, int firstIndex, int vertexCount, int indexCount)
+        {
+            this.baseVertex = baseVertex;
+            this.firstIndex = firstIndex;
+            this.vertexCount = vertexCount;
+            this.indexCount = indexCount;
+        }
+    }
+
+    /**
+     * The free ranges of one buffer, in elements, keyed by start.
+     */
+    private static class FreeList
+    {
+        private final TreeMap<Integer, Integer> ranges = new TreeMap<>();
+        private int capacity;
+        private int free;
+
+        FreeList(int capacity)
+        {
+            reset(0, capacity);
+        }
+
+        /**
+         * Takes the first free range that fits.
+         *
+         * @return the start of the range, or -1 if none fits.
+         */
+        int allocate(int length)
+        {
+            for(Map.Entry<Integer, Integer> range : ranges.entrySet())
+            {
+                if(range.getValue() >= length)
+                {
+                    int start = range.getKey();
+                    ranges.remove(start);
+                    if(range.getValue() > length)
+                    {
+                        ranges.put(start + length, range.getValue() - length);
+                    }
+                    free -= length;
+                    return start;
+                }
+            }
+            return -1;
+        }
+
+        void free(int start, int length)
+        {
+            if(length == 0)
+            {
+                return;
+            }
+            free += length;
+            Map.Entry<Integer, Integer> below = ranges.floorEntry(start);
+            if(below != null && below.getKey() + below.getValue() == start)
+            {
+                start = below.getKey();
+                length += below.getValue();
+            }
+            Integer above = ranges.get(start + length);
+            if(above != null)
+            {
+                ranges.remove(start + length);
+                length += above;
+            }
+            ranges.put(start, length);
+        }
+
+        /**
+         * Adds the elements between the old and the new capacity to the free space.
+         */
+        void extend(int newCapacity)
+        {
+            int oldCapacity = capacity;
+            capacity = newCapacity;
+            free(oldCapacity, newCapacity - oldCapacity);
+        }
+
+        /**
+         * Marks the first {@code used} elements as allocated and the rest as free.
+         */
+        void reset(int used, int newCapacity)
+        {
+            ranges.clear();
+            capacity = newCapacity;
+            free = 0;
+            free(used, newCapacity - used);
+        }
+
+        /**
+         * Returns the free elements below the last allocated one.
+         */
+        int holes()
+        {
+            Map.Entry<Integer, Integer> last = ranges.lastEntry();
+            boolean tailFree = last != null && last.getKey() + last.getValue() == capacity;
+            return tailFree ? free - last.getValue() : free;
+        }
+
+        int used()
+        {
+            return capacity - free;
+        }
+    }
+
+    private static int vertexArray = 0;
+    private static int vertexBuffer;
+    private static int indexBuffer;
+    private static FreeList vertexSpace;
+    private static FreeList indexSpace;
+    private static final List<Allocation> allocations = new ArrayList<>();
+
+    private MeshArena()
+    {
+    }
+
+    private static void create()
+    {
+        vertexSpace = new FreeList(INITIAL_VERTICES);
+        indexSpace = new FreeList(INITIAL_INDICES);
+        vertexBuffer = createBuffer((long) INITIAL_VERTICES * VERTEX_BYTES);
+        indexBuffer = createBuffer((long) INITIAL_INDICES * Integer.BYTES);
+
+        vertexArray = glCreateVertexArrays();
+        glEnableVertexArrayAttrib(vertexArray, 0);
+        glVertexArrayAttribFormat(vertexArray, 0, 3, GL_FLOAT, false, 0);
+        glVertexArrayAttribBinding(vertexArray, 0, 0);
+        glEnableVertexArrayAttrib(vertexArray, 1);
+        glVertexArrayAttribFormat(vertexArray, 1, 3, GL_FLOAT, false, 3 * Float.BYTES);
+        glVertexArrayAttribBinding(vertexArray, 1, 0);
+        glEnableVertexArrayAttrib(vertexArray, 2);
+        glVertexArrayAttribFormat(vertexArray, 2, 2, GL_FLOAT, false, 6 * Float.BYTES);
+        glVertexArrayAttribBinding(vertexArray, 2, 0);
+        attachBuffers();
+    }
+
+    private static int createBuffer(long bytes)
+    {
+        int buffer = glCreateBuffers();
+        glNamedBufferStorage(buffer, bytes, GL_DYNAMIC_STORAGE_BIT);
+        return buffer;
+    }
+
+    private static void attachBuffers()
+    {
+        glVertexArrayVertexBuffer(vertexArray, 0, vertexBuffer, 0, VERTEX_BYTES);
+        glVertexArrayElementBuffer(vertexArray, indexBuffer);
+    }
+
+    /**
+     * Uploads a mesh's geometry into free ranges of the arena.
+     *
+     * @param vertexData interleaved vertices, {@link #VERTEX_FLOATS} floats each.
+     * @param indices    triangle indices, relative to the first of these vertices.
+     * @return the ranges the mesh was placed in.
+     */
+    public static Allocation allocate(float[] vertexData, int[] indices)
+    {
+        if(vertexArray == 0)
+        {
+            create();
+        }
+        int vertexCount = vertexData.length / VERTEX_FLOATS;
+        int baseVertex = vertexSpace.allocate(vertexCount);
+        if(baseVertex == -1)
+        {
+            vertexBuffer = grow(vertexBuffer, vertexSpace, vertexCount, VERTEX_BYTES);
+            baseVertex = vertexSpace.allocate(vertexCount);
+        }
+        int firstIndex = indexSpace.allocate(indices.length);
+        if(firstIndex == -1)
+        {
+            indexBuffer = grow(indexBuffer, indexSpace, indices.length, Integer.BYTES);
+            firstIndex = indexSpace.allocate(indices.length);
+        }
+        glNamedBufferSubData(vertexBuffer, (long) baseVertex * VERTEX_BYTES, vertexData);
+        glNamedBufferSubData(indexBuffer, (long) firstIndex * Integer.BYTES, indices);
+
+        Allocation allocation = new Allocation(baseVertex, firstIndex, vertexCount, indices.length);
+        allocations.add(allocation);
+        return allocation;
+    }
+
+    /**
+     * Returns a mesh's ranges to the free lists. The data stays in place until it is overwritten.
+     */
+    public static void free(Allocation allocation)
+    {
+        if(allocations.remove(allocation))
+        {
+            vertexSpace.free(allocation.baseVertex, allocation.vertexCount);
+            indexSpace.free(allocation.firstIndex, allocation.indexCount);
+        }
+    }
+
+    /**
+     * Replaces a buffer by one with room for at least {@code elements} more, keeping its contents.
+     */
+    private static int grow(int buffer, FreeList space, int elements, int elementBytes)
+    {
+        int capacity = Math.max(space.capacity * 2, space.capacity + elements);
+        int grown = createBuffer((long) capacity * elementBytes);
+        glCopyNamedBufferSubData(buffer, grown, 0, 0, (long) space.capacity * elementBytes);
+        // GL keeps the old buffer alive until the draws already recorded with it have run.
+        glDeleteBuffers(buffer);
+        space.extend(capacity);
+        if(buffer == vertexBuffer)
+        {
+            vertexBuffer = grown;
+        }
+        else
+        {
+            indexBuffer = grown;
+        }
+        attachBuffers();
+        return grown;
+    }
+
+    /**
+     * Packs the allocations if freed ranges left too much space unused between them.
+     *
+     * @return {@code true} if the arena was defragmented.
+     */
+    public static boolean defragmentIfNeeded()
+    {
+        if(vertexArray == 0)
+        {
+            return false;
+        }
+        boolean vertexHoles = vertexSpace.holes() > vertexSpace.used() / 4;
+        boolean indexHoles = indexSpace.holes() > indexSpace.used() / 4;
+        if(!vertexHoles && !indexHoles)
+        {
+            return false;
+        }
+        defragment();
+        return true;
+    }
+
+    /**
+     * Copies every allocation to the start of new buffers, in place order, and updates its ranges.
+     */
+    public static void defragment()
+    {
+        if(vertexArray == 0)
+        {
+            return;
+        }
+        int packedVertices = createBuffer((long) vertexSpace.capacity * VERTEX_BYTES);
+        int packedIndices = createBuffer((long) indexSpace.capacity * Integer.BYTES);
+
+        allocations.sort(Comparator.comparingInt(allocation -> allocation.baseVertex));
+        int nextVertex = 0;
+        for(Allocation allocation : allocations)
+        {
+            glCopyNamedBufferSubData(vertexBuffer, packedVertices, (long) allocation.baseVertex * VERTEX_BYTES, (long) nextVertex * VERTEX_BYTES, (long) allocation.vertexCount * VERTEX_BYTES);
+            allocation.baseVertex = nextVertex;
+            nextVertex += allocation.vertexCount;
+        }
+        allocations.sort(Comparator.comparingInt(allocation -> allocation.firstIndex));
+        int nextIndex = 0;
+        for(Allocation allocation : allocations)
+        {
+            glCopyNamedBufferSubData(indexBuffer, packedIndices, (long) allocation.firstIndex * Integer.BYTES, (long) nextIndex * Integer.BYTES, (long) allocation.indexCount * Integer.BYTES);
+            allocation.firstIndex = nextIndex;
+            nextIndex += allocation.indexCount;
+        }
+
+        glDeleteBuffers(vertexBuffer);
+        glDeleteBuffers(indexBuffer);
+        vertexBuffer = packedVertices;
+        indexBuffer = packedIndices;
+        vertexSpace.reset(nextVertex, vertexSpace.capacity);
+        indexSpace.reset(nextIndex, indexSpace.capacity);
+        attachBuffers();
+    }
+
+    /**
+     * Returns the vertex array drawing from the arena, creating the arena if needed.
+     */
+    public static int getVertexArray()
+    {
+        if(vertexArray == 0)
+        {
+            create();
+        }
+        return vertexArray;
+    }
+
+    /**
+     * Binds the vertices and indices to {@link #VERTEX_BINDING} and {@link #INDEX_BINDING}.
+     */
+    public static void bindStorage()
+    {
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, VERTEX_BINDING, vertexBuffer);
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, INDEX_BINDING, indexBuffer);
+    }
+
+    /**
+     * Returns the vertices in use, including holes not yet reclaimed by defragmentation.
+     */
+    public static int getUsedVertices()
+    {
+        return vertexArray == 0 ? 0 : vertexSpace.used();
+    }
+
+    /**
+     * Releases the buffers and the vertex array. Meshes still holding allocations must not be drawn again.
+     */
+    public static void cleanup()
+    {
+        if(vertexArray == 0)
+        {
+            return;
+        }
+        glDeleteBuffers(vertexBuffer);
+        glDeleteBuffers(indexBuffer);
+        GLStateCache.deleteVertexArray(vertexArray);
+        vertexArray = 0;
+        allocations.clear();
+    }
+}
@@ -0,0 +1,398 @@
+package engine.rendering;
+
+import engine.utils.ShaderProgram;
+import org.joml.Matrix4f;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL40.GL_DRAW_INDIRECT_BUFFER;
+import static org.lwjgl.opengl.GL42.*;
+import static org.lwjgl.opengl.GL43.*;
+
+/**
+ * Two-phase GPU occlusion culling of the opaque queue against a hierarchical depth buffer (Hi-Z).
+ * <p>
+ * The Hi-Z buffer is a mip chain of the depth buffer where every texel holds the farthest depth of the
+ * texels below it, so one fetch at the right level bounds the depth behind any screen rectangle. A box
+ * whose nearest depth is farther than that bound is hidden.
+ * </p>
+ * <p>
+ * Every frame the opaque draws are culled twice by a compute shader that appends the survivors to a
+ * copy of the queue's indirect commands and instance data:
+ * <ol>
+ * <li>Phase 0 tests every draw against the previous frame's Hi-Z, projected with the previous frame's
+ * view-projection, and the renderer draws the survivors. These are mostly the occluders.</li>
+ * <li>{@link #buildHiZ} then reduces the depth drawn so far into a new Hi-Z buffer.</li>
+ * <li>Phase 1 retests the draws phase 0 rejected against the new Hi-Z with the current matrices, and
+ * the renderer draws the ones that became visible, for example because the camera turned or an
+ * occluder moved away.</li>
+ * </ol>
+ * Phase 1 only accepts draws the current depth cannot hide, so stale history never loses an object; it
+ * only costs it being drawn in the second phase. The Hi-Z built in step 2 is kept for the next frame.
+ * </p>
+ * <p>
+ * The number of draws each phase drew is read back one frame late, to avoid stalling on the GPU, and
+ * reported by {@link #getTestedCount()}, {@link #getCulledCount()} and {@link #getSecondPhaseCount()}.
+ * </p>
+ * <p>
+ * Storage buffer bindings, matching the cull shader:
+ * <pre>
+ * 0: Instance instances[]            (the renderer's {@link InstanceBuffer})
+ * 4: DrawBounds draws[]              (vec4 boundsMin (w = command index), vec4 boundsMax)
+ * 5: Command commands[]              (the phase's indirect commands)
+ * 6: Instance visibleInstances[]     (the phase's instance data, indexed by the commands' base instances)
+ * 7: uint visibility[]               (1 for draws drawn by phase 0)
+ * 8: uint drawnCounts[2]
+ * </pre>
+ * </p>
+ */
+public class OcclusionCuller
+{
+    public static final int DRAWS_BINDING = 4;
+    public static final int COMMANDS_BINDING = 5;
+    public static final int VISIBLE_INSTANCES_BINDING = 6;
+    public static final int VISIBILITY_BINDING = 7;
+    public static final int STATS_BINDING = 8;
+
+    /** Texture unit the cull and reduction shaders sample from; above the units used by the scene shaders. */
+    public static final int TEXTURE_UNIT = 14;
+    /** Invocations per compute work group; must match {@code local_size_x} in the cull shader. */
+    private static final int GROUP_SIZE = 64;
+    /** Work group edge of the reduction shader. */
+    private static final int HIZ_GROUP_SIZE = 8;
+
+    /** Floats per draw: two vec4s. */
+    private static final int DRAW_FLOATS = 8;
+
+    private final ShaderProgram cullShader;
+    private final ShaderProgram hiZShader;
+    private final ShaderProgram.UniformMat4 cullViewProjection;
+    private final ShaderProgram.UniformInt cullPhase;
+    private final ShaderProgram.UniformInt cullHasHiZ;
+    private final ShaderProgram.UniformInt cullDrawCount;
+    private final ShaderProgram.UniformInt cullInstanceBase;
+    private final ShaderProgram.UniformInt hiZCopyDepth;
+
+    private final int width;
+    private final int height;
+    private final int levels;
+    private final int hiZTexture;
+
+    private final int drawBuffer;
+    private final int visibilityBuffer;
+    private final int[] commandBuffers = new int[2];
+    private final int[] instanceBuffers = new int[2];
+    // Counters alternate between frames so last frame's can be read while this frame's are written.
+    private final int[] statsBuffers = new int[2];
+    private long drawCapacity = 0;
+    private long commandCapacity = 0;
+    private long instanceCapacity = 0;
+
+    /** CPU-side staging data, allocated off-heap and reused between frames. */
+    private FloatBuffer drawData;
+    private IntBuffer commandData;
+
+    private int drawCount = 0;
+    private int commandCount = 0;
+    private int instanceBase = 0;
+    private int frame = 0;
+    private boolean hasHiZ = false;
+    private final Matrix4f previousViewProjection = new Matrix4f();
+    private final Matrix4f viewProjection = new Matrix4f();
+
+    private int testedCount = 0;
+    private int culledCount = 0;
+    private int secondPhaseCount = 0;
+    private int previousDrawCount = 0;
+
+    /**
+     * Creates the Hi-Z texture for a viewport size, the culling buffers and the programs.
+     *
+     * @param cullSource the source of the cull compute shader.
+     * @param hiZSource  the source of the Hi-Z reduction compute shader.
+     * @param width      the width of the depth buffer being culled against.
+     * @param height     the height of the depth buffer being culled against.
+     */
+    public OcclusionCuller(String cullSource, String hiZSource, int width, int height)
+    {
+        cullShader = new ShaderProgram(cullSource);
+        hiZShader = new ShaderProgram(hiZSource);
+        cullViewProjection = cullShader.mat4("uViewProjection");
+        cullPhase = cullShader.int1("uPhase");
+        cullHasHiZ = cullShader.int1("uHasHiZ");
+        cullDrawCount = cullShader.int1("uDrawCount");
+        cullInstanceBase = cullShader.int1("uInstanceBase");
+        hiZCopyDepth = hiZShader.int1("uCopyDepth");
+        cullShader.use();
+        cullShader.setUniform("hiZ", TEXTURE_UNIT);
+        hiZShader.use();
+        hiZShader.setUniform("depthTexture", TEXTURE_UNIT);
+        GLStateCache.useProgram(0);
+
+        this.width = width;
+        this.height = height;
+        levels = 32 - Integer.numberOfLeadingZeros(Math.max(width, height));
+
+        hiZTexture = glGenTextures();
+        GLStateCache.bindTexture(GL_TEXTURE_2D, hiZTexture);
+        glTexStorage2D(GL_TEXTURE_2D, levels, GL_R32F, width, height);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST_MIPMAP_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        GLStateCache.bindTexture(GL_TEXTURE_2D, 0);
+
+        drawBuffer = glGenBuffers();
+        visibilityBuffer = glGenBuffers();
+        for(int i = 0; i < 2; i++)
+        {
+            commandBuffers[i] = glGenBuffers();
+            instanceBuffers[i] = glGenBuffers();
+            statsBuffers[i] = glGenBuffers();
+            glBindBuffer(GL_SHADER_STORAGE_BUFFER, statsBuffers[i]);
+            glBufferData(GL_SHADER_STORAGE_BUFFER, 2 * Integer.BYTES, GL_DYNAMIC_READ);
+        }
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
+
+        drawData = MemoryUtil.memAllocFloat(1024 * DRAW_FLOATS);
+        commandData = MemoryUtil.memAllocInt(256 * IndirectBuffer.COMMAND_INTS);
+    }
+
+    /**
+     * Uploads the bounds and zero-instance commands of a sorted and batched queue for this frame's
+     * phases, and collects the previous frame's counters.
+     *
+     * @param queue          the queue, in the order its instances were written to the instance buffer.
+     * @param instanceBase   the index of the queue's first instance in the instance buffer.
+     * @param viewProjection the camera's view-projection matrix this frame.
+     */
+    public void prepare(RenderQueue queue, int instanceBase, Matrix4f viewProjection)
+    {
+        readStats();
+        this.instanceBase = instanceBase;
+        this.viewProjection.set(viewProjection);
+        drawCount = queue.size();
+        commandCount = queue.batchCount();
+
+        drawData.clear();
+        commandData.clear();
+        if(drawData.capacity() < drawCount * DRAW_FLOATS)
+        {
+            drawData = MemoryUtil.memRealloc(drawData, Math.max(drawCount * DRAW_FLOATS, drawData.capacity() * 2));
+        }
+        if(commandData.capacity() < commandCount * IndirectBuffer.COMMAND_INTS)
+        {
+            commandData = MemoryUtil.memRealloc(commandData, Math.max(commandCount * IndirectBuffer.COMMAND_INTS, commandData.capacity() * 2));
+        }
+        for(int b = 0; b < commandCount; b++)
+        {
+            RenderQueue.Batch batch = queue.getBatch(b);
+            // Instances are relative to the queue, so the phases' instance buffers only hold this queue.
+            commandData.put(batch.indexCount).put(0).put(batch.indexOffset).put(batch.baseVertex).put(batch.firstInstance);
+            for(int i = 0; i < batch.instanceCount; i++)
+            {
+                Bounds bounds = queue.getInstance(batch.firstInstance + i).bounds;
+                drawData.put(bounds.min.x).put(bounds.min.y).put(bounds.min.z).put(Float.intBitsToFloat(b));
+                drawData.put(bounds.max.x).put(bounds.max.y).put(bounds.max.z).put(0.0f);
+            }
+        }
+        drawData.flip();
+        commandData.flip();
+
+        long drawBytes = (long) drawCount * DRAW_FLOATS * Float.BYTES;
+        long commandBytes = (long) commandCount * IndirectBuffer.COMMAND_BYTES;
+        long instanceBytes = (long) drawCount * InstanceBuffer.INSTANCE_FLOATS * Float.BYTES;
+        boolean drawsGrew = drawCapacity == 0 || drawBytes > drawCapacity;
+        drawCapacity = grow(drawCapacity, drawBytes);
+        commandCapacity = grow(commandCapacity, commandBytes);
+        boolean instancesGrew = instanceCapacity == 0 || instanceBytes > instanceCapacity;
+        instanceCapacity = grow(instanceCapacity, instanceBytes);
+
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, drawBuffer);
+        glBufferData(GL_SHADER_STORAGE_BUFFER, drawCapacity, GL_DYNAMIC_DRAW);
+        glBufferSubData(GL_SHADER_STORAGE_BUFFER, 0, drawData);
+        if(drawsGrew)
+        {
+            // Phase 0 writes every draw's flag, so the contents never need clearing.
+            glBindBuffer(GL_SHADER_STORAGE_BUFFER, visibilityBuffer);
+            glBufferData(GL_SHADER_STORAGE_BUFFER, drawCapacity / (DRAW_FLOATS * Float.BYTES) * Integer.BYTES, GL_DYNAMIC_COPY);
+        }
+        for(int i = 0; i < 2; i++)
+        {
+            glBindBuffer(GL_SHADER_STORAGE_BUFFER, commandBuffers[i]);
+            glBufferData(GL_SHADER_STORAGE_BUFFER, commandCapacity, GL_DYNAMIC_DRAW);
+            glBufferSubData(GL_SHADER_STORAGE_BUFFER, 0, commandData);
+            if(instancesGrew)
+            {
+                glBindBuffer(GL_SHADER_STORAGE_BUFFER, instanceBuffers[i]);
+                glBufferData(GL_SHADER_STORAGE_BUFFER, instanceCapacity, GL_DYNAMIC_COPY);
+            }
+        }
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, statsBuffers[frame & 1]);
+        try(MemoryStack stack = MemoryStack.stackPush())
+        {
+            glBufferSubData(GL_SHADER_STORAGE_BUFFER, 0, stack.callocInt(2));
+        }
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
+    }
+
+    private static long grow(long capacity, long bytes)
+    {
+        // Never allocate zero bytes, so every buffer has storage to bind.
+        return Math.max(Math.max(capacity, 64), bytes > capacity ? Math.max(bytes, capacity * 2) : capacity);
+    }
+
+    /**
+     * Culls the prepared draws for one phase and leaves the phase's results bound for drawing: its
+     * instance data at {@link InstanceBuffer#BINDING} and its commands to {@code GL_DRAW_INDIRECT_BUFFER},
+     * starting at command 0 in the queue's batch order. Rebind the instance buffer afterwards.
+     *
+     * @param phase 0 to cull against the previous frame's Hi-Z, 1 to retest the draws phase 0 rejected
+     *              against the Hi-Z built by {@link #buildHiZ}.
+     */
+    public void cull(int phase)
+    {
+        cullShader.use();
+        cullViewProjection.set(phase == 0 ? previousViewProjection : viewProjection);
+        cullPhase.set(phase);
+        cullHasHiZ.set(hasHiZ ? 1 : 0);
+        cullDrawCount.set(drawCount);
+        cullInstanceBase.set(instanceBase);
+        GLStateCache.bindTexture(TEXTURE_UNIT, GL_TEXTURE_2D, hiZTexture);
+
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, DRAWS_BINDING, drawBuffer);
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, COMMANDS_BINDING, commandBuffers[phase]);
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, VISIBLE_INSTANCES_BINDING, instanceBuffers[phase]);
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, VISIBILITY_BINDING, visibilityBuffer);
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, STATS_BINDING, statsBuffers[frame & 1]);
+        if(drawCount > 0)
+        {
+            glDispatchCompute((drawCount + GROUP_SIZE - 1) / GROUP_SIZE, 1, 1);
+        }
+        glMemoryBarrier(GL_COMMAND_BARRIER_BIT | GL_SHADER_STORAGE_BARRIER_BIT);
+        bindPhase(phase);
+    }
+
+    /**
+     * Binds the results of a phase culled this frame for drawing again, for example in a color pass
+     * after a depth pre-pass drew them.
+     */
+    public void bindPhase(int phase)
+    {
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, InstanceBuffer.BINDING, instanceBuffers[phase]);
+        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, commandBuffers[phase]);
+    }
+
+    /**
+     * Reduces a depth texture, at most the size given at construction, into the Hi-Z chain used by
+     * phase 1 and by the next frame's phase 0. A smaller depth, rendered at a reduced resolution, is
+     * stretched over the whole chain, keeping the farthest depth each Hi-Z texel overlaps.
+     *
+     * @param depthTexture the depth drawn so far this frame.
+     */
+    public void buildHiZ(int depthTexture)
+    {
+        GLStateCache.bindTexture(TEXTURE_UNIT, GL_TEXTURE_2D, depthTexture);
+
+        hiZShader.use();
+        for(int level = 0; level < levels; level++)
+        {
+            int levelWidth = Math.max(1, width >> level);
+            int levelHeight = Math.max(1, height >> level);
+            hiZCopyDepth.set(level == 0 ? 1 : 0);
+            glBindImageTexture(0, hiZTexture, Math.max(0, level - 1), false, 0, GL_READ_ONLY, GL_R32F);
+            glBindImageTexture(1, hiZTexture, level, false, 0, GL_WRITE_ONLY, GL_R32F);
+            glDispatchCompute((levelWidth + HIZ_GROUP_SIZE - 1) / HIZ_GROUP_SIZE, (levelHeight + HIZ_GROUP_SIZE - 1) / HIZ_GROUP_SIZE, 1);
+            glMemoryBarrier(GL_SHADER_IMAGE_ACCESS_BARRIER_BIT);
+        }
+        glMemoryBarrier(GL_TEXTURE_FETCH_BARRIER_BIT);
+        hasHiZ = true;
+    }
+
+    /**
+     * Ends the frame's culling: this frame's matrices become the history for the next frame's phase 0.
+     */
+    public void endFrame()
+    {
+        previousViewProjection.set(viewProjection);
+        previousDrawCount = drawCount;
+        frame++;
+    }
+
+    /**
+     * Discards the Hi-Z history, so the next frame's phase 0 draws everything. Call when the previous
+     * frame's depth does not describe the scene, for example after switching scenes.
+     */
+    public void invalidate()
+    {
+        hasHiZ = false;
+    }
+
+    private void readStats()
+    {
+        if(frame == 0)
+        {
+            return;
+        }
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, statsBuffers[(frame - 1) & 1]);
+        try(MemoryStack stack = MemoryStack.stackPush())
+        {
+            IntBuffer counts = stack.mallocInt(2);
+            glGetBufferSubData(GL_SHADER_STORAGE_BUFFER, 0, counts);
+            testedCount = previousDrawCount;
+            secondPhaseCount = counts.get(1);
+            culledCount = previousDrawCount - counts.get(0) - secondPhaseCount;
+        }
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
+    }
+
+    /**
+     * Returns the number of opaque draws tested in the previous frame.
+     */
+    public int getTestedCount()
+    {
+        return testedCount;
+    }
+
+    /**
+     * Returns the number of opaque draws that neither phase drew in the previous frame.
+     */
+    public int getCulledCount()
+    {
+        return culledCount;
+    }
+
+    /**
+     * Returns the number of opaque draws that only phase 1 drew in the previous frame.
+     */
+    public int getSecondPhaseCount()
+    {
+        return secondPhaseCount;
+    }
+
+    /**
+     * Releases the programs, textures, buffers and staging memory.
+     */
+    public void cleanup()
+    {
+        cullShader.cleanup();
+        hiZShader.cleanup();
+        GLStateCache.deleteTexture(hiZTexture);
+        glDeleteBuffers(drawBuffer);
+        glDeleteBuffers(visibilityBuffer);
+        for(int i = 0; i < 2; i++)
+        {
+            glDeleteBuffers(commandBuffers[i]);
+            glDeleteBuffers(instanceBuffers[i]);
+            glDeleteBuffers(statsBuffers[i]);
+        }
+        MemoryUtil.memFree(drawData);
+        MemoryUtil.memFree(commandData);
+    }
+}
@@ -0,0 +1,560 @@
+package engine.rendering;
+
+import engine.components.LightPoint;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.GL_CLAMP_TO_EDGE;
+import static org.lwjgl.opengl.GL12.GL_TEXTURE_WRAP_R;
+import static org.lwjgl.opengl.GL12.glTexImage3D;
+import static org.lwjgl.opengl.GL14.GL_TEXTURE_COMPARE_MODE;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.glFramebufferTexture;
+import static org.lwjgl.opengl.GL40.GL_TEXTURE_CUBE_MAP_ARRAY;
+import static org.lwjgl.opengl.GL43.glCopyImageSubData;
+import static org.lwjgl.opengl.GL44.glClearTexSubImage;
+
+/**
+ * Shadow cube maps for point lights, allocated from a fixed pool of cube map arrays.
+ * <p>
+ * The pool has one {@code GL_TEXTURE_CUBE_MAP_ARRAY} per resolution tier ({@link #TIER_RESOLUTIONS}),
+ * each with a fixed number of slots ({@link #TIER_SLOTS}), so GPU memory does not grow with the
+ * number of lights. Each frame the renderer {@link #track tracks} the lights it wants shadowed with
+ * the resolution their range covers on screen and a priority. {@link #assignSlots()} then hands out
+ * slots in priority order. A light gets its wanted tier, or a smaller one when that tier is full.
+ * Lower-priority lights are evicted only when no tier has room. A light that already holds a slot
+ * keeps it when its wanted tier changes, until a slot of that tier is free: the free slot is reserved,
+ * and the light keeps sampling its old slot until its next scheduled update draws the new one.
+ * </p>
+ * <p>
+ * Slots keep the caching from before: a light draws its {@code isStatic} casters into a static slot,
+ * and if dynamic casters are in range and the tier has a free slot, into a second dynamic slot.
+ * The dynamic slot starts as a copy of the static one, with the dynamic casters drawn on top. Without
+ * a spare slot the light is "merged": everything is drawn into the static slot.
+ * {@link #checkDirty} compares what a slot was drawn with against the current frame.
+ * {@link #scheduleUpdates} then picks at most {@link #updateBudget} stale lights, ordered by priority
+ * weighted by how long they have waited. The others keep their previous map until their turn.
+ * </p>
+ */
+public class PointShadowAtlas
+{
+    /** Cube face resolution of each tier, largest first. */
+    public static final int[] TIER_RESOLUTIONS = {1024, 512, 256, 128};
+    /** Number of cube slots in each tier. */
+    public static final int[] TIER_SLOTS = {2, 8, 32, 128};
+    /** Slots are encoded for the shader as {@code tier << SLOT_BITS | slot}. */
+    public static final int SLOT_BITS = 10;
+    /** Upper bound of {@link #updateBudget}; sizes the per-frame point shadow uniform blocks. */
+    public static final int MAX_UPDATES_PER_FRAME = 16;
+
+    /** Maximum number of lights whose shadow maps are redrawn in one frame. */
+    public static int updateBudget = 4;
+
+    /**
+     * The shadow slots of one light and the state they were drawn with.
+     */
+    public static class Entry
+    {
+        /** The light this entry belongs to. */
+        public final LightPoint light;
+        private float priority;
+        private int wantedTier;
+        private boolean tracked;
+
+        private int tier = -1;
+        private int staticSlot = -1;
+        private int dynamicSlot = -1;
+        private boolean staticValid = false;
+        private boolean dynamicValid = false;
+        private int lastUpdateFrame = 0;
+        /** A free slot of the wanted tier reserved for the light, moved to on its next update; -1 if none. */
+        private int nextTier = -1;
+        private int nextSlot = -1;
+
+        // What the slots were drawn with.
+        private int lightVersion = -1;
+        private float farPlane = -1.0f;
+        private long staticSignature = 0;
+        private long dynamicSignature = 0;
+
+        // Values found by checkDirty, committed when the update is scheduled.
+        private int pendingLightVersion;
+        private float pendingFarPlane;
+        private long pendingStaticSignature;
+        private long pendingDynamicSignature;
+
+        /** Whether the static slot is redrawn this frame. */
+        public boolean renderStatic;
+        /** Whether the dynamic slot is redrawn this frame. */
+        public boolean renderDynamic;
+
+        private Entry(LightPoint light)
+        {
+            this.light = light;
+        }
+
+        /**
+         * Returns true if there is no dynamic slot, so dynamic casters are drawn into the static slot.
+         */
+        public boolean isMerged()
+        {
+            return dynamicSlot == -1;
+        }
+
+        /**
+         * Returns the first array layer of the static slot.
+         */
+        public int getStaticLayer()
+        {
+            return staticSlot * 6;
+        }
+
+        /**
+         * Returns the first array layer of the dynamic slot.
+         */
+        public int getDynamicLayer()
+        {
+            return dynamicSlot * 6;
+        }
+
+        /**
+         * Returns the tier of the entry's slots, or -1 if it has none.
+         */
+        public int getTier()
+        {
+            return tier;
+        }
+    }
+
+    private final int[] textures = new int[TIER_RESOLUTIONS.length];
+    private final int[] framebuffers = new int[TIER_RESOLUTIONS.length];
+    /** Per tier, the entry holding each slot (static or dynamic), or null if the slot is free. */
+    private final Entry[][] slotOwners = new Entry[TIER_RESOLUTIONS.length][];
+
+    private final Map<LightPoint, Entry> entries = new HashMap<>();
+    private final List<Entry> sorted = new ArrayList<>();
+    private int frame = 0;
+
+    /**
+     * Allocates every tier. Memory use is fixed from here on.
+     */
+    public PointShadowAtlas()
+    {
+        for(int tier = 0; tier < TIER_RESOLUTIONS.length; tier++)
+        {
+            int resolution = TIER_RESOLUTIONS[tier];
+            slotOwners[tier] = new Entry[TIER_SLOTS[tier]];
+
+            textures[tier] = glGenTextures();
+            GLStateCache.bindTexture(GL_TEXTURE_CUBE_MAP_ARRAY, textures[tier]);
+            // 16-bit depth is enough for distances normalized to the light's range, and halves the pool.
+            glTexImage3D(GL_TEXTURE_CUBE_MAP_ARRAY, 0, GL_DEPTH_COMPONENT16, resolution, resolution, TIER_SLOTS[tier] * 6, 0, GL_DEPTH_COMPONENT, GL_FLOAT, (ByteBuffer) null);
+            glTexParameteri(GL_TEXTURE_CUBE_MAP_ARRAY, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+            glTexParameteri(GL_TEXTURE_CUBE_MAP_ARRAY, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+            glTexParameteri(GL_TEXTURE_CUBE_MAP_ARRAY, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+            glTexParameteri(GL_TEXTURE_CUBE_MAP_ARRAY, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+            glTexParameteri(GL_TEXTURE_CUBE_MAP_ARRAY, GL_TEXTURE_WRAP_R, GL_CLAMP_TO_EDGE);
+            // For cube maps we do not use hardware depth comparison
+            glTexParameteri(GL_TEXTURE_CUBE_MAP_ARRAY, GL_TEXTURE_COMPARE_MODE, GL_NONE);
+            GLStateCache.bindTexture(GL_TEXTURE_CUBE_MAP_ARRAY, 0);
+
+            // The whole array is attached layered; the geometry shader picks the slot's layers.
+            framebuffers[tier] = glGenFramebuffers();
+            GLStateCache.bindFramebuffer(GL_FRAMEBUFFER, framebuffers[tier]);
+            glFramebufferTexture(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, textures[tier], 0);
+            glDrawBuffer(GL_NONE);
+            glReadBuffer(GL_NONE);
+            if(glCheckFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE)
+            {
+                System.err.println("Point light shadow atlas framebuffer not complete!");
+            }
+            GLStateCache.bindFramebuffer(GL_FRAMEBUFFER, 0);
+        }
+    }
+
+    /**
+     * Starts a new frame. Lights not tracked again before {@link #assignSlots()} lose their slots.
+     */
+    public void beginFrame()
+    {
+        frame++;
+        for(Entry entry : entries.values())
+        {
+            entry.tracked = false;
+            entry.renderStatic = false;
+            entry.renderDynamic = false;
+        }
+    }
+
+    /**
+     * Requests a shadow map for a light this frame.
+     *
+     * @param light              the point light.
+     * @param desiredResolution  the cube face resolution the light would ideally get, for example the
+     *                           number of screen pixels its range covers.
+     * @param priority           how important the light's shadow is; higher priorities get slots and updates first.
+     */
+    public void track(LightPoint light, float desiredResolution, float priority)
+    {
+        Entry entry = entries.computeIfAbsent(light, Entry::new);
+        entry.tracked = true;
+        entry.priority = priority;
+        // The smallest tier that still meets the desired resolution.
+        entry.wantedTier = 0;
+        for(int tier = TIER_RESOLUTIONS.length - 1; tier >= 0; tier--)
+        {
+            if(TIER_RESOLUTIONS[tier] >= desiredResolution)
+            {
+                entry.wantedTier = tier;
+                break;
+            }
+        }
+    }
+
+    /**
+     * Frees the slots of untracked lights and hands out slots to tracked ones in priority order.
+     */
+    public void assignSlots()
+    {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while(iterator.hasNext())
+        {
+            Entry entry = iterator.next();
+            if(!entry.tracked)
+            {
+                release(entry);
+                iterator.remove();
+            }
+        }
+
+        sorted.clear();
+        sorted.addAll(entries.values());
+        sorted.sort((a, b) -> Float.compare(b.priority, a.priority));
+
+        for(Entry entry : sorted)
+        {
+            if(entry.tier != -1)
+            {
+                reserveWantedTier(entry);
+                continue;
+            }
+            for(int tier = entry.wantedTier; tier < TIER_RESOLUTIONS.length && entry.tier == -1; tier++)
+            {
+                int slot = findFreeSlot(tier);
+                if(slot == -1)
+                {
+                    slot = evictFor(tier, entry.priority);
+                }
+                if(slot != -1)
+                {
+                    slotOwners[tier][slot] = entry;
+                    entry.tier = tier;
+                    entry.staticSlot = slot;
+                    entry.staticValid = false;
+                    entry.lightVersion = -1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reserves a free slot of a light's wanted tier, if it holds a slot of another tier. Releasing the
+     * held slot and waiting for a free one would leave the light without a shadow, and redrawn, every
+     * frame its wanted tier stays full.
+     */
+    private void reserveWantedTier(Entry entry)
+    {
+        if(entry.nextTier != -1 && entry.nextTier != entry.wantedTier)
+        {
+            slotOwners[entry.nextTier][entry.nextSlot] = null;
+            entry.nextTier = -1;
+            entry.nextSlot = -1;
+        }
+        if(entry.tier == entry.wantedTier || entry.nextTier != -1)
+        {
+            return;
+        }
+        int slot = findFreeSlot(entry.wantedTier);
+        if(slot != -1)
+        {
+            slotOwners[entry.wantedTier][slot] = entry;
+            entry.nextTier = entry.wantedTier;
+            entry.nextSlot = slot;
+        }
+    }
+
+    /**
+     * Moves an entry into its reserved slot, giving back the slots it held. Its casters are then drawn
+     * merged into the new slot; a dynamic slot is looked for again next frame.
+     */
+    private void moveToReservedSlot(Entry entry)
+    {
+        int tier = entry.nextTier;
+        int slot = entry.nextSlot;
+        entry.nextTier = -1;
+        entry.nextSlot = -1;
+        release(entry);
+        entry.tier = tier;
+        entry.staticSlot = slot;
+    }
+
+    /**
+     * Decides which of an entry's slots are stale, given the light and its casters this frame.
+     * Tries to get a dynamic slot when dynamic casters are in range.
+     *
+     * @param entry            the entry, which must hold a slot.
+     * @param lightVersion     the light transform's version.
+     * @param farPlane         the light's range.
+     * @param staticSignature  the signature of the static casters in range.
+     * @param dynamicSignature the signature of the dynamic casters in range; 0 if there are none.
+     * @return true if any slot needs to be redrawn.
+     */
+    public boolean checkDirty(Entry entry, int lightVersion, float farPlane, long staticSignature, long dynamicSignature)
+    {
+        entry.pendingLightVersion = lightVersion;
+        entry.pendingFarPlane = farPlane;
+        entry.pendingStaticSignature = staticSignature;
+        entry.pendingDynamicSignature = dynamicSignature;
+
+        if(entry.nextTier != -1)
+        {
+            // Moving to the reserved slot: everything is drawn into it, as for a merged light.
+            entry.renderStatic = true;
+            entry.renderDynamic = false;
+            return true;
+        }
+        if(dynamicSignature != 0 && entry.dynamicSlot == -1)
+        {
+            int slot = findFreeSlot(entry.tier);
+            if(slot != -1)
+            {
+                slotOwners[entry.tier][slot] = entry;
+                entry.dynamicSlot = slot;
+                entry.dynamicValid = false;
+            }
+        }
+
+        boolean lightChanged = entry.lightVersion != lightVersion || entry.farPlane != farPlane;
+        boolean staticDirty = !entry.staticValid || lightChanged || entry.staticSignature != staticSignature;
+        if(entry.isMerged())
+        {
+            entry.renderStatic = staticDirty || entry.dynamicSignature != dynamicSignature;
+            entry.renderDynamic = false;
+        }
+        else
+        {
+            entry.renderStatic = staticDirty;
+            entry.renderDynamic = dynamicSignature != 0 && (staticDirty || !entry.dynamicValid || entry.dynamicSignature != dynamicSignature);
+        }
+        if(!entry.renderStatic && !entry.renderDynamic)
+        {
+            // Nothing to draw, but a dynamic caster may have left the range.
+            entry.dynamicSignature = dynamicSignature;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Keeps the {@link #updateBudget} most urgent of the given stale entries and commits their new state.
+     * Urgency is priority weighted by the frames since the entry was last drawn, so low-priority lights
+     * are never starved. Entries that miss the budget keep sampling their previous maps.
+     *
+     * @param dirty   the entries for which {@link #checkDirty} returned true; reordered and truncated
+     *                to the entries to draw this frame.
+     */
+    public void scheduleUpdates(List<Entry> dirty)
+    {
+        dirty.sort((a, b) -> Float.compare(urgency(b), urgency(a)));
+        int budget = Math.max(0, Math.min(updateBudget, MAX_UPDATES_PER_FRAME));
+        while(dirty.size() > budget)
+        {
+            Entry skipped = dirty.remove(dirty.size() - 1);
+            skipped.renderStatic = false;
+            skipped.renderDynamic = false;
+        }
+        for(Entry entry : dirty)
+        {
+            if(entry.nextTier != -1)
+            {
+                moveToReservedSlot(entry);
+            }
+            entry.lightVersion = entry.pendingLightVersion;
+            entry.farPlane = entry.pendingFarPlane;
+            entry.staticSignature = entry.pendingStaticSignature;
+            entry.dynamicSignature = entry.pendingDynamicSignature;
+            entry.staticValid |= entry.renderStatic;
+            entry.dynamicValid |= entry.renderDynamic;
+            entry.lastUpdateFrame = frame;
+        }
+    }
+
+    private float urgency(Entry entry)
+    {
+        return entry.priority * (1 + frame - entry.lastUpdateFrame);
+    }
+
+    /**
+     * Returns the entry of a light tracked this frame, or null.
+     */
+    public Entry getEntry(LightPoint light)
+    {
+        return entries.get(light);
+    }
+
+    /**
+     * Returns the shadow slot the shader should sample for a light, encoded as {@code tier << SLOT_BITS | cube},
+     * or -1 if the light has no drawn shadow map.
+     */
+    public int getShaderIndex(LightPoint light)
+    {
+        Entry entry = entries.get(light);
+        if(entry == null || entry.tier == -1 || !entry.staticValid)
+        {
+            return -1;
+        }
+        boolean sampleDynamic = !entry.isMerged() && entry.dynamicValid && entry.dynamicSignature != 0;
+        return (entry.tier << SLOT_BITS) | (sampleDynamic ? entry.dynamicSlot : entry.staticSlot);
+    }
+
+    /**
+     * Binds the tier framebuffer of an entry for drawing its static slot and clears that slot.
+     */
+    public void beginStatic(Entry entry)
+    {
+        int resolution = TIER_RESOLUTIONS[entry.tier];
+        glClearTexSubImage(textures[entry.tier], 0, 0, 0, entry.getStaticLayer(), resolution, resolution, 6, GL_DEPTH_COMPONENT, GL_FLOAT, new float[]{1.0f});
+        GLStateCache.bindFramebuffer(GL_FRAMEBUFFER, framebuffers[entry.tier]);
+        GLStateCache.viewport(0, 0, resolution, resolution);
+    }
+
+    /**
+     * Copies an entry's static slot into its dynamic slot and binds the tier framebuffer for drawing the
+     * dynamic casters on top.
+     */
+    public void beginDynamic(Entry entry)
+    {
+        int resolution = TIER_RESOLUTIONS[entry.tier];
+        glCopyImageSubData(textures[entry.tier], GL_TEXTURE_CUBE_MAP_ARRAY, 0, 0, 0, entry.getStaticLayer(),
+                           textures[entry.tier], GL_TEXTURE_CUBE_MAP_ARRAY, 0, 0, 0, entry.getDynamicLayer(),
+                           resolution, resolution, 6);
+        GLStateCache.bindFramebuffer(GL_FRAMEBUFFER, framebuffers[entry.tier]);
+        GLStateCache.viewport(0, 0, resolution, resolution);
+    }
+
+    /**
+     * Returns the cube map array of a tier.
+     */
+    public int getTexture(int tier)
+    {
+        return textures[tier];
+    }
+
+    /**
+     * Releases every tier.
+     */
+    public void cleanup()
+    {
+        for(int tier = 0; tier < TIER_RESOLUTIONS.length; tier++)
+        {
+            GLStateCache.deleteFramebuffer(framebuffers[tier]);
+            GLStateCache.deleteTexture(textures[tier]);
+        }
+        entries.clear();
+    }
+
+    private int findFreeSlot(int tier)
+    {
+        Entry[] owners = slotOwners[tier];
+        for(int slot = 0; slot < owners.length; slot++)
+        {
+            if(owners[slot] == null)
+            {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Frees a slot in a tier for a light of the given priority: first by taking back a reserved slot,
+     * then by taking a dynamic slot away (its owner becomes merged), then by evicting the
+     * lowest-priority light below that priority.
+     *
+     * @return the freed slot, or -1 if nothing could be evicted.
+     */
+    private int evictFor(int tier, float priority)
+    {
+        Entry[] owners = slotOwners[tier];
+        for(int slot = 0; slot < owners.length; slot++)
+        {
+            Entry owner = owners[slot];
+            if(owner != null && owner.nextTier == tier && owner.nextSlot == slot)
+            {
+                // Nothing is drawn there yet; the owner keeps its current slot.
+                owners[slot] = null;
+                owner.nextTier = -1;
+                owner.nextSlot = -1;
+                return slot;
+            }
+        }
+        for(int slot = 0; slot < owners.length; slot++)
+        {
+            Entry owner = owners[slot];
+            if(owner != null && owner.dynamicSlot == slot)
+            {
+                owners[slot] = null;
+                owner.dynamicSlot = -1;
+                owner.dynamicValid = false;
+                // The owner is merged now; its static slot lacks the dynamic casters until it is redrawn.
+                owner.dynamicSignature = 0;
+                return slot;
+            }
+        }
+        Entry victim = null;
+        for(Entry owner : owners)
+        {
+            if(owner != null && owner.priority < priority && (victim == null || owner.priority < victim.priority))
+            {
+                victim = owner;
+            }
+        }
+        if(victim == null)
+        {
+            return -1;
+        }
+        int slot = victim.staticSlot;
+        release(victim);
+        return slot;
+    }
+
+    private void release(Entry entry)
+    {
+        if(entry.nextTier != -1)
+        {
+            slotOwners[entry.nextTier][entry.nextSlot] = null;
+            entry.nextTier = -1;
+            entry.nextSlot = -1;
+        }
+        if(entry.tier == -1)
+        {
+            return;
+        }
+        slotOwners[entry.tier][entry.staticSlot] = null;
+        if(entry.dynamicSlot != -1)
+        {
+            slotOwners[entry.tier][entry.dynamicSlot] = null;
+        }
+        entry.tier = -1;
+        entry.staticSlot = -1;
+        entry.dynamicSlot = -1;
+        entry.staticValid = false;
+        entry.dynamicValid = false;
+    }
+}
@@ -0,0 +1,329 @@
+package engine.rendering;
+
+import engine.Engine;
+import engine.GameObject;
+import engine.Material;
+import engine.Mesh;
+import engine.Renderer;
+import engine.Scene;
+import engine.components.Camera;
+import engine.components.LightDirectional;
+import engine.components.LightPoint;
+import engine.components.MeshRenderer;
+import engine.components.Transform;
+import engine.meshTypes.MeshOBJ;
+import engine.utils.FileUtils;
+import engine.utils.Logger;
+import engine.utils.TransformManager;
+import org.joml.Vector3f;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Picks a {@link QualityProfile} for this machine by rendering a fixed test scene and timing its passes.
+ * <p>
+ * The test scene is a floor with a grid of spheres, a shadowed sun and orbiting point lights, so the
+ * cascades and the point shadow atlas are redrawn every frame. Starting from the {@code ULTRA} preset,
+ * each round renders a few frames with the render graph's pass timing on, and if the frame takes more
+ * than {@link #budgetMillis}, lowers one setting of whichever part costs more: the shadow passes, or
+ * the shading passes, which pay for the shadow filter. Rendering runs at full resolution without
+ * temporal upsampling, so the result does not depend on those, and the frames are never swapped to the
+ * window.
+ * </p>
+ * <p>
+ * The sizes of the image-based lighting maps are left out of the timed rounds: they are sampled at the
+ * same cost whatever their size, and only cost memory and loading time. They are taken from the
+ * preset the chosen shadow resolution belongs to instead.
+ * </p>
+ */
+public class QualityCalibration
+{
+    /** GPU milliseconds the test scene may take; below the frame target, so real scenes have room. */
+    public static float budgetMillis = 8.0f;
+
+    /** Frames rendered before measuring each profile, while shadow maps and targets are first created. */
+    private static final int WARMUP_FRAMES = 8;
+    private static final int MEASURED_FRAMES = 16;
+    /** Rounds before giving up on the budget and keeping the last profile. */
+    private static final int MAX_ROUNDS = 16;
+
+    private static final int GRID_SIZE = 8;
+    private static final int POINT_LIGHTS = 8;
+
+    private static Scene scene;
+    private static final List<Mesh> meshes = new ArrayList<>();
+    private static final List<GameObject> pointLights = new ArrayList<>();
+    private static final List<GameObject> movers = new ArrayList<>();
+    private static int frame;
+
+    /**
+     * Runs the calibration. Needs the renderer to be initialized; leaves its toggles as it found them
+     * but does not apply the result.
+     *
+     * @return the chosen profile, or the {@code HIGH} preset if the test scene cannot be loaded.
+     */
+    public static QualityProfile run()
+    {
+        if(!buildScene())
+        {
+            System.err.println("Quality calibration meshes not found; using the HIGH preset");
+            return QualityProfile.preset(QualityProfile.Level.HIGH);
+        }
+        Scene previousActiveScene = Engine.activeScene;
+        if(Engine.activeScene == null)
+        {
+            // Component lookups, such as the skybox's, search the active scene.
+            Engine.activeScene = scene;
+        }
+        QualityProfile previousProfile = Renderer.getQualityProfile();
+        boolean dynamicResolution = Renderer.dynamicResolution;
+        boolean temporalUpsampling = Renderer.temporalUpsampling;
+        Renderer.dynamicResolution = false;
+        Renderer.temporalUpsampling = false;
+        Renderer.setPassProfiling(true);
+
+        QualityProfile profile = QualityProfile.preset(QualityProfile.Level.ULTRA);
+        // Keeping the current lighting maps saves regenerating them for rounds that cannot time them.
+        profile.environmentResolution = previousProfile.environmentResolution;
+        profile.irradianceResolution = previousProfile.irradianceResolution;
+        profile.prefilterResolution = previousProfile.prefilterResolution;
+        for(int round = 0; round < MAX_ROUNDS; round++)
+        {
+            Renderer.setQualityProfile(profile);
+            float[] millis = measure();
+            float shadowMillis = millis[0];
+            float totalMillis = millis[1];
+            Logger.log("Quality calibration: " + String.format("%.2f", totalMillis) + " ms (shadows " + String.format("%.2f", shadowMillis) + " ms) with " + profile);
+            if(totalMillis <= budgetMillis)
+            {
+                break;
+            }
+            boolean shadowsDominate = shadowMillis >= totalMillis - shadowMillis;
+            boolean lowered = shadowsDominate ? lowerShadows(profile) || lowerFiltering(profile) : lowerFiltering(profile) || lowerShadows(profile);
+            if(!lowered)
+            {
+                break;
+            }
+        }
+
+        Renderer.setPassProfiling(false);
+        Renderer.dynamicResolution = dynamicResolution;
+        Renderer.temporalUpsampling = temporalUpsampling;
+        Renderer.setQualityProfile(previousProfile);
+        Engine.activeScene = previousActiveScene;
+        destroyScene();
+        matchLightingMaps(profile);
+        return profile;
+    }
+
+    /**
+     * Sets the lighting map sizes of a profile to those of the best preset whose shadow resolution it
+     * still reaches.
+     */
+    private static void matchLightingMaps(QualityProfile profile)
+    {
+        QualityProfile match = QualityProfile.preset(QualityProfile.Level.LOW);
+        for(QualityProfile.Level level : QualityProfile.Level.values())
+        {
+            QualityProfile preset = QualityProfile.preset(level);
+            if(preset.shadowMapResolution <= profile.shadowMapResolution)
+            {
+                match = preset;
+            }
+        }
+        profile.environmentResolution = match.environmentResolution;
+        profile.irradianceResolution = match.irradianceResolution;
+        profile.prefilterResolution = match.prefilterResolution;
+    }
+
+    /**
+     * Renders the test scene and returns the average GPU milliseconds of its shadow passes and of all
+     * its passes, in that order.
+     */
+    private static float[] measure()
+    {
+        float shadowMillis = 0.0f;
+        float totalMillis = 0.0f;
+        for(int i = 0; i < WARMUP_FRAMES + MEASURED_FRAMES; i++)
+        {
+            animate();
+            TransformManager.updateTransforms(scene);
+            Renderer.render(scene);
+            if(i >= WARMUP_FRAMES)
+            {
+                shadowMillis += Renderer.getPassMillis("Cascade Shadows") + Renderer.getPassMillis("Point Shadows");
+                totalMillis += Renderer.getPassMillis(null);
+            }
+        }
+        return new float[]{shadowMillis / MEASURED_FRAMES, totalMillis / MEASURED_FRAMES};
+    }
+
+    /**
+     * Lowers one shadow pass setting, the one giving the most time for the least quality first.
+     *
+     * @return {@code false} if every shadow setting is at its minimum.
+     */
+    private static boolean lowerShadows(QualityProfile profile)
+    {
+        if(profile.shadowMapResolution > 2048)
+        {
+            profile.shadowMapResolution /= 2;
+        }
+        else if(profile.pointShadowUpdateBudget > 2)
+        {
+            profile.pointShadowUpdateBudget /= 2;
+        }
+        else if(profile.pointShadowResolutionScale > 0.5f)
+        {
+            profile.pointShadowResolutionScale /= 2;
+        }
+        else if(profile.shadowMapResolution > 1024)
+        {
+            profile.shadowMapResolution /= 2;
+        }
+        else if(profile.cascadeCount > 2)
+        {
+            profile.cascadeCount--;
+        }
+        else if(profile.pointShadowResolutionScale > 0.25f)
+        {
+            profile.pointShadowResolutionScale /= 2;
+        }
+        else if(profile.shadowMapResolution > 512)
+        {
+            profile.shadowMapResolution /= 2;
+        }
+        else if(profile.pointShadowUpdateBudget > 1)
+        {
+            profile.pointShadowUpdateBudget--;
+        }
+        else
+        {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Lowers the radius of the directional shadow filter, which every shaded pixel pays for.
+     *
+     * @return {@code false} if the filter takes a single tap already.
+     */
+    private static boolean lowerFiltering(QualityProfile profile)
+    {
+        if(profile.pcfRadius > 0)
+        {
+            profile.pcfRadius--;
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean buildScene()
+    {
+        String spherePath = FileUtils.load("sphere.obj");
+        String planePath = FileUtils.load("plane.obj");
+        if(spherePath == null || planePath == null)
+        {
+            return false;
+        }
+        Mesh sphereMesh = new MeshOBJ(spherePath);
+        Mesh planeMesh = new MeshOBJ(planePath);
+        meshes.add(sphereMesh);
+        meshes.add(planeMesh);
+
+        scene = new Scene("Quality Calibration");
+        GameObject floor = new GameObject("Floor", new Transform(new Vector3f(0, -1, 0), new Vector3f(40)));
+        addMesh(floor, planeMesh);
+        scene.addGameObject(floor);
+
+        // Every other sphere bobs up and down, so both the static and the dynamic shadow slots are used.
+        for(int x = 0; x < GRID_SIZE; x++)
+        {
+            for(int z = 0; z < GRID_SIZE; z++)
+            {
+                Vector3f position = new Vector3f((x - GRID_SIZE / 2.0f) * 4.0f, 0, z * 4.0f);
+                GameObject sphere = new GameObject("Sphere", new Transform(position, new Vector3f(1.5f)));
+                addMesh(sphere, sphereMesh);
+                scene.addGameObject(sphere);
+                if((x + z) % 2 == 0)
+                {
+                    movers.add(sphere);
+                }
+                else
+                {
+                    sphere.isStatic = true;
+                }
+            }
+        }
+
+        GameObject sun = new GameObject("Sun");
+        // Pointing the front up makes the light travel down and slightly along -z.
+        sun.transform.rotation.x = -1.2f;
+        sun.addComponent(LightDirectional.class);
+        scene.addGameObject(sun);
+
+        for(int i = 0; i < POINT_LIGHTS; i++)
+        {
+            GameObject light = new GameObject("Point Light", new Transform(new Vector3f()));
+            light.addComponent(LightPoint.class);
+            scene.addGameObject(light);
+            pointLights.add(light);
+        }
+
+        // Looking along +z, over the grid.
+        GameObject camera = new GameObject("Camera", new Transform(new Vector3f(0, 6, -12)));
+        camera.transform.rotation.x = 0.3f;
+        Camera cameraComponent = new Camera(70);
+        camera.addComponent(cameraComponent);
+        cameraComponent.isActive = true;
+        scene.addGameObject(camera);
+        TransformManager.updateTransforms(scene);
+        cameraComponent.start();
+
+        frame = 0;
+        return true;
+    }
+
+    private static void addMesh(GameObject gameObject, Mesh mesh)
+    {
+        gameObject.addComponent(MeshRenderer.class);
+        gameObject.getComponent(MeshRenderer.class).mesh = mesh;
+        gameObject.getComponent(MeshRenderer.class).material = Material.empty;
+    }
+
+    /**
+     * Moves the point lights around the grid and bobs the moving spheres, by a fixed step per frame so
+     * every run renders the same frames.
+     */
+    private static void animate()
+    {
+        frame++;
+        float time = frame / 60.0f;
+        for(int i = 0; i < pointLights.size(); i++)
+        {
+            float angle = time + i * (float) (2.0 * Math.PI / pointLights.size());
+            pointLights.get(i).transform.position.set((float) Math.cos(angle) * 12.0f, 3.0f, 14.0f + (float) Math.sin(angle) * 12.0f);
+        }
+        for(int i = 0; i < movers.size(); i++)
+        {
+            movers.get(i).transform.position.y = (float) Math.sin(time * 2.0f + i) * 0.5f;
+        }
+    }
+
+    private static void destroyScene()
+    {
+        for(Mesh mesh : meshes)
+        {
+            if(mesh instanceof MeshOBJ)
+            {
+                ((MeshOBJ) mesh).cleanup();
+            }
+        }
+        meshes.clear();
+        pointLights.clear();
+        movers.clear();
+        scene = null;
+    }
+}
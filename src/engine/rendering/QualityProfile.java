@@ -0,0 +1,163 @@
+package engine.rendering;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+/**
+ * The renderer settings that trade image quality for GPU time: shadow map sizes and filtering, how
+ * many point shadows are redrawn per frame, and the sizes of the image-based lighting maps.
+ * <p>
+ * A profile starts from a {@link Level preset} and may be adjusted setting by setting, for example by
+ * {@link QualityCalibration}. {@code Renderer.setQualityProfile} applies it; every setting takes
+ * effect from the next frame, except {@link #environmentResolution}, which only applies to skyboxes
+ * loaded afterwards. Profiles are stored as properties files, one key per field.
+ * </p>
+ */
+public class QualityProfile
+{
+    /**
+     * The presets, cheapest first.
+     */
+    public enum Level
+    {
+        LOW, MEDIUM, HIGH, ULTRA
+    }
+
+    /** Width and height of every directional shadow cascade, in texels. */
+    public int shadowMapResolution;
+    /** Number of directional shadow cascades, at most {@link CascadedShadowMap#MAX_CASCADES}. */
+    public int cascadeCount;
+    /** Radius of the directional shadow filter in texels: 0 takes one tap, 1 a 3x3 grid, 2 a 5x5 grid. */
+    public int pcfRadius;
+    /** Factor on the shadow resolution point lights ask the atlas for; below 1 they get smaller tiers. */
+    public float pointShadowResolutionScale;
+    /** Maximum number of point shadow maps redrawn in one frame. */
+    public int pointShadowUpdateBudget;
+    /** Face size of skybox cube maps converted from equirectangular images. */
+    public int environmentResolution;
+    /** Face size of the diffuse irradiance map. */
+    public int irradianceResolution;
+    /** Face size of the base level of the specular prefiltered map. */
+    public int prefilterResolution;
+
+    /**
+     * Returns a new profile with the settings of a preset. {@code HIGH} matches the renderer's defaults.
+     */
+    public static QualityProfile preset(Level level)
+    {
+        QualityProfile profile = new QualityProfile();
+        switch(level)
+        {
+            case LOW:
+                profile.set(512, 2, 0, 0.25f, 1, 256, 16, 64);
+                break;
+            case MEDIUM:
+                profile.set(1024, 3, 1, 0.5f, 2, 512, 32, 128);
+                break;
+            case HIGH:
+                profile.set(2048, 4, 1, 1.0f, 4, 512, 32, 128);
+                break;
+            case ULTRA:
+                profile.set(4096, 4, 2, 1.0f, 8, 1024, 32, 256);
+                break;
+        }
+        return profile;
+    }
+
+    private void set(int shadowMapResolution, int cascadeCount, int pcfRadius, float pointShadowResolutionScale, int pointShadowUpdateBudget,
+                     int environmentResolution, int irradianceResolution, int prefilterResolution)
+    {
+        this.shadowMapResolution = shadowMapResolution;
+        this.cascadeCount = cascadeCount;
+        this.pcfRadius = pcfRadius;
+        this.pointShadowResolutionScale = pointShadowResolutionScale;
+        this.pointShadowUpdateBudget = pointShadowUpdateBudget;
+        this.environmentResolution = environmentResolution;
+        this.irradianceResolution = irradianceResolution;
+        this.prefilterResolution = prefilterResolution;
+    }
+
+    /**
+     * Reads a profile written by {@link #save}. Keys missing from the file keep their {@code HIGH}
+     * value.
+     *
+     * @param path the properties file.
+     * @return the profile, or {@code null} if the file does not exist or cannot be read.
+     */
+    public static QualityProfile load(String path)
+    {
+        Path file = Paths.get(path);
+        if(!Files.exists(file))
+        {
+            return null;
+        }
+        Properties properties = new Properties();
+        try(Reader reader = Files.newBufferedReader(file))
+        {
+            properties.load(reader);
+        }
+        catch(IOException e)
+        {
+            System.err.println("Error reading quality profile: " + path);
+            return null;
+        }
+
+        QualityProfile profile = preset(Level.HIGH);
+        try
+        {
+            profile.shadowMapResolution = Integer.parseInt(properties.getProperty("shadowMapResolution", String.valueOf(profile.shadowMapResolution)));
+            profile.cascadeCount = Integer.parseInt(properties.getProperty("cascadeCount", String.valueOf(profile.cascadeCount)));
+            profile.pcfRadius = Integer.parseInt(properties.getProperty("pcfRadius", String.valueOf(profile.pcfRadius)));
+            profile.pointShadowResolutionScale = Float.parseFloat(properties.getProperty("pointShadowResolutionScale", String.valueOf(profile.pointShadowResolutionScale)));
+            profile.pointShadowUpdateBudget = Integer.parseInt(properties.getProperty("pointShadowUpdateBudget", String.valueOf(profile.pointShadowUpdateBudget)));
+            profile.environmentResolution = Integer.parseInt(properties.getProperty("environmentResolution", String.valueOf(profile.environmentResolution)));
+            profile.irradianceResolution = Integer.parseInt(properties.getProperty("irradianceResolution", String.valueOf(profile.irradianceResolution)));
+            profile.prefilterResolution = Integer.parseInt(properties.getProperty("prefilterResolution", String.valueOf(profile.prefilterResolution)));
+        }
+        catch(NumberFormatException e)
+        {
+            System.err.println("Invalid quality profile: " + path);
+            return null;
+        }
+        return profile;
+    }
+
+    /**
+     * Writes the profile to a properties file, replacing it if it exists.
+     *
+     * @param path the properties file.
+     */
+    public void save(String path)
+    {
+        Properties properties = new Properties();
+        properties.setProperty("shadowMapResolution", String.valueOf(shadowMapResolution));
+        properties.setProperty("cascadeCount", String.valueOf(cascadeCount));
+        properties.setProperty("pcfRadius", String.valueOf(pcfRadius));
+        properties.setProperty("pointShadowResolutionScale", String.valueOf(pointShadowResolutionScale));
+        properties.setProperty("pointShadowUpdateBudget", String.valueOf(pointShadowUpdateBudget));
+        properties.setProperty("environmentResolution", String.valueOf(environmentResolution));
+        properties.setProperty("irradianceResolution", String.valueOf(irradianceResolution));
+        properties.setProperty("prefilterResolution", String.valueOf(prefilterResolution));
+        try(Writer writer = Files.newBufferedWriter(Paths.get(path)))
+        {
+            properties.store(writer, "Renderer quality profile; delete this file to recalibrate");
+        }
+        catch(IOException e)
+        {
+            System.err.println("Error writing quality profile: " + path);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "shadows " + shadowMapResolution + " x" + cascadeCount + " (PCF radius " + pcfRadius + ")"
+                + ", point shadows x" + pointShadowResolutionScale + " (" + pointShadowUpdateBudget + " per frame)"
+                + ", IBL " + environmentResolution + "/" + irradianceResolution + "/" + prefilterResolution;
+    }
+}
@@ -0,0 +1,581 @@
+package engine.rendering;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.lwjgl.opengl.GL30.GL_FRAMEBUFFER;
+import static org.lwjgl.opengl.GL42.*;
+
+/**
+ * The passes of a frame and the textures they read and write, declared up front and executed
+ * together.
+ * <p>
+ * Every frame the renderer resets the graph, declares its resources, either textures it owns
+ * ({@link #importTexture}) or transient targets described only by size and format
+ * ({@link #createTexture}), and adds its passes in execution order with the resources each one
+ * samples, renders to or accesses as an image. {@link #execute} then:
+ * </p>
+ * <ul>
+ *     <li>culls every pass whose writes nobody reads: walking backward from the passes with side
+ *     effects and the resources marked as outputs, a pass is kept only if it writes a resource a kept
+ *     pass reads. A write counts as modifying the resource, so every earlier writer of a needed
+ *     resource is kept too;</li>
+ *     <li>gives each transient resource a texture from the {@link RenderTargetPool} just before the
+ *     first kept pass using it and returns it right after the last one, so targets whose uses do not
+ *     overlap within the frame share memory, and targets of culled passes are never allocated;</li>
+ *     <li>issues the {@code glMemoryBarrier} a pass needs before it runs: image stores are not ordered
+ *     with later accesses, so a resource written as an image gets the barrier bit matching each later
+ *     kind of access, once.</li>
+ * </ul>
+ * <p>
+ * Resources and passes are pooled, so declaring the same graph every frame does not allocate. The
+ * textures of transient resources are only valid while the graph executes.
+ * </p>
+ * <p>
+ * With {@link #setProfiling profiling} on, every kept pass is bracketed by GPU timestamp queries, and
+ * {@link #getPassMillis} reports how long the GPU spent on it.
+ * </p>
+ */
+public class RenderGraph
+{
+    /**
+     * How a pass accesses a resource, which decides the barrier it needs after an image store.
+     */
+    public enum Access
+    {
+        /** Read through a sampler. */
+        SAMPLE(GL_TEXTURE_FETCH_BARRIER_BIT),
+        /** Rendered to, depth tested against or blitted as a framebuffer attachment. */
+        ATTACHMENT(GL_FRAMEBUFFER_BARRIER_BIT),
+        /** Loaded or stored as an image. */
+        IMAGE(GL_SHADER_IMAGE_ACCESS_BARRIER_BIT);
+
+        final int barrierBit;
+
+        Access(int barrierBit)
+        {
+            this.barrierBit = barrierBit;
+        }
+    }
+
+    /**
+     * A texture in the graph. Handles are only valid until the next {@link #reset}.
+     */
+    public static class Resource
+    {
+        String name;
+        boolean imported;
+        int texture;
+        int width;
+        int height;
+        int internalFormat;
+        boolean output;
+        boolean needed;
+        /** The first and last kept pass using the resource, or -1. */
+        int firstUse;
+        int lastUse;
+        /** Set by an image store; cleared bit by bit as later accesses get their barrier. */
+        int pendingBarriers;
+
+        public String getName()
+        {
+            return name;
+        }
+    }
+
+    /**
+     * A pass: a name, the code recording its GL commands, and the resources it uses.
+     */
+    public static class Pass
+    {
+        String name;
+        Runnable executor;
+        boolean sideEffect;
+        boolean culled;
+        /** Whether the last execute recorded timestamps around the pass, at queries 2p and 2p + 1. */
+        boolean timed;
+        final List<Resource> reads = new ArrayList<>();
+        final List<Access> readAccesses = new ArrayList<>();
+        final List<Resource> writes = new ArrayList<>();
+        final List<Access> writeAccesses = new ArrayList<>();
+
+        /**
+         * Declares that the pass samples the resource.
+         */
+        public Pass sample(Resource resource)
+        {
+            return read(resource, Access.SAMPLE);
+        }
+
+        /**
+         * Declares that the pass reads the resource as an attachment without changing it, for example
+         * a depth test without depth writes, or the source of a blit.
+         */
+        public Pass readAttachment(Resource resource)
+        {
+            return read(resource, Access.ATTACHMENT);
+        }
+
+        /**
+         * Declares that the pass loads the resource as an image.
+         */
+        public Pass readImage(Resource resource)
+        {
+            return read(resource, Access.IMAGE);
+        }
+
+        /**
+         * Declares that the pass renders to the resource as an attachment.
+         */
+        public Pass write(Resource resource)
+        {
+            writes.add(resource);
+            writeAccesses.add(Access.ATTACHMENT);
+            return this;
+        }
+
+        /**
+         * Declares that the pass stores to the resource as an image.
+         */
+        public Pass writeImage(Resource resource)
+        {
+            writes.add(resource);
+            writeAccesses.add(Access.IMAGE);
+            return this;
+        }
+
+        /**
+         * Keeps the pass even if nothing reads its writes, for example the pass presenting to the
+         * window.
+         */
+        public Pass sideEffect()
+        {
+            sideEffect = true;
+            return this;
+        }
+
+        private Pass read(Resource resource, Access access)
+        {
+            reads.add(resource);
+            readAccesses.add(access);
+            return this;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * Returns whether the last {@link #execute} skipped the pass.
+         */
+        public boolean isCulled()
+        {
+            return culled;
+        }
+    }
+
+    private final RenderTargetPool pool = new RenderTargetPool();
+
+    private final List<Resource> resources = new ArrayList<>();
+    private int resourceCount = 0;
+    private final List<Pass> passes = new ArrayList<>();
+    private int passCount = 0;
+    private int culledCount = 0;
+    private boolean executing = false;
+
+    private boolean profiling = false;
+    /** Two timestamp queries per pass, before and after it; grown with the pass count. */
+    private int[] timestampQueries = new int[0];
+
+    /**
+     * Discards the previous frame's passes and resources.
+     */
+    public void reset()
+    {
+        for(int r = 0; r < resourceCount; r++)
+        {
+            Resource resource = resources.get(r);
+            if(!resource.imported && resource.texture != 0)
+            {
+                pool.release(resource.texture);
+                resource.texture = 0;
+            }
+        }
+        resourceCount = 0;
+        passCount = 0;
+    }
+
+    /**
+     * Adds a texture owned outside the graph. Its contents persist between frames, so it is never
+     * aliased.
+     */
+    public Resource importTexture(String name, int texture)
+    {
+        Resource resource = nextResource(name);
+        resource.imported = true;
+        resource.texture = texture;
+        return resource;
+    }
+
+    /**
+     * Adds a transient 2D texture, allocated only if a kept pass uses it. Its contents are undefined
+     * until a pass of this frame writes it.
+     */
+    public Resource createTexture(String name, int width, int height, int internalFormat)
+    {
+        Resource resource = nextResource(name);
+        resource.imported = false;
+        resource.texture = 0;
+        resource.width = width;
+        resource.height = height;
+        resource.internalFormat = internalFormat;
+        return resource;
+    }
+
+    private Resource nextResource(String name)
+    {
+        if(resourceCount == resources.size())
+        {
+            resources.add(new Resource());
+        }
+        Resource resource = resources.get(resourceCount++);
+        resource.name = name;
+        resource.output = false;
+        resource.needed = false;
+        resource.firstUse = -1;
+        resource.lastUse = -1;
+        resource.pendingBarriers = 0;
+        return resource;
+    }
+
+    /**
+     * Keeps the passes writing the resource even if no pass of the graph reads it, for example a cache
+     * read by later frames.
+     */
+    public void markOutput(Resource resource)
+    {
+        resource.output = true;
+    }
+
+    /**
+     * Adds a pass after the ones added so far.
+     *
+     * @param name     the name, for debugging and statistics.
+     * @param executor records the pass's GL commands when the graph executes.
+     * @return the pass, to declare its resource uses on.
+     */
+    public Pass addPass(String name, Runnable executor)
+    {
+        if(passCount == passes.size())
+        {
+            passes.add(new Pass());
+        }
+        Pass pass = passes.get(passCount++);
+        pass.name = name;
+        pass.executor = executor;
+        pass.sideEffect = false;
+        pass.culled = false;
+        pass.timed = false;
+        pass.reads.clear();
+        pass.readAccesses.clear();
+        pass.writes.clear();
+        pass.writeAccesses.clear();
+        return pass;
+    }
+
+    /**
+     * Culls, allocates and runs the passes in order.
+     */
+    public void execute()
+    {
+        cull();
+        computeLifetimes();
+        if(profiling && timestampQueries.length < 2 * passCount)
+        {
+            glDeleteQueries(timestampQueries);
+            timestampQueries = new int[2 * passes.size()];
+            glGenQueries(timestampQueries);
+        }
+
+        executing = true;
+        for(int p = 0; p < passCount; p++)
+        {
+            Pass pass = passes.get(p);
+            if(pass.culled)
+            {
+                continue;
+            }
+            for(int i = 0; i < pass.writes.size(); i++)
+            {
+                acquire(pass.writes.get(i), p);
+            }
+            for(int i = 0; i < pass.reads.size(); i++)
+            {
+                acquire(pass.reads.get(i), p);
+            }
+
+            int barriers = collectBarriers(pass.reads, pass.readAccesses) | collectBarriers(pass.writes, pass.writeAccesses);
+            if(barriers != 0)
+            {
+                glMemoryBarrier(barriers);
+            }
+
+            pass.timed = profiling;
+            if(profiling)
+            {
+                glQueryCounter(timestampQueries[2 * p], GL_TIMESTAMP);
+            }
+            pass.executor.run();
+            if(profiling)
+            {
+                glQueryCounter(timestampQueries[2 * p + 1], GL_TIMESTAMP);
+            }
+
+            for(int i = 0; i < pass.writes.size(); i++)
+            {
+                if(pass.writeAccesses.get(i) == Access.IMAGE)
+                {
+                    pass.writes.get(i).pendingBarriers = GL_TEXTURE_FETCH_BARRIER_BIT | GL_FRAMEBUFFER_BARRIER_BIT | GL_SHADER_IMAGE_ACCESS_BARRIER_BIT;
+                }
+            }
+            releaseEnding(pass.writes, p);
+            releaseEnding(pass.reads, p);
+        }
+        executing = false;
+        pool.endFrame();
+    }
+
+    private void cull()
+    {
+        for(int r = 0; r < resourceCount; r++)
+        {
+            Resource resource = resources.get(r);
+            resource.needed = resource.output;
+        }
+        culledCount = 0;
+        for(int p = passCount - 1; p >= 0; p--)
+        {
+            Pass pass = passes.get(p);
+            boolean kept = pass.sideEffect;
+            for(int i = 0; i < pass.writes.size() && !kept; i++)
+            {
+                kept = pass.writes.get(i).needed;
+            }
+            pass.culled = !kept;
+            if(!kept)
+            {
+                culledCount++;
+                continue;
+            }
+            for(int i = 0; i < pass.reads.size(); i++)
+            {
+                pass.reads.get(i).needed = true;
+            }
+        }
+    }
+
+    private void computeLifetimes()
+    {
+        for(int p = 0; p < passCount; p++)
+        {
+            Pass pass = passes.get(p);
+            if(!pass.culled)
+            {
+                extendLifetimes(pass.reads, p);
+                extendLifetimes(pass.writes, p);
+            }
+        }
+    }
+
+    private static void extendLifetimes(List<Resource> used, int pass)
+    {
+        for(int i = 0; i < used.size(); i++)
+        {
+            Resource resource = used.get(i);
+            if(resource.firstUse < 0)
+            {
+                resource.firstUse = pass;
+            }
+            resource.lastUse = pass;
+        }
+    }
+
+    private void acquire(Resource resource, int pass)
+    {
+        if(!resource.imported && resource.firstUse == pass && resource.texture == 0)
+        {
+            resource.texture = pool.acquire(resource.width, resource.height, resource.internalFormat);
+        }
+    }
+
+    private void releaseEnding(List<Resource> used, int pass)
+    {
+        for(int i = 0; i < used.size(); i++)
+        {
+            Resource resource = used.get(i);
+            // Outputs are read after the graph, so their texture stays out of this frame's aliasing.
+            if(!resource.imported && !resource.output && resource.lastUse == pass && resource.texture != 0)
+            {
+                pool.release(resource.texture);
+                resource.texture = 0;
+            }
+        }
+    }
+
+    private static int collectBarriers(List<Resource> used, List<Access> accesses)
+    {
+        int barriers = 0;
+        for(int i = 0; i < used.size(); i++)
+        {
+            Resource resource = used.get(i);
+            int bit = accesses.get(i).barrierBit;
+            if((resource.pendingBarriers & bit) != 0)
+            {
+                barriers |= bit;
+                resource.pendingBarriers &= ~bit;
+            }
+        }
+        return barriers;
+    }
+
+    /**
+     * Returns the texture behind a resource. Transient resources only have one while a pass using them
+     * executes, or after the graph for outputs.
+     */
+    public int getTexture(Resource resource)
+    {
+        return resource.texture;
+    }
+
+    /**
+     * Binds a framebuffer with the given resources attached and sets the viewport to cover them. To be
+     * called by executing passes, on transient resources of equal size.
+     *
+     * @param color0 the resource at color attachment 0, or {@code null}.
+     * @param color1 the resource at color attachment 1, or {@code null}.
+     * @param depth  the depth resource, or {@code null}.
+     */
+    public void bindTargets(Resource color0, Resource color1, Resource depth)
+    {
+        bindTargets(color0, color1, null, depth);
+    }
+
+    /**
+     * Binds a framebuffer with up to three color resources attached; see
+     * {@link #bindTargets(Resource, Resource, Resource)}.
+     */
+    public void bindTargets(Resource color0, Resource color1, Resource color2, Resource depth)
+    {
+        Resource sized = color0 != null ? color0 : depth;
+        GLStateCache.bindFramebuffer(GL_FRAMEBUFFER, getFramebuffer(color0, color1, color2, depth));
+        GLStateCache.viewport(0, 0, sized.width, sized.height);
+    }
+
+    /**
+     * Returns a framebuffer with the given resources attached, without binding it.
+     */
+    public int getFramebuffer(Resource color0, Resource color1, Resource depth)
+    {
+        return getFramebuffer(color0, color1, null, depth);
+    }
+
+    /**
+     * Returns a framebuffer with up to three color resources attached, without binding it.
+     */
+    public int getFramebuffer(Resource color0, Resource color1, Resource color2, Resource depth)
+    {
+        if(!executing)
+        {
+            throw new IllegalStateException("Render graph targets are only bound while the graph executes");
+        }
+        return pool.getFramebuffer(texture(color0), texture(color1), texture(color2), texture(depth));
+    }
+
+    private static int texture(Resource resource)
+    {
+        return resource != null ? resource.texture : 0;
+    }
+
+    /**
+     * Returns the number of passes of the last frame, culled ones included.
+     */
+    public int getPassCount()
+    {
+        return passCount;
+    }
+
+    /**
+     * Returns the number of passes the last {@link #execute} culled.
+     */
+    public int getCulledPassCount()
+    {
+        return culledCount;
+    }
+
+    /**
+     * Turns GPU timing of the passes on or off, from the next {@link #execute} on.
+     */
+    public void setProfiling(boolean profiling)
+    {
+        this.profiling = profiling;
+    }
+
+    /**
+     * Returns the GPU milliseconds the last {@link #execute} spent in the kept passes with the given
+     * name, or 0 if none was timed. Waits for the GPU to finish them, so it is meant for calibration
+     * and debugging rather than every frame.
+     */
+    public float getPassMillis(String name)
+    {
+        long nanos = 0;
+        for(int p = 0; p < passCount; p++)
+        {
+            Pass pass = passes.get(p);
+            if(pass.timed && pass.name.equals(name))
+            {
+                nanos += passNanos(p);
+            }
+        }
+        return nanos / 1_000_000.0f;
+    }
+
+    /**
+     * Returns the GPU milliseconds the last {@link #execute} spent in all of its timed passes. Waits
+     * like {@link #getPassMillis}.
+     */
+    public float getTotalMillis()
+    {
+        long nanos = 0;
+        for(int p = 0; p < passCount; p++)
+        {
+            if(passes.get(p).timed)
+            {
+                nanos += passNanos(p);
+            }
+        }
+        return nanos / 1_000_000.0f;
+    }
+
+    private long passNanos(int pass)
+    {
+        return glGetQueryObjectui64(timestampQueries[2 * pass + 1], GL_QUERY_RESULT) - glGetQueryObjectui64(timestampQueries[2 * pass], GL_QUERY_RESULT);
+    }
+
+    /**
+     * Returns the number of textures the pool holds for transient resources.
+     */
+    public int getPooledTextureCount()
+    {
+        return pool.getTextureCount();
+    }
+
+    /**
+     * Releases the pooled textures and framebuffers.
+     */
+    public void cleanup()
+    {
+        glDeleteQueries(timestampQueries);
+        pool.cleanup();
+    }
+}
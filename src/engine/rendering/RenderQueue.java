@@ -0,0 +1,425 @@
+package engine.rendering;
+
+import engine.GameObject;
+import engine.Material;
+import engine.Mesh;
+import org.joml.Matrix4f;
+
+import java.util.Arrays;
+
+/**
+ * A per-frame list of draws that is sorted by GPU state before submission.
+ * <p>
+ * Every draw is reduced to a 64-bit sort key laid out (from the most significant bit) as
+ * pass (2 bits), shader program (10 bits), texture set (16 bits), mesh VAO (16 bits) and depth (20 bits).
+ * The texture set is {@link Material#getTextureSetId()}, so materials binding the same textures sort
+ * together however many Material objects there are. Sorting on that key groups draws so that program,
+ * texture and VAO bindings change as rarely as possible, and orders draws sharing all of them front to
+ * back.
+ * </p>
+ * <p>
+ * After sorting, {@link #buildBatches()} merges draws that share program, texture set, VAO and index
+ * range into instanced batches; their material parameters differ per instance. Instances are laid out
+ * batch by batch so each batch covers a contiguous range that maps to one indirect draw command, and
+ * consecutive batches sharing program, texture set and VAO ({@link #runEnd(int)}) can be submitted
+ * together with {@code glMultiDrawElementsIndirect}.
+ * </p>
+ * <p>
+ * Items and sort buffers are pooled and reused across frames, so filling and sorting the queue
+ * does not allocate once it has grown to the scene's size. A queue is not thread-safe, but separate
+ * queues can be filled on separate threads and merged with {@link #append}.
+ * </p>
+ */
+public class RenderQueue
+{
+    /**
+     * The pass a draw belongs to. The ordinal is stored in the top bits of the sort key.
+     */
+    public enum Pass
+    {
+        SHADOW, OPAQUE
+    }
+
+    /**
+     * A single draw recorded into the queue.
+     */
+    public static class Item
+    {
+        /** The game object the draw was collected from. */
+        public GameObject gameObject;
+        /** The mesh whose VAO is drawn. */
+        public Mesh mesh;
+        /** The material bound for the draw. */
+        public Material material;
+        /** The material's {@link Material#getTextureSetId() texture set}. */
+        public int textureSet;
+        /** The VAO holding the mesh buffers. */
+        public int vaoId;
+        /** First index (in the mesh arena's element buffer) of the drawn range. */
+        public int indexOffset;
+        /** Value added to every index of the range, the mesh's first vertex in the arena. */
+        public int baseVertex;
+        /** Number of indices drawn. */
+        public int indexCount;
+        /** World transform of the draw. */
+        public final Matrix4f model = new Matrix4f();
+        /** Layers of a layered shadow pass (cascades or cube faces) the draw reaches; unused elsewhere. */
+        public int viewMask;
+        /** World-space bounds of the drawn range, tested by GPU occlusion culling. */
+        public Bounds bounds;
+        /** The sort key built for the draw. */
+        public long key;
+    }
+
+    /**
+     * A group of draws sharing program, texture set, VAO and index range, drawn as one instanced call.
+     */
+    public static class Batch
+    {
+        /** The material of the batch's first draw; every draw of the batch binds the same textures. */
+        public Material material;
+        /** The texture set of the batch's draws. */
+        public int textureSet;
+        /** The program of the batch's draws, as stored in the sort key. */
+        public int shaderId;
+        /** The VAO drawn. */
+        public int vaoId;
+        /** First index of the drawn range. */
+        public int indexOffset;
+        /** Value added to every index of the range. */
+        public int baseVertex;
+        /** Number of indices drawn per instance. */
+        public int indexCount;
+        /** Position of the first instance in this queue's instance order. */
+        public int firstInstance;
+        /** Number of instances in the batch. */
+        public int instanceCount;
+    }
+
+    private static final int SHADER_BITS = 10;
+    private static final int TEXTURE_SET_BITS = 16;
+    private static final int VAO_BITS = 16;
+    private static final int DEPTH_BITS = 20;
+
+    private static final int DEPTH_SHIFT = 0;
+    private static final int VAO_SHIFT = DEPTH_SHIFT + DEPTH_BITS;
+    private static final int TEXTURE_SET_SHIFT = VAO_SHIFT + VAO_BITS;
+    private static final int SHADER_SHIFT = TEXTURE_SET_SHIFT + TEXTURE_SET_BITS;
+    private static final int PASS_SHIFT = SHADER_SHIFT + SHADER_BITS;
+
+    private Item[] items = new Item[64];
+    private int size = 0;
+
+    // Sort buffers: keys and item indices, plus scratch copies for the radix passes.
+    private long[] keys = new long[64];
+    private int[] order = new int[64];
+    private long[] scratchKeys = new long[64];
+    private int[] scratchOrder = new int[64];
+    private final int[] histograms = new int[8 * 256];
+
+    // Batches built from the sorted order, and the item indices in instance order.
+    private Batch[] batches = new Batch[64];
+    private int batchCount = 0;
+    private int[] instanceOrder = new int[64];
+    private boolean[] batched = new boolean[64];
+
+    /**
+     * Builds the sort key of a draw.
+     *
+     * @param pass       the pass the draw belongs to.
+     * @param shaderId   the program used to draw.
+     * @param textureSetId the texture set of the material bound for the draw.
+     * @param vaoId      the VAO drawn.
+     * @param depth      normalized view depth in [0, 1]; smaller values are drawn first.
+     * @return the 64-bit sort key.
+     */
+    public static long makeKey(Pass pass, int shaderId, int textureSetId, int vaoId, float depth)
+    {
+        long quantizedDepth = (long) (Math.min(Math.max(depth, 0.0f), 1.0f) * ((1 << DEPTH_BITS) - 1));
+        return ((long) pass.ordinal() << PASS_SHIFT)
+               | ((shaderId & ((1L << SHADER_BITS) - 1)) << SHADER_SHIFT)
+               | ((textureSetId & ((1L << TEXTURE_SET_BITS) - 1)) << TEXTURE_SET_SHIFT)
+               | ((vaoId & ((1L << VAO_BITS) - 1)) << VAO_SHIFT)
+               | (quantizedDepth << DEPTH_SHIFT);
+    }
+
+    /**
+     * Removes all items from the queue. Pooled items are kept for reuse.
+     */
+    public void clear()
+    {
+        size = 0;
+        batchCount = 0;
+    }
+
+    /**
+     * Appends a draw to the queue and returns the pooled item to fill in.
+     * The caller must set {@link Item#key} before {@link #sort()} is called.
+     *
+     * @return the item for the new draw.
+     */
+    public Item add()
+    {
+        if(size == items.length)
+        {
+            grow(size * 2);
+        }
+        Item item = items[size];
+        if(item == null)
+        {
+            item = new Item();
+            items[size] = item;
+        }
+        size++;
+        return item;
+    }
+
+    /**
+     * Moves every draw of another queue to the end of this one, leaving the other queue empty.
+     * Items are exchanged rather than copied, so both queues keep pooled items for the next frame.
+     * This merges queues recorded on separate threads before sorting.
+     *
+     * @param other the queue to empty into this one.
+     */
+    public void append(RenderQueue other)
+    {
+        for(int i = 0; i < other.size; i++)
+        {
+            Item pooled = add();
+            items[size - 1] = other.items[i];
+            other.items[i] = pooled;
+        }
+        other.clear();
+    }
+
+    /**
+     * Returns the number of draws in the queue.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the draw at the given position in sorted order.
+     * Only valid after {@link #sort()} has been called for the current contents.
+     *
+     * @param index position in the sorted queue.
+     * @return the item at that position.
+     */
+    public Item get(int index)
+    {
+        return items[order[index]];
+    }
+
+    /**
+     * Sorts the queue by key using an LSD radix sort over the eight key bytes.
+     * Byte positions where every key is identical are skipped, which for typical frames
+     * (one pass, few shaders) removes most of the passes.
+     */
+    public void sort()
+    {
+        for(int i = 0; i < size; i++)
+        {
+            keys[i] = items[i].key;
+            order[i] = i;
+        }
+
+        // Build all eight byte histograms in one sweep.
+        Arrays.fill(histograms, 0);
+        for(int i = 0; i < size; i++)
+        {
+            long key = keys[i];
+            for(int b = 0; b < 8; b++)
+            {
+                histograms[(b << 8) + (int) ((key >>> (b << 3)) & 0xFF)]++;
+            }
+        }
+
+        long[] srcKeys = keys;
+        int[] srcOrder = order;
+        long[] dstKeys = scratchKeys;
+        int[] dstOrder = scratchOrder;
+        for(int b = 0; b < 8; b++)
+        {
+            int base = b << 8;
+            int shift = b << 3;
+
+            // All keys share this byte: the pass would not move anything.
+            if(size == 0 || histograms[base + (int) ((srcKeys[0] >>> shift) & 0xFF)] == size)
+            {
+                continue;
+            }
+
+            // Convert counts to starting offsets.
+            int offset = 0;
+            for(int d = 0; d < 256; d++)
+            {
+                int count = histograms[base + d];
+                histograms[base + d] = offset;
+                offset += count;
+            }
+            for(int i = 0; i < size; i++)
+            {
+                long key = srcKeys[i];
+                int dst = histograms[base + (int) ((key >>> shift) & 0xFF)]++;
+                dstKeys[dst] = key;
+                dstOrder[dst] = srcOrder[i];
+            }
+
+            long[] swapKeys = srcKeys;
+            srcKeys = dstKeys;
+            dstKeys = swapKeys;
+            int[] swapOrder = srcOrder;
+            srcOrder = dstOrder;
+            dstOrder = swapOrder;
+        }
+
+        // Keep the sorted result in the primary arrays.
+        if(srcOrder != order)
+        {
+            scratchKeys = keys;
+            scratchOrder = order;
+            keys = srcKeys;
+            order = srcOrder;
+        }
+    }
+
+    /**
+     * Groups the sorted draws into instanced batches.
+     * <p>
+     * Runs of draws with the same program, texture set and VAO are adjacent after sorting; within each run, draws
+     * covering the same index range (the same mesh or submesh) are merged into one batch. The run is
+     * walked once per distinct range, which stays cheap because a run rarely holds more than a few.
+     * </p>
+     */
+    public void buildBatches()
+    {
+        batchCount = 0;
+        int instances = 0;
+        Arrays.fill(batched, 0, size, false);
+
+        int runStart = 0;
+        while(runStart < size)
+        {
+            Item first = get(runStart);
+            int runEnd = runStart + 1;
+            while(runEnd < size && get(runEnd).textureSet == first.textureSet && get(runEnd).vaoId == first.vaoId && shaderOf(get(runEnd).key) == shaderOf(first.key))
+            {
+                runEnd++;
+            }
+
+            for(int i = runStart; i < runEnd; i++)
+            {
+                if(batched[i])
+                {
+                    continue;
+                }
+                Item lead = get(i);
+                Batch batch = nextBatch();
+                batch.material = lead.material;
+                batch.textureSet = lead.textureSet;
+                batch.shaderId = shaderOf(lead.key);
+                batch.vaoId = lead.vaoId;
+                batch.indexOffset = lead.indexOffset;
+                batch.baseVertex = lead.baseVertex;
+                batch.indexCount = lead.indexCount;
+                batch.firstInstance = instances;
+                batch.instanceCount = 0;
+
+                for(int j = i; j < runEnd; j++)
+                {
+                    Item item = get(j);
+                    if(!batched[j] && item.indexOffset == lead.indexOffset && item.baseVertex == lead.baseVertex && item.indexCount == lead.indexCount)
+                    {
+                        batched[j] = true;
+                        instanceOrder[instances++] = order[j];
+                        batch.instanceCount++;
+                    }
+                }
+            }
+            runStart = runEnd;
+        }
+    }
+
+    /**
+     * Returns the number of batches built by {@link #buildBatches()}.
+     */
+    public int batchCount()
+    {
+        return batchCount;
+    }
+
+    /**
+     * Returns a batch built by {@link #buildBatches()}.
+     *
+     * @param index the batch index.
+     * @return the batch.
+     */
+    public Batch getBatch(int index)
+    {
+        return batches[index];
+    }
+
+    /**
+     * Returns the index one past the last batch that shares program, texture set and VAO with {@code batchIndex}.
+     * Such a run only differs in index ranges and instances, so it can be submitted as one multi-draw.
+     *
+     * @param batchIndex the first batch of the run.
+     * @return the end (exclusive) of the run.
+     */
+    public int runEnd(int batchIndex)
+    {
+        Batch first = batches[batchIndex];
+        int end = batchIndex + 1;
+        while(end < batchCount && batches[end].textureSet == first.textureSet && batches[end].vaoId == first.vaoId && batches[end].shaderId == first.shaderId)
+        {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * Returns the draw stored at the given instance position. Instance positions follow batch order,
+     * so a batch's instances are {@code firstInstance .. firstInstance + instanceCount - 1}.
+     *
+     * @param index the instance position.
+     * @return the item drawn at that position.
+     */
+    public Item getInstance(int index)
+    {
+        return items[instanceOrder[index]];
+    }
+
+    private static int shaderOf(long key)
+    {
+        return (int) ((key >>> SHADER_SHIFT) & ((1L << SHADER_BITS) - 1));
+    }
+
+    private Batch nextBatch()
+    {
+        if(batchCount == batches.length)
+        {
+            batches = Arrays.copyOf(batches, batchCount * 2);
+        }
+        Batch batch = batches[batchCount];
+        if(batch == null)
+        {
+            batch = new Batch();
+            batches[batchCount] = batch;
+        }
+        batchCount++;
+        return batch;
+    }
+
+    private void grow(int capacity)
+    {
+        items = Arrays.copyOf(items, capacity);
+        keys = new long[capacity];
+        order = new int[capacity];
+        scratchKeys = new long[capacity];
+        scratchOrder = new int[capacity];
+        instanceOrder = new int[capacity];
+        batched = new boolean[capacity];
+    }
+}
@@ -0,0 +1,230 @@
+package engine.rendering;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.GL_CLAMP_TO_EDGE;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL45.*;
+
+/**
+ * The 2D textures behind the {@link RenderGraph}'s transient resources, pooled by format and size,
+ * and the framebuffers that attach them.
+ * <p>
+ * {@link #acquire} hands out an idle texture of the requested internal format and size, creating one
+ * only when none is idle, and {@link #release} makes it idle again. The graph releases a resource
+ * right after the last pass using it, so resources whose lifetimes within a frame do not overlap share
+ * one texture. Textures are immutable ({@code glTextureStorage2D}), sampled nearest and clamped.
+ * </p>
+ * <p>
+ * A texture left idle for {@link #EVICT_FRAMES} frames, for example after the render path or the
+ * resolution changed, is deleted with the framebuffers attaching it, so memory follows what the
+ * current frames actually use.
+ * </p>
+ */
+public class RenderTargetPool
+{
+    /** Frames a texture may stay idle before it is deleted. */
+    public static final int EVICT_FRAMES = 60;
+
+    private static class Target
+    {
+        final int texture;
+        final int width;
+        final int height;
+        final int internalFormat;
+        boolean inUse;
+        long lastUsedFrame;
+
+        Target(int texture, int width, int height, int internalFormat)
+        {
+            this.texture = texture;
+            this.width = width;
+            this.height = height;
+            this.internalFormat = internalFormat;
+        }
+    }
+
+    /** The textures attached to a framebuffer, 0 where nothing is attached. */
+    private record AttachmentKey(int c0, int c1, int c2, int depth)
+    {
+        boolean attaches(int texture)
+        {
+            return c0 == texture || c1 == texture || c2 == texture || depth == texture;
+        }
+    }
+
+    private final List<Target> targets = new ArrayList<>();
+    /** Framebuffers keyed by their attachments. */
+    private final Map<AttachmentKey, Integer> framebuffers = new HashMap<>();
+    private long frame = 0;
+
+    /**
+     * Returns an idle texture of the given format and size, marked in use.
+     */
+    public int acquire(int width, int height, int internalFormat)
+    {
+        for(Target target : targets)
+        {
+            if(!target.inUse && target.width == width && target.height == height && target.internalFormat == internalFormat)
+            {
+                target.inUse = true;
+                target.lastUsedFrame = frame;
+                return target.texture;
+            }
+        }
+        int texture = glCreateTextures(GL_TEXTURE_2D);
+        glTextureStorage2D(texture, 1, internalFormat, width, height);
+        glTextureParameteri(texture, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+        glTextureParameteri(texture, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+        glTextureParameteri(texture, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        glTextureParameteri(texture, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        Target target = new Target(texture, width, height, internalFormat);
+        target.inUse = true;
+        target.lastUsedFrame = frame;
+        targets.add(target);
+        return texture;
+    }
+
+    /**
+     * Makes a texture returned by {@link #acquire} available again. Commands already issued with it
+     * still see its old contents, since GL runs them in order.
+     */
+    public void release(int texture)
+    {
+        for(Target target : targets)
+        {
+            if(target.texture == texture)
+            {
+                target.inUse = false;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns a framebuffer with the given attachments, creating it on first use.
+     *
+     * @param color0 the texture at color attachment 0, or 0.
+     * @param color1 the texture at color attachment 1, or 0.
+     * @param depth  the depth texture, or 0.
+     * @return the framebuffer handle.
+     */
+    public int getFramebuffer(int color0, int color1, int depth)
+    {
+        return getFramebuffer(color0, color1, 0, depth);
+    }
+
+    /**
+     * Returns a framebuffer with the given attachments, creating it on first use. Color attachments
+     * are used in order; a 0 ends them.
+     *
+     * @param color0 the texture at color attachment 0, or 0.
+     * @param color1 the texture at color attachment 1, or 0.
+     * @param color2 the texture at color attachment 2, or 0.
+     * @param depth  the depth texture, or 0.
+     * @return the framebuffer handle.
+     */
+    public int getFramebuffer(int color0, int color1, int color2, int depth)
+    {
+        AttachmentKey key = new AttachmentKey(color0, color1, color2, depth);
+        Integer fbo = framebuffers.get(key);
+        if(fbo != null)
+        {
+            return fbo;
+        }
+        int framebuffer = glCreateFramebuffers();
+        int[] colors = {color0, color1, color2};
+        int colorCount = 0;
+        while(colorCount < colors.length && colors[colorCount] != 0)
+        {
+            glNamedFramebufferTexture(framebuffer, GL_COLOR_ATTACHMENT0 + colorCount, colors[colorCount], 0);
+            colorCount++;
+        }
+        if(colorCount > 1)
+        {
+            int[] drawBuffers = new int[colorCount];
+            for(int i = 0; i < colorCount; i++)
+            {
+                drawBuffers[i] = GL_COLOR_ATTACHMENT0 + i;
+            }
+            glNamedFramebufferDrawBuffers(framebuffer, drawBuffers);
+        }
+        else if(colorCount == 0)
+        {
+            glNamedFramebufferDrawBuffer(framebuffer, GL_NONE);
+        }
+        if(depth != 0)
+        {
+            glNamedFramebufferTexture(framebuffer, GL_DEPTH_ATTACHMENT, depth, 0);
+        }
+        if(glCheckNamedFramebufferStatus(framebuffer, GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE)
+        {
+            System.err.println("Render graph framebuffer not complete!");
+        }
+        framebuffers.put(key, framebuffer);
+        return framebuffer;
+    }
+
+    /**
+     * Deletes the textures idle for too long, and the framebuffers attaching them.
+     */
+    public void endFrame()
+    {
+        frame++;
+        Iterator<Target> iterator = targets.iterator();
+        while(iterator.hasNext())
+        {
+            Target target = iterator.next();
+            if(!target.inUse && frame - target.lastUsedFrame > EVICT_FRAMES)
+            {
+                deleteFramebuffersOf(target.texture);
+                GLStateCache.deleteTexture(target.texture);
+                iterator.remove();
+            }
+        }
+    }
+
+    private void deleteFramebuffersOf(int texture)
+    {
+        Iterator<Map.Entry<AttachmentKey, Integer>> iterator = framebuffers.entrySet().iterator();
+        while(iterator.hasNext())
+        {
+            Map.Entry<AttachmentKey, Integer> entry = iterator.next();
+            if(entry.getKey().attaches(texture))
+            {
+                GLStateCache.deleteFramebuffer(entry.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of pooled textures, in use or idle.
+     */
+    public int getTextureCount()
+    {
+        return targets.size();
+    }
+
+    /**
+     * Deletes every texture and framebuffer.
+     */
+    public void cleanup()
+    {
+        for(int fbo : framebuffers.values())
+        {
+            GLStateCache.deleteFramebuffer(fbo);
+        }
+        framebuffers.clear();
+        for(Target target : targets)
+        {
+            GLStateCache.deleteTexture(target.texture);
+        }
+        targets.clear();
+    }
+}
@@ -0,0 +1,128 @@
+package engine.rendering;
+
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed pool of threads that records a frame's draws in parallel with the GL thread.
+ * <p>
+ * {@link #run} hands a list of tasks to the workers and works through it on the calling thread as
+ * well, returning once every task has finished. Tasks are taken in list order from a shared counter,
+ * so listing the longest ones first balances the threads best. The workers never touch OpenGL: tasks
+ * only read scene data and write CPU-side memory such as {@link RenderQueue}s and instance staging,
+ * and the GL thread submits the results afterwards.
+ * </p>
+ * <p>
+ * Starting and joining a batch only moves semaphore permits, so a frame does not allocate. Writes
+ * made by a task are visible to the caller once {@code run} returns. An exception thrown by a task is
+ * rethrown on the calling thread after the batch has finished.
+ * </p>
+ */
+public class RenderWorkers
+{
+    private final Thread[] threads;
+    private final Semaphore start = new Semaphore(0);
+    private final Semaphore done = new Semaphore(0);
+    private final AtomicInteger nextTask = new AtomicInteger();
+    private List<? extends Runnable> tasks;
+    private volatile Throwable failure;
+    private volatile boolean shutdown = false;
+
+    /**
+     * Starts the worker threads.
+     *
+     * @param workerCount the number of threads besides the caller of {@link #run}; 0 runs every task on
+     *                    the caller.
+     */
+    public RenderWorkers(int workerCount)
+    {
+        threads = new Thread[workerCount];
+        for(int i = 0; i < workerCount; i++)
+        {
+            threads[i] = new Thread(this::workerLoop, "Render Worker " + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+    }
+
+    /**
+     * Returns the number of threads a batch runs on, including the caller. Work split into this many
+     * tasks keeps every thread busy.
+     */
+    public int getThreadCount()
+    {
+        return threads.length + 1;
+    }
+
+    /**
+     * Runs every task and waits until all have finished.
+     *
+     * @param tasks    the tasks, which must not depend on each other.
+     * @param parallel {@code false} to run them in order on the calling thread, for comparison.
+     */
+    public void run(List<? extends Runnable> tasks, boolean parallel)
+    {
+        if(!parallel || threads.length == 0 || tasks.size() <= 1)
+        {
+            for(int i = 0; i < tasks.size(); i++)
+            {
+                tasks.get(i).run();
+            }
+            return;
+        }
+        this.tasks = tasks;
+        nextTask.set(0);
+        start.release(threads.length);
+        drain();
+        done.acquireUninterruptibly(threads.length);
+        this.tasks = null;
+
+        Throwable thrown = failure;
+        if(thrown != null)
+        {
+            failure = null;
+            throw new RuntimeException("Render worker task failed", thrown);
+        }
+    }
+
+    private void workerLoop()
+    {
+        while(true)
+        {
+            start.acquireUninterruptibly();
+            if(shutdown)
+            {
+                return;
+            }
+            drain();
+            done.release();
+        }
+    }
+
+    private void drain()
+    {
+        List<? extends Runnable> batch = tasks;
+        int task;
+        while((task = nextTask.getAndIncrement()) < batch.size())
+        {
+            try
+            {
+                batch.get(task).run();
+            }
+            catch(Throwable t)
+            {
+                failure = t;
+            }
+        }
+    }
+
+    /**
+     * Stops the worker threads once they are idle.
+     */
+    public void cleanup()
+    {
+        shutdown = true;
+        start.release(threads.length);
+    }
+}
@@ -0,0 +1,60 @@
+package engine.rendering;
+
+import engine.GameObject;
+import engine.Mesh;
+import engine.components.MeshRenderer;
+import engine.meshTypes.MeshGLTF;
+import org.joml.Matrix4f;
+
+/**
+ * A drawable object: a game object's MeshRenderer together with its world transform and world-space
+ * bounds.
+ * <p>
+ * The {@link SceneIndex} keeps one per MeshRenderer and only recomputes it when the object moves. The
+ * renderer culls against these bounds for every view (camera, shadow cascades, point light cube faces)
+ * instead of recomputing them per view.
+ * glTF meshes also carry bounds per submesh, so each submesh is culled on its own.
+ * </p>
+ */
+public class Renderable
+{
+    /** The game object being drawn. */
+    public GameObject gameObject;
+    /** Its renderer. */
+    public MeshRenderer meshRenderer;
+    /** World transform. */
+    public final Matrix4f model = new Matrix4f();
+    /** World-space bounds of the whole mesh. */
+    public final Bounds bounds = new Bounds();
+    /** World-space bounds of each glTF submesh, in submesh order; empty for other meshes. */
+    public Bounds[] subMeshBounds = new Bounds[0];
+
+    /**
+     * Points this renderable at a game object and recomputes its world transform and bounds.
+     *
+     * @param gameObject   the game object.
+     * @param meshRenderer its renderer, whose mesh must not be null.
+     */
+    public void set(GameObject gameObject, MeshRenderer meshRenderer)
+    {
+        this.gameObject = gameObject;
+        this.meshRenderer = meshRenderer;
+        gameObject.transform.getModelMatrix(model);
+        Mesh mesh = meshRenderer.mesh;
+        mesh.getBounds().transform(model, bounds);
+
+        int subMeshCount = mesh instanceof MeshGLTF gltfMesh ? gltfMesh.subMeshes.size() : 0;
+        if(subMeshBounds.length != subMeshCount)
+        {
+            subMeshBounds = new Bounds[subMeshCount];
+            for(int i = 0; i < subMeshCount; i++)
+            {
+                subMeshBounds[i] = new Bounds();
+            }
+        }
+        for(int i = 0; i < subMeshCount; i++)
+        {
+            ((MeshGLTF) mesh).subMeshes.get(i).bounds.transform(model, subMeshBounds[i]);
+        }
+    }
+}
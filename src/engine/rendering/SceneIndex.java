@@ -0,0 +1,394 @@
+package engine.rendering;
+
+import engine.GameObject;
+import engine.Material;
+import engine.Mesh;
+import engine.components.LightDirectional;
+import engine.components.LightPoint;
+import engine.components.MeshRenderer;
+import org.joml.FrustumIntersection;
+import org.joml.Vector3f;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * The spatial index of a scene: every game object with a MeshRenderer or a light, kept in dynamic
+ * bounding volume hierarchies so culling and gameplay queries touch only the objects near the query.
+ * <p>
+ * Meshes and point lights live in separate trees: the renderer culls draws against the mesh tree and
+ * finds the lights reaching a view in the light tree, where each light is boxed by its range sphere.
+ * Directional lights are unbounded, so they are only listed.
+ * </p>
+ * <p>
+ * The index is brought up to date while the transforms are: {@link engine.utils.TransformManager}
+ * calls {@link #beginSync()}, then {@link #sync} for every game object after updating its transform,
+ * then {@link #endSync()}. An object whose transform version, mesh and light range are unchanged
+ * costs a few comparisons; one that moved gets its {@link Renderable} recomputed and its proxies
+ * moved, which only restructures the trees when it leaves its enlarged box. Objects not visited
+ * during a sync were removed from the scene and are dropped from the index.
+ * </p>
+ */
+public class SceneIndex
+{
+    /** Enlargement of mesh boxes in the tree; objects moving less than this stay in place. */
+    private static final float MESH_MARGIN = 0.1f;
+    /** Enlargement of light boxes in the tree. */
+    private static final float LIGHT_MARGIN = 0.5f;
+
+    /**
+     * The indexed state of one game object.
+     */
+    public static class Entry
+    {
+        /** The game object. */
+        public final GameObject gameObject;
+        /** Its renderable, with world transform and bounds; null if it has no mesh to draw. */
+        public Renderable renderable;
+        /** Its point light, or null. */
+        public LightPoint pointLight;
+        /** Its directional light, or null. */
+        public LightDirectional directionalLight;
+        /** Free for callers to mark entries already visited by a query, for example with a frame number. */
+        public int queryStamp = -1;
+
+        private int meshProxy = -1;
+        private int lightProxy = -1;
+        private final Bounds lightBounds = new Bounds();
+        private int version;
+        private Mesh mesh;
+        private Material material;
+        private boolean isStatic;
+        private float range;
+        private int syncStamp;
+
+        private Entry(GameObject gameObject)
+        {
+            this.gameObject = gameObject;
+        }
+    }
+
+    private final DynamicBVH<Entry> meshTree = new DynamicBVH<>(MESH_MARGIN);
+    private final DynamicBVH<Entry> lightTree = new DynamicBVH<>(LIGHT_MARGIN);
+    private final Map<GameObject, Entry> entries = new HashMap<>();
+    private final List<Entry> entryList = new ArrayList<>();
+    // Lights in the order they were first indexed.
+    private final List<LightPoint> pointLights = new ArrayList<>();
+    private final List<LightDirectional> directionalLights = new ArrayList<>();
+
+    private int syncStamp = 0;
+    private int syncedCount;
+    private int queryStamp = 0;
+    /** Bumped whenever a static mesh is added, removed, moved or given another mesh or material. */
+    private int staticVersion = 0;
+
+    /**
+     * Starts a synchronization pass.
+     */
+    public void beginSync()
+    {
+        syncStamp++;
+        syncedCount = 0;
+    }
+
+    /**
+     * Updates the entry of a game object whose global transform is up to date.
+     */
+    public void sync(GameObject gameObject)
+    {
+        MeshRenderer meshRenderer = gameObject.getComponent(MeshRenderer.class);
+        Mesh mesh = meshRenderer != null ? meshRenderer.mesh : null;
+        LightPoint pointLight = gameObject.getComponent(LightPoint.class);
+        LightDirectional directionalLight = gameObject.getComponent(LightDirectional.class);
+        Entry entry = entries.get(gameObject);
+        if(mesh == null && pointLight == null && directionalLight == null)
+        {
+            // Nothing to index; an existing entry lost its components and is dropped by endSync.
+            return;
+        }
+        boolean created = false;
+        if(entry == null)
+        {
+            entry = new Entry(gameObject);
+            entries.put(gameObject, entry);
+            entryList.add(entry);
+            created = true;
+        }
+        entry.syncStamp = syncStamp;
+        syncedCount++;
+
+        int version = gameObject.transform.getVersion();
+        boolean moved = created || entry.version != version;
+        entry.version = version;
+
+        // Mesh proxy.
+        if(mesh == null)
+        {
+            if(entry.meshProxy != -1)
+            {
+                meshTree.destroyProxy(entry.meshProxy);
+                entry.meshProxy = -1;
+            }
+            entry.renderable = null;
+        }
+        else if(moved || entry.mesh != mesh || entry.renderable.meshRenderer != meshRenderer)
+        {
+            if(entry.renderable == null)
+            {
+                entry.renderable = new Renderable();
+            }
+            entry.renderable.set(gameObject, meshRenderer);
+            if(entry.meshProxy == -1)
+            {
+                entry.meshProxy = meshTree.createProxy(entry.renderable.bounds, entry);
+            }
+            else
+            {
+                meshTree.moveProxy(entry.meshProxy, entry.renderable.bounds);
+            }
+        }
+        boolean isStatic = mesh != null && gameObject.isStatic;
+        Material material = meshRenderer != null ? meshRenderer.material : null;
+        if(isStatic != entry.isStatic || (isStatic && (moved || entry.mesh != mesh || entry.material != material)))
+        {
+            staticVersion++;
+        }
+        entry.isStatic = isStatic;
+        entry.material = material;
+        entry.mesh = mesh;
+
+        // Point light proxy, boxed by the light's range.
+        if(pointLight != entry.pointLight)
+        {
+            if(entry.pointLight != null)
+            {
+                pointLights.remove(entry.pointLight);
+            }
+            if(pointLight != null)
+            {
+                pointLights.add(pointLight);
+            }
+        }
+        if(pointLight == null)
+        {
+            if(entry.lightProxy != -1)
+            {
+                lightTree.destroyProxy(entry.lightProxy);
+                entry.lightProxy = -1;
+            }
+        }
+        else
+        {
+            float range = pointLight.getRange();
+            if(moved || entry.lightProxy == -1 || range != entry.range)
+            {
+                Vector3f position = gameObject.transform.globalPosition;
+                Bounds bounds = entry.lightBounds;
+                bounds.center.set(position);
+                bounds.radius = range;
+                bounds.min.set(position).sub(range, range, range);
+                bounds.max.set(position).add(range, range, range);
+                if(entry.lightProxy == -1)
+                {
+                    entry.lightProxy = lightTree.createProxy(bounds, entry);
+                }
+                else
+                {
+                    lightTree.moveProxy(entry.lightProxy, bounds);
+                }
+            }
+            entry.range = range;
+        }
+        entry.pointLight = pointLight;
+
+        if(directionalLight != entry.directionalLight)
+        {
+            if(entry.directionalLight != null)
+            {
+                directionalLights.remove(entry.directionalLight);
+            }
+            if(directionalLight != null)
+            {
+                directionalLights.add(directionalLight);
+            }
+            entry.directionalLight = directionalLight;
+        }
+    }
+
+    /**
+     * Ends a synchronization pass, dropping every entry that was not synced since {@link #beginSync()}.
+     */
+    public void endSync()
+    {
+        if(syncedCount == entryList.size())
+        {
+            return;
+        }
+        for(int i = entryList.size() - 1; i >= 0; i--)
+        {
+            Entry entry = entryList.get(i);
+            if(entry.syncStamp == syncStamp)
+            {
+                continue;
+            }
+            if(entry.meshProxy != -1)
+            {
+                meshTree.destroyProxy(entry.meshProxy);
+            }
+            if(entry.lightProxy != -1)
+            {
+                lightTree.destroyProxy(entry.lightProxy);
+            }
+            if(entry.pointLight != null)
+            {
+                pointLights.remove(entry.pointLight);
+            }
+            if(entry.directionalLight != null)
+            {
+                directionalLights.remove(entry.directionalLight);
+            }
+            if(entry.isStatic)
+            {
+                staticVersion++;
+            }
+            entries.remove(entry.gameObject);
+            // Order of the entry list does not matter; swap the last entry into the hole.
+            Entry last = entryList.remove(entryList.size() - 1);
+            if(last != entry)
+            {
+                entryList.set(i, last);
+            }
+        }
+    }
+
+    /**
+     * Returns every point light in the scene, in the order they were added.
+     */
+    public List<LightPoint> getPointLights()
+    {
+        return pointLights;
+    }
+
+    /**
+     * Returns every directional light in the scene, in the order they were added.
+     */
+    public List<LightDirectional> getDirectionalLights()
+    {
+        return directionalLights;
+    }
+
+    /**
+     * Returns the entry of a game object, or null if it is not indexed.
+     */
+    public Entry getEntry(GameObject gameObject)
+    {
+        return entries.get(gameObject);
+    }
+
+    /**
+     * Returns the number of indexed game objects.
+     */
+    public int size()
+    {
+        return entryList.size();
+    }
+
+    /**
+     * Returns a number that changes whenever the set of static meshes changes: one is added or removed,
+     * or one moves or gets another mesh or material. Static batches built for one value stay valid
+     * until it changes.
+     */
+    public int getStaticVersion()
+    {
+        return staticVersion;
+    }
+
+    /**
+     * Reports every entry with a mesh whose game object is marked {@link GameObject#isStatic}.
+     */
+    public void queryStaticMeshes(Consumer<Entry> visitor)
+    {
+        for(Entry entry : entryList)
+        {
+            if(entry.isStatic)
+            {
+                visitor.accept(entry);
+            }
+        }
+    }
+
+    /**
+     * Returns a stamp not used by any earlier query, for marking entries in {@link Entry#queryStamp}.
+     */
+    public int nextQueryStamp()
+    {
+        return ++queryStamp;
+    }
+
+    /**
+     * Reports every entry with a mesh whose bounds intersect a frustum.
+     */
+    public void queryMeshes(FrustumIntersection frustum, Consumer<Entry> visitor)
+    {
+        meshTree.queryFrustum(frustum, visitor);
+    }
+
+    /**
+     * Reports every entry with a mesh whose bounds intersect a sphere.
+     */
+    public void queryMeshes(Vector3f center, float radius, Consumer<Entry> visitor)
+    {
+        meshTree.querySphere(center, radius, visitor);
+    }
+
+    /**
+     * Reports every entry with a mesh whose bounds overlap a box.
+     */
+    public void queryMeshesInBox(Vector3f min, Vector3f max, Consumer<Entry> visitor)
+    {
+        meshTree.queryBox(min, max, visitor);
+    }
+
+    /**
+     * Reports every entry with a mesh whose bounds are hit by a ray within a distance.
+     */
+    public void queryMeshesOnRay(Vector3f origin, Vector3f direction, float maxDistance, Consumer<Entry> visitor)
+    {
+        meshTree.queryRay(origin, direction, maxDistance, visitor);
+    }
+
+    /**
+     * Reports every entry with a point light whose range intersects a frustum.
+     */
+    public void queryPointLights(FrustumIntersection frustum, Consumer<Entry> visitor)
+    {
+        lightTree.queryFrustum(frustum, visitor);
+    }
+
+    /**
+     * Reports every entry with a point light whose range box intersects a sphere.
+     */
+    public void queryPointLights(Vector3f center, float radius, Consumer<Entry> visitor)
+    {
+        lightTree.querySphere(center, radius, visitor);
+    }
+
+    /**
+     * Reports every entry with a point light whose range box overlaps a box.
+     */
+    public void queryPointLightsInBox(Vector3f min, Vector3f max, Consumer<Entry> visitor)
+    {
+        lightTree.queryBox(min, max, visitor);
+    }
+
+    /**
+     * Reports every entry with a point light whose range box is hit by a ray within a distance.
+     */
+    public void queryPointLightsOnRay(Vector3f origin, Vector3f direction, float maxDistance, Consumer<Entry> visitor)
+    {
+        lightTree.queryRay(origin, direction, maxDistance, visitor);
+    }
+}
@@ -0,0 +1,259 @@
+package engine.rendering;
+
+import engine.Material;
+import engine.Mesh;
+import engine.meshTypes.MeshGLTF;
+import engine.meshTypes.MeshStaticBatch;
+import org.joml.Matrix3f;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges the meshes of static game objects that share a material into world-space batches, so level
+ * geometry is drawn with a few draws and no per-object instance data.
+ * <p>
+ * Every mesh, or glTF submesh, of an object marked {@link engine.GameObject#isStatic} is grouped by its
+ * material and by the cell of a world grid of {@link #cellSize} that its bounds' center falls in. Each
+ * group becomes one {@link MeshStaticBatch} whose vertices are pre-transformed, with the union of its
+ * members' bounds, so culling still rejects the batches out of view. Groups larger than
+ * {@link VisibilityBuffer#MAX_TRIANGLES} are split so the visibility path can still address them.
+ * </p>
+ * <p>
+ * The batches are rebuilt only when the scene index reports that the static set changed, which for
+ * level geometry means once after loading.
+ * </p>
+ */
+public class StaticBatcher
+{
+    /** Edge of the world grid cells that split batches of one material, in world units. */
+    public static float cellSize = 32.0f;
+
+    /** Floats per vertex: position, normal and uv. */
+    private static final int VERTEX_FLOATS = 8;
+    /** Cell coordinates are packed into 21 bits each. */
+    private static final int CELL_BITS = 21;
+
+    /**
+     * A merged batch, drawn like a mesh with an identity model matrix.
+     */
+    public static class Batch
+    {
+        /** The material shared by every merged mesh. */
+        public final Material material;
+        /** The merged world-space geometry. */
+        public final MeshStaticBatch mesh;
+
+        Batch(Material material, MeshStaticBatch mesh)
+        {
+            this.material = material;
+            this.mesh = mesh;
+        }
+
+        /**
+         * Returns the world-space bounds of the batch.
+         */
+        public Bounds getBounds()
+        {
+            return mesh.getBounds();
+        }
+    }
+
+    /**
+     * A range of a static mesh's indices and its world transform, waiting to be merged.
+     */
+    private static class Piece
+    {
+        final Mesh mesh;
+        final Matrix4f model;
+        final int indexOffset;
+        final int indexCount;
+        final Bounds bounds;
+
+        Piece(Mesh mesh, Matrix4f model, int indexOffset, int indexCount, Bounds bounds)
+        {
+            this.mesh = mesh;
+            this.model = model;
+            this.indexOffset = indexOffset;
+            this.indexCount = indexCount;
+            this.bounds = bounds;
+        }
+    }
+
+    private final List<Batch> batches = new ArrayList<>();
+    private SceneIndex builtIndex;
+    private int builtVersion;
+
+    private final Matrix3f normalMatrix = new Matrix3f();
+    private final Vector3f scratchVector = new Vector3f();
+
+    /**
+     * Rebuilds the batches if the static set of the index changed since the last build, or if the index
+     * is not the one they were built for.
+     *
+     * @return {@code true} if the batches were rebuilt.
+     */
+    public boolean update(SceneIndex index)
+    {
+        if(index == builtIndex && index.getStaticVersion() == builtVersion)
+        {
+            return false;
+        }
+        builtIndex = index;
+        builtVersion = index.getStaticVersion();
+        rebuild(index);
+        return true;
+    }
+
+    /**
+     * Returns the batches of the last build.
+     */
+    public List<Batch> getBatches()
+    {
+        return batches;
+    }
+
+    private void rebuild(SceneIndex index)
+    {
+        cleanup();
+
+        Map<Material, Map<Long, List<Piece>>> groups = new IdentityHashMap<>();
+        index.queryStaticMeshes(entry ->
+        {
+            Renderable renderable = entry.renderable;
+            Mesh mesh = renderable.meshRenderer.mesh;
+            if(mesh instanceof MeshGLTF gltfMesh && !gltfMesh.subMeshes.isEmpty())
+            {
+                for(int i = 0; i < gltfMesh.subMeshes.size(); i++)
+                {
+                    MeshGLTF.SubMesh subMesh = gltfMesh.subMeshes.get(i);
+                    addPiece(groups, subMesh.material, new Piece(mesh, renderable.model, subMesh.indexOffset, subMesh.indexCount, renderable.subMeshBounds[i]));
+                }
+            }
+            else
+            {
+                addPiece(groups, renderable.meshRenderer.material, new Piece(mesh, renderable.model, 0, mesh.getIndexCount(), renderable.bounds));
+            }
+        });
+
+        for(Map.Entry<Material, Map<Long, List<Piece>>> materialGroups : groups.entrySet())
+        {
+            for(List<Piece> pieces : materialGroups.getValue().values())
+            {
+                // Split the group where it would exceed the triangles a visibility value can address.
+                int start = 0;
+                while(start < pieces.size())
+                {
+                    int end = start;
+                    long triangles = 0;
+                    while(end < pieces.size() && (end == start || triangles + pieces.get(end).indexCount / 3 <= VisibilityBuffer.MAX_TRIANGLES))
+                    {
+                        triangles += pieces.get(end).indexCount / 3;
+                        end++;
+                    }
+                    batches.add(new Batch(materialGroups.getKey(), merge(pieces.subList(start, end), materialGroups.getKey())));
+                    start = end;
+                }
+            }
+        }
+    }
+
+    private void addPiece(Map<Material, Map<Long, List<Piece>>> groups, Material material, Piece piece)
+    {
+        Vector3f center = piece.bounds.center;
+        long cell = packCell(center.x) << (2 * CELL_BITS) | packCell(center.y) << CELL_BITS | packCell(center.z);
+        groups.computeIfAbsent(material, key -> new HashMap<>()).computeIfAbsent(cell, key -> new ArrayList<>()).add(piece);
+    }
+
+    private static long packCell(float coordinate)
+    {
+        return (long) Math.floor(coordinate / cellSize) & ((1L << CELL_BITS) - 1);
+    }
+
+    /**
+     * Merges pieces into one world-space mesh. Each piece copies the span of vertices its indices
+     * reference, which for glTF submeshes is the submesh's own contiguous range.
+     */
+    private MeshStaticBatch merge(List<Piece> pieces, Material material)
+    {
+        int vertexCount = 0;
+        int indexCount = 0;
+        int[] spanStarts = new int[pieces.size()];
+        int[] spanEnds = new int[pieces.size()];
+        for(int p = 0; p < pieces.size(); p++)
+        {
+            Piece piece = pieces.get(p);
+            int[] indices = piece.mesh.getIndices();
+            int first = Integer.MAX_VALUE;
+            int last = -1;
+            for(int i = piece.indexOffset; i < piece.indexOffset + piece.indexCount; i++)
+            {
+                first = Math.min(first, indices[i]);
+                last = Math.max(last, indices[i]);
+            }
+            spanStarts[p] = first;
+            spanEnds[p] = last;
+            vertexCount += Math.max(last - first + 1, 0);
+            indexCount += piece.indexCount;
+        }
+
+        float[] vertexData = new float[vertexCount * VERTEX_FLOATS];
+        int[] mergedIndices = new int[indexCount];
+        Bounds bounds = new Bounds().set(pieces.get(0).bounds);
+        int vertexBase = 0;
+        int indexBase = 0;
+        for(int p = 0; p < pieces.size(); p++)
+        {
+            Piece piece = pieces.get(p);
+            float[] source = piece.mesh.getVertexData();
+            int[] indices = piece.mesh.getIndices();
+            int first = spanStarts[p];
+            int last = spanEnds[p];
+            for(int i = piece.indexOffset; i < piece.indexOffset + piece.indexCount; i++)
+            {
+                mergedIndices[indexBase++] = vertexBase + indices[i] - first;
+            }
+
+            // Normals take the inverse transpose, so non-uniform scale keeps them perpendicular.
+            piece.model.normal(normalMatrix);
+            for(int v = first; v <= last; v++)
+            {
+                int src = v * VERTEX_FLOATS;
+                int dst = (vertexBase + v - first) * VERTEX_FLOATS;
+                piece.model.transformPosition(scratchVector.set(source[src], source[src + 1], source[src + 2]));
+                vertexData[dst] = scratchVector.x;
+                vertexData[dst + 1] = scratchVector.y;
+                vertexData[dst + 2] = scratchVector.z;
+                scratchVector.set(source[src + 3], source[src + 4], source[src + 5]).mul(normalMatrix).normalize();
+                vertexData[dst + 3] = scratchVector.x;
+                vertexData[dst + 4] = scratchVector.y;
+                vertexData[dst + 5] = scratchVector.z;
+                vertexData[dst + 6] = source[src + 6];
+                vertexData[dst + 7] = source[src + 7];
+            }
+            vertexBase += Math.max(last - first + 1, 0);
+            bounds.union(piece.bounds);
+        }
+        MeshStaticBatch batch = new MeshStaticBatch("Static Batch (material " + material.id + ")", vertexData, mergedIndices, bounds);
+        // Upload now, on the GL thread; the renderer's recording workers only read arena ranges.
+        batch.initMesh();
+        return batch;
+    }
+
+    /**
+     * Releases the merged meshes.
+     */
+    public void cleanup()
+    {
+        for(Batch batch : batches)
+        {
+            batch.mesh.cleanup();
+        }
+        batches.clear();
+    }
+}
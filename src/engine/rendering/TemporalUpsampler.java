@@ -0,0 +1,210 @@
+package engine.rendering;
+
+import engine.utils.ShaderProgram;
+import org.joml.Matrix4f;
+import org.joml.Vector2f;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.GL_CLAMP_TO_EDGE;
+import static org.lwjgl.opengl.GL15.GL_WRITE_ONLY;
+import static org.lwjgl.opengl.GL30.GL_RGBA16F;
+import static org.lwjgl.opengl.GL42.*;
+import static org.lwjgl.opengl.GL43.glDispatchCompute;
+import static org.lwjgl.opengl.GL45.*;
+
+/**
+ * Temporal upsampling: accumulates the scene over frames into a full-resolution image, so a scene
+ * shaded at a lower resolution still resolves close to native detail.
+ * <p>
+ * Every frame the camera projection is shifted by a sub-pixel {@link #getJitter jitter} that walks a
+ * Halton (2, 3) sequence, so successive frames sample different points within each pixel. The resolve
+ * pass (temporalUpsample.comp) finds, for each output pixel, the previous frame's result along the
+ * pixel's motion vector, clamps it to the colors of the current frame's 3x3 neighbourhood to reject
+ * what has been disoccluded or changed, and blends in the current sample, weighted by how close it
+ * landed to the pixel. Motion vectors come from the scene passes, which compare each vertex with the
+ * previous frame's model matrix and camera; pixels with nothing drawn move with the camera.
+ * </p>
+ * <p>
+ * The result alternates between two RGBA16F textures at the output size; the one written last frame
+ * is read as history. The scene color is tone mapped already, so blending it directly is stable.
+ * </p>
+ */
+public class TemporalUpsampler
+{
+    /** Frames before the jitter sequence repeats; enough samples per pixel down to half resolution. */
+    public static final int JITTER_PHASES = 16;
+    /** Work group edge of the resolve shader. */
+    private static final int GROUP_SIZE = 8;
+    /** Texture units the resolve samples; above those of the scene shaders and the occlusion culler. */
+    private static final int COLOR_UNIT = 15;
+    private static final int DEPTH_UNIT = 16;
+    private static final int MOTION_UNIT = 17;
+    private static final int HISTORY_UNIT = 18;
+    private static final int OUTPUT_IMAGE_UNIT = 0;
+
+    private final ShaderProgram resolveShader;
+    private final ShaderProgram.UniformVec2 resolveJitter;
+    private final ShaderProgram.UniformMat4 resolveInverseViewProjection;
+    private final ShaderProgram.UniformInt resolveHistoryValid;
+
+    private final int width;
+    private final int height;
+    private final int[] targets = new int[2];
+    /** The target written this frame; the other one holds the history. */
+    private int current = 0;
+    private boolean historyValid = false;
+
+    private int frame = 0;
+    private final Vector2f jitter = new Vector2f();
+
+    /**
+     * Creates the output targets and the resolve program.
+     *
+     * @param resolveSource the source of the resolve compute shader.
+     * @param width         the output width in pixels.
+     * @param height        the output height in pixels.
+     */
+    public TemporalUpsampler(String resolveSource, int width, int height)
+    {
+        resolveShader = new ShaderProgram(resolveSource);
+        resolveJitter = resolveShader.vec2("uJitter");
+        resolveInverseViewProjection = resolveShader.mat4("uInverseViewProjection");
+        resolveHistoryValid = resolveShader.int1("uHistoryValid");
+        resolveShader.use();
+        resolveShader.setUniform("sceneColor", COLOR_UNIT);
+        resolveShader.setUniform("sceneDepth", DEPTH_UNIT);
+        resolveShader.setUniform("sceneMotion", MOTION_UNIT);
+        resolveShader.setUniform("history", HISTORY_UNIT);
+        GLStateCache.useProgram(0);
+
+        this.width = width;
+        this.height = height;
+        for(int i = 0; i < 2; i++)
+        {
+            targets[i] = glCreateTextures(GL_TEXTURE_2D);
+            glTextureStorage2D(targets[i], 1, GL_RGBA16F, width, height);
+            // The history is read between texels along motion vectors.
+            glTextureParameteri(targets[i], GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+            glTextureParameteri(targets[i], GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+            glTextureParameteri(targets[i], GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+            glTextureParameteri(targets[i], GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        }
+    }
+
+    /**
+     * Advances the jitter sequence. Call once per frame, before the projection is built.
+     */
+    public void beginFrame()
+    {
+        frame++;
+        int phase = frame % JITTER_PHASES + 1;
+        jitter.set(halton(phase, 2) - 0.5f, halton(phase, 3) - 0.5f);
+        current ^= 1;
+    }
+
+    private static float halton(int index, int base)
+    {
+        float result = 0.0f;
+        float fraction = 1.0f;
+        while(index > 0)
+        {
+            fraction /= base;
+            result += fraction * (index % base);
+            index /= base;
+        }
+        return result;
+    }
+
+    /**
+     * Returns this frame's jitter in render pixels, each component within half a pixel of 0.
+     */
+    public Vector2f getJitter()
+    {
+        return jitter;
+    }
+
+    /**
+     * Shifts a projection by this frame's jitter, for a target of the given size.
+     *
+     * @param projection   the projection to jitter, modified in place.
+     * @param renderWidth  the width of the target it renders to.
+     * @param renderHeight the height of the target it renders to.
+     * @return {@code projection}, for chaining.
+     */
+    public Matrix4f jitter(Matrix4f projection, int renderWidth, int renderHeight)
+    {
+        // A translation in clip space before the perspective divide moves the image by a constant
+        // number of pixels at every depth.
+        return projection.translateLocal(2.0f * jitter.x / renderWidth, 2.0f * jitter.y / renderHeight, 0.0f);
+    }
+
+    /**
+     * Returns the texture the previous frame's result is in.
+     */
+    public int getHistoryTexture()
+    {
+        return targets[current ^ 1];
+    }
+
+    /**
+     * Returns the texture this frame's result is written to.
+     */
+    public int getOutputTexture()
+    {
+        return targets[current];
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * Writes this frame's result. The camera block must be bound.
+     *
+     * @param colorTexture                  the jittered scene color.
+     * @param depthTexture                  the scene depth, of the same size.
+     * @param motionTexture                 the scene's motion vectors, of the same size.
+     * @param inverseViewProjection         the inverse of the camera's unjittered view-projection.
+     */
+    public void resolve(int colorTexture, int depthTexture, int motionTexture, Matrix4f inverseViewProjection)
+    {
+        resolveShader.use();
+        resolveJitter.set(jitter);
+        resolveInverseViewProjection.set(inverseViewProjection);
+        resolveHistoryValid.set(historyValid ? 1 : 0);
+        GLStateCache.bindTexture(COLOR_UNIT, GL_TEXTURE_2D, colorTexture);
+        GLStateCache.bindTexture(DEPTH_UNIT, GL_TEXTURE_2D, depthTexture);
+        GLStateCache.bindTexture(MOTION_UNIT, GL_TEXTURE_2D, motionTexture);
+        GLStateCache.bindTexture(HISTORY_UNIT, GL_TEXTURE_2D, getHistoryTexture());
+        glBindImageTexture(OUTPUT_IMAGE_UNIT, getOutputTexture(), 0, false, 0, GL_WRITE_ONLY, GL_RGBA16F);
+        glDispatchCompute((width + GROUP_SIZE - 1) / GROUP_SIZE, (height + GROUP_SIZE - 1) / GROUP_SIZE, 1);
+        // The result is sampled as the next frame's history, after this frame's graph has ended.
+        glMemoryBarrier(GL_TEXTURE_FETCH_BARRIER_BIT);
+        historyValid = true;
+    }
+
+    /**
+     * Discards the history, so the next frame starts accumulating anew. Call when the previous frame
+     * does not describe the scene, for example after switching scenes or turning upsampling back on.
+     */
+    public void invalidate()
+    {
+        historyValid = false;
+    }
+
+    /**
+     * Releases the targets and the program.
+     */
+    public void cleanup()
+    {
+        GLStateCache.deleteTexture(targets[0]);
+        GLStateCache.deleteTexture(targets[1]);
+        resolveShader.cleanup();
+    }
+}
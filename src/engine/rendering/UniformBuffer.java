@@ -0,0 +1,155 @@
+package engine.rendering;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.lwjgl.opengl.GL11.glGetInteger;
+import static org.lwjgl.opengl.GL30.glBindBufferRange;
+import static org.lwjgl.opengl.GL31.GL_UNIFORM_BUFFER;
+import static org.lwjgl.opengl.GL31.GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT;
+
+/**
+ * A uniform block with a fixed size, written with std140 layout rules once per frame.
+ * <p>
+ * The contents are written straight into the mapped {@link FrameRingBuffer}: {@link #begin()} reserves
+ * the frame's copy of the block, the {@code put} methods append members in declaration order (every
+ * member written here is 16-byte aligned, so std140 needs no extra padding between them),
+ * {@link #seek(int)} jumps to an explicit offset, and {@link #upload()} binds the copy. Bytes not
+ * written this frame are undefined.
+ * </p>
+ * <p>
+ * Blocks are bound with {@code layout(std140, binding = N)} in the shaders, so the buffer only has to
+ * be attached to its binding point; no per-program block index lookups are needed.
+ * </p>
+ */
+public class UniformBuffer
+{
+    private final FrameRingBuffer ring;
+    private final int binding;
+    private final int size;
+    private final int offsetAlignment;
+    /** A view of the ring's mapped memory with its own write position, replaced when the ring grows. */
+    private ByteBuffer data;
+    /** The ring range holding this frame's copy of the block. */
+    private int gpuBuffer = 0;
+    private long gpuOffset = 0;
+
+    /**
+     * Creates a uniform block written to the given ring.
+     *
+     * @param ring    the ring each frame's copy of the block is written to.
+     * @param binding the uniform buffer binding point, matching the block's {@code binding} layout qualifier.
+     * @param size    the size of the block in bytes.
+     */
+    public UniformBuffer(FrameRingBuffer ring, int binding, int size)
+    {
+        this.ring = ring;
+        this.binding = binding;
+        this.size = size;
+        offsetAlignment = glGetInteger(GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT);
+    }
+
+    /**
+     * Reserves this frame's copy of the block so it can be written from offset 0.
+     *
+     * @return this buffer.
+     */
+    public UniformBuffer begin()
+    {
+        gpuOffset = ring.allocate(size, offsetAlignment);
+        if(data == null || gpuBuffer != ring.getBuffer())
+        {
+            data = ring.getMapped().duplicate().order(ByteOrder.nativeOrder());
+            gpuBuffer = ring.getBuffer();
+        }
+        data.limit((int) (gpuOffset + size)).position((int) gpuOffset);
+        return this;
+    }
+
+    /**
+     * Moves the write position to a byte offset, for example the start of an array element.
+     *
+     * @param offset the byte offset.
+     * @return this buffer.
+     */
+    public UniformBuffer seek(int offset)
+    {
+        data.position((int) gpuOffset + offset);
+        return this;
+    }
+
+    /**
+     * Writes a {@code mat4}.
+     */
+    public UniformBuffer putMat4(Matrix4f matrix)
+    {
+        matrix.get(data.position(), data);
+        data.position(data.position() + 16 * Float.BYTES);
+        return this;
+    }
+
+    /**
+     * Writes a {@code vec4}.
+     */
+    public UniformBuffer putVec4(float x, float y, float z, float w)
+    {
+        data.putFloat(x).putFloat(y).putFloat(z).putFloat(w);
+        return this;
+    }
+
+    /**
+     * Writes a {@code vec4} made of a {@code vec3} and an extra component packed into {@code w}.
+     */
+    public UniformBuffer putVec4(Vector3f xyz, float w)
+    {
+        return putVec4(xyz.x, xyz.y, xyz.z, w);
+    }
+
+    /**
+     * Writes an {@code ivec4}.
+     */
+    public UniformBuffer putIVec4(int x, int y, int z, int w)
+    {
+        data.putInt(x).putInt(y).putInt(z).putInt(w);
+        return this;
+    }
+
+    /**
+     * Attaches the block written since {@link #begin()} to its binding point. The writes went straight
+     * to coherently mapped memory, so nothing is copied.
+     */
+    public void upload()
+    {
+        bind();
+    }
+
+    /**
+     * Attaches the whole block to its binding point.
+     */
+    public void bind()
+    {
+        glBindBufferRange(GL_UNIFORM_BUFFER, binding, gpuBuffer, gpuOffset, size);
+    }
+
+    /**
+     * Attaches part of the block to its binding point, so one block can hold an entry per light.
+     *
+     * @param offset the byte offset, a multiple of {@code GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT}.
+     * @param length the size of the entry in bytes.
+     */
+    public void bindRange(long offset, long length)
+    {
+        glBindBufferRange(GL_UNIFORM_BUFFER, binding, gpuBuffer, gpuOffset + offset, length);
+    }
+
+    /**
+     * Returns the size of the buffer in bytes.
+     */
+    public int size()
+    {
+        return size;
+    }
+}
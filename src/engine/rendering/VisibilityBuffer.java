@@ -0,0 +1,226 @@
+package engine.rendering;
+
+import engine.Material;
+import engine.utils.ShaderProgram;
+import org.joml.Matrix4f;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL42.*;
+import static org.lwjgl.opengl.GL43.*;
+
+/**
+ * The visibility buffer path: a geometry pass that stores only which triangle covers each pixel, and a
+ * compute pass that rebuilds that triangle's attributes and shades every covered pixel exactly once.
+ * <p>
+ * Each pixel holds one 32-bit value: the draw's index in the opaque queue plus one in the high bits and
+ * the triangle within the draw in the low {@link #TRIANGLE_BITS}; 0 means nothing was drawn. The
+ * resolve pass pulls the triangle's vertices from the {@link MeshArena}, redoes the vertex shader's
+ * displacement and transform, and interpolates with barycentrics of the view ray through the pixel.
+ * Materials are the same as in the other paths and bound by the renderer, one dispatch per material
+ * of the frame; each dispatch skips the pixels of other materials.
+ * </p>
+ * <p>
+ * The packing limits a frame to {@link #MAX_DRAWS} opaque draws of at most {@link #MAX_TRIANGLES}
+ * triangles each; {@link #prepare} reports when a frame does not fit.
+ * </p>
+ */
+public class VisibilityBuffer
+{
+    /** Shader storage binding of the per-draw geometry and material slots. */
+    public static final int DRAW_INFO_BINDING = 11;
+    /** Low bits of a visibility value holding the triangle; must match the shaders. */
+    public static final int TRIANGLE_BITS = 20;
+    public static final int MAX_TRIANGLES = 1 << TRIANGLE_BITS;
+    public static final int MAX_DRAWS = (1 << (32 - TRIANGLE_BITS)) - 1;
+    /** Work group edge of the resolve shader. */
+    private static final int GROUP_SIZE = 8;
+    /** Image units of the visibility target, and of the scene color and motion the resolve writes. */
+    private static final int VISIBILITY_IMAGE_UNIT = 0;
+    private static final int COLOR_IMAGE_UNIT = 1;
+    private static final int MOTION_IMAGE_UNIT = 2;
+
+    /** Ints per draw: first index, base vertex, material slot and padding. */
+    private static final int DRAW_INFO_INTS = 4;
+
+    private final ShaderProgram resolveShader;
+    private final ShaderProgram.UniformMat4 resolveInverseViewProjection;
+    private final ShaderProgram.UniformInt resolveInstanceBase;
+    private final ShaderProgram.UniformInt resolveMaterialSlot;
+    private final ShaderProgram.UniformInt resolveWriteMotion;
+
+    /** The size of the textures the current resolve covers. */
+    private int resolveWidth;
+    private int resolveHeight;
+
+    private final FrameRingBuffer ring;
+    private final int offsetAlignment;
+    /** CPU-side staging data, allocated off-heap and reused between frames. */
+    private IntBuffer drawInfoData;
+    /** The ring range holding this frame's draw info. */
+    private int drawInfoBuffer = 0;
+    private long drawInfoOffset = 0;
+    private long drawInfoBytes = 0;
+
+    /** The distinct materials of the frame's opaque draws, in slot order. */
+    private final List<Material> materials = new ArrayList<>();
+    private final Map<Material, Integer> materialSlots = new IdentityHashMap<>();
+
+    /**
+     * Creates the resolve program. The visibility target itself is an R32UI texture of the renderer's
+     * frame graph, passed to {@link #clear} and {@link #beginResolve}.
+     *
+     * @param ring          the ring the per-draw data is uploaded to every frame.
+     * @param resolveSource the source of the resolve compute shader.
+     */
+    public VisibilityBuffer(FrameRingBuffer ring, String resolveSource)
+    {
+        this.ring = ring;
+        offsetAlignment = glGetInteger(GL_SHADER_STORAGE_BUFFER_OFFSET_ALIGNMENT);
+        resolveShader = new ShaderProgram(resolveSource);
+        resolveInverseViewProjection = resolveShader.mat4("uInverseViewProjection");
+        resolveInstanceBase = resolveShader.int1("uInstanceBase");
+        resolveMaterialSlot = resolveShader.int1("uMaterialSlot");
+        resolveWriteMotion = resolveShader.int1("uWriteMotion");
+
+        drawInfoData = MemoryUtil.memAllocInt(256 * DRAW_INFO_INTS);
+    }
+
+    /**
+     * Returns the resolve program, whose material and lighting sampler units the renderer assigns.
+     */
+    public ShaderProgram getResolveShader()
+    {
+        return resolveShader;
+    }
+
+    /**
+     * Records where every draw of the opaque queue finds its triangles and which material slot it is
+     * shaded with, and copies the result to the frame ring.
+     *
+     * @return {@code false} if the queue has more draws, or a draw more triangles, than a visibility
+     * value can address; nothing is uploaded then.
+     */
+    public boolean prepare(RenderQueue opaqueQueue)
+    {
+        materials.clear();
+        materialSlots.clear();
+        int drawCount = opaqueQueue.size();
+        if(drawCount > MAX_DRAWS)
+        {
+            return false;
+        }
+
+        drawInfoData.clear();
+        if(drawInfoData.capacity() < drawCount * DRAW_INFO_INTS)
+        {
+            drawInfoData = MemoryUtil.memRealloc(drawInfoData, drawCount * DRAW_INFO_INTS);
+        }
+        for(int i = 0; i < drawCount; i++)
+        {
+            RenderQueue.Item item = opaqueQueue.getInstance(i);
+            if(item.indexCount / 3 > MAX_TRIANGLES)
+            {
+                return false;
+            }
+            Integer slot = materialSlots.get(item.material);
+            if(slot == null)
+            {
+                slot = materials.size();
+                materials.add(item.material);
+                materialSlots.put(item.material, slot);
+            }
+            drawInfoData.put(item.indexOffset).put(item.baseVertex).put(slot).put(0);
+        }
+        drawInfoData.flip();
+
+        drawInfoBytes = (long) Math.max(drawCount, 1) * DRAW_INFO_INTS * Integer.BYTES;
+        drawInfoOffset = ring.allocate(drawInfoBytes, offsetAlignment);
+        drawInfoBuffer = ring.getBuffer();
+        MemoryUtil.memCopy(MemoryUtil.memAddress(drawInfoData), ring.address(drawInfoOffset), (long) drawCount * DRAW_INFO_INTS * Integer.BYTES);
+        return true;
+    }
+
+    /**
+     * Clears the bound framebuffer, with the visibility target at color attachment 0, to empty pixels
+     * at the far plane.
+     */
+    public void clear()
+    {
+        // Integer targets cannot be cleared with glClear.
+        glClearBufferuiv(GL_COLOR, 0, new int[]{0, 0, 0, 0});
+        glClear(GL_DEPTH_BUFFER_BIT);
+    }
+
+    /**
+     * Returns the number of materials the frame's opaque draws use; slots run from 0 to this count.
+     */
+    public int getMaterialCount()
+    {
+        return materials.size();
+    }
+
+    public Material getMaterial(int slot)
+    {
+        return materials.get(slot);
+    }
+
+    /**
+     * Prepares the resolve: binds the program, the visibility, color and motion images and the
+     * geometry. The instance buffer holding the opaque instances must be bound.
+     *
+     * @param visibilityTexture     the R32UI texture the geometry pass wrote.
+     * @param colorTexture          the RGBA8 texture the shaded pixels are written to.
+     * @param motionTexture         the RG16F texture the pixels' motion vectors are written to, or 0
+     *                              to skip them.
+     * @param width                 the width of both textures in pixels.
+     * @param height                the height of both textures in pixels.
+     * @param instanceBase          the index of the first opaque instance in the instance buffer.
+     * @param inverseViewProjection the inverse of the camera's view-projection matrix.
+     */
+    public void beginResolve(int visibilityTexture, int colorTexture, int motionTexture, int width, int height, int instanceBase, Matrix4f inverseViewProjection)
+    {
+        resolveWidth = width;
+        resolveHeight = height;
+        resolveShader.use();
+        resolveInverseViewProjection.set(inverseViewProjection);
+        resolveInstanceBase.set(instanceBase);
+        glBindImageTexture(VISIBILITY_IMAGE_UNIT, visibilityTexture, 0, false, 0, GL_READ_ONLY, GL_R32UI);
+        glBindImageTexture(COLOR_IMAGE_UNIT, colorTexture, 0, false, 0, GL_WRITE_ONLY, GL_RGBA8);
+        resolveWriteMotion.set(motionTexture != 0 ? 1 : 0);
+        if(motionTexture != 0)
+        {
+            glBindImageTexture(MOTION_IMAGE_UNIT, motionTexture, 0, false, 0, GL_WRITE_ONLY, GL_RG16F);
+        }
+        glBindBufferRange(GL_SHADER_STORAGE_BUFFER, DRAW_INFO_BINDING, drawInfoBuffer, drawInfoOffset, drawInfoBytes);
+        MeshArena.bindStorage();
+    }
+
+    /**
+     * Shades the pixels of the draws using one material slot. That material's textures must be bound.
+     * The stores reach later passes only after a memory barrier, which the render graph issues for the
+     * passes using the color texture.
+     */
+    public void resolve(int materialSlot)
+    {
+        resolveMaterialSlot.set(materialSlot);
+        glDispatchCompute((resolveWidth + GROUP_SIZE - 1) / GROUP_SIZE, (resolveHeight + GROUP_SIZE - 1) / GROUP_SIZE, 1);
+    }
+
+    /**
+     * Releases the staging memory and the program.
+     */
+    public void cleanup()
+    {
+        resolveShader.cleanup();
+        MemoryUtil.memFree(drawInfoData);
+    }
+}
@@ -4,7 +4,9 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.HashSet;
 import java.util.Objects;
+import java.util.Set;
 
 /**
  * The {@code FileUtils} class provides utility methods for file operations,
@@ -71,4 +73,36 @@ public class FileUtils {
             return "";
         }
     }
+    
+    /**
+     * Reads a shader source file and replaces each {@code #include "name"} line with the contents of the
+     * named file, resolved against the including file's directory. Included files may include others;
+     * each file is inserted at most once, so shared headers can be included from several places.
+     *
+     * @param path the path of the shader file.
+     * @return the expanded source, or an empty string if the file cannot be read.
+     */
+    public static String loadShaderSource(String path) {
+        StringBuilder source = new StringBuilder();
+        appendShaderSource(new File(path).getAbsoluteFile(), source, new HashSet<>());
+        return source.toString();
+    }
+    
+    private static void appendShaderSource(File file, StringBuilder source, Set<String> included) {
+        if (!included.add(file.getPath())) return;
+        
+        for (String line : loadFileAsString(file.getPath()).split("\\R", -1)) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("#include")) {
+                int start = trimmed.indexOf('"');
+                int end = trimmed.lastIndexOf('"');
+                if (start >= 0 && end > start) {
+                    appendShaderSource(new File(file.getParentFile(), trimmed.substring(start + 1, end)), source, included);
+                    continue;
+                }
+                System.err.println("Malformed include in " + file.getPath() + ": " + trimmed);
+            }
+            source.append(line).append('\n');
+        }
+    }
 }
@@ -74,6 +74,77 @@ public class Logger {
         System.out.println("=============================");
     }
     
+    /**
+     * Logs occlusion culling statistics of the last rendered frame.
+     *
+     * @param testedDraws      the number of opaque draws tested.
+     * @param culledDraws      the number of opaque draws found hidden.
+     * @param secondPhaseDraws the number of draws only found visible after retesting against the new depth.
+     */
+    public static void logOcclusion(int testedDraws, int culledDraws, int secondPhaseDraws) {
+        System.out.println("===== Occlusion Culling =====");
+        System.out.println("Draws Tested: " + testedDraws);
+        System.out.println("Draws Culled: " + culledDraws);
+        System.out.println("Draws Revealed In Second Phase: " + secondPhaseDraws);
+        System.out.println("=============================");
+    }
+    
+    /**
+     * Logs the per-frame data written to the renderer's frame ring.
+     *
+     * @param waitNanos  the time spent waiting for the GPU to release ring regions since the last report.
+     * @param frameBytes the bytes of per-frame data written by the last frame.
+     */
+    public static void logUploads(long waitNanos, long frameBytes) {
+        System.out.println("===== Frame Uploads =====");
+        System.out.println("Ring Wait Time: " + String.format("%.3f", waitNanos / 1_000_000.0) + " ms");
+        System.out.println("Bytes Per Frame: " + frameBytes);
+        System.out.println("=========================");
+    }
+    
+    /**
+     * Logs the GPU frame time and the resolution the scene renders at.
+     *
+     * @param gpuMillis the GPU time of the most recent measured frame.
+     * @param scale     the render scale relative to the window.
+     */
+    public static void logResolution(float gpuMillis, float scale) {
+        System.out.println("===== Dynamic Resolution =====");
+        System.out.println("GPU Frame Time: " + String.format("%.3f", gpuMillis) + " ms");
+        System.out.println("Render Scale: " + String.format("%.2f", scale));
+        System.out.println("==============================");
+    }
+    
+    /**
+     * Logs how many state changes went through the GL state cache since the last report.
+     *
+     * @param issuedCalls the number of state calls passed on to OpenGL.
+     * @param elidedCalls the number of state calls dropped as redundant.
+     */
+    public static void logGLState(long issuedCalls, long elidedCalls) {
+        System.out.println("===== GL State Cache =====");
+        System.out.println("State Calls Issued: " + issuedCalls);
+        System.out.println("State Calls Elided: " + elidedCalls);
+        System.out.println("==========================");
+    }
+    
+    /**
+     * Logs how evenly frames were paced and how old their input was since the last report.
+     *
+     * @param mode          the frame pacing mode.
+     * @param frameMillis   the average time between frame starts.
+     * @param stdDevMillis  the standard deviation of that time.
+     * @param maxMillis     the longest time between frame starts.
+     * @param latencyMillis the estimated average time from input poll to finished frame.
+     */
+    public static void logPacing(String mode, float frameMillis, float stdDevMillis, float maxMillis, float latencyMillis) {
+        System.out.println("===== Frame Pacing =====");
+        System.out.println("Mode: " + mode);
+        System.out.println("Frame Time: " + String.format("%.3f", frameMillis) + " ms (std dev " + String.format("%.3f", stdDevMillis) + " ms, max " + String.format("%.3f", maxMillis) + " ms)");
+        System.out.println("Estimated Input Latency: " + String.format("%.3f", latencyMillis) + " ms");
+        System.out.println("========================");
+    }
+    
     /**
      * Recursively logs the game object hierarchy with indentation.
      *
@@ -1,18 +1,43 @@
 package engine.utils;
 
+import engine.rendering.GLStateCache;
 import org.joml.Matrix4f;
 import org.joml.Vector2f;
 import org.joml.Vector3f;
 import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
 
 import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.Map;
 
 import static org.lwjgl.opengl.GL20.*;
 import static org.lwjgl.opengl.GL32.*;
+import static org.lwjgl.opengl.GL41.*;
+import static org.lwjgl.opengl.GL43.GL_COMPUTE_SHADER;
 
+/**
+ * A linked GLSL program.
+ * <p>
+ * Every active uniform is queried once after linking, so looking a uniform up never calls
+ * {@code glGetUniformLocation}. Callers that set the same uniform repeatedly should keep a typed handle
+ * (for example {@code UniformMat4 view = program.mat4("view")}); handles remember the last value they
+ * uploaded and skip redundant uploads. The name-based {@code setUniform} methods go through the same
+ * handles, so both styles share one cache.
+ * </p>
+ */
 public class ShaderProgram {
     /** The OpenGL program ID. */
     public final int programId;
+    
+    /** Locations of every active uniform, including each element of uniform arrays. */
+    private final Map<String, Integer> uniformLocations = new HashMap<>();
+    /** Typed handles created so far, by uniform name. */
+    private final Map<String, Uniform> uniformHandles = new HashMap<>();
+    
+    /** Staging memory for matrix uploads, shared by every handle since uploads happen on the GL thread. */
+    private static final FloatBuffer MATRIX_BUFFER = MemoryUtil.memAllocFloat(16);
 
     /**
      * Creates a new shader program from the provided vertex and fragment shader source code.
@@ -41,6 +66,8 @@ public class ShaderProgram {
             throw new RuntimeException("Error linking shader program: " + programLog);
         }
 
+        resolveUniforms();
+
         // Shaders can be detached and deleted after linking.
         glDetachShader(programId, vertexShaderId);
         glDetachShader(programId, fragmentShaderId);
@@ -78,6 +105,8 @@ public class ShaderProgram {
             throw new RuntimeException("Error linking shader program: " + programLog);
         }
 
+        resolveUniforms();
+
         // Shaders can be detached and deleted after linking.
         glDetachShader(programId, vertexShaderId);
         glDetachShader(programId, geometryShaderId);
@@ -87,11 +116,71 @@ public class ShaderProgram {
         glDeleteShader(fragmentShaderId);
     }
 
+    /**
+     * Creates a new compute shader program from the provided compute shader source code.
+     *
+     * @param computeSource the source code for the compute shader.
+     */
+    public ShaderProgram(String computeSource) {
+        int computeShaderId = compileShader(computeSource, GL_COMPUTE_SHADER);
+        programId = glCreateProgram();
+        if (programId == 0) {
+            throw new RuntimeException("Could not create Shader Program");
+        }
+        glAttachShader(programId, computeShaderId);
+        glLinkProgram(programId);
+
+        // Check linking status.
+        int linked = glGetProgrami(programId, GL_LINK_STATUS);
+        String programLog = glGetProgramInfoLog(programId);
+        if (!programLog.isEmpty()) {
+            System.out.println("[ShaderProgram] Program link log:\n" + programLog);
+        }
+        if (linked == 0) {
+            throw new RuntimeException("Error linking shader program: " + programLog);
+        }
+
+        resolveUniforms();
+
+        glDetachShader(programId, computeShaderId);
+        glDeleteShader(computeShaderId);
+    }
+
+    /**
+     * Records the location of every active uniform. Array uniforms are reported once as
+     * {@code name[0]}; each element is stored under its own name, and the bare name maps to element 0.
+     * Members of uniform blocks have no location and are skipped.
+     */
+    private void resolveUniforms() {
+        int count = glGetProgrami(programId, GL_ACTIVE_UNIFORMS);
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer size = stack.mallocInt(1);
+            IntBuffer type = stack.mallocInt(1);
+            for (int i = 0; i < count; i++) {
+                String name = glGetActiveUniform(programId, i, size, type);
+                int location = glGetUniformLocation(programId, name);
+                if (location == -1) {
+                    continue;
+                }
+                if (name.endsWith("[0]")) {
+                    String arrayName = name.substring(0, name.length() - 3);
+                    uniformLocations.put(arrayName, location);
+                    for (int element = 0; element < size.get(0); element++) {
+                        String elementName = arrayName + "[" + element + "]";
+                        uniformLocations.put(elementName, glGetUniformLocation(programId, elementName));
+                    }
+                } else {
+                    uniformLocations.put(name, location);
+                }
+            }
+        }
+    }
+
     /**
      * Compiles a shader of the specified type from source code.
      *
      * @param source the shader source code.
-     * @param type   the type of shader (e.g. {@code GL_VERTEX_SHADER}, {@code GL_GEOMETRY_SHADER} or {@code GL_FRAGMENT_SHADER}).
+     * @param type   the type of shader (e.g. {@code GL_VERTEX_SHADER}, {@code GL_GEOMETRY_SHADER}, {@code GL_FRAGMENT_SHADER} or {@code GL_COMPUTE_SHADER}).
      * @return the shader ID.
      */
     private int compileShader(String source, int type) {
@@ -106,7 +195,8 @@ public class ShaderProgram {
         int compiled = glGetShaderi(shaderId, GL_COMPILE_STATUS);
         String shaderLog = glGetShaderInfoLog(shaderId);
         String shaderType = (type == GL_VERTEX_SHADER) ? "VERTEX" :
-                (type == GL_GEOMETRY_SHADER) ? "GEOMETRY" : "FRAGMENT";
+                (type == GL_GEOMETRY_SHADER) ? "GEOMETRY" :
+                (type == GL_COMPUTE_SHADER) ? "COMPUTE" : "FRAGMENT";
         if (!shaderLog.isEmpty()) {
             System.out.println("[ShaderProgram] " + shaderType + " shader compile log:\n" + shaderLog);
         }
@@ -117,31 +207,83 @@ public class ShaderProgram {
     }
 
     /**
-     * Sets this shader program as the active program.
+     * Sets this shader program as the active program. Does nothing if it already is.
      */
     public void use() {
-        glUseProgram(programId);
+        GLStateCache.useProgram(programId);
     }
 
     /**
      * Detaches the current shader program.
      */
     public void detach() {
-        glUseProgram(0);
+        GLStateCache.useProgram(0);
     }
 
     /**
      * Retrieves the location of a uniform variable in the shader program.
+     * Locations were resolved after linking, so this is a map lookup.
      *
      * @param name the name of the uniform variable.
-     * @return the uniform location.
+     * @return the uniform location, or -1 if the program has no such active uniform.
      */
     public int getUniformLocation(String name) {
-        int location = glGetUniformLocation(programId, name);
-        if (location == -1) {
-            //System.out.println("[ShaderProgram] Warning: Uniform '" + name + "' not found.");
-        }
-        return location;
+        return uniformLocations.getOrDefault(name, -1);
+    }
+
+    /**
+     * Returns the handle of an {@code int} (or sampler) uniform.
+     *
+     * @param name the name of the uniform variable.
+     * @return the handle; setting it is a no-op if the uniform is not active.
+     */
+    public UniformInt int1(String name) {
+        return uniformHandles.get(name) instanceof UniformInt handle ? handle : register(name, new UniformInt(programId, getUniformLocation(name)));
+    }
+
+    /**
+     * Returns the handle of a {@code float} uniform.
+     *
+     * @param name the name of the uniform variable.
+     * @return the handle; setting it is a no-op if the uniform is not active.
+     */
+    public UniformFloat float1(String name) {
+        return uniformHandles.get(name) instanceof UniformFloat handle ? handle : register(name, new UniformFloat(programId, getUniformLocation(name)));
+    }
+
+    /**
+     * Returns the handle of a {@code vec2} uniform.
+     *
+     * @param name the name of the uniform variable.
+     * @return the handle; setting it is a no-op if the uniform is not active.
+     */
+    public UniformVec2 vec2(String name) {
+        return uniformHandles.get(name) instanceof UniformVec2 handle ? handle : register(name, new UniformVec2(programId, getUniformLocation(name)));
+    }
+
+    /**
+     * Returns the handle of a {@code vec3} uniform.
+     *
+     * @param name the name of the uniform variable.
+     * @return the handle; setting it is a no-op if the uniform is not active.
+     */
+    public UniformVec3 vec3(String name) {
+        return uniformHandles.get(name) instanceof UniformVec3 handle ? handle : register(name, new UniformVec3(programId, getUniformLocation(name)));
+    }
+
+    /**
+     * Returns the handle of a {@code mat4} uniform.
+     *
+     * @param name the name of the uniform variable.
+     * @return the handle; setting it is a no-op if the uniform is not active.
+     */
+    public UniformMat4 mat4(String name) {
+        return uniformHandles.get(name) instanceof UniformMat4 handle ? handle : register(name, new UniformMat4(programId, getUniformLocation(name)));
+    }
+
+    private <T extends Uniform> T register(String name, T handle) {
+        uniformHandles.put(name, handle);
+        return handle;
     }
 
     /**
@@ -151,10 +293,7 @@ public class ShaderProgram {
      * @param value the integer value.
      */
     public void setUniform(String name, int value) {
-        int location = getUniformLocation(name);
-        if (location != -1) {
-            glUniform1i(location, value);
-        }
+        int1(name).set(value);
     }
 
     /**
@@ -164,10 +303,7 @@ public class ShaderProgram {
      * @param value the float value.
      */
     public void setUniform(String name, float value) {
-        int location = getUniformLocation(name);
-        if (location != -1) {
-            glUniform1f(location, value);
-        }
+        float1(name).set(value);
     }
 
     /**
@@ -177,10 +313,7 @@ public class ShaderProgram {
      * @param value the {@link Vector3f} value.
      */
     public void setUniform(String name, Vector3f value) {
-        int location = getUniformLocation(name);
-        if (location != -1) {
-            glUniform3f(location, value.x, value.y, value.z);
-        }
+        vec3(name).set(value);
     }
 
     /**
@@ -190,13 +323,7 @@ public class ShaderProgram {
      * @param matrix the {@link Matrix4f} value.
      */
     public void setUniformMat4(String name, Matrix4f matrix) {
-        int location = getUniformLocation(name);
-        if (location != -1) {
-            try (MemoryStack stack = MemoryStack.stackPush()) {
-                FloatBuffer fb = stack.mallocFloat(16);
-                glUniformMatrix4fv(location, false, matrix.get(fb));
-            }
-        }
+        mat4(name).set(matrix);
     }
 
     /**
@@ -206,9 +333,129 @@ public class ShaderProgram {
      * @param value the {@link Vector2f} value.
      */
     public void setUniform(String name, Vector2f value) {
-        int location = getUniformLocation(name);
-        if (location != -1) {
-            glUniform2f(location, value.x, value.y);
+        vec2(name).set(value);
+    }
+
+    /**
+     * A uniform location resolved once, plus the last value uploaded through it.
+     * <p>
+     * Values are written with {@code glProgramUniform*}, so the program does not have to be in use and
+     * the cached value stays valid no matter which program is bound. A handle for a uniform the
+     * program does not use has location -1 and ignores every set.
+     * </p>
+     */
+    public static abstract class Uniform {
+        /** The program the uniform belongs to. */
+        protected final int programId;
+        /** The uniform location, or -1 if it is not active. */
+        public final int location;
+        /** Whether a value has been uploaded yet; until then nothing is skipped. */
+        protected boolean uploaded = false;
+
+        protected Uniform(int programId, int location) {
+            this.programId = programId;
+            this.location = location;
+        }
+
+        /**
+         * Returns whether the program actually uses this uniform.
+         */
+        public boolean isActive() {
+            return location != -1;
+        }
+    }
+
+    /** Handle of an {@code int} or sampler uniform. */
+    public static final class UniformInt extends Uniform {
+        private int value;
+
+        private UniformInt(int programId, int location) {
+            super(programId, location);
+        }
+
+        public void set(int value) {
+            if (location == -1 || (uploaded && this.value == value)) {
+                return;
+            }
+            glProgramUniform1i(programId, location, value);
+            this.value = value;
+            uploaded = true;
+        }
+    }
+
+    /** Handle of a {@code float} uniform. */
+    public static final class UniformFloat extends Uniform {
+        private float value;
+
+        private UniformFloat(int programId, int location) {
+            super(programId, location);
+        }
+
+        public void set(float value) {
+            if (location == -1 || (uploaded && this.value == value)) {
+                return;
+            }
+            glProgramUniform1f(programId, location, value);
+            this.value = value;
+            uploaded = true;
+        }
+    }
+
+    /** Handle of a {@code vec2} uniform. */
+    public static final class UniformVec2 extends Uniform {
+        private final Vector2f value = new Vector2f();
+
+        private UniformVec2(int programId, int location) {
+            super(programId, location);
+        }
+
+        public void set(Vector2f value) {
+            if (location == -1 || (uploaded && this.value.equals(value))) {
+                return;
+            }
+            glProgramUniform2f(programId, location, value.x, value.y);
+            this.value.set(value);
+            uploaded = true;
+        }
+    }
+
+    /** Handle of a {@code vec3} uniform. */
+    public static final class UniformVec3 extends Uniform {
+        private final Vector3f value = new Vector3f();
+
+        private UniformVec3(int programId, int location) {
+            super(programId, location);
+        }
+
+        public void set(Vector3f value) {
+            set(value.x, value.y, value.z);
+        }
+
+        public void set(float x, float y, float z) {
+            if (location == -1 || (uploaded && value.x == x && value.y == y && value.z == z)) {
+                return;
+            }
+            glProgramUniform3f(programId, location, x, y, z);
+            value.set(x, y, z);
+            uploaded = true;
+        }
+    }
+
+    /** Handle of a {@code mat4} uniform. Uploads go through a shared off-heap buffer. */
+    public static final class UniformMat4 extends Uniform {
+        private final Matrix4f value = new Matrix4f();
+
+        private UniformMat4(int programId, int location) {
+            super(programId, location);
+        }
+
+        public void set(Matrix4f matrix) {
+            if (location == -1 || (uploaded && value.equals(matrix))) {
+                return;
+            }
+            glProgramUniformMatrix4fv(programId, location, false, matrix.get(MATRIX_BUFFER));
+            value.set(matrix);
+            uploaded = true;
         }
     }
 
@@ -216,6 +463,6 @@ public class ShaderProgram {
      * Deletes the shader program and releases its OpenGL resources.
      */
     public void cleanup() {
-        glDeleteProgram(programId);
+        GLStateCache.deleteProgram(programId);
     }
 }
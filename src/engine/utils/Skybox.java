@@ -4,6 +4,7 @@ import engine.Component;
 import engine.CubeMapTexture;
 import engine.Engine;
 import engine.Mesh;
+import engine.rendering.GLStateCache;
 import engine.utils.ShaderProgram;
 import engine.utils.Meshes;
 import org.joml.Matrix4f;
@@ -23,6 +24,11 @@ import static org.lwjgl.opengl.GL11.*;
  * </p>
  */
 public class Skybox extends Component {
+    /** Face size of the irradiance maps generated from now on. */
+    public static int irradianceResolution = 32;
+    /** Face size of the base level of the prefiltered maps generated from now on. */
+    public static int prefilterResolution = 128;
+    
     /**
      * The cubemap texture used for the skybox.
      */
@@ -33,18 +39,26 @@ public class Skybox extends Component {
      * Will be generated lazily when first requested.
      */
     private CubeMapTexture irradianceMap = null;
+    private int irradianceMapResolution = 0;
     
     /**
      * The prefiltered environment map for specular IBL.
      * Will be generated lazily when first requested.
      */
     private CubeMapTexture prefilteredMap = null;
+    private int prefilteredMapResolution = 0;
     
     /**
      * The ambient color applied to the skybox lighting.
      */
     private Vector3f ambientColor = new Vector3f(1);
     
+    /**
+     * The cube drawn for the background and the IBL captures, shared by every skybox.
+     * Created on first use, so its geometry is uploaded to the mesh arena once.
+     */
+    private static Mesh cube = null;
+    
     /**
      * Constructs a Skybox component with the specified cubemap texture.
      * <p>
@@ -70,26 +84,38 @@ public class Skybox extends Component {
     
     /**
      * Returns the irradiance map.
-     * If not yet generated, it is created using the provided cubemap texture.
+     * If not yet generated, or generated at another size than {@link #irradianceResolution}, it is
+     * created using the provided cubemap texture.
      *
      * @return the irradiance map.
      */
     public CubeMapTexture getIrradianceMap() {
+        if (irradianceMap != null && irradianceMapResolution != irradianceResolution) {
+            irradianceMap.delete();
+            irradianceMap = null;
+        }
         if (irradianceMap == null) {
             irradianceMap = generateIrradianceMap(cubeMap);
+            irradianceMapResolution = irradianceResolution;
         }
         return irradianceMap;
     }
     
     /**
      * Returns the prefiltered environment map.
-     * If not yet generated, it is created using the provided cubemap texture.
+     * If not yet generated, or generated at another size than {@link #prefilterResolution}, it is
+     * created using the provided cubemap texture.
      *
      * @return the prefiltered environment map.
      */
     public CubeMapTexture getPrefilteredMap() {
+        if (prefilteredMap != null && prefilteredMapResolution != prefilterResolution) {
+            prefilteredMap.delete();
+            prefilteredMap = null;
+        }
         if (prefilteredMap == null) {
             prefilteredMap = generatePrefilteredMap(cubeMap);
+            prefilteredMapResolution = prefilterResolution;
         }
         return prefilteredMap;
     }
@@ -154,8 +180,19 @@ public class Skybox extends Component {
         }
         
         // Render a cube that will be drawn as the background.
-        Mesh cube = Meshes.createSkybox();
-        cube.render();
+        getCube().render();
+    }
+    
+    /**
+     * Returns the shared skybox cube, creating it on first use.
+     *
+     * @return the cube mesh.
+     */
+    private static Mesh getCube() {
+        if (cube == null) {
+            cube = Meshes.createSkybox();
+        }
+        return cube;
     }
     
     /**
@@ -166,8 +203,7 @@ public class Skybox extends Component {
      * @return the generated irradiance cubemap.
      */
     public static CubeMapTexture generateIrradianceMap(CubeMapTexture environmentMap) {
-        // Define resolution for irradiance map.
-        int resolution = 32;
+        int resolution = irradianceResolution;
         // Determine the texture format based on the source.
         boolean isHDR = environmentMap.isHDR();
         int internalFormat = isHDR ? GL30.GL_RGBA16F : GL11.GL_RGBA;
@@ -180,8 +216,8 @@ public class Skybox extends Component {
         // Create and bind framebuffer and renderbuffer.
         int captureFBO = glGenFramebuffers();
         int captureRBO = glGenRenderbuffers();
-        glBindFramebuffer(GL_FRAMEBUFFER, captureFBO);
-        glViewport(0, 0, resolution, resolution);
+        GLStateCache.bindFramebuffer(GL_FRAMEBUFFER, captureFBO);
+        GLStateCache.viewport(0, 0, resolution, resolution);
         glBindRenderbuffer(GL_RENDERBUFFER, captureRBO);
         glRenderbufferStorage(GL_RENDERBUFFER, GL_DEPTH_COMPONENT24, resolution, resolution);
         glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_RENDERBUFFER, captureRBO);
@@ -217,11 +253,14 @@ public class Skybox extends Component {
             irradianceShader.setUniformMat4("view", captureViews[i]);
             irradianceShader.setUniformMat4("projection", captureProjection);
             
-            Mesh cube = Meshes.createSkybox();
-            cube.render();
+            getCube().render();
         }
         
-        glBindFramebuffer(GL_FRAMEBUFFER, 0);
+        GLStateCache.bindFramebuffer(GL_FRAMEBUFFER, 0);
+        // The capture targets and the program are only needed once per environment map.
+        GLStateCache.deleteFramebuffer(captureFBO);
+        glDeleteRenderbuffers(captureRBO);
+        irradianceShader.cleanup();
         return irradianceCube;
     }
     
@@ -234,8 +273,7 @@ public class Skybox extends Component {
      * @return the generated prefiltered cubemap.
      */
     public static CubeMapTexture generatePrefilteredMap(CubeMapTexture environmentMap) {
-        // Define base resolution for the prefiltered map.
-        int baseResolution = 128;
+        int baseResolution = prefilterResolution;
         boolean isHDR = environmentMap.isHDR();
         int internalFormat = isHDR ? GL30.GL_RGBA16F : GL11.GL_RGBA;
         int format = GL11.GL_RGBA;
@@ -247,7 +285,7 @@ public class Skybox extends Component {
         
         int captureFBO = glGenFramebuffers();
         int captureRBO = glGenRenderbuffers();
-        glBindFramebuffer(GL_FRAMEBUFFER, captureFBO);
+        GLStateCache.bindFramebuffer(GL_FRAMEBUFFER, captureFBO);
         
         // Load the prefilter shader.
         ShaderProgram prefilterShader = new ShaderProgram(
@@ -277,7 +315,7 @@ public class Skybox extends Component {
             
             glBindRenderbuffer(GL_RENDERBUFFER, captureRBO);
             glRenderbufferStorage(GL_RENDERBUFFER, GL_DEPTH_COMPONENT24, mipWidth, mipHeight);
-            glViewport(0, 0, mipWidth, mipHeight);
+            GLStateCache.viewport(0, 0, mipWidth, mipHeight);
             
             float roughness = (float) mip / (maxMipLevels - 1);
             prefilterShader.setUniform("roughness", roughness);
@@ -290,12 +328,14 @@ public class Skybox extends Component {
                 prefilterShader.setUniformMat4("view", captureViews[i]);
                 prefilterShader.setUniformMat4("projection", captureProjection);
                 
-                Mesh cube = Meshes.createSkybox();
-                cube.render();
+                getCube().render();
             }
         }
         
-        glBindFramebuffer(GL_FRAMEBUFFER, 0);
+        GLStateCache.bindFramebuffer(GL_FRAMEBUFFER, 0);
+        GLStateCache.deleteFramebuffer(captureFBO);
+        glDeleteRenderbuffers(captureRBO);
+        prefilterShader.cleanup();
         return prefilteredCube;
     }
     
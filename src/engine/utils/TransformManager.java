@@ -1,12 +1,35 @@
 package engine.utils;
 
 import engine.GameObject;
+import engine.Scene;
+import engine.rendering.SceneIndex;
 
 /**
  * The {@code TransformManager} class provides a method to recursively update
  * the global transforms of a game object hierarchy.
  */
 public class TransformManager {
+    /**
+     * Updates the global transforms of every game object in the scene and brings the scene's
+     * spatial index up to date with them.
+     *
+     * @param scene the scene to update.
+     */
+    public static void updateTransforms(Scene scene) {
+        SceneIndex index = scene.getIndex();
+        index.beginSync();
+        updateTransforms(scene.rootGameObject, index);
+        index.endSync();
+    }
+    
+    private static void updateTransforms(GameObject gameObject, SceneIndex index) {
+        gameObject.transform.updateGlobalTransforms();
+        index.sync(gameObject);
+        for (GameObject child : gameObject.children) {
+            updateTransforms(child, index);
+        }
+    }
+    
     /**
      * Recursively updates the global transforms of the given game object and its children.
      *
@@ -1,5 +1,6 @@
 package engine.utils.debug;
 
+import engine.rendering.GLStateCache;
 import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL15;
@@ -27,7 +28,7 @@ public class DebugQuad {
         vao = GL30.glGenVertexArrays();
         vbo = GL15.glGenBuffers();
         
-        GL30.glBindVertexArray(vao);
+        GLStateCache.bindVertexArray(vao);
         GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vbo);
         
         FloatBuffer buffer = BufferUtils.createFloatBuffer(vertices.length);
@@ -42,12 +43,12 @@ public class DebugQuad {
         GL20.glEnableVertexAttribArray(1);
         
         GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
-        GL30.glBindVertexArray(0);
+        GLStateCache.bindVertexArray(0);
     }
     
     public void render() {
-        GL30.glBindVertexArray(vao);
+        GLStateCache.bindVertexArray(vao);
         GL11.glDrawArrays(GL11.GL_TRIANGLES, 0, 6);
-        GL30.glBindVertexArray(0);
+        GLStateCache.bindVertexArray(0);
     }
 }